@@ -0,0 +1,152 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Base of KeyringBackend benchmarks.
+ *
+ * Every operation picks a uniformly random entry out of storeSize pre-populated entries
+ * and either reads or overwrites it, depending on writePercent. Thread count is chosen
+ * on the JMH command line (-t).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class KeyringBackendBenchmark {
+
+    /**
+     * Creates and populates the backend under measurement
+     */
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        m_backend = createBackend();
+        populate(m_backend, storeSize);
+    }
+
+    /**
+     * Releases resources held by the backend under measurement
+     */
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        cleanup(m_backend);
+    }
+
+    /**
+     * Reads or writes one random entry
+     */
+    @Benchmark
+    public Object operation() throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(storeSize);
+
+        if (random.nextInt(100) < writePercent) {
+            write(service(index), account(index), "updated" + index);
+            return null;
+        }
+
+        return read(service(index), account(index));
+    }
+
+    /**
+     * Creates the backend under measurement
+     */
+    protected abstract KeyringBackend createBackend() throws Exception;
+
+    /**
+     * Stores initial entries to backend. Backends whose setPassword is too slow to be
+     * called storeSize times should override this method.
+     *
+     * @param backend   Backend to be populated
+     * @param size      Number of entries
+     */
+    protected void populate(KeyringBackend backend, int size) throws Exception {
+        for (int i = 0; i < size; i++) {
+            backend.setPassword(service(i), account(i), password(i));
+        }
+    }
+
+    /**
+     * Releases resources held by backend
+     *
+     * @param backend   Backend to be cleaned up
+     */
+    protected void cleanup(KeyringBackend backend) throws Exception {
+        // to be overrode
+    }
+
+    /**
+     * Reads one entry
+     */
+    protected Object read(String service, String account) throws Exception {
+        return m_backend.getPassword(service, account);
+    }
+
+    /**
+     * Writes one entry
+     */
+    protected void write(String service, String account, String password) throws Exception {
+        m_backend.setPassword(service, account, password);
+    }
+
+    /**
+     * Returns service name of i-th entry
+     */
+    protected static String service(int index) {
+        return "service" + index;
+    }
+
+    /**
+     * Returns account name of i-th entry
+     */
+    protected static String account(int index) {
+        return "account" + (index % 16);
+    }
+
+    /**
+     * Returns initial password of i-th entry
+     */
+    protected static String password(int index) {
+        return "password" + index;
+    }
+
+    /**
+     * Number of entries stored before measurement
+     */
+    @Param({ "10", "1000", "100000", "1000000" })
+    public int storeSize;
+
+    /**
+     * Percentage of operations which are writes
+     */
+    @Param({ "0", "10", "50", "100" })
+    public int writePercent;
+
+    /**
+     * Backend under measurement
+     */
+    protected KeyringBackend m_backend;
+
+} // class KeyringBackendBenchmark
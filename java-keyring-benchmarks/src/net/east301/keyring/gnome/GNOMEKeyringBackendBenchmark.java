@@ -0,0 +1,44 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import java.io.File;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendBenchmark;
+import net.east301.keyring.store.StoreFormat;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmark of GNOMEKeyringBackend on InMemoryGNOMEKeyring, which measures
+ * the item ID map and its cache without the GNOME Keyring daemon.
+ */
+public class GNOMEKeyringBackendBenchmark extends KeyringBackendBenchmark {
+
+    @Override
+    protected KeyringBackend createBackend() throws Exception {
+        File keyStore = File.createTempFile("keystore", ".keystore");
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend(new InMemoryGNOMEKeyring());
+        backend.setKeyStorePath(keyStore.getPath());
+        backend.setStoreFormat(StoreFormat.valueOf(storeFormat));
+        backend.setup();
+        return backend;
+    }
+
+    @Override
+    protected void cleanup(KeyringBackend backend) {
+        new File(backend.getKeyStorePath()).delete();
+        new File(((GNOMEKeyringBackend)backend).getLockPath()).delete();
+    }
+
+    /**
+     * Format of the map file
+     */
+    @Param({ "LOG_STRUCTURED", "MAPPED_HASH" })
+    public String storeFormat;
+
+} // class GNOMEKeyringBackendBenchmark
@@ -0,0 +1,58 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.east301.keyring.util.NativeResourceTracker;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * GNOMEKeyring which keeps items in memory, so that benchmarks measure
+ * GNOMEKeyringBackend itself rather than the keyring daemon
+ */
+class InMemoryGNOMEKeyring implements GNOMEKeyring {
+
+    @Override
+    public String getSecret(int id, NativeResourceTracker.Scope scope) {
+        return m_secrets.get(id);
+    }
+
+    @Override
+    public Integer findNetworkPassword(String service, String account, NativeResourceTracker.Scope scope) {
+        return m_ids.get(new ServiceAccountKey(service, account));
+    }
+
+    @Override
+    public int setNetworkPassword(String service, String account, String password) {
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+
+        Integer id = m_ids.get(key);
+        if (id == null) {
+            Integer created = m_nextId.getAndIncrement();
+            id = m_ids.putIfAbsent(key, created);
+            if (id == null) { id = created; }
+        }
+        m_secrets.put(id, password);
+
+        return id;
+    }
+
+    /**
+     * { Item ID => secret }
+     */
+    private final ConcurrentHashMap<Integer, String> m_secrets = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * { Service and account => item ID }
+     */
+    private final ConcurrentHashMap<ServiceAccountKey, Integer> m_ids =
+            new ConcurrentHashMap<ServiceAccountKey, Integer>();
+
+    private final AtomicInteger m_nextId = new AtomicInteger(1);
+
+} // class InMemoryGNOMEKeyring
@@ -0,0 +1,94 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.util.HashMap;
+import java.util.Map;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.LockException;
+
+/**
+ * Copy of the original UncryptedMemoryBackend which scans a HashMap keyed by String[]
+ * under a single monitor. Kept only as a baseline for UncryptedMemoryBackendBenchmark.
+ */
+class LegacyUncryptedMemoryBackend extends KeyringBackend {
+
+    @Override
+    public boolean isSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean isKeyStorePathRequired() {
+        return false;
+    }
+
+    @Override
+    public String getPassword(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        synchronized (m_store) {
+            //
+            for (Map.Entry<String[], String> entries : m_store.entrySet()) {
+                String[] serviceAndAccount = entries.getKey();
+
+                if (serviceAndAccount[0].equals(service) && serviceAndAccount[1].equals(account)) {
+                    return entries.getValue();
+                }
+            }
+
+            //
+            throw new PasswordRetrievalException(
+                    "Password related to the specified service and account is not found");
+        } // synchronized
+    }
+
+    @Override
+    public void setPassword(String service, String account, String password)
+            throws LockException, PasswordSaveException {
+
+        synchronized (m_store) {
+            //
+            String[] targetKey = null;
+
+            for (Map.Entry<String[], String> entries : m_store.entrySet()) {
+                String[] serviceAndAccount = entries.getKey();
+
+                if (serviceAndAccount[0].equals(service) && serviceAndAccount[1].equals(account)) {
+                    targetKey = serviceAndAccount;
+                    break;
+                }
+            }
+
+            //
+            if (targetKey == null) { targetKey = new String[] { service, account }; }
+            m_store.put(targetKey, password);
+        } // synchronized
+    }
+
+    /**
+     * Stores an entry without searching for an existing one
+     */
+    void putDirectly(String service, String account, String password) {
+        synchronized (m_store) {
+            m_store.put(new String[] { service, account }, password);
+        }
+    }
+
+    @Override
+    public String getID() {
+        return "LegacyUncryptedMemory";
+    }
+
+    /**
+     * Password container
+     */
+    private final HashMap<String[], String> m_store = new HashMap<String[], String>();
+
+} // class LegacyUncryptedMemoryBackend
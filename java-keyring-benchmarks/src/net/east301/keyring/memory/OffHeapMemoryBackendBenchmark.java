@@ -0,0 +1,71 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Compares OffHeapMemoryBackend against UncryptedMemoryBackend.
+ *
+ * Besides the operation benchmark, fullGc measures a full collection with the
+ * populated backend live, and the heap used by the populated backend is printed
+ * once per trial.
+ */
+public class OffHeapMemoryBackendBenchmark extends KeyringBackendBenchmark {
+
+    /**
+     * Runs a full collection, whose pause grows with the number of live heap objects
+     */
+    @Benchmark
+    public void fullGc() {
+        System.gc();
+    }
+
+    @Override
+    protected KeyringBackend createBackend() {
+        return "heap".equals(implementation)
+                ? new UncryptedMemoryBackend()
+                : new OffHeapMemoryBackend();
+    }
+
+    @Override
+    protected void populate(KeyringBackend backend, int size) throws Exception {
+        long before = usedHeap();
+        super.populate(backend, size);
+        long after = usedHeap();
+
+        System.out.println(implementation + ": " + size + " entries use "
+                + (after - before) / 1024 + " KiB of heap");
+    }
+
+    @Override
+    protected void cleanup(KeyringBackend backend) throws Exception {
+        backend.close();
+    }
+
+    /**
+     * Returns heap usage after a full collection
+     */
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        memory.gc();
+
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * "heap" for UncryptedMemoryBackend, "offheap" for OffHeapMemoryBackend
+     */
+    @Param({ "heap", "offheap" })
+    public String implementation;
+
+} // class OffHeapMemoryBackendBenchmark
@@ -0,0 +1,44 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendBenchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Compares UncryptedMemoryBackend against the original linear-scan implementation
+ */
+public class UncryptedMemoryBackendBenchmark extends KeyringBackendBenchmark {
+
+    @Override
+    protected KeyringBackend createBackend() {
+        return "legacy".equals(implementation)
+                ? new LegacyUncryptedMemoryBackend()
+                : new UncryptedMemoryBackend();
+    }
+
+    @Override
+    protected void populate(KeyringBackend backend, int size) throws Exception {
+        if (backend instanceof LegacyUncryptedMemoryBackend) {
+            // setPassword of the legacy backend is O(n), bypass it
+            LegacyUncryptedMemoryBackend legacy = (LegacyUncryptedMemoryBackend)backend;
+            for (int i = 0; i < size; i++) {
+                legacy.putDirectly(service(i), account(i), password(i));
+            }
+        } else {
+            super.populate(backend, size);
+        }
+    }
+
+    /**
+     * "legacy" for the original String[]-keyed linear scan, "current" for UncryptedMemoryBackend
+     */
+    @Param({ "legacy", "current" })
+    public String implementation;
+
+} // class UncryptedMemoryBackendBenchmark
@@ -0,0 +1,168 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.util.ServiceAccountKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares saving and loading a whole key store through RecordCodec against
+ * ObjectOutputStream/ObjectInputStream, which earlier versions used.
+ *
+ * The payload is the GNOME Keyring item ID map: "service/account" to Integer for
+ * serialization, and service/account to a 4-byte value for the codec. Both write
+ * to and read from memory, so file I/O is not measured. Run with -prof gc to
+ * compare allocation rates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordCodecBenchmark {
+
+    /**
+     * Builds the entries and their encoded forms
+     */
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        m_map = new HashMap<String, Integer>();
+        m_entries = new HashMap<ServiceAccountKey, byte[]>();
+
+        for (int i = 0; i < entryCount; i++) {
+            String service = "service" + i;
+            String account = "account" + (i % 16);
+
+            m_map.put(service + "/" + account, i);
+            m_entries.put(new ServiceAccountKey(service, account), ByteBuffer.allocate(4).putInt(i).array());
+        }
+
+        m_serialized = serializationSave().toByteArray();
+        m_encoded = codecSave().toByteArray();
+    }
+
+    /**
+     * Writes the map by ObjectOutputStream
+     */
+    @Benchmark
+    public ByteArrayOutputStream serializationSave() throws Exception {
+        m_output.reset();
+
+        ObjectOutputStream fout = new ObjectOutputStream(m_output);
+        fout.writeObject(m_map);
+        fout.close();
+
+        return m_output;
+    }
+
+    /**
+     * Writes the entries by RecordCodec
+     */
+    @Benchmark
+    public ByteArrayOutputStream codecSave() {
+        m_output.reset();
+
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : m_entries.entrySet()) {
+            ByteBuffer record = m_codec.encode(entry.getKey(), entry.getValue());
+            m_output.write(record.array(), record.arrayOffset() + record.position(), record.remaining());
+        }
+
+        return m_output;
+    }
+
+    /**
+     * Reads the map by ObjectInputStream
+     */
+    @Benchmark
+    public Object serializationLoad() throws Exception {
+        ObjectInputStream fin = new ObjectInputStream(new ByteArrayInputStream(m_serialized));
+        try {
+            return fin.readObject();
+        } finally {
+            fin.close();
+        }
+    }
+
+    /**
+     * Reads the entries by Records.decode
+     */
+    @Benchmark
+    public Object codecLoad() {
+        Map<ServiceAccountKey, byte[]> entries = new HashMap<ServiceAccountKey, byte[]>(entryCount * 2);
+        ByteBuffer buffer = ByteBuffer.wrap(m_encoded);
+
+        int offset = 0;
+        while (offset < m_encoded.length) {
+            Records.Record record = Records.decode(buffer, offset, m_encoded.length);
+
+            byte[] value = new byte[record.valueLength];
+            System.arraycopy(m_encoded, offset + record.valueOffset, value, 0, value.length);
+            entries.put(record.key, value);
+
+            offset += record.length;
+        }
+
+        return entries;
+    }
+
+    /**
+     * Number of entries in the key store
+     */
+    @Param({ "10", "1000", "100000" })
+    public int entryCount;
+
+    /**
+     * Payload for serialization
+     */
+    private HashMap<String, Integer> m_map;
+
+    /**
+     * Payload for the codec
+     */
+    private HashMap<ServiceAccountKey, byte[]> m_entries;
+
+    /**
+     * m_map written by ObjectOutputStream
+     */
+    private byte[] m_serialized;
+
+    /**
+     * m_entries written by RecordCodec
+     */
+    private byte[] m_encoded;
+
+    /**
+     * Codec under measurement
+     */
+    private final RecordCodec m_codec = new RecordCodec();
+
+    /**
+     * Output of save benchmarks, reused across invocations
+     */
+    private final ByteArrayOutputStream m_output = new ByteArrayOutputStream();
+
+} // class RecordCodecBenchmark
@@ -0,0 +1,113 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.concurrent.TimeUnit;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.ptr.PointerByReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-call overhead of JNA interface mapping, which the native
+ * bindings used before, against direct mapping, and of allocating an out
+ * parameter holder per call against reusing NativeReferences.
+ *
+ * The C library stands in for the keyring libraries, so that the benchmark runs
+ * on any platform: abs measures a bare call, and strtol one with a pointer out
+ * parameter. Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NativeCallBenchmark {
+
+    /**
+     * Loads the C library both ways
+     */
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        m_library = (InterfaceMapped)Native.loadLibrary(Platform.C_LIBRARY_NAME, InterfaceMapped.class);
+        Native.register(DirectMapped.class, Platform.C_LIBRARY_NAME);
+    }
+
+    @Benchmark
+    public int interfaceCall() {
+        return m_library.abs(-42);
+    }
+
+    @Benchmark
+    public int directCall() {
+        return DirectMapped.abs(-42);
+    }
+
+    @Benchmark
+    public NativeLong interfaceNewHolder() {
+        return m_library.strtol(NUMBER, new PointerByReference(), 10);
+    }
+
+    @Benchmark
+    public NativeLong directNewHolder() {
+        return DirectMapped.strtol(NUMBER, new PointerByReference(), 10);
+    }
+
+    @Benchmark
+    public NativeLong directReusedHolder() {
+        return DirectMapped.strtol(NUMBER, NativeReferences.pointer(), 10);
+    }
+
+    /**
+     * C library by interface mapping
+     */
+    public interface InterfaceMapped extends Library {
+
+        int abs(int j);
+
+        NativeLong strtol(String nptr, PointerByReference endptr, int base);
+
+    } // interface InterfaceMapped
+
+    /**
+     * C library by direct mapping
+     */
+    public static final class DirectMapped {
+
+        static native int abs(int j);
+
+        static native NativeLong strtol(String nptr, PointerByReference endptr, int base);
+
+        private DirectMapped() {
+        }
+
+    } // class DirectMapped
+
+    /**
+     * Input of strtol
+     */
+    private static final String NUMBER = "42";
+
+    /**
+     * C library by interface mapping
+     */
+    private InterfaceMapped m_library;
+
+} // class NativeCallBenchmark
@@ -0,0 +1,87 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.windows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendBenchmark;
+import net.east301.keyring.store.StoreFormat;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmark of the file based key store of WindowsDPAPIBackend.
+ * The DPAPI step is replaced by an identity transform so that this runs on any platform.
+ */
+public class WindowsDPAPIBackendBenchmark extends KeyringBackendBenchmark {
+
+    @Override
+    protected KeyringBackend createBackend() throws Exception {
+        File keyStore = File.createTempFile("keystore", ".keystore");
+
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend();
+        backend.setKeyStorePath(keyStore.getPath());
+        backend.setStoreFormat(StoreFormat.valueOf(storeFormat));
+        return backend;
+    }
+
+    /**
+     * Writes entries in the legacy serialized format and lets the backend migrate them,
+     * which is much faster than storeSize calls of setPassword
+     */
+    @Override
+    protected void populate(KeyringBackend backend, int size) throws Exception {
+        PasswordEntry[] entries = new PasswordEntry[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = new PasswordEntry(service(i), account(i), password(i).getBytes("UTF-8"));
+        }
+
+        ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(backend.getKeyStorePath()));
+        try {
+            fout.writeObject(entries);
+        } finally {
+            fout.close();
+        }
+
+        backend.getPassword(service(0), account(0));
+    }
+
+    @Override
+    protected void cleanup(KeyringBackend backend) {
+        new File(backend.getKeyStorePath()).delete();
+        new File(((WindowsDPAPIBackend)backend).getLockPath()).delete();
+    }
+
+    /**
+     * Format of the key store file
+     */
+    @Param({ "LOG_STRUCTURED", "MAPPED_HASH" })
+    public String storeFormat;
+
+    /**
+     * WindowsDPAPIBackend without DPAPI
+     */
+    static class StubbedDPAPIBackend extends WindowsDPAPIBackend {
+
+        StubbedDPAPIBackend() {
+            super(new DataProtector() {
+                @Override
+                public byte[] protect(byte[] data) {
+                    return data.clone();
+                }
+
+                @Override
+                public byte[] unprotect(byte[] data) {
+                    return data.clone();
+                }
+            });
+        }
+
+    } // class StubbedDPAPIBackend
+
+} // class WindowsDPAPIBackendBenchmark
@@ -0,0 +1,35 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+/**
+ * Capabilities a keyring backend declares through its KeyringBackendProvider
+ */
+public enum BackendCapability {
+
+    /**
+     * Passwords survive the end of the process
+     */
+    PERSISTENT,
+
+    /**
+     * Passwords are encrypted at rest
+     */
+    ENCRYPTED,
+
+    /**
+     * getPasswords/setPasswords handle a batch in one round trip instead of one per password
+     */
+    BATCH,
+
+    /**
+     * The backend has a non-blocking native API, so asynchronous calls do not need
+     * a thread of KeyringExecutor while they wait
+     */
+    ASYNC_NATIVE
+
+} // enum BackendCapability
@@ -0,0 +1,88 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of checking whether a keyring backend can be used in this JVM.
+ * Each backend is probed at most once per JVM; see Keyring.getBackendProbes.
+ */
+public final class BackendProbe {
+
+    /**
+     * Initializes an instance of BackendProbe
+     *
+     * @param name          Backend name
+     * @param supported     True when the backend can be used
+     * @param durationNanos Time spent in the probe, in nanoseconds
+     * @param reason        Why the backend cannot be used, or null
+     */
+    BackendProbe(String name, boolean supported, long durationNanos, String reason) {
+        m_name = name;
+        m_supported = supported;
+        m_durationNanos = durationNanos;
+        m_reason = reason;
+    }
+
+    /**
+     * Returns backend name
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Returns true when the backend can be used
+     */
+    public boolean isSupported() {
+        return m_supported;
+    }
+
+    /**
+     * Returns time spent in the probe
+     *
+     * @param unit  Unit of the returned value
+     */
+    public long getDuration(TimeUnit unit) {
+        return unit.convert(m_durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns why the backend cannot be used, or null when it is supported
+     */
+    public String getReason() {
+        return m_reason;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %s (%.3f ms)", m_name,
+                m_supported ? "supported" : "not supported, " + m_reason, m_durationNanos / 1e6);
+    }
+
+    /**
+     * Backend name
+     */
+    private final String m_name;
+
+    /**
+     * True when the backend can be used
+     */
+    private final boolean m_supported;
+
+    /**
+     * Time spent in the probe, in nanoseconds
+     */
+    private final long m_durationNanos;
+
+    /**
+     * Why the backend cannot be used
+     */
+    private final String m_reason;
+
+} // class BackendProbe
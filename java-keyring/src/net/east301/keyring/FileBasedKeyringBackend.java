@@ -0,0 +1,253 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.store.Durability;
+import net.east301.keyring.store.LegacyStoreReader;
+import net.east301.keyring.store.RecordStore;
+import net.east301.keyring.store.ShardedStore;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.FileBasedLock;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.LockStatistics;
+
+/**
+ * Base of keyring backends which keep their data in the file at key store path
+ */
+public abstract class FileBasedKeyringBackend extends KeyringBackend {
+
+    /**
+     * Initializes an instance of FileBasedKeyringBackend
+     *
+     * @param storeFormat   Format of newly created key store files
+     */
+    protected FileBasedKeyringBackend(StoreFormat storeFormat) {
+        m_storeFormat = storeFormat;
+    }
+
+    /**
+     * Returns true if the backend directory uses some file to store passwords
+     */
+    @Override
+    public boolean isKeyStorePathRequired() {
+        return true;
+    }
+
+    /**
+     * Returns path to a file for lock
+     */
+    public String getLockPath() {
+        return m_keyStorePath + ".lock";
+    }
+
+    /**
+     * Returns maximum time a key store operation waits for the lock
+     *
+     * @param unit  Unit of the returned value
+     *
+     * @return  Lock timeout, or a negative value when operations wait as long as it takes
+     */
+    public synchronized long getLockTimeout(TimeUnit unit) {
+        return m_lockTimeoutNanos < 0 ? -1 : unit.convert(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets maximum time a key store operation waits for the lock.
+     * An operation which cannot obtain the lock in time fails with LockTimeoutException.
+     *
+     * @param timeout   Maximum time to wait, or a negative value to wait as long as it takes
+     * @param unit      Unit of timeout
+     */
+    public synchronized void setLockTimeout(long timeout, TimeUnit unit) {
+        m_lockTimeoutNanos = timeout < 0 ? -1 : unit.toNanos(timeout);
+
+        if (m_store != null) {
+            m_store.setLockTimeout(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Returns how far writes to the key store are flushed before they return
+     */
+    public synchronized Durability getDurability() {
+        return m_durability;
+    }
+
+    /**
+     * Sets how far writes to the key store are flushed before they return.
+     * The default is Durability.FSYNC.
+     *
+     * @param durability    Durability level
+     */
+    public synchronized void setDurability(Durability durability) {
+        if (durability == null) {
+            throw new NullPointerException("durability");
+        }
+
+        m_durability = durability;
+
+        if (m_store != null) {
+            m_store.setDurability(durability);
+        }
+    }
+
+    /**
+     * Returns statistics of the locks of the key store obtained by this JVM
+     */
+    public LockStatistics getLockStatistics() {
+        return FileBasedLock.getStatistics(getLockPath());
+    }
+
+    /**
+     * Returns format of newly created key store files
+     */
+    public StoreFormat getStoreFormat() {
+        return m_storeFormat;
+    }
+
+    /**
+     * Sets format of newly created key store files.
+     * Existing key store files are always read in the format they were written in.
+     *
+     * @param storeFormat   Key store file format
+     */
+    public synchronized void setStoreFormat(StoreFormat storeFormat) {
+        m_storeFormat = storeFormat;
+    }
+
+    /**
+     * Returns number of shard files of sharded key stores, see StoreFormat.SHARDED
+     */
+    public synchronized int getShardCount() {
+        return m_shardCount;
+    }
+
+    /**
+     * Sets number of shard files of sharded key stores, see StoreFormat.SHARDED.
+     * A newly created key store gets this many shards, and an existing sharded key store
+     * is resharded online; other threads and processes wait until its entries are copied.
+     *
+     * @param shardCount    Number of shards
+     *
+     * @throws PasswordSaveException    Thrown when the key store could not be resharded
+     */
+    public void setShardCount(int shardCount) throws LockException, PasswordSaveException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+
+        RecordStore store;
+        synchronized (this) {
+            m_shardCount = shardCount;
+            if (m_keyStorePath == null) { return; }
+
+            try {
+                store = getStore();
+            } catch (IOException ex) {
+                throw new PasswordSaveException("Failed to read key store file");
+            }
+        }
+
+        //
+        if (store instanceof ShardedStore) {
+            try {
+                ((ShardedStore)store).setInitialShardCount(shardCount);
+                ((ShardedStore)store).reshard(shardCount);
+            } catch (IOException ex) {
+                throw new PasswordSaveException("Failed to reshard key store file");
+            }
+        }
+    }
+
+    /**
+     * Returns change stamp of the key store file, see RecordStore.getForeignChangeStamp
+     */
+    @Override
+    public long getChangeStamp() throws PasswordRetrievalException {
+        if (m_keyStorePath == null) { return 0; }
+
+        try {
+            return getStore().getForeignChangeStamp();
+        } catch (IOException ex) {
+            throw new PasswordRetrievalException("Failed to read key store file");
+        }
+    }
+
+    /**
+     * Closes the key store file and its lock file
+     */
+    @Override
+    public synchronized void close() {
+        if (m_store != null) { m_store.close(); }
+    }
+
+    /**
+     * Returns the store of current key store path
+     *
+     * @throws IOException  Thrown when key store path is not set or the file cannot be read
+     */
+    protected synchronized RecordStore getStore() throws IOException {
+        if (m_keyStorePath == null) {
+            throw new IOException("Path to key store is not specified");
+        }
+
+        if (m_store == null || !m_store.getPath().equals(m_keyStorePath)) {
+            if (m_store != null) { m_store.close(); }
+
+            StoreFormat format = StoreFormat.detect(m_keyStorePath);
+            if (format == null) { format = m_storeFormat; }
+
+            m_store = format.open(m_keyStorePath, getLockPath());
+            m_store.setLegacyReader(getLegacyReader());
+            m_store.setLockTimeout(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            m_store.setDurability(m_durability);
+
+            if (m_store instanceof ShardedStore) {
+                ((ShardedStore)m_store).setInitialShardCount(m_shardCount);
+            }
+        }
+
+        return m_store;
+    }
+
+    /**
+     * Returns a reader of key store files written by earlier versions of the backend
+     *
+     * @return  Legacy format reader, or null when there is no legacy format
+     */
+    protected LegacyStoreReader getLegacyReader() {
+        return null;
+    }
+
+    /**
+     * Format of newly created key store files
+     */
+    private StoreFormat m_storeFormat;
+
+    /**
+     * Maximum time to wait for the lock, in nanoseconds, or -1 to wait as long as it takes
+     */
+    private long m_lockTimeoutNanos = -1;
+
+    /**
+     * How far writes to the key store are flushed
+     */
+    private Durability m_durability = Durability.FSYNC;
+
+    /**
+     * Number of shard files of sharded key stores
+     */
+    private int m_shardCount = ShardedStore.DEFAULT_SHARD_COUNT;
+
+    /**
+     * Key store of current key store path
+     */
+    private RecordStore m_store;
+
+} // class FileBasedKeyringBackend
@@ -6,7 +6,21 @@
 
 package net.east301.keyring;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.SecretCodec;
+import net.east301.keyring.util.ServiceAccountKey;
 
 /**
  * Keyring
@@ -29,13 +43,70 @@ public class Keyring {
         return new Keyring(KeyringBackendFactory.create(backendType));
     }
 
+    /**
+     * Creates an instance of Keyring with the most preferred backend which has
+     * all specified capabilities
+     *
+     * @param required  Required capabilities
+     */
+    public static Keyring create(Set<BackendCapability> required) throws BackendNotSupportedException {
+        return new Keyring(KeyringBackendFactory.create(required));
+    }
+
+    /**
+     * Creates an instance of Keyring which caches passwords
+     *
+     * @param cache Cache of passwords
+     */
+    public static Keyring create(PasswordCache cache) throws BackendNotSupportedException {
+        return new Keyring(KeyringBackendFactory.create(), cache);
+    }
+
+    /**
+     * Creates an instance of Keyring with specified backend, which caches passwords
+     *
+     * @param backendType   Backend type
+     * @param cache         Cache of passwords
+     */
+    public static Keyring create(String backendType, PasswordCache cache)
+            throws BackendNotSupportedException {
+
+        return new Keyring(KeyringBackendFactory.create(backendType), cache);
+    }
+
+    /**
+     * Returns providers of registered backends, in order of priority
+     */
+    public static List<KeyringBackendProvider> getBackendProviders() {
+        return KeyringBackendFactory.getProviders();
+    }
+
+    /**
+     * Returns results of backend probes done by create methods in this JVM,
+     * in order of preference. Each backend is probed once per JVM.
+     */
+    public static List<BackendProbe> getBackendProbes() {
+        return KeyringBackendFactory.getProbes();
+    }
+
     /**
      * Initializes an instance of Keyring
      *
      * @param backend   Keyring backend instance
      */
     private Keyring(KeyringBackend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * Initializes an instance of Keyring
+     *
+     * @param backend   Keyring backend instance
+     * @param cache     Cache of passwords, or null
+     */
+    private Keyring(KeyringBackend backend, PasswordCache cache) {
         m_backend = backend;
+        m_cache = cache;
     }
 
     /**
@@ -45,6 +116,34 @@ public class Keyring {
         return m_backend;
     }
 
+    /**
+     * Returns cache of passwords, or null when passwords are not cached
+     */
+    public PasswordCache getCache() {
+        return m_cache;
+    }
+
+    /**
+     * Returns executor which runs asynchronous calls
+     */
+    public KeyringExecutor getExecutor() {
+        return m_executor;
+    }
+
+    /**
+     * Sets executor which runs asynchronous calls.
+     * KeyringExecutor.getDefault() is used unless another one is set.
+     *
+     * @param executor  Executor
+     */
+    public void setExecutor(KeyringExecutor executor) {
+        if (executor == null) {
+            throw new NullPointerException("executor");
+        }
+
+        m_executor = executor;
+    }
+
     /**
      * Gets path to key store
      * (Proxy method of KeyringBackend.getKeyStorePath)
@@ -61,6 +160,73 @@ public class Keyring {
      */
     public void setKeyStorePath(String path) {
         m_backend.setKeyStorePath(path);
+
+        if (m_cache != null) {
+            m_cache.clear();
+        }
+    }
+
+    /**
+     * Turns on write-behind mode, in which setPassword and setPasswords only buffer
+     * passwords and return; a background thread saves them to the backend in batches.
+     * Buffered passwords are returned by getPassword at once. Call flush or close to
+     * make sure they are saved; passwords still buffered when the JVM exits are lost.
+     *
+     * @param capacity      Maximum number of buffered passwords; writers wait while the buffer is full
+     * @param flushEntries  Number of buffered passwords which triggers a save
+     * @param flushInterval Maximum time a password stays buffered, unless saving fails
+     * @param unit          Unit of flushInterval
+     */
+    public synchronized void enableWriteBehind(int capacity, int flushEntries, long flushInterval, TimeUnit unit) {
+        if (m_writeBehind != null) {
+            throw new IllegalStateException("Write-behind mode is already enabled");
+        }
+
+        m_writeBehind = new WriteBehindBuffer(m_backend, m_cache, capacity, flushEntries, flushInterval, unit);
+    }
+
+    /**
+     * Returns true in write-behind mode
+     */
+    public boolean isWriteBehindEnabled() {
+        return m_writeBehind != null;
+    }
+
+    /**
+     * Returns number of passwords buffered in write-behind mode and not saved yet
+     */
+    public int getPendingWriteCount() {
+        WriteBehindBuffer buffer = m_writeBehind;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Saves passwords buffered in write-behind mode. Does nothing in other modes.
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the passwords
+     */
+    public void flush() throws LockException, PasswordSaveException {
+        WriteBehindBuffer buffer = m_writeBehind;
+        if (buffer != null) { buffer.flush(); }
+    }
+
+    /**
+     * Saves passwords buffered in write-behind mode and leaves the mode, then releases
+     * files and other resources which the backend keeps open between calls
+     * (Proxy method of KeyringBackend.close)
+     *
+     * @throws PasswordSaveException    Thrown when buffered passwords cannot be saved;
+     *                                  the keyring stays in write-behind mode
+     */
+    public void close() throws LockException, PasswordSaveException {
+        synchronized (this) {
+            if (m_writeBehind != null) {
+                m_writeBehind.close();
+                m_writeBehind = null;
+            }
+        }
+
+        m_backend.close();
     }
 
     /**
@@ -75,6 +241,11 @@ public class Keyring {
      * Gets password from key store
      * (Proxy method of KeyringBackend.getPassword)
      *
+     * When a cache is configured, a cached password is returned without asking
+     * the backend. The whole cache is dropped when the backend's change stamp shows
+     * that the key store was modified; for backends which cannot detect changes,
+     * modifications by other processes become visible once the cached entry expires.
+     *
      * @param service   Service name
      * @param account   Account name
      *
@@ -85,13 +256,151 @@ public class Keyring {
     public String getPassword(String service, String account)
             throws LockException, PasswordRetrievalException {
 
-        return m_backend.getPassword(service, account);
+        WriteBehindBuffer buffer = m_writeBehind;
+        if (buffer != null) {
+            String password = buffer.get(new ServiceAccountKey(service, account));
+            if (password != null) { return password; }
+        }
+
+        if (m_cache == null) {
+            return m_backend.getPassword(service, account);
+        }
+
+        //
+        long stamp = validateCache();
+
+        String password = m_cache.get(service, account);
+        if (password == null) {
+            long version = m_cache.getVersion(service, account);
+            password = m_backend.getPassword(service, account);
+
+            // the password may predate a change made by another process meanwhile
+            if (m_backend.getChangeStamp() == stamp) {
+                m_cache.putIfVersion(service, account, version, password);
+            }
+        }
+
+        return password;
+    }
+
+    /**
+     * Gets password from key store as chars, which the caller can zero once done
+     * (Proxy method of KeyringBackend.getPasswordChars)
+     *
+     * Cached and buffered passwords are held as Strings, so the backend avoids
+     * creating one only when neither a cache nor write-behind mode is used.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public char[] getPasswordChars(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        if (m_cache == null && m_writeBehind == null) {
+            return m_backend.getPasswordChars(service, account);
+        }
+
+        return getPassword(service, account).toCharArray();
+    }
+
+    /**
+     * Gets password from key store as UTF-8 bytes, which the caller can zero once done
+     * (Proxy method of KeyringBackend.getPasswordBytes)
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  UTF-8 bytes of the password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public byte[] getPasswordBytes(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        if (m_cache == null && m_writeBehind == null) {
+            return m_backend.getPasswordBytes(service, account);
+        }
+
+        char[] password = getPassword(service, account).toCharArray();
+        try {
+            return SecretCodec.toBytes(password);
+        } finally {
+            SecretCodec.wipe(password);
+        }
+    }
+
+    /**
+     * Gets password from key store, putting its UTF-8 bytes to a buffer supplied by the caller
+     * (Proxy method of KeyringBackend.getPasswordBytes)
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param dst       Buffer the password is put to, from its position
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws java.nio.BufferOverflowException Thrown when dst is too small; dst is left unchanged
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public int getPasswordBytes(String service, String account, ByteBuffer dst)
+            throws LockException, PasswordRetrievalException {
+
+        if (m_cache == null && m_writeBehind == null) {
+            return m_backend.getPasswordBytes(service, account, dst);
+        }
+
+        return SecretCodec.encode(CharBuffer.wrap(getPassword(service, account)), dst);
+    }
+
+    /**
+     * Gets password from key store without blocking the calling thread.
+     * See getPasswordAsync(String, String, long, TimeUnit).
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    public CompletableFuture<String> getPasswordAsync(String service, String account) {
+        return getPasswordAsync(service, account, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets password from key store without blocking the calling thread.
+     *
+     * getPassword runs on the executor, also for cached passwords, since validating
+     * the cache reads the key store. The future fails with the exception getPassword
+     * throws, with TimeoutException when timeout elapses first, and with
+     * RejectedExecutionException when the executor is saturated. Cancelling the future
+     * drops the call if it has not started yet.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param timeout   Time to wait for the backend, or 0 to wait indefinitely
+     * @param unit      Unit of timeout
+     *
+     * @return  Future which completes with the password
+     */
+    public CompletableFuture<String> getPasswordAsync(final String service, final String account,
+            long timeout, TimeUnit unit) {
+
+        return m_executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return getPassword(service, account);
+            }
+        }, timeout, unit);
     }
 
     /**
      * Sets password to key store
      * (Proxy method of KeyringBackend.setPassword)
      *
+     * When a cache is configured, the cached password is replaced once the
+     * backend has saved the new one.
+     *
      * @param service   Service name
      * @param account   Account name
      * @param password  Password
@@ -101,7 +410,269 @@ public class Keyring {
     public void setPassword(String service, String account, String password)
             throws LockException, PasswordSaveException {
 
-        m_backend.setPassword(service, account, password);
+        WriteBehindBuffer buffer = m_writeBehind;
+        if (buffer != null) {
+            buffer.put(new ServiceAccountKey(service, account), password);
+            if (m_cache != null) { m_cache.invalidate(service, account); }
+            return;
+        }
+
+        if (m_cache == null) {
+            m_backend.setPassword(service, account, password);
+            return;
+        }
+
+        //
+        long version = m_cache.getVersion(service, account);
+        boolean saved = false;
+        try {
+            m_backend.setPassword(service, account, password);
+            saved = true;
+        } finally {
+            // the backend may or may not hold the new password,
+            // or a concurrent call may have saved another one after it
+            if (!saved || !m_cache.putIfVersion(service, account, version, password)) {
+                m_cache.invalidate(service, account);
+            }
+        }
+    }
+
+    /**
+     * Sets password to key store from chars, which the caller can zero afterwards
+     * (Proxy method of KeyringBackend.setPasswordChars)
+     *
+     * Cached and buffered passwords are held as Strings, so the backend avoids
+     * creating one only when neither a cache nor write-behind mode is used.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        if (m_cache == null && m_writeBehind == null) {
+            m_backend.setPasswordChars(service, account, password);
+            return;
+        }
+
+        setPassword(service, account, new String(password));
+    }
+
+    /**
+     * Sets password to key store from the remaining UTF-8 bytes of a buffer supplied by the caller
+     * (Proxy method of KeyringBackend.setPasswordBytes)
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws LockException, PasswordSaveException {
+
+        if (m_cache == null && m_writeBehind == null) {
+            m_backend.setPasswordBytes(service, account, password);
+            return;
+        }
+
+        char[] chars = SecretCodec.decode(password);
+        try {
+            setPassword(service, account, new String(chars));
+        } finally {
+            SecretCodec.wipe(chars);
+        }
+    }
+
+    /**
+     * Sets password to key store without blocking the calling thread.
+     * See setPasswordAsync(String, String, String, long, TimeUnit).
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     */
+    public CompletableFuture<Void> setPasswordAsync(String service, String account, String password) {
+        return setPasswordAsync(service, account, password, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets password to key store without blocking the calling thread.
+     *
+     * setPassword runs on the executor. The future fails with the exception setPassword
+     * throws, with TimeoutException when timeout elapses first, and with
+     * RejectedExecutionException when the executor is saturated. A password whose future
+     * timed out or was cancelled after the call started may still be saved.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     * @param timeout   Time to wait for the backend, or 0 to wait indefinitely
+     * @param unit      Unit of timeout
+     *
+     * @return  Future which completes when the password is saved
+     */
+    public CompletableFuture<Void> setPasswordAsync(final String service, final String account,
+            final String password, long timeout, TimeUnit unit) {
+
+        return m_executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                setPassword(service, account, password);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * Gets passwords from key store
+     * (Proxy method of KeyringBackend.getPasswords)
+     *
+     * When a cache is configured, only passwords which are not cached are
+     * requested from the backend.
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        WriteBehindBuffer buffer = m_writeBehind;
+        if (buffer == null) {
+            return getUnbufferedPasswords(keys);
+        }
+
+        //
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        List<ServiceAccountKey> missing = new ArrayList<ServiceAccountKey>();
+        for (ServiceAccountKey key : keys) {
+            String password = buffer.get(key);
+            passwords.put(key, password);
+            if (password == null) { missing.add(key); }
+        }
+
+        if (!missing.isEmpty()) {
+            passwords.putAll(getUnbufferedPasswords(missing));
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Sets passwords to key store
+     * (Proxy method of KeyringBackend.setPasswords)
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
+
+        WriteBehindBuffer buffer = m_writeBehind;
+        if (buffer != null) {
+            for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+                setPassword(entry.getKey().getService(), entry.getKey().getAccount(), entry.getValue());
+            }
+            return;
+        }
+
+        if (m_cache == null) {
+            m_backend.setPasswords(passwords);
+            return;
+        }
+
+        //
+        Map<ServiceAccountKey, Long> versions = getCacheVersions(passwords.keySet());
+        boolean saved = false;
+        try {
+            m_backend.setPasswords(passwords);
+            saved = true;
+        } finally {
+            for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+                ServiceAccountKey key = entry.getKey();
+                if (!saved || !m_cache.putIfVersion(
+                        key.getService(), key.getAccount(), versions.get(key), entry.getValue())) {
+                    m_cache.invalidate(key.getService(), key.getAccount());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets passwords which are not buffered in write-behind mode, through the cache
+     *
+     * @param keys  Services and accounts
+     */
+    private Map<ServiceAccountKey, String> getUnbufferedPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        if (m_cache == null) {
+            return m_backend.getPasswords(keys);
+        }
+
+        //
+        long stamp = validateCache();
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        List<ServiceAccountKey> missing = new ArrayList<ServiceAccountKey>();
+        for (ServiceAccountKey key : keys) {
+            String password = m_cache.get(key.getService(), key.getAccount());
+            passwords.put(key, password);
+            if (password == null) { missing.add(key); }
+        }
+
+        //
+        if (!missing.isEmpty()) {
+            Map<ServiceAccountKey, Long> versions = getCacheVersions(missing);
+            Map<ServiceAccountKey, String> loaded = m_backend.getPasswords(missing);
+            boolean unchanged = m_backend.getChangeStamp() == stamp;
+
+            for (Map.Entry<ServiceAccountKey, String> entry : loaded.entrySet()) {
+                ServiceAccountKey key = entry.getKey();
+                passwords.put(key, entry.getValue());
+                if (unchanged) {
+                    m_cache.putIfVersion(key.getService(), key.getAccount(), versions.get(key), entry.getValue());
+                }
+            }
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Returns versions of cached passwords, to be read before the backend is called
+     *
+     * @param keys  Services and accounts
+     */
+    private Map<ServiceAccountKey, Long> getCacheVersions(Collection<ServiceAccountKey> keys) {
+        Map<ServiceAccountKey, Long> versions = new HashMap<ServiceAccountKey, Long>();
+        for (ServiceAccountKey key : keys) {
+            versions.put(key, m_cache.getVersion(key.getService(), key.getAccount()));
+        }
+
+        return versions;
+    }
+
+    /**
+     * Drops cached passwords when the backend reports that the key store was modified
+     *
+     * @return  Change stamp of the backend, against which passwords loaded afterwards are cached
+     */
+    private long validateCache() throws PasswordRetrievalException {
+        long stamp = m_backend.getChangeStamp();
+        if (stamp != m_cacheStamp) {
+            m_cache.clear();
+            m_cacheStamp = stamp;
+        }
+
+        return stamp;
     }
 
     /**
@@ -109,4 +680,24 @@ public class Keyring {
      */
     private KeyringBackend m_backend;
 
+    /**
+     * Cache of passwords, or null
+     */
+    private final PasswordCache m_cache;
+
+    /**
+     * Change stamp of the backend when m_cache was last validated
+     */
+    private volatile long m_cacheStamp;
+
+    /**
+     * Buffer of passwords in write-behind mode, or null
+     */
+    private volatile WriteBehindBuffer m_writeBehind;
+
+    /**
+     * Executor which runs asynchronous calls
+     */
+    private volatile KeyringExecutor m_executor = KeyringExecutor.getDefault();
+
 } // class Keyring
@@ -6,7 +6,14 @@
 
 package net.east301.keyring;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.SecretCodec;
+import net.east301.keyring.util.ServiceAccountKey;
 
 /**
  * java-keyring backend interface
@@ -71,6 +78,173 @@ public abstract class KeyringBackend {
     public abstract void setPassword(String service, String account, String password)
             throws LockException, PasswordSaveException;
 
+    /**
+     * Gets password from key store as chars, which the caller can zero once done.
+     * This implementation calls getPassword; backends override it to avoid
+     * creating a String.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public char[] getPasswordChars(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        return getPassword(service, account).toCharArray();
+    }
+
+    /**
+     * Gets password from key store as UTF-8 bytes, which the caller can zero once done
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  UTF-8 bytes of the password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public byte[] getPasswordBytes(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        char[] password = getPasswordChars(service, account);
+        try {
+            return SecretCodec.toBytes(password);
+        } finally {
+            SecretCodec.wipe(password);
+        }
+    }
+
+    /**
+     * Gets password from key store, putting its UTF-8 bytes to a buffer supplied by
+     * the caller. Direct buffers are supported.
+     * This implementation calls getPasswordChars; backends override it to copy the
+     * password without intermediate arrays.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param dst       Buffer the password is put to, from its position
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws java.nio.BufferOverflowException Thrown when dst is too small; dst is left unchanged
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    public int getPasswordBytes(String service, String account, ByteBuffer dst)
+            throws LockException, PasswordRetrievalException {
+
+        char[] password = getPasswordChars(service, account);
+        try {
+            return SecretCodec.encode(CharBuffer.wrap(password), dst);
+        } finally {
+            SecretCodec.wipe(password);
+        }
+    }
+
+    /**
+     * Sets password to key store from chars, which the caller can zero afterwards.
+     * This implementation calls setPassword; backends override it to avoid
+     * creating a String.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        setPassword(service, account, new String(password));
+    }
+
+    /**
+     * Sets password to key store from the remaining UTF-8 bytes of a buffer supplied
+     * by the caller, which can zero it afterwards. Direct buffers are supported, and
+     * byte arrays can be passed by ByteBuffer.wrap. The position of password is not changed.
+     * This implementation calls setPasswordChars; backends override it to save the
+     * bytes without decoding them.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws LockException, PasswordSaveException {
+
+        char[] chars = SecretCodec.decode(password);
+        try {
+            setPasswordChars(service, account, chars);
+        } finally {
+            SecretCodec.wipe(chars);
+        }
+    }
+
+    /**
+     * Gets passwords related to specified services and accounts.
+     * This implementation calls getPassword for each of them; backends override it
+     * to lock and read their key store only once.
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (ServiceAccountKey key : keys) {
+            passwords.put(key, getPassword(key.getService(), key.getAccount()));
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Sets passwords related to specified services and accounts.
+     * This implementation calls setPassword for each of them; backends override it
+     * to lock and write their key store only once.
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
+
+        for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+            setPassword(entry.getKey().getService(), entry.getKey().getAccount(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns a value which changes whenever the key store is modified by other processes
+     * or other instances. Writes through this instance may leave it unchanged, since callers
+     * update what they keep in memory themselves. Callers which keep passwords in memory
+     * compare it before reusing them, so it should be much cheaper than getPassword.
+     *
+     * @return  Change stamp, or 0 when the backend cannot detect changes
+     *
+     * @throws PasswordRetrievalException   Thrown when the key store cannot be read
+     */
+    public long getChangeStamp() throws PasswordRetrievalException {
+        return 0;
+    }
+
+    /**
+     * Releases files and other resources which the backend keeps open between calls.
+     * The backend can still be used afterwards; it acquires them again when needed.
+     */
+    public void close() {
+        // to be overrode
+    }
+
     /**
      * Gets backend ID
      */
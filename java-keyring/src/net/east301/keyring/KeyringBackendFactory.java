@@ -7,14 +7,31 @@
 package net.east301.keyring;
 
 import java.util.ArrayList;
-
-import net.east301.keyring.gnome.GNOMEKeyringBackend;
-import net.east301.keyring.memory.UncryptedMemoryBackend;
-import net.east301.keyring.osx.OSXKeychainBackend;
-import net.east301.keyring.windows.WindowsDPAPIBackend;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Factory of KeyringBackend
+ *
+ * Backends are registered as KeyringBackendProvider services and tried in order of
+ * priority. Whether a backend is supported is probed once per JVM and remembered,
+ * so only the first create call pays for loading native libraries. create() starts
+ * the probes of all backends whose platform matches at once on background threads,
+ * and waits for them in order of priority.
  */
 class KeyringBackendFactory {
 
@@ -22,16 +39,43 @@ class KeyringBackendFactory {
      * Creates an instance of KeyringBackend
      */
     public static KeyringBackend create() throws BackendNotSupportedException {
+        return create(Collections.<BackendCapability>emptySet());
+    }
+
+    /**
+     * Creates an instance of the highest priority KeyringBackend which has all
+     * specified capabilities
+     *
+     * @param required  Required capabilities
+     */
+    public static KeyringBackend create(Set<BackendCapability> required)
+            throws BackendNotSupportedException {
+
+        //
+        List<KeyringBackendProvider> candidates = new ArrayList<KeyringBackendProvider>();
+        List<CompletableFuture<BackendProbe>> probes = new ArrayList<CompletableFuture<BackendProbe>>();
+
+        for (KeyringBackendProvider provider : getProviders()) {
+            if (!provider.isPlatformSupported()
+                    || !provider.getCapabilities().containsAll(required)) {
+                continue;
+            }
 
-        for (Object[] entry : KeyringBackendFactory.KEYRING_BACKENDS) {
-            String name = (String)entry[0];
-            Class cls = (Class)entry[1];
+            candidates.add(provider);
+            probes.add(probe(provider));
+        }
 
-            KeyringBackend backend = tryToCreateBackend(cls);
+        //
+        for (int i = 0; i < candidates.size(); i++) {
+            if (!probes.get(i).join().isSupported()) { continue; }
+
+            KeyringBackend backend = tryToCreateBackend(candidates.get(i));
             if (backend != null) { return backend; }
         }
 
-        throw new BackendNotSupportedException("No available keyring backend found");
+        throw new BackendNotSupportedException(required.isEmpty()
+                ? "No available keyring backend found"
+                : "No available keyring backend found with capabilities " + required);
     }
 
     /**
@@ -41,25 +85,17 @@ class KeyringBackendFactory {
      */
     public static KeyringBackend create(String preferred) throws BackendNotSupportedException {
         //
-        Class backendClass = null;
-
-        for (Object[] entry : KeyringBackendFactory.KEYRING_BACKENDS) {
-            String name = (String)entry[0];
-            Class cls = (Class)entry[1];
+        KeyringBackendProvider provider = getProvider(preferred);
 
-            if (name.equals(preferred)) {
-                backendClass = cls;
-                break;
-            }
-        }
-
-        if (backendClass == null) {
+        if (provider == null) {
             throw new BackendNotSupportedException(
                     String.format("The backend '%s' is not registered", preferred));
         }
 
         //
-        KeyringBackend backend = tryToCreateBackend(backendClass);
+        KeyringBackend backend = provider.isPlatformSupported() && probe(provider).join().isSupported()
+                ? tryToCreateBackend(provider)
+                : null;
         if (backend == null) {
             throw new BackendNotSupportedException(
                     String.format("The backend '%s' is not supported", preferred));
@@ -70,29 +106,120 @@ class KeyringBackendFactory {
     }
 
     /**
-     * Returns names of registered keyring backends
+     * Returns names of registered keyring backends, in order of priority
      */
     public static String[] getAllBackendNames() {
         ArrayList<String> result = new ArrayList<String>();
-        for (Object[] entry : KeyringBackendFactory.KEYRING_BACKENDS) {
-            result.add((String)entry[0]);
+        for (KeyringBackendProvider provider : getProviders()) {
+            result.add(provider.getName());
         }
 
         return result.toArray(new String[0]);
     }
 
     /**
-     * Try to create keyring backend instance from Class
+     * Returns provider of specified backend
+     *
+     * @param name  Backend name
+     *
+     * @return  Provider, or null when no backend of the name is registered
+     */
+    public static KeyringBackendProvider getProvider(String name) {
+        for (KeyringBackendProvider provider : getProviders()) {
+            if (provider.getName().equals(name)) { return provider; }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns results of the probes which have finished, in order of priority
+     */
+    public static List<BackendProbe> getProbes() {
+        List<BackendProbe> result = new ArrayList<BackendProbe>();
+        for (KeyringBackendProvider provider : getProviders()) {
+            CompletableFuture<BackendProbe> probe = PROBES.get(provider.getName());
+            if (probe != null && probe.isDone()) { result.add(probe.join()); }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns registered providers, in order of priority
+     */
+    static List<KeyringBackendProvider> getProviders() {
+        return ProviderHolder.PROVIDERS;
+    }
+
+    /**
+     * Returns the probe of a backend, starting it unless it has been started before
      *
-     * @param backendClass  Target backend class
+     * @param provider  Provider of the backend
      */
-    private static KeyringBackend tryToCreateBackend(Class backendClass) {
+    private static CompletableFuture<BackendProbe> probe(final KeyringBackendProvider provider) {
+        return PROBES.computeIfAbsent(provider.getName(),
+                new Function<String, CompletableFuture<BackendProbe>>() {
+                    @Override
+                    public CompletableFuture<BackendProbe> apply(String name) {
+                        return CompletableFuture.supplyAsync(new Supplier<BackendProbe>() {
+                            @Override
+                            public BackendProbe get() {
+                                return runProbe(provider);
+                            }
+                        }, PROBE_EXECUTOR);
+                    }
+                });
+    }
+
+    /**
+     * Checks whether a backend can be used, and measures how long it takes
+     *
+     * @param provider  Provider of the backend
+     */
+    private static BackendProbe runProbe(KeyringBackendProvider provider) {
+        long start = System.nanoTime();
+        String reason = null;
+        KeyringBackend backend = null;
+
+        try {
+            backend = provider.create();
+            if (!backend.isSupported()) {
+                reason = "Unsupported platform";
+            } else {
+                backend.setup();
+            }
+        } catch (BackendNotSupportedException ex) {
+            reason = ex.getMessage();
+        } catch (Exception ex) {
+            reason = ex.toString();
+        } catch (LinkageError ex) {
+            reason = ex.toString();
+        } finally {
+            // the probe instance is discarded, so connections opened by setup are released
+            if (backend != null) { backend.close(); }
+        }
+
+        //
+        BackendProbe probe = new BackendProbe(provider.getName(), reason == null,
+                System.nanoTime() - start, reason);
+        Logger.getLogger(KeyringBackendFactory.class.getName()).log(Level.FINE, "Probed backend {0}", probe);
+
+        return probe;
+    }
+
+    /**
+     * Try to create keyring backend instance from its provider
+     *
+     * @param provider  Provider of target backend
+     */
+    private static KeyringBackend tryToCreateBackend(KeyringBackendProvider provider) {
         //
         KeyringBackend backend;
         try {
-            backend = (KeyringBackend)backendClass.newInstance();
-        } catch (Exception ex) {
-            // TODO: add code to handle exception
+            backend = provider.create();
+        } catch (RuntimeException ex) {
+            Logger.getLogger(KeyringBackendFactory.class.getName()).log(Level.WARNING, null, ex);
             return null;
         }
 
@@ -111,13 +238,50 @@ class KeyringBackendFactory {
     }
 
     /**
-     * All keyring backends
+     * Holds registered providers, which are loaded on first use
+     */
+    private static final class ProviderHolder {
+
+        static final List<KeyringBackendProvider> PROVIDERS = loadProviders();
+
+        private static List<KeyringBackendProvider> loadProviders() {
+            List<KeyringBackendProvider> providers = new ArrayList<KeyringBackendProvider>();
+            for (KeyringBackendProvider provider
+                    : ServiceLoader.load(KeyringBackendProvider.class, KeyringBackendFactory.class.getClassLoader())) {
+                providers.add(provider);
+            }
+
+            // stable, so providers of equal priority keep their registration order
+            Collections.sort(providers, new Comparator<KeyringBackendProvider>() {
+                @Override
+                public int compare(KeyringBackendProvider a, KeyringBackendProvider b) {
+                    return Integer.compare(b.getPriority(), a.getPriority());
+                }
+            });
+
+            return Collections.unmodifiableList(providers);
+        }
+
+    } // class ProviderHolder
+
+    /**
+     * { Backend name => its probe }, filled once per JVM
+     */
+    private static final ConcurrentHashMap<String, CompletableFuture<BackendProbe>> PROBES =
+            new ConcurrentHashMap<String, CompletableFuture<BackendProbe>>();
+
+    /**
+     * Threads which run probes; they exit once all probes have finished
      */
-    private static Object[][] KEYRING_BACKENDS = {
-        { "OSXKeychain",        OSXKeychainBackend.class },
-        { "GNOMEKeyring",		GNOMEKeyringBackend.class },
-        { "WindowsDPAPI",       WindowsDPAPIBackend.class },
-        { "UncryptedMemory",    UncryptedMemoryBackend.class }
-    };
+    private static final ExecutorService PROBE_EXECUTOR = new ThreadPoolExecutor(
+            0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "java-keyring-probe");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
 } // class KeyringBackendFactory
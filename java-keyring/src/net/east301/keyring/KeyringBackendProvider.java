@@ -0,0 +1,47 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.Set;
+
+/**
+ * Service provider interface of keyring backends.
+ *
+ * Implementations are found by java.util.ServiceLoader, so a backend is registered by
+ * listing its provider in META-INF/services/net.east301.keyring.KeyringBackendProvider.
+ * Implementations must have a public no-argument constructor.
+ */
+public interface KeyringBackendProvider {
+
+    /**
+     * Returns backend name, which is passed to Keyring.create(String)
+     */
+    String getName();
+
+    /**
+     * Returns priority of the backend. When several backends are usable,
+     * Keyring.create() picks the one with the highest priority.
+     */
+    int getPriority();
+
+    /**
+     * Returns true when the backend may work on the current platform.
+     * This must be cheap: no native libraries are loaded until it returns true.
+     */
+    boolean isPlatformSupported();
+
+    /**
+     * Returns capabilities of the backend
+     */
+    Set<BackendCapability> getCapabilities();
+
+    /**
+     * Creates an instance of the backend. KeyringBackend.setup is called by the factory.
+     */
+    KeyringBackend create();
+
+} // interface KeyringBackendProvider
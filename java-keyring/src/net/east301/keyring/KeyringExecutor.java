@@ -0,0 +1,195 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs blocking keyring calls on a dedicated, bounded set of threads, so that a slow
+ * keyring daemon or a pending unlock prompt does not block the caller.
+ *
+ * At most the given number of calls run at the same time, and at most queueCapacity
+ * calls wait for a thread; further calls fail with RejectedExecutionException.
+ * A call which times out or whose future is cancelled is removed from the queue if it
+ * has not started yet. A call which has already started is not interrupted, because
+ * native keyring calls ignore interruption and interrupting file I/O would close the
+ * key store channel; it keeps its thread until it returns.
+ */
+public class KeyringExecutor {
+
+    /**
+     * Initializes an instance of KeyringExecutor
+     *
+     * @param threads       Maximum number of calls running at the same time
+     * @param queueCapacity Maximum number of calls waiting for a thread
+     */
+    public KeyringExecutor(int threads, int queueCapacity) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+
+        m_executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new DaemonThreadFactory("java-keyring-async"));
+        m_executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the executor shared by Keyring instances which are not given their own one
+     */
+    public static KeyringExecutor getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Submits a call
+     *
+     * @param call      Blocking call
+     * @param timeout   Time after which the future fails with TimeoutException, or 0 for no timeout
+     * @param unit      Unit of timeout
+     *
+     * @return  Future which completes with the result of call
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> call, long timeout, TimeUnit unit) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+
+        //
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone()) { return; }
+
+                try {
+                    result.complete(call.call());
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        }, null);
+
+        try {
+            m_executor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        //
+        final ScheduledFuture<?> timer = timeout <= 0 ? null : TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                result.completeExceptionally(new TimeoutException("Keyring call timed out"));
+            }
+        }, timeout, unit);
+
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable ex) {
+                if (timer != null) { timer.cancel(false); }
+
+                // cancelled or timed out; drop the call if it is still queued
+                if (ex != null) { m_executor.remove(task); }
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Returns number of calls waiting for a thread
+     */
+    public int getQueuedCount() {
+        return m_executor.getQueue().size();
+    }
+
+    /**
+     * Returns number of calls running now
+     */
+    public int getActiveCount() {
+        return m_executor.getActiveCount();
+    }
+
+    /**
+     * Stops accepting calls. Calls already submitted still run.
+     */
+    public void shutdown() {
+        m_executor.shutdown();
+    }
+
+    /**
+     * Creates daemon threads with numbered names
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        DaemonThreadFactory(String name) {
+            m_name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, m_name + "-" + m_count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+
+        private final String m_name;
+        private final AtomicInteger m_count = new AtomicInteger();
+
+    } // class DaemonThreadFactory
+
+    /**
+     * Holds the default executor, which is created on first use
+     */
+    private static final class DefaultHolder {
+
+        static final KeyringExecutor INSTANCE = new KeyringExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+
+    } // class DefaultHolder
+
+    /**
+     * Number of threads of the default executor
+     */
+    private static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Queue capacity of the default executor
+     */
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Thread which fires timeouts of all executors
+     */
+    private static final ScheduledExecutorService TIMER = createTimer();
+
+    private static ScheduledExecutorService createTimer() {
+        ScheduledThreadPoolExecutor timer =
+                new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("java-keyring-timeout"));
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * Threads running calls
+     */
+    private final ThreadPoolExecutor m_executor;
+
+} // class KeyringExecutor
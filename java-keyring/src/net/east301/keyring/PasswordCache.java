@@ -0,0 +1,244 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Size-bounded cache of passwords with per-entry expiration, used by Keyring
+ * to avoid hitting the backend for every getPassword call.
+ *
+ * Entries expire a fixed time after they were stored, and the least recently
+ * used entry is evicted when the cache is full. Instances are thread-safe.
+ *
+ * Every key has a version which put and invalidate change. A caller which
+ * loads a password from the backend reads the version first and stores the
+ * password with putIfVersion, so that a password saved in the meantime is not
+ * overwritten by the one it loaded.
+ */
+public class PasswordCache {
+
+    /**
+     * Initializes an instance of PasswordCache
+     *
+     * @param maxEntries    Maximum number of entries
+     * @param ttl           Time an entry stays valid after it was stored
+     * @param unit          Unit of ttl
+     */
+    public PasswordCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        m_maxEntries = maxEntries;
+        m_ttlNanos = unit.toNanos(ttl);
+        m_entries = new LinkedHashMap<ServiceAccountKey, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ServiceAccountKey, Entry> eldest) {
+                if (size() <= m_maxEntries) { return false; }
+
+                if (eldest.getValue().password != null) { m_evictionCount++; }
+                m_removedVersion = ++m_sequence;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns cached password, or null when it is not cached or has expired
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    public synchronized String get(String service, String account) {
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+        Entry entry = m_entries.get(key);
+
+        if (entry != null && now() - entry.expiresAt >= 0) {
+            m_entries.remove(key);
+            m_removedVersion = ++m_sequence;
+            entry = null;
+        }
+
+        if (entry == null || entry.password == null) {
+            m_missCount++;
+            return null;
+        }
+
+        m_hitCount++;
+        return entry.password;
+    }
+
+    /**
+     * Stores password
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     */
+    public synchronized void put(String service, String account, String password) {
+        if (password == null) {
+            throw new IllegalArgumentException("password must not be null");
+        }
+
+        m_entries.put(new ServiceAccountKey(service, account),
+                new Entry(password, ++m_sequence, now() + m_ttlNanos));
+    }
+
+    /**
+     * Stores password unless the version of the key has changed
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param version   Version returned by getVersion before the password was loaded
+     * @param password  Password
+     *
+     * @return  True if the password was stored
+     */
+    public synchronized boolean putIfVersion(String service, String account, long version, String password) {
+        if (getVersion(service, account) != version) { return false; }
+
+        put(service, account, password);
+        return true;
+    }
+
+    /**
+     * Returns version of the key, which changes whenever a password for it is
+     * stored, invalidated or removed from the cache
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    public synchronized long getVersion(String service, String account) {
+        Entry entry = m_entries.get(new ServiceAccountKey(service, account));
+        return entry != null ? entry.version : m_removedVersion;
+    }
+
+    /**
+     * Removes password related to specified service and account
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    public synchronized void invalidate(String service, String account) {
+        // keeps the key with a new version, so that a password loaded before is not stored
+        m_entries.put(new ServiceAccountKey(service, account),
+                new Entry(null, ++m_sequence, now() + m_ttlNanos));
+    }
+
+    /**
+     * Removes all passwords
+     */
+    public synchronized void clear() {
+        m_entries.clear();
+        m_removedVersion = ++m_sequence;
+    }
+
+    /**
+     * Returns number of cached passwords, including expired ones not yet removed
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Entry entry : m_entries.values()) {
+            if (entry.password != null) { size++; }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns number of get calls which returned a password
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * Returns number of get calls which returned null
+     */
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    /**
+     * Returns number of passwords evicted because the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return m_evictionCount;
+    }
+
+    /**
+     * Returns current time in nanoseconds. Tests override this to control expiration.
+     */
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Cached password, or marker of an invalidated one when password is null
+     */
+    private static final class Entry {
+
+        Entry(String password, long version, long expiresAt) {
+            this.password = password;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+        final String password;
+        final long version;
+        final long expiresAt;
+
+    } // class Entry
+
+    /**
+     * Maximum number of entries
+     */
+    private final int m_maxEntries;
+
+    /**
+     * Time an entry stays valid, in nanoseconds
+     */
+    private final long m_ttlNanos;
+
+    /**
+     * { Service and account => cached password }, in access order
+     */
+    private final LinkedHashMap<ServiceAccountKey, Entry> m_entries;
+
+    /**
+     * Last version given to a key
+     */
+    private long m_sequence;
+
+    /**
+     * Version of keys which have no entry, changed whenever an entry is removed
+     */
+    private long m_removedVersion;
+
+    /**
+     * Number of get calls which returned a password
+     */
+    private long m_hitCount;
+
+    /**
+     * Number of get calls which returned null
+     */
+    private long m_missCount;
+
+    /**
+     * Number of passwords evicted because the cache was full
+     */
+    private long m_evictionCount;
+
+} // class PasswordCache
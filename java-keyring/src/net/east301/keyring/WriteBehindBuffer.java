@@ -0,0 +1,292 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Buffer of passwords which are saved to the backend later, used by Keyring in
+ * write-behind mode.
+ *
+ * Buffered passwords are visible to reads at once. A background thread saves them
+ * with one setPasswords call once flushEntries passwords are buffered, or flushInterval
+ * after the oldest one was buffered. Writing a password which is already buffered
+ * replaces it, so only the latest one is saved. When capacity passwords are buffered,
+ * writers wait for the background thread. A failed save keeps the passwords buffered
+ * and is retried after flushInterval. Saved passwords are invalidated in the cache of
+ * Keyring before they leave the buffer, since a reader may have cached the password
+ * they replace.
+ */
+final class WriteBehindBuffer {
+
+    /**
+     * Initializes an instance of WriteBehindBuffer, and starts its background thread
+     *
+     * @param backend       Backend passwords are saved to
+     * @param cache         Cache of passwords read from the backend, or null
+     * @param capacity      Maximum number of buffered passwords
+     * @param flushEntries  Number of buffered passwords which triggers a save
+     * @param flushInterval Maximum time a password stays buffered, unless saving fails
+     * @param unit          Unit of flushInterval
+     */
+    WriteBehindBuffer(KeyringBackend backend, PasswordCache cache,
+            int capacity, int flushEntries, long flushInterval, TimeUnit unit) {
+
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (flushEntries <= 0 || flushEntries > capacity) {
+            throw new IllegalArgumentException("flushEntries must be positive and not exceed capacity");
+        }
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval must be positive");
+        }
+
+        m_backend = backend;
+        m_cache = cache;
+        m_capacity = capacity;
+        m_flushEntries = flushEntries;
+        m_flushIntervalNanos = unit.toNanos(flushInterval);
+
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFlusher();
+            }
+        }, "java-keyring-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Buffers a password, waiting while the buffer is full
+     *
+     * @param key       Service and account
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when interrupted while waiting, or the buffer is closed
+     */
+    synchronized void put(ServiceAccountKey key, String password) throws PasswordSaveException {
+        while (!m_closed && m_pending.size() >= m_capacity && !m_pending.containsKey(key)) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new PasswordSaveException("Interrupted while waiting for write-behind buffer");
+            }
+        }
+
+        if (m_closed) {
+            throw new PasswordSaveException("Write-behind buffer is closed");
+        }
+
+        //
+        boolean first = m_pending.isEmpty();
+        if (first) { m_oldestAt = System.nanoTime(); }
+        m_pending.put(key, password);
+
+        // the background thread waits without timeout while the buffer is empty
+        if (first || m_pending.size() >= m_flushEntries) { notifyAll(); }
+    }
+
+    /**
+     * Returns buffered password, or null when the password is not buffered
+     *
+     * @param key   Service and account
+     */
+    synchronized String get(ServiceAccountKey key) {
+        return m_pending.get(key);
+    }
+
+    /**
+     * Returns number of buffered passwords
+     */
+    synchronized int size() {
+        return m_pending.size();
+    }
+
+    /**
+     * Returns number of setPasswords calls which saved buffered passwords
+     */
+    synchronized long getFlushCount() {
+        return m_flushCount;
+    }
+
+    /**
+     * Saves all passwords buffered before this call
+     *
+     * @throws PasswordSaveException    Thrown when the backend failed to save the passwords
+     */
+    void flush() throws LockException, PasswordSaveException {
+        synchronized (m_flushLock) {
+            //
+            Map<ServiceAccountKey, String> batch;
+            synchronized (this) {
+                if (m_pending.isEmpty()) { return; }
+                batch = new LinkedHashMap<ServiceAccountKey, String>(m_pending);
+            }
+
+            m_backend.setPasswords(batch);
+
+            if (m_cache != null) {
+                for (ServiceAccountKey key : batch.keySet()) {
+                    m_cache.invalidate(key.getService(), key.getAccount());
+                }
+            }
+
+            // passwords replaced while saving stay buffered
+            synchronized (this) {
+                for (Map.Entry<ServiceAccountKey, String> entry : batch.entrySet()) {
+                    if (Objects.equals(entry.getValue(), m_pending.get(entry.getKey()))) {
+                        m_pending.remove(entry.getKey());
+                    }
+                }
+
+                m_oldestAt = System.nanoTime();
+                m_flushCount++;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Saves all buffered passwords and stops the background thread.
+     * The buffer is not closed when saving fails.
+     *
+     * @throws PasswordSaveException    Thrown when the backend failed to save the passwords
+     */
+    void close() throws LockException, PasswordSaveException {
+        synchronized (this) {
+            if (m_closed) { return; }
+        }
+
+        flush();
+
+        synchronized (this) {
+            if (!m_pending.isEmpty()) {
+                throw new PasswordSaveException("Passwords were buffered while closing");
+            }
+
+            m_closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Body of the background thread
+     */
+    private void runFlusher() {
+        while (true) {
+            //
+            synchronized (this) {
+                try {
+                    while (!m_closed && !isFlushDue()) {
+                        if (m_pending.isEmpty()) {
+                            wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(this,
+                                    m_flushIntervalNanos - (System.nanoTime() - m_oldestAt));
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                if (m_closed) { return; }
+            }
+
+            //
+            try {
+                flush();
+            } catch (Exception ex) {
+                Logger.getLogger(WriteBehindBuffer.class.getName()).log(Level.SEVERE, null, ex);
+
+                // retry after flushInterval
+                synchronized (this) {
+                    long failedAt = System.nanoTime();
+                    try {
+                        long remaining;
+                        while (!m_closed
+                                && (remaining = m_flushIntervalNanos - (System.nanoTime() - failedAt)) > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        }
+                    } catch (InterruptedException interrupted) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true when buffered passwords should be saved now
+     */
+    private boolean isFlushDue() {
+        return !m_pending.isEmpty()
+                && (m_pending.size() >= m_flushEntries
+                    || System.nanoTime() - m_oldestAt >= m_flushIntervalNanos);
+    }
+
+    /**
+     * Backend passwords are saved to
+     */
+    private final KeyringBackend m_backend;
+
+    /**
+     * Cache of passwords read from the backend, or null
+     */
+    private final PasswordCache m_cache;
+
+    /**
+     * Maximum number of buffered passwords
+     */
+    private final int m_capacity;
+
+    /**
+     * Number of buffered passwords which triggers a save
+     */
+    private final int m_flushEntries;
+
+    /**
+     * Maximum time a password stays buffered, in nanoseconds
+     */
+    private final long m_flushIntervalNanos;
+
+    /**
+     * Held while buffered passwords are saved, so that saves do not overlap
+     */
+    private final Object m_flushLock = new Object();
+
+    /**
+     * { Service and account => buffered password }, guarded by this
+     */
+    private final LinkedHashMap<ServiceAccountKey, String> m_pending =
+            new LinkedHashMap<ServiceAccountKey, String>();
+
+    /**
+     * System.nanoTime() when the oldest buffered password was buffered or last retried
+     */
+    private long m_oldestAt;
+
+    /**
+     * Number of setPasswords calls which saved buffered passwords
+     */
+    private long m_flushCount;
+
+    /**
+     * True once the buffer is closed
+     */
+    private boolean m_closed;
+
+} // class WriteBehindBuffer
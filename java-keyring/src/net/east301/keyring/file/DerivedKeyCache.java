@@ -0,0 +1,142 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.file;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import net.east301.keyring.util.SecretCodec;
+
+/**
+ * Derives AES keys from passphrases by PBKDF2, and caches them for the lifetime of the process.
+ *
+ * Derivation is deliberately slow, so it is done once per salt and iteration count.
+ * A cached key is only returned for the passphrase it was derived from; this is checked
+ * with an HMAC of the passphrase under the derived key, which is fast but does not
+ * reveal the passphrase.
+ */
+final class DerivedKeyCache {
+
+    /**
+     * Returns the key derived from passphrase, salt and iteration count
+     *
+     * @param passphrase    Passphrase
+     * @param salt          Salt of the key store
+     * @param iterations    PBKDF2 iteration count
+     */
+    static SecretKeySpec getKey(char[] passphrase, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+
+        //
+        String id = Base64.getEncoder().encodeToString(salt) + ":" + iterations;
+
+        Entry entry = CACHE.get(id);
+        if (entry != null && MessageDigest.isEqual(entry.m_passphraseMac, mac(entry.m_key, passphrase))) {
+            return entry.m_key;
+        }
+
+        //
+        return new SecretKeySpec(derive(passphrase, salt, iterations), "AES");
+    }
+
+    /**
+     * Caches a key returned by getKey once it has been verified against the key store
+     *
+     * @param passphrase    Passphrase the key was derived from
+     * @param salt          Salt of the key store
+     * @param iterations    PBKDF2 iteration count
+     * @param key           Derived key
+     */
+    static void put(char[] passphrase, byte[] salt, int iterations, SecretKeySpec key)
+            throws GeneralSecurityException {
+
+        String id = Base64.getEncoder().encodeToString(salt) + ":" + iterations;
+        CACHE.put(id, new Entry(key, mac(key, passphrase)));
+    }
+
+    /**
+     * Returns number of keys derived in this process
+     */
+    static long getDerivationCount() {
+        return DERIVATION_COUNT.get();
+    }
+
+    /**
+     * Derives a 256 bit key by PBKDF2 with HMAC-SHA256
+     */
+    private static byte[] derive(char[] passphrase, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+
+        PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, KEY_BITS);
+        try {
+            DERIVATION_COUNT.incrementAndGet();
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Returns HMAC-SHA256 of passphrase under key
+     */
+    private static byte[] mac(SecretKeySpec key, char[] passphrase) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getEncoded(), "HmacSHA256"));
+
+        byte[] passphraseBytes = SecretCodec.toBytes(passphrase);
+        try {
+            mac.update(ByteBuffer.wrap(passphraseBytes));
+            return mac.doFinal();
+        } finally {
+            SecretCodec.wipe(passphraseBytes);
+        }
+    }
+
+    /**
+     * Cached key
+     */
+    private static final class Entry {
+
+        Entry(SecretKeySpec key, byte[] passphraseMac) {
+            m_key = key;
+            m_passphraseMac = passphraseMac;
+        }
+
+        final SecretKeySpec m_key;
+        final byte[] m_passphraseMac;
+
+    } // class Entry
+
+    /**
+     * Length of derived keys in bits
+     */
+    private static final int KEY_BITS = 256;
+
+    /**
+     * { Salt and iteration count => derived key }
+     */
+    private static final ConcurrentHashMap<String, Entry> CACHE = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * Number of keys derived in this process
+     */
+    private static final AtomicLong DERIVATION_COUNT = new AtomicLong();
+
+    /**
+     * Prevents instantiation
+     */
+    private DerivedKeyCache() {
+    }
+
+} // class DerivedKeyCache
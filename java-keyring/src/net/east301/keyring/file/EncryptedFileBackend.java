@@ -0,0 +1,591 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import net.east301.keyring.FileBasedKeyringBackend;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.store.RecordStore;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.SecretCodec;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Keyring backend which encrypts passwords with AES-GCM in a file at key store path,
+ * using only the Java runtime. It is meant for servers which have no keyring daemon.
+ *
+ * The key is derived from a passphrase by PBKDF2 with a salt kept in the key store,
+ * once per process. Every password is encrypted on its own with a random nonce and
+ * bound to its service and account, so reading a password decrypts only that record.
+ *
+ * The passphrase is given to the constructor, or taken from the system property
+ * net.east301.keyring.passphrase or the environment variable JAVA_KEYRING_PASSPHRASE.
+ * The backend is not supported when there is no passphrase.
+ */
+public class EncryptedFileBackend extends FileBasedKeyringBackend {
+
+    /**
+     * Initializes an instance of EncryptedFileBackend which takes the passphrase from
+     * the system property or environment variable
+     */
+    public EncryptedFileBackend() {
+        this(null);
+    }
+
+    /**
+     * Initializes an instance of EncryptedFileBackend
+     *
+     * @param passphrase    Passphrase the key is derived from; it is copied, so the caller
+     *                      can zero it. If null, the passphrase is taken from the system
+     *                      property or environment variable
+     */
+    public EncryptedFileBackend(char[] passphrase) {
+        super(StoreFormat.LOG_STRUCTURED);
+
+        if (passphrase == null) {
+            String configured = System.getProperty(PASSPHRASE_PROPERTY);
+            if (configured == null) { configured = System.getenv(PASSPHRASE_VARIABLE); }
+            if (configured != null) { passphrase = configured.toCharArray(); }
+        } else {
+            passphrase = passphrase.clone();
+        }
+
+        m_passphrase = passphrase;
+    }
+
+    /**
+     * Returns true when a passphrase is available
+     */
+    @Override
+    public boolean isSupported() {
+        return m_passphrase != null;
+    }
+
+    /**
+     * Returns PBKDF2 iteration count used for newly created key stores
+     */
+    public synchronized int getKdfIterations() {
+        return m_kdfIterations;
+    }
+
+    /**
+     * Sets PBKDF2 iteration count used for newly created key stores.
+     * Existing key stores keep the count they were created with.
+     *
+     * @param iterations    Iteration count
+     */
+    public synchronized void setKdfIterations(int iterations) {
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+
+        m_kdfIterations = iterations;
+    }
+
+    /**
+     * Gets password from key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public String getPassword(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        char[] passwordChars = getPasswordChars(service, account);
+
+        String password = new String(passwordChars);
+        SecretCodec.wipe(passwordChars);
+
+        return password;
+    }
+
+    /**
+     * Gets password from key store as chars, without creating a String
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public char[] getPasswordChars(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+        return readPasswords(Arrays.asList(key)).get(key);
+    }
+
+    /**
+     * Gets passwords from key store, locking and reading the file once
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    @Override
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (Map.Entry<ServiceAccountKey, char[]> entry : readPasswords(keys).entrySet()) {
+            passwords.put(entry.getKey(), new String(entry.getValue()));
+            SecretCodec.wipe(entry.getValue());
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Sets password to key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPassword(String service, String account, String password)
+            throws LockException, PasswordSaveException {
+
+        setPasswords(Collections.singletonMap(new ServiceAccountKey(service, account), password));
+    }
+
+    /**
+     * Sets password to key store from chars, without creating a String
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        if (password == null) {
+            throw new PasswordSaveException("Password must not be null");
+        }
+
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+        if (KDF_KEY.equals(key)) {
+            throw new PasswordSaveException("Service and account are reserved by the backend: " + key);
+        }
+
+        try {
+            RecordStore store = getStore();
+            store.put(key, encrypt(getKey(store, true), key, CharBuffer.wrap(password)));
+        } catch (IOException ex) {
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to save password entries to a file");
+        } catch (GeneralSecurityException ex) {
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to encrypt password");
+        }
+    }
+
+    /**
+     * Sets passwords to key store, writing the file once
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    @Override
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
+
+        try {
+            //
+            RecordStore store = getStore();
+            SecretKeySpec secretKey = getKey(store, true);
+
+            Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+            for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+                if (entry.getValue() == null) {
+                    throw new PasswordSaveException("Password must not be null");
+                }
+                if (KDF_KEY.equals(entry.getKey())) {
+                    throw new PasswordSaveException(
+                            "Service and account are reserved by the backend: " + entry.getKey());
+                }
+
+                entries.put(entry.getKey(),
+                        encrypt(secretKey, entry.getKey(), CharBuffer.wrap(entry.getValue())));
+            }
+
+            //
+            store.putAll(entries);
+        } catch (IOException ex) {
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to save password entries to a file");
+        } catch (GeneralSecurityException ex) {
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to encrypt password");
+        }
+    }
+
+    /**
+     * Gets backend ID
+     */
+    @Override
+    public String getID() {
+        return "EncryptedFile";
+    }
+
+    /**
+     * Reads and decrypts passwords, together with the key parameters, under one lock
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     */
+    private Map<ServiceAccountKey, char[]> readPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        if (keys.contains(KDF_KEY)) {
+            throw new PasswordRetrievalException("Service and account are reserved by the backend: " + KDF_KEY);
+        }
+
+        //
+        List<ServiceAccountKey> lookup = new ArrayList<ServiceAccountKey>(keys.size() + 1);
+        lookup.add(KDF_KEY);
+        lookup.addAll(keys);
+
+        Map<ServiceAccountKey, byte[]> entries;
+        try {
+            entries = getStore().getAll(lookup);
+        } catch (IOException ex) {
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordRetrievalException("Failed to load password entries from a file");
+        }
+
+        //
+        Map<ServiceAccountKey, char[]> passwords = new LinkedHashMap<ServiceAccountKey, char[]>();
+        try {
+            SecretKeySpec secretKey = null;
+
+            for (ServiceAccountKey key : keys) {
+                byte[] record = entries.get(key);
+                if (record == null) {
+                    throw new PasswordRetrievalException(
+                            "Password related to the specified service and account is not found: " + key);
+                }
+
+                if (secretKey == null) { secretKey = getKey(entries.get(KDF_KEY)); }
+                passwords.put(key, decrypt(secretKey, key, record));
+            }
+        } catch (GeneralSecurityException ex) {
+            for (char[] password : passwords.values()) { SecretCodec.wipe(password); }
+
+            Logger.getLogger(EncryptedFileBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordRetrievalException("Failed to decrypt password");
+        } catch (PasswordRetrievalException ex) {
+            for (char[] password : passwords.values()) { SecretCodec.wipe(password); }
+            throw ex;
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Returns the key of the key store, creating its parameters when it has none yet
+     *
+     * @param store     Key store
+     * @param create    True to create parameters of a new key store
+     */
+    private SecretKeySpec getKey(RecordStore store, boolean create)
+            throws LockException, IOException, GeneralSecurityException {
+
+        byte[] parameters = store.get(KDF_KEY);
+
+        if (parameters == null && create) {
+            byte[] created = createParameters();
+
+            // another process may have created the key store at the same time
+            parameters = store.putIfAbsent(KDF_KEY, created);
+            if (parameters == null) { parameters = created; }
+        }
+
+        return getKey(parameters);
+    }
+
+    /**
+     * Returns the key described by key parameters read from the key store
+     *
+     * @param parameters    Key parameters
+     *
+     * @throws GeneralSecurityException Thrown when the parameters are malformed or the passphrase is wrong
+     */
+    private SecretKeySpec getKey(byte[] parameters) throws GeneralSecurityException {
+        //
+        if (m_passphrase == null) {
+            throw new GeneralSecurityException("Passphrase is not specified");
+        }
+
+        synchronized (this) {
+            if (m_key != null && Arrays.equals(m_parameters, parameters)) { return m_key; }
+        }
+
+        //
+        if (parameters == null || parameters.length != PARAMETERS_SIZE || parameters[0] != FORMAT_VERSION) {
+            throw new GeneralSecurityException("Key parameters of the key store are malformed");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(parameters);
+        buffer.get();
+        int iterations = buffer.getInt();
+        byte[] salt = new byte[SALT_SIZE];
+        buffer.get(salt);
+        byte[] check = new byte[parameters.length - buffer.position()];
+        buffer.get(check);
+
+        //
+        SecretKeySpec key = DerivedKeyCache.getKey(m_passphrase, salt, iterations);
+        try {
+            decrypt(key, CHECK_AAD, check);
+        } catch (AEADBadTagException ex) {
+            throw new GeneralSecurityException("Wrong passphrase for the key store", ex);
+        }
+
+        DerivedKeyCache.put(m_passphrase, salt, iterations, key);
+
+        synchronized (this) {
+            m_parameters = parameters;
+            m_key = key;
+        }
+
+        return key;
+    }
+
+    /**
+     * Creates key parameters of a new key store: format version, iteration count,
+     * salt, and an empty message encrypted with the key, which detects wrong passphrases
+     */
+    private byte[] createParameters() throws GeneralSecurityException {
+        //
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+
+        int iterations = getKdfIterations();
+        SecretKeySpec key = DerivedKeyCache.getKey(m_passphrase, salt, iterations);
+
+        byte[] check = encrypt(key, CHECK_AAD, ByteBuffer.allocate(0));
+        DerivedKeyCache.put(m_passphrase, salt, iterations, key);
+
+        //
+        ByteBuffer parameters = ByteBuffer.allocate(PARAMETERS_SIZE);
+        parameters.put(FORMAT_VERSION);
+        parameters.putInt(iterations);
+        parameters.put(salt);
+        parameters.put(check);
+
+        return parameters.array();
+    }
+
+    /**
+     * Encrypts password of service and account
+     *
+     * @param secretKey Key of the key store
+     * @param key       Service and account
+     * @param password  Password
+     */
+    private static byte[] encrypt(SecretKeySpec secretKey, ServiceAccountKey key, CharBuffer password)
+            throws GeneralSecurityException {
+
+        ByteBuffer passwordBytes = SecretCodec.encode(password);
+        try {
+            return encrypt(secretKey, associatedData(key), passwordBytes);
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Decrypts password of service and account
+     *
+     * @param secretKey Key of the key store
+     * @param key       Service and account
+     * @param record    Encrypted record
+     */
+    private static char[] decrypt(SecretKeySpec secretKey, ServiceAccountKey key, byte[] record)
+            throws GeneralSecurityException {
+
+        byte[] passwordBytes = decrypt(secretKey, associatedData(key), record);
+        try {
+            return SecretCodec.decode(ByteBuffer.wrap(passwordBytes));
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Encrypts the remaining bytes of plaintext with a random nonce
+     *
+     * @return  Record of format version, nonce, ciphertext and tag
+     */
+    private static byte[] encrypt(SecretKeySpec secretKey, byte[] associatedData, ByteBuffer plaintext)
+            throws GeneralSecurityException {
+
+        //
+        byte[] nonce = new byte[NONCE_SIZE];
+        RANDOM.nextBytes(nonce);
+
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(associatedData);
+
+        //
+        ByteBuffer record = ByteBuffer.allocate(1 + NONCE_SIZE + cipher.getOutputSize(plaintext.remaining()));
+        record.put(FORMAT_VERSION);
+        record.put(nonce);
+        cipher.doFinal(plaintext, record);
+
+        return Arrays.copyOf(record.array(), record.position());
+    }
+
+    /**
+     * Decrypts a record written by encrypt
+     *
+     * @throws AEADBadTagException  Thrown when the record was not encrypted by the key
+     *                              for the associated data, or was modified
+     */
+    private static byte[] decrypt(SecretKeySpec secretKey, byte[] associatedData, byte[] record)
+            throws GeneralSecurityException {
+
+        if (record.length < 1 + NONCE_SIZE + TAG_BITS / 8 || record[0] != FORMAT_VERSION) {
+            throw new GeneralSecurityException("Encrypted record is malformed");
+        }
+
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, record, 1, NONCE_SIZE));
+        cipher.updateAAD(associatedData);
+
+        return cipher.doFinal(record, 1 + NONCE_SIZE, record.length - 1 - NONCE_SIZE);
+    }
+
+    /**
+     * Returns data a record is bound to: length of service name, service name and account name
+     */
+    private static byte[] associatedData(ServiceAccountKey key) {
+        byte[] service = key.getService().getBytes(StandardCharsets.UTF_8);
+        byte[] account = key.getAccount().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer data = ByteBuffer.allocate(4 + service.length + account.length);
+        data.putInt(service.length);
+        data.put(service);
+        data.put(account);
+
+        return data.array();
+    }
+
+    /**
+     * System property which holds the passphrase
+     */
+    public static final String PASSPHRASE_PROPERTY = "net.east301.keyring.passphrase";
+
+    /**
+     * Environment variable which holds the passphrase
+     */
+    public static final String PASSPHRASE_VARIABLE = "JAVA_KEYRING_PASSPHRASE";
+
+    /**
+     * Default PBKDF2 iteration count
+     */
+    public static final int DEFAULT_KDF_ITERATIONS = 600000;
+
+    /**
+     * Record which holds key parameters, rejected as service and account by
+     * getPassword and setPassword
+     */
+    private static final ServiceAccountKey KDF_KEY = new ServiceAccountKey("\u0000java-keyring", "kdf");
+
+    /**
+     * Associated data of the empty message in key parameters
+     */
+    private static final byte[] CHECK_AAD = "java-keyring key check".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_BITS = 128;
+
+    /**
+     * Size of key parameters: version, iteration count, salt and encrypted empty message
+     */
+    private static final int PARAMETERS_SIZE = 1 + 4 + SALT_SIZE + 1 + NONCE_SIZE + TAG_BITS / 8;
+
+    /**
+     * Source of salts and nonces
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * AES-GCM cipher of each thread
+     */
+    private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance("AES/GCM/NoPadding");
+            } catch (GeneralSecurityException ex) {
+                throw new IllegalStateException("AES/GCM is not available", ex);
+            }
+        }
+    };
+
+    /**
+     * Passphrase, or null when not specified
+     */
+    private final char[] m_passphrase;
+
+    /**
+     * PBKDF2 iteration count used for newly created key stores
+     */
+    private int m_kdfIterations = DEFAULT_KDF_ITERATIONS;
+
+    /**
+     * Key parameters m_key was derived by
+     */
+    private byte[] m_parameters;
+
+    /**
+     * Key of the key store last used
+     */
+    private SecretKeySpec m_key;
+
+} // class EncryptedFileBackend
@@ -0,0 +1,45 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.file;
+
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers EncryptedFileBackend
+ */
+public class EncryptedFileBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "EncryptedFile";
+    }
+
+    @Override
+    public int getPriority() {
+        return 100;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.PERSISTENT, BackendCapability.ENCRYPTED, BackendCapability.BATCH);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new EncryptedFileBackend();
+    }
+
+} // class EncryptedFileBackendProvider
@@ -6,25 +6,37 @@
 
 package net.east301.keyring.gnome;
 
-import com.sun.jna.Library;
 import com.sun.jna.Pointer;
 import com.sun.jna.ptr.IntByReference;
 import com.sun.jna.ptr.PointerByReference;
 
 /**
- * GKLib
+ * GKLib, bound by JNA direct mapping when NativeLibraryManager loads libgnome-keyring
  */
-interface GKLib extends Library {
+final class GKLib {
 
-	int gnome_keyring_item_get_info_full_sync(String keyring, int id, int flags, PointerByReference item_info);
+	static native int gnome_keyring_item_get_info_full_sync(String keyring, int id, int flags, PointerByReference item_info);
 
-	void gnome_keyring_item_info_free(Pointer item_info);
+	static native void gnome_keyring_item_info_free(Pointer item_info);
 
-	String gnome_keyring_item_info_get_secret(Pointer item_info);
+	static native Pointer gnome_keyring_item_info_get_secret(Pointer item_info);
 
-	String gnome_keyring_result_to_message(int r);
+	static native void gnome_keyring_free_password(Pointer password);
 
-	int gnome_keyring_set_network_password_sync(String keyring, String user, String domain, String server,
+	static native String gnome_keyring_result_to_message(int r);
+
+	static native int gnome_keyring_set_network_password_sync(String keyring, String user, String domain, String server,
 			String object, String protocol, String authtype, int port, String password, IntByReference item_id);
 
-} // interface GKLib
+	static native int gnome_keyring_find_network_password_sync(String user, String domain, String server, String object,
+			String protocol, String authtype, int port, PointerByReference results);
+
+	static native void gnome_keyring_network_password_list_free(Pointer list);
+
+	/**
+	 * Prevents instantiation
+	 */
+	private GKLib() {
+	}
+
+} // class GKLib
@@ -0,0 +1,49 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.NativeResourceTracker;
+
+/**
+ * Calls to GNOME Keyring used by GNOMEKeyringBackend.
+ * NativeGNOMEKeyring implements them through GKLib; tests and benchmarks
+ * substitute an implementation which does not need the keyring daemon.
+ * Native resources obtained by a call are registered to the scope given by
+ * the caller, which frees them.
+ */
+interface GNOMEKeyring {
+
+    /**
+     * Reads secret of an item
+     *
+     * @param id    Item ID
+     * @param scope Scope of the caller
+     *
+     * @return  Secret, or null when no item has the ID
+     */
+    String getSecret(int id, NativeResourceTracker.Scope scope) throws PasswordRetrievalException;
+
+    /**
+     * Searches the network password item of specified service and account by its attributes
+     *
+     * @param scope Scope of the caller
+     *
+     * @return  Item ID, or null when not found
+     */
+    Integer findNetworkPassword(String service, String account, NativeResourceTracker.Scope scope)
+            throws PasswordRetrievalException;
+
+    /**
+     * Stores a network password, replacing the item of the same service and account
+     *
+     * @return  ID of the item
+     */
+    int setNetworkPassword(String service, String account, String password) throws PasswordSaveException;
+
+} // interface GNOMEKeyring
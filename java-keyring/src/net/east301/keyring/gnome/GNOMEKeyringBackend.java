@@ -6,51 +6,76 @@
 
 package net.east301.keyring.gnome;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.sun.jna.Platform;
-import com.sun.jna.Pointer;
-import com.sun.jna.ptr.IntByReference;
-import com.sun.jna.ptr.PointerByReference;
 
 import net.east301.keyring.BackendNotSupportedException;
-import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.FileBasedKeyringBackend;
 import net.east301.keyring.PasswordRetrievalException;
 import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.store.LegacyStoreReader;
+import net.east301.keyring.store.RecordStore;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.NativeResourceStatistics;
+import net.east301.keyring.util.NativeResourceTracker;
+import net.east301.keyring.util.RestrictedObjectInputStream;
+import net.east301.keyring.util.ServiceAccountKey;
 
 /**
- * Keyring backend which uses GNOME Keyring
+ * Keyring backend which uses GNOME Keyring.
+ *
+ * Items are looked up by their IDs kept in a map file, which is cached in memory
+ * until another process modifies it. The map is only an accelerator: an item
+ * missing from it, or whose ID is stale, is found by attribute search.
  */
-public class GNOMEKeyringBackend extends KeyringBackend {
-	
-    @Override
-    public void setup() throws BackendNotSupportedException {
-        NativeLibraryManager.loadNativeLibraries();
-        
+public class GNOMEKeyringBackend extends FileBasedKeyringBackend {
+
+    /**
+     * Initializes an instance of GNOMEKeyringBackend
+     */
+    public GNOMEKeyringBackend() {
+        this(null);
     }
 
     /**
-     * Returns true when the backend is supported
+     * Initializes an instance of GNOMEKeyringBackend
+     *
+     * @param keyring   GNOME Keyring to be used, or null to call libgnome-keyring
      */
+    GNOMEKeyringBackend(GNOMEKeyring keyring) {
+        super(StoreFormat.MAPPED_HASH);
+        m_keyring = keyring;
+    }
+
     @Override
-    public boolean isSupported() {
-        return Platform.isLinux();
+    public void setup() throws BackendNotSupportedException {
+        if (m_keyring == null) {
+            NativeLibraryManager.loadNativeLibraries();
+            m_keyring = new NativeGNOMEKeyring();
+        }
     }
 
     /**
-     * Returns true if the backend directory uses some file to store passwords
+     * Returns true when the backend is supported
      */
     @Override
-    public boolean isKeyStorePathRequired() {
-        return true;
+    public boolean isSupported() {
+        return Platform.isLinux();
     }
 
     /**
@@ -65,25 +90,59 @@ public class GNOMEKeyringBackend extends KeyringBackend {
      */
     @Override
     public String getPassword(String service, String account)
-            throws PasswordRetrievalException {
-
-		PointerByReference ptr = new PointerByReference();
-		Pointer item = null;
-		Map<String, Integer> map = loadMap();
-		Integer id = map.get(service + "/" + account);
-		if(id == null)
-			throw new PasswordRetrievalException("No password stored for this service and account.");
-		try {
-			int result = NativeLibraryManager.gklib.gnome_keyring_item_get_info_full_sync(null, id, 1, ptr);
-			if (result == 0) {
-				return NativeLibraryManager.gklib.gnome_keyring_item_info_get_secret(ptr.getValue());
-			} else {
-				throw new PasswordRetrievalException(NativeLibraryManager.gklib.gnome_keyring_result_to_message(result));
-			}
-		} finally {
-			if (item != null)
-				NativeLibraryManager.gklib.gnome_keyring_item_info_free(item);
-		}
+            throws LockException, PasswordRetrievalException {
+
+        if (isReserved(service)) {
+            throw new PasswordRetrievalException("Service name must not start with a reserved prefix.");
+        }
+
+        String password = getSecret(service, account, lookUpItemId(service, account));
+        if (password == null) {
+            throw new PasswordRetrievalException("No password stored for this service and account.");
+        }
+
+        return password;
+    }
+
+    /**
+     * Gets passwords from key store, reading the item ID map once
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    @Override
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        for (ServiceAccountKey key : keys) {
+            if (isReserved(key.getService())) {
+                throw new PasswordRetrievalException("Service name must not start with a reserved prefix.");
+            }
+        }
+
+        Map<ServiceAccountKey, Integer> ids = Collections.emptyMap();
+        if (getKeyStorePath() != null) {
+            try {
+                ids = loadItemIds(keys);
+            } catch (IOException ex) {
+                Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (ServiceAccountKey key : keys) {
+            String password = getSecret(key.getService(), key.getAccount(), ids.get(key));
+            if (password == null) {
+                throw new PasswordRetrievalException("No password stored for " + key + ".");
+            }
+
+            passwords.put(key, password);
+        }
+
+        return passwords;
     }
 
     /**
@@ -97,16 +156,113 @@ public class GNOMEKeyringBackend extends KeyringBackend {
      */
     @Override
     public void setPassword(String service, String account, String password)
-            throws PasswordSaveException {
-    	IntByReference ref = new IntByReference();
-    	int result = NativeLibraryManager.gklib.gnome_keyring_set_network_password_sync(null, account, null, service, null, null, null, 0,
-    			password, ref);
-		if (result != 0) {
-			throw new PasswordSaveException(NativeLibraryManager.gklib.gnome_keyring_result_to_message(result));
-		}
-		Map<String, Integer> map = loadMap();
-		map.put(service + "/" + account, ref.getValue());
-		saveMap(map);
+            throws LockException, PasswordSaveException {
+
+        if (isReserved(service)) {
+            throw new PasswordSaveException("Service name must not start with a reserved prefix.");
+        }
+
+        int id = m_keyring.setNetworkPassword(service, account, password);
+        if (getKeyStorePath() == null) { return; }
+
+        try {
+            saveItemId(service, account, id);
+        } catch (IOException ex) {
+            // the item is found by attribute search without the map
+            Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * Sets passwords to key store, writing the item ID map once
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    @Override
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
+
+        for (ServiceAccountKey key : passwords.keySet()) {
+            if (isReserved(key.getService())) {
+                throw new PasswordSaveException("Service name must not start with a reserved prefix.");
+            }
+        }
+
+        Map<ServiceAccountKey, Integer> ids = new LinkedHashMap<ServiceAccountKey, Integer>();
+        try {
+            for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+                ServiceAccountKey key = entry.getKey();
+                ids.put(key, m_keyring.setNetworkPassword(key.getService(), key.getAccount(), entry.getValue()));
+            }
+        } finally {
+            // keep IDs of items which were created before a failure
+            if (getKeyStorePath() != null) {
+                try {
+                    saveItemIds(ids);
+                } catch (IOException ex) {
+                    Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads secret of the item related to specified service and account.
+     * When id is null or stale, the item is searched by its attributes and
+     * the map is updated with the found ID.
+     *
+     * @param id    Item ID read from the map, or null
+     *
+     * @return  Secret, or null when no item is stored
+     */
+    private String getSecret(String service, String account, Integer id)
+            throws LockException, PasswordRetrievalException {
+
+        NativeResourceTracker.Scope scope = m_resources.open();
+        try {
+            String secret = id == null ? null : m_keyring.getSecret(id, scope);
+            if (secret != null) { return secret; }
+
+            //
+            Integer found = m_keyring.findNetworkPassword(service, account, scope);
+            secret = found == null ? null : m_keyring.getSecret(found, scope);
+            if (secret != null && getKeyStorePath() != null) {
+                try {
+                    saveItemId(service, account, found);
+                } catch (IOException ex) {
+                    Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+
+            return secret;
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Looks up item ID in the map, which is only an accelerator of attribute search
+     *
+     * @return  Item ID, or null when not found or the map cannot be read
+     */
+    private Integer lookUpItemId(String service, String account) throws LockException {
+        if (getKeyStorePath() == null) { return null; }
+
+        try {
+            return loadItemId(service, account);
+        } catch (IOException ex) {
+            Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns counts of native resources obtained from GNOME Keyring by this backend
+     */
+    public NativeResourceStatistics getNativeResourceStatistics() {
+        return m_resources.getStatistics();
     }
 
     /**
@@ -118,50 +274,223 @@ public class GNOMEKeyringBackend extends KeyringBackend {
     }
 
     /**
-     * Loads map from a file.
-     * This method is not thread/process safe.
+     * Looks up GNOME Keyring item ID related to specified service and account
+     *
+     * @return  Item ID, or null when not found
      */
-    @SuppressWarnings("unchecked")
-	private Map<String, Integer> loadMap() {
-		try {
-			File f = new File(m_keyStorePath);
-			if (f.exists() && f.length() > 0) {
-				ObjectInputStream fin = new ObjectInputStream(new FileInputStream(f));
-				try {
-					return (Map<String, Integer>) fin.readObject();
-				} finally {
-					fin.close();
-				}
-			}
-		} catch (Exception ex) {
-			Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.SEVERE, null, ex);
-		}
-		return new HashMap<String, Integer>();
+    Integer loadItemId(String service, String account) throws LockException, IOException {
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+        RecordStore store = validateItemIds();
+
+        Integer id = m_itemIds.get(key);
+        if (id != null) { return id; }
+
+        //
+        byte[] value = store.get(key);
+        if (value == null) {
+            // entry migrated from a map file written by an earlier version
+            value = store.get(legacyKey(service, account));
+        }
+        if (value == null) { return null; }
+
+        id = ByteBuffer.wrap(value).getInt();
+        m_itemIds.put(key, id);
+
+        return id;
+    }
+
+    /**
+     * Stores GNOME Keyring item ID related to specified service and account
+     */
+    void saveItemId(String service, String account, int id) throws LockException, IOException {
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+        getStore().put(key, ByteBuffer.allocate(4).putInt(id).array());
+        m_itemIds.put(key, id);
     }
 
     /**
-     * Saves account/save to ID map to a file
-     * This method is not thread/process safe.
+     * Looks up GNOME Keyring item IDs related to specified services and accounts
      *
-     * @param entries   Map to be saved
+     * @return  { Service and account => item ID }; keys which are not found are left out
+     */
+    Map<ServiceAccountKey, Integer> loadItemIds(Collection<ServiceAccountKey> keys)
+            throws LockException, IOException {
+
+        RecordStore store = validateItemIds();
+
+        Map<ServiceAccountKey, Integer> ids = new LinkedHashMap<ServiceAccountKey, Integer>();
+        List<ServiceAccountKey> missing = new ArrayList<ServiceAccountKey>();
+        for (ServiceAccountKey key : keys) {
+            Integer id = m_itemIds.get(key);
+            if (id != null) {
+                ids.put(key, id);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) { return ids; }
+
+        //
+        Map<ServiceAccountKey, byte[]> values = store.getAll(missing);
+
+        if (values.size() < missing.size()) {
+            // entries migrated from a map file written by an earlier version
+            Map<ServiceAccountKey, ServiceAccountKey> legacyKeys =
+                    new LinkedHashMap<ServiceAccountKey, ServiceAccountKey>();
+            for (ServiceAccountKey key : missing) {
+                if (!values.containsKey(key)) {
+                    legacyKeys.put(legacyKey(key.getService(), key.getAccount()), key);
+                }
+            }
+
+            for (Map.Entry<ServiceAccountKey, byte[]> entry : store.getAll(legacyKeys.keySet()).entrySet()) {
+                values.put(legacyKeys.get(entry.getKey()), entry.getValue());
+            }
+        }
+
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : values.entrySet()) {
+            Integer id = ByteBuffer.wrap(entry.getValue()).getInt();
+            ids.put(entry.getKey(), id);
+            m_itemIds.put(entry.getKey(), id);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Stores GNOME Keyring item IDs related to services and accounts
      *
-     * @throws PasswordSaveException    Thrown when an error happened while writing to a file
+     * @param ids   { Service and account => item ID }
      */
-    private void saveMap(Map<String, Integer> map)
-            throws PasswordSaveException {
+    void saveItemIds(Map<ServiceAccountKey, Integer> ids) throws LockException, IOException {
+        Map<ServiceAccountKey, byte[]> values = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (Map.Entry<ServiceAccountKey, Integer> entry : ids.entrySet()) {
+            values.put(entry.getKey(), ByteBuffer.allocate(4).putInt(entry.getValue()).array());
+        }
 
-        try {
-        	ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(m_keyStorePath));
-            try {
-	            fout.writeObject(map);
-	            fout.flush();
+        getStore().putAll(values);
+        m_itemIds.putAll(ids);
+    }
+
+    /**
+     * Returns number of item IDs held in memory
+     */
+    int getCachedItemIdCount() {
+        return m_itemIds.size();
+    }
+
+    /**
+     * Drops cached item IDs when the map file was modified by another instance or
+     * replaced by another file. IDs this instance saves are cached as they are saved.
+     *
+     * @return  Store of the map
+     */
+    private RecordStore validateItemIds() throws IOException {
+        RecordStore store = getStore();
+        long stamp = store.getForeignChangeStamp();
+
+        synchronized (m_itemIds) {
+            if (store != m_itemIdsStore || stamp != m_itemIdsStamp) {
+                m_itemIds.clear();
+                m_itemIdsStore = store;
+                m_itemIdsStamp = stamp;
             }
-            finally {
-            	fout.close();
+        }
+
+        return store;
+    }
+
+    /**
+     * Returns a reader of map files written by ObjectOutputStream.
+     * Their "service/account" keys cannot be split reliably, so each entry is kept
+     * under service LEGACY_SERVICE_PREFIX + "service/account" and account LEGACY_ACCOUNT.
+     */
+    @Override
+    protected LegacyStoreReader getLegacyReader() {
+        return new LegacyStoreReader() {
+            @Override
+            public Map<ServiceAccountKey, byte[]> read(String path) throws IOException {
+                Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+                for (Map.Entry<String, Integer> entry : loadMap(path).entrySet()) {
+                    entries.put(new ServiceAccountKey(LEGACY_SERVICE_PREFIX + entry.getKey(), LEGACY_ACCOUNT),
+                            ByteBuffer.allocate(4).putInt(entry.getValue()).array());
+                }
+
+                return entries;
             }
-        } catch (Exception ex) {
-            Logger.getLogger(GNOMEKeyringBackend.class.getName()).log(Level.SEVERE, null, ex);
-            throw new PasswordSaveException("Failed to save password entries to a file");
+        };
+    }
+
+    /**
+     * Returns the key which an entry of a legacy map file for service and account is kept under
+     */
+    private static ServiceAccountKey legacyKey(String service, String account) {
+        return new ServiceAccountKey(LEGACY_SERVICE_PREFIX + service + "/" + account, LEGACY_ACCOUNT);
+    }
+
+    /**
+     * Returns true when service starts with LEGACY_SERVICE_PREFIX, which callers must not use
+     */
+    private static boolean isReserved(String service) {
+        return service.startsWith(LEGACY_SERVICE_PREFIX);
+    }
+
+    /**
+     * Loads map from a file written by ObjectOutputStream,
+     * the format used by earlier versions of this backend.
+     *
+     * @param path  Path to map file
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Integer> loadMap(String path) throws IOException {
+        ObjectInputStream fin = new RestrictedObjectInputStream(new FileInputStream(path),
+                HashMap.class, Integer.class, Number.class);
+        try {
+            return (Map<String, Integer>) fin.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Failed to read legacy map file", ex);
+        } catch (ClassCastException ex) {
+            throw new IOException("Failed to read legacy map file", ex);
+        } finally {
+            fin.close();
         }
     }
+
+    /**
+     * Prefix of service names of entries migrated from a legacy map file.
+     * It keeps them apart from real services, whose names may contain "/";
+     * services starting with it are rejected.
+     */
+    private static final String LEGACY_SERVICE_PREFIX = "\u0000legacy-map:";
+
+    /**
+     * Account name of entries migrated from a legacy map file
+     */
+    private static final String LEGACY_ACCOUNT = "";
+
+    /**
+     * GNOME Keyring, which is set by setup unless given to the constructor
+     */
+    private volatile GNOMEKeyring m_keyring;
+
+    /**
+     * Tracker of native resources obtained from m_keyring
+     */
+    private final NativeResourceTracker m_resources = new NativeResourceTracker();
+
+    /**
+     * Cache of the map, { Service and account => item ID }
+     */
+    private final Map<ServiceAccountKey, Integer> m_itemIds = new ConcurrentHashMap<ServiceAccountKey, Integer>();
+
+    /**
+     * Store whose entries m_itemIds holds, guarded by m_itemIds
+     */
+    private RecordStore m_itemIdsStore;
+
+    /**
+     * Change stamp of m_itemIdsStore when m_itemIds was last validated, guarded by m_itemIds
+     */
+    private long m_itemIdsStamp;
+
 } // class GNOMEKeyringBackend
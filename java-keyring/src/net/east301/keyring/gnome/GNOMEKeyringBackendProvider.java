@@ -0,0 +1,46 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import com.sun.jna.Platform;
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers GNOMEKeyringBackend
+ */
+public class GNOMEKeyringBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "GNOMEKeyring";
+    }
+
+    @Override
+    public int getPriority() {
+        return 200;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return Platform.isLinux();
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.PERSISTENT, BackendCapability.ENCRYPTED, BackendCapability.BATCH);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new GNOMEKeyringBackend();
+    }
+
+} // class GNOMEKeyringBackendProvider
@@ -0,0 +1,115 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.NativeReferences;
+import net.east301.keyring.util.NativeResourceTracker;
+
+/**
+ * GNOMEKeyring which calls libgnome-keyring through GKLib.
+ * Out parameters are the calling thread's reusable holders of NativeReferences.
+ * NativeLibraryManager.loadNativeLibraries must have succeeded before use.
+ */
+class NativeGNOMEKeyring implements GNOMEKeyring {
+
+    @Override
+    public String getSecret(int id, NativeResourceTracker.Scope scope) throws PasswordRetrievalException {
+        PointerByReference ptr = NativeReferences.pointer();
+        int result = GKLib.gnome_keyring_item_get_info_full_sync(null, id, GNOME_KEYRING_ITEM_INFO_SECRET, ptr);
+
+        if (result == GNOME_KEYRING_RESULT_NO_MATCH) {
+            return null;
+        } else if (result != 0) {
+            throw new PasswordRetrievalException(GKLib.gnome_keyring_result_to_message(result));
+        }
+
+        // both the item info and the copy of its secret are owned by the caller
+        Pointer item = scope.track(ptr.getValue(), ITEM_INFO_FREE);
+        Pointer secret = scope.track(GKLib.gnome_keyring_item_info_get_secret(item), FREE_PASSWORD);
+
+        return secret == null ? null : secret.getString(0, "UTF-8");
+    }
+
+    @Override
+    public Integer findNetworkPassword(String service, String account, NativeResourceTracker.Scope scope)
+            throws PasswordRetrievalException {
+
+        PointerByReference list = NativeReferences.pointer();
+        int result = GKLib.gnome_keyring_find_network_password_sync(
+                account, null, service, null, null, null, 0, list);
+
+        if (result == GNOME_KEYRING_RESULT_NO_MATCH) {
+            return null;
+        } else if (result != 0) {
+            throw new PasswordRetrievalException(GKLib.gnome_keyring_result_to_message(result));
+        }
+
+        // GList of GnomeKeyringNetworkPasswordData { gchar *keyring; guint32 item_id; ... }
+        Pointer node = scope.track(list.getValue(), NETWORK_PASSWORD_LIST_FREE);
+        return node == null ? null : node.getPointer(0).getInt(Native.POINTER_SIZE);
+    }
+
+    @Override
+    public int setNetworkPassword(String service, String account, String password) throws PasswordSaveException {
+        IntByReference ref = NativeReferences.integer();
+        int result = GKLib.gnome_keyring_set_network_password_sync(null, account, null, service, null, null, null, 0,
+                password, ref);
+        if (result != 0) {
+            throw new PasswordSaveException(GKLib.gnome_keyring_result_to_message(result));
+        }
+        return ref.getValue();
+    }
+
+    /**
+     * GNOME_KEYRING_RESULT_NO_MATCH
+     */
+    private static final int GNOME_KEYRING_RESULT_NO_MATCH = 9;
+
+    /**
+     * GNOME_KEYRING_ITEM_INFO_SECRET
+     */
+    private static final int GNOME_KEYRING_ITEM_INFO_SECRET = 1;
+
+    /**
+     * Frees GnomeKeyringItemInfo
+     */
+    private static final NativeResourceTracker.Releaser ITEM_INFO_FREE = new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            GKLib.gnome_keyring_item_info_free(resource);
+        }
+    };
+
+    /**
+     * Wipes and frees a secret
+     */
+    private static final NativeResourceTracker.Releaser FREE_PASSWORD = new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            GKLib.gnome_keyring_free_password(resource);
+        }
+    };
+
+    /**
+     * Frees a GList of GnomeKeyringNetworkPasswordData
+     */
+    private static final NativeResourceTracker.Releaser NETWORK_PASSWORD_LIST_FREE =
+            new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            GKLib.gnome_keyring_network_password_list_free(resource);
+        }
+    };
+
+} // class NativeGNOMEKeyring
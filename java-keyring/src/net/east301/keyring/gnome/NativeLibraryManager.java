@@ -14,27 +14,44 @@ import net.east301.keyring.BackendNotSupportedException;
  */
 class NativeLibraryManager {
 
+    /**
+     * Loads native libraries. Libraries are loaded once per JVM; after a failure
+     * the same error is reported again without retrying.
+     */
     public static synchronized void loadNativeLibraries() throws BackendNotSupportedException {
-        if (glib2 != null && gklib != null) { return; }
+        if (glib2 != null && gklibRegistered) { return; }
+        if (loadError != null) {
+            // loading is not retried, it would fail the same way
+            throw new BackendNotSupportedException(loadError);
+        }
 
         try {
             glib2 = (GLIB2)Native.loadLibrary(
                     "glib-2.0", GLIB2.class);
-            gklib = (GKLib)Native.loadLibrary(
-                    "gnome-keyring", GKLib.class);
+            // direct mapping binds the native methods once, instead of dispatching
+            // each call through a proxy
+            Native.register(GKLib.class, "gnome-keyring");
+            gklibRegistered = true;
         } catch (UnsatisfiedLinkError ex) {
-            throw new BackendNotSupportedException("Failed to load native library");
+            glib2 = null;
+            loadError = "Failed to load native library: " + ex.getMessage();
+            throw new BackendNotSupportedException(loadError);
         }
     }
 
+    /**
+     * Error message of the failed load, or null
+     */
+    private static String loadError = null;
+
     /**
      * An instance of CoreFoundationLibrary
      */
     public static GLIB2 glib2 = null;
 
     /**
-     * An instance of SecurityLibrary
+     * True once the native methods of GKLib are registered
      */
-    public static GKLib gklib = null;
+    private static boolean gklibRegistered = false;
 
 } // class NativeLibraryManager
@@ -0,0 +1,506 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.SecretCodec;
+
+/**
+ * On-memory key store which keeps passwords outside of the Java heap
+ *
+ * Passwords are stored as UTF-8 bytes in slabs of direct buffers, so they are
+ * neither copied by the garbage collector nor included in heap dumps, and a large
+ * number of them adds little to heap size. Replaced passwords are zeroed at once;
+ * wipe and close zero all of them.
+ *
+ * Each slot holds a record of service, account and password, and an open-addressing
+ * table of slot handles finds the record of a service and account. The table is the
+ * only per-password data on the heap, 12 to 24 bytes per password.
+ */
+public class OffHeapMemoryBackend extends KeyringBackend {
+
+    /**
+     * Initializes an instance of OffHeapMemoryBackend
+     */
+    public OffHeapMemoryBackend() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Initializes an instance of OffHeapMemoryBackend
+     *
+     * @param slabSize  Size of direct buffers passwords are allocated from, in bytes
+     */
+    public OffHeapMemoryBackend(int slabSize) {
+        m_arena = new SecretArena(slabSize);
+        clearTable();
+    }
+
+    /**
+     * Returns true when the backend is supported
+     */
+    @Override
+    public boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Returns true if the backend directory uses some file to store passwords
+     */
+    @Override
+    public boolean isKeyStorePathRequired() {
+        return false;
+    }
+
+    /**
+     * Gets password from key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public String getPassword(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        char[] passwordChars = getPasswordChars(service, account);
+
+        String password = new String(passwordChars);
+        SecretCodec.wipe(passwordChars);
+
+        return password;
+    }
+
+    /**
+     * Gets password from key store as chars, decoding them directly from off-heap memory
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public char[] getPasswordChars(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        m_lock.readLock().lock();
+        try {
+            return SecretCodec.decode(password(find(service, account)));
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets password from key store, copying its UTF-8 bytes from off-heap memory
+     * to a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param dst       Buffer the password is put to, from its position
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public int getPasswordBytes(String service, String account, ByteBuffer dst)
+            throws LockException, PasswordRetrievalException {
+
+        m_lock.readLock().lock();
+        try {
+            ByteBuffer password = password(find(service, account));
+
+            int length = password.remaining();
+            if (length > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+
+            dst.put(password);
+            return length;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sets password to key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPassword(String service, String account, String password)
+            throws LockException, PasswordSaveException {
+
+        if (password == null) {
+            throw new PasswordSaveException("Password must not be null");
+        }
+
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
+        try {
+            store(service, account, passwordBytes);
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Sets password to key store from chars, without creating a String
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        if (password == null) {
+            throw new PasswordSaveException("Password must not be null");
+        }
+
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
+        try {
+            store(service, account, passwordBytes);
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Sets password to key store from the remaining UTF-8 bytes of a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws LockException, PasswordSaveException {
+
+        if (password == null) {
+            throw new PasswordSaveException("Password must not be null");
+        }
+
+        store(service, account, password);
+    }
+
+    /**
+     * Moves passwords out of slabs which are mostly free, and releases the slabs
+     * which become empty. Call it after many passwords were replaced by passwords
+     * of different sizes.
+     *
+     * @return  Number of released slabs
+     */
+    public int compact() {
+        m_lock.writeLock().lock();
+        try {
+            //
+            if (m_arena.beginCompaction() > 0) {
+                for (int i = 0; i < m_handles.length; i++) {
+                    if (m_handles[i] != EMPTY && m_arena.isDraining(m_handles[i])) {
+                        m_handles[i] = m_arena.move(m_handles[i]);
+                    }
+                }
+            }
+
+            //
+            return m_arena.endCompaction();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Zeroes and removes all passwords
+     */
+    public void wipe() {
+        m_lock.writeLock().lock();
+        try {
+            clearTable();
+            m_arena.wipe();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Zeroes and removes all passwords, and releases off-heap memory.
+     * The backend can be used afterwards as an empty key store.
+     */
+    @Override
+    public void close() {
+        wipe();
+    }
+
+    /**
+     * Returns number of off-heap bytes held by the backend
+     */
+    public long getAllocatedBytes() {
+        m_lock.readLock().lock();
+        try {
+            return m_arena.getAllocatedBytes();
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns number of off-heap bytes used by stored passwords, including
+     * the unused tail of their slots
+     */
+    public long getLiveBytes() {
+        m_lock.readLock().lock();
+        try {
+            return m_arena.getLiveBytes();
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets backend ID
+     */
+    @Override
+    public String getID() {
+        return "OffHeapMemory";
+    }
+
+    /**
+     * Returns handle of the slot holding password. Called with the lock held.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    private long find(String service, String account) throws PasswordRetrievalException {
+        byte[] serviceBytes = service.getBytes(StandardCharsets.UTF_8);
+        byte[] accountBytes = account.getBytes(StandardCharsets.UTF_8);
+
+        int index = indexOf(serviceBytes, accountBytes, hash(serviceBytes, accountBytes));
+        if (index < 0) {
+            throw new PasswordRetrievalException(
+                    "Password related to the specified service and account is not found");
+        }
+
+        return m_handles[index];
+    }
+
+    /**
+     * Copies the remaining bytes of password to a new slot, and zeroes the slot of
+     * the password it replaces. The position of password is not changed.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     */
+    private void store(String service, String account, ByteBuffer password) throws PasswordSaveException {
+        byte[] serviceBytes = service.getBytes(StandardCharsets.UTF_8);
+        byte[] accountBytes = account.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(serviceBytes, accountBytes);
+
+        m_lock.writeLock().lock();
+        try {
+            //
+            long handle;
+            try {
+                handle = m_arena.allocate(RECORD_HEADER_SIZE
+                        + serviceBytes.length + accountBytes.length + password.remaining());
+            } catch (IllegalArgumentException ex) {
+                throw new PasswordSaveException(ex.getMessage());
+            } catch (OutOfMemoryError ex) {
+                throw new PasswordSaveException("Failed to allocate off-heap memory");
+            }
+
+            ByteBuffer record = m_arena.slot(handle);
+            record.putInt(serviceBytes.length);
+            record.putInt(accountBytes.length);
+            record.put(serviceBytes);
+            record.put(accountBytes);
+            record.put(password.duplicate());
+
+            //
+            int index = indexOf(serviceBytes, accountBytes, hash);
+            if (index >= 0) {
+                m_arena.free(m_handles[index]);
+                m_handles[index] = handle;
+                return;
+            }
+
+            if ((m_size + 1) * 2 > m_handles.length) {
+                resize(m_handles.length * 2);
+                index = indexOf(serviceBytes, accountBytes, hash);
+            }
+
+            m_handles[~index] = handle;
+            m_hashes[~index] = hash;
+            m_size++;
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a view of the password held by a record
+     *
+     * @param handle    Handle of the slot holding the record
+     */
+    private ByteBuffer password(long handle) {
+        ByteBuffer record = m_arena.slot(handle);
+
+        int position = record.position();
+        record.position(position + RECORD_HEADER_SIZE
+                + record.getInt(position) + record.getInt(position + 4));
+
+        return record;
+    }
+
+    /**
+     * Returns index of the record of service and account in the table, or when there
+     * is no such record, ~index of the empty entry it would be inserted at
+     */
+    private int indexOf(byte[] service, byte[] account, int hash) {
+        int mask = m_handles.length - 1;
+
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            if (m_handles[i] == EMPTY) { return ~i; }
+            if (m_hashes[i] == hash && matches(m_arena.slot(m_handles[i]), service, account)) { return i; }
+        }
+    }
+
+    /**
+     * Returns true when a record holds service and account
+     */
+    private static boolean matches(ByteBuffer record, byte[] service, byte[] account) {
+        int position = record.position();
+        if (record.getInt(position) != service.length || record.getInt(position + 4) != account.length) {
+            return false;
+        }
+
+        position += RECORD_HEADER_SIZE;
+        for (int i = 0; i < service.length; i++) {
+            if (record.get(position++) != service[i]) { return false; }
+        }
+        for (int i = 0; i < account.length; i++) {
+            if (record.get(position++) != account[i]) { return false; }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns hash of service and account
+     */
+    private static int hash(byte[] service, byte[] account) {
+        int hash = service.length;
+        for (byte b : service) { hash = 31 * hash + b; }
+        for (byte b : account) { hash = 31 * hash + b; }
+
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Moves the table to arrays of specified capacity, a power of two
+     */
+    private void resize(int capacity) {
+        long[] handles = m_handles;
+        int[] hashes = m_hashes;
+
+        m_handles = new long[capacity];
+        m_hashes = new int[capacity];
+        Arrays.fill(m_handles, EMPTY);
+
+        int mask = capacity - 1;
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] == EMPTY) { continue; }
+
+            int j = hashes[i] & mask;
+            while (m_handles[j] != EMPTY) { j = (j + 1) & mask; }
+
+            m_handles[j] = handles[i];
+            m_hashes[j] = hashes[i];
+        }
+    }
+
+    /**
+     * Replaces the table by an empty one
+     */
+    private void clearTable() {
+        m_handles = new long[INITIAL_TABLE_SIZE];
+        m_hashes = new int[INITIAL_TABLE_SIZE];
+        Arrays.fill(m_handles, EMPTY);
+        m_size = 0;
+    }
+
+    /**
+     * Default size of slabs, in bytes
+     */
+    private static final int DEFAULT_SLAB_SIZE = 64 * 1024;
+
+    /**
+     * Initial number of entries of the table, a power of two
+     */
+    private static final int INITIAL_TABLE_SIZE = 16;
+
+    /**
+     * Size of record header, which holds lengths of service and account
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Table entry which holds no handle
+     */
+    private static final long EMPTY = -1;
+
+    /**
+     * Guards the table and m_arena; reads share it
+     */
+    private final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    /**
+     * Handles of slots holding records, or EMPTY; kept at most half full
+     */
+    private long[] m_handles;
+
+    /**
+     * Hashes of service and account of the records in m_handles
+     */
+    private int[] m_hashes;
+
+    /**
+     * Number of records
+     */
+    private int m_size;
+
+    /**
+     * Off-heap memory passwords are stored in
+     */
+    private final SecretArena m_arena;
+
+} // class OffHeapMemoryBackend
@@ -0,0 +1,45 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers OffHeapMemoryBackend
+ */
+public class OffHeapMemoryBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "OffHeapMemory";
+    }
+
+    @Override
+    public int getPriority() {
+        return -100;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.noneOf(BackendCapability.class);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new OffHeapMemoryBackend();
+    }
+
+} // class OffHeapMemoryBackendProvider
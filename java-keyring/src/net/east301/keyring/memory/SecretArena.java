@@ -0,0 +1,372 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Slab allocator of secrets in direct buffers, used by OffHeapMemoryBackend.
+ *
+ * Slots are grouped in power-of-two size classes. Each slab is a direct buffer which
+ * holds slots of one class, and each slot starts with the length of its secret.
+ * Slots are zeroed when they are freed, and slabs when they are released.
+ * Allocated slots are addressed by handles, which stay valid until the slot is freed
+ * or moved by compaction.
+ *
+ * Instances are not thread safe.
+ */
+final class SecretArena {
+
+    /**
+     * Initializes an instance of SecretArena
+     *
+     * @param slabSize  Size of slabs in bytes; larger secrets get a slab of their own
+     */
+    SecretArena(int slabSize) {
+        if (slabSize < MIN_SLOT_SIZE) {
+            throw new IllegalArgumentException("slabSize must be at least " + MIN_SLOT_SIZE);
+        }
+
+        m_slabSize = slabSize;
+    }
+
+    /**
+     * Allocates a zeroed slot
+     *
+     * @param length    Length of secret
+     *
+     * @return  Handle of the slot
+     */
+    long allocate(int length) {
+        if (length < 0 || length > MAX_SECRET_SIZE) {
+            throw new IllegalArgumentException("Secret is too large: " + length + " bytes");
+        }
+
+        //
+        int sizeClass = sizeClass(length + HEADER_SIZE);
+        while (m_available.size() <= sizeClass) {
+            m_available.add(new ArrayList<Slab>());
+        }
+
+        //
+        ArrayList<Slab> available = m_available.get(sizeClass);
+        Slab slab = null;
+
+        for (int i = available.size() - 1; i >= 0; i--) {
+            if (!available.get(i).m_draining) {
+                slab = available.get(i);
+                break;
+            }
+        }
+
+        if (slab == null) {
+            slab = newSlab(sizeClass);
+            available.add(slab);
+        }
+
+        //
+        int offset = slab.m_free[--slab.m_freeCount];
+        slab.m_liveCount++;
+        if (slab.m_freeCount == 0) { available.remove(slab); }
+
+        slab.m_buffer.putInt(offset, length);
+        m_liveBytes += slab.m_slotSize;
+
+        return ((long)slab.m_id << 32) | offset;
+    }
+
+    /**
+     * Returns a view of the secret held by a slot, positioned at its first byte
+     *
+     * @param handle    Handle of the slot
+     */
+    ByteBuffer slot(long handle) {
+        Slab slab = m_slabs.get((int)(handle >>> 32));
+        int offset = (int)handle;
+
+        ByteBuffer view = slab.m_buffer.duplicate();
+        view.limit(offset + HEADER_SIZE + slab.m_buffer.getInt(offset));
+        view.position(offset + HEADER_SIZE);
+
+        return view;
+    }
+
+    /**
+     * Zeroes a slot and makes it available for allocation
+     *
+     * @param handle    Handle of the slot
+     */
+    void free(long handle) {
+        Slab slab = m_slabs.get((int)(handle >>> 32));
+        int offset = (int)handle;
+
+        zero(slab.m_buffer, offset, HEADER_SIZE + slab.m_buffer.getInt(offset));
+
+        slab.m_free[slab.m_freeCount++] = offset;
+        slab.m_liveCount--;
+        if (slab.m_freeCount == 1) { m_available.get(slab.m_sizeClass).add(slab); }
+
+        m_liveBytes -= slab.m_slotSize;
+    }
+
+    /**
+     * Marks slabs whose slots are mostly free as draining. Slots are no longer
+     * allocated from draining slabs, so that they become empty once their live slots
+     * are moved, and endCompaction releases them.
+     *
+     * @return  Number of slabs marked as draining
+     */
+    int beginCompaction() {
+        int count = 0;
+
+        for (ArrayList<Slab> available : m_available) {
+            // the fullest slab of each class keeps its slots
+            Slab fullest = null;
+            for (Slab slab : available) {
+                if (fullest == null || slab.m_liveCount > fullest.m_liveCount) { fullest = slab; }
+            }
+
+            for (Slab slab : available) {
+                if (slab != fullest && slab.m_liveCount < slab.m_slotCount * COMPACTION_OCCUPANCY) {
+                    slab.m_draining = true;
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns true when the slot is in a draining slab and should be moved
+     *
+     * @param handle    Handle of the slot
+     */
+    boolean isDraining(long handle) {
+        return m_slabs.get((int)(handle >>> 32)).m_draining;
+    }
+
+    /**
+     * Moves a secret to a newly allocated slot, and frees its current slot
+     *
+     * @param handle    Handle of the current slot
+     *
+     * @return  Handle of the new slot
+     */
+    long move(long handle) {
+        ByteBuffer source = slot(handle);
+
+        long moved = allocate(source.remaining());
+        slot(moved).put(source);
+        free(handle);
+
+        return moved;
+    }
+
+    /**
+     * Releases empty slabs, and ends compaction started by beginCompaction
+     *
+     * @return  Number of released slabs
+     */
+    int endCompaction() {
+        int count = 0;
+
+        for (int i = 0; i < m_slabs.size(); i++) {
+            Slab slab = m_slabs.get(i);
+            if (slab == null) { continue; }
+
+            slab.m_draining = false;
+            if (slab.m_liveCount == 0) {
+                release(slab);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Zeroes and releases all slabs, invalidating all handles
+     */
+    void wipe() {
+        for (Slab slab : m_slabs) {
+            if (slab != null) { zero(slab.m_buffer, 0, slab.m_buffer.capacity()); }
+        }
+
+        m_slabs.clear();
+        m_freeIds.clear();
+        m_available.clear();
+        m_allocatedBytes = 0;
+        m_liveBytes = 0;
+    }
+
+    /**
+     * Returns number of bytes held by slabs
+     */
+    long getAllocatedBytes() {
+        return m_allocatedBytes;
+    }
+
+    /**
+     * Returns number of bytes of allocated slots
+     */
+    long getLiveBytes() {
+        return m_liveBytes;
+    }
+
+    /**
+     * Returns number of slabs
+     */
+    int getSlabCount() {
+        return m_slabs.size() - m_freeIds.size();
+    }
+
+    /**
+     * Creates a slab of specified size class
+     */
+    private Slab newSlab(int sizeClass) {
+        //
+        int slotSize = 1 << sizeClass;
+        int slotCount = Math.max(1, m_slabSize / slotSize);
+
+        Slab slab = new Slab(sizeClass, slotSize, slotCount,
+                ByteBuffer.allocateDirect(slotSize * slotCount));
+
+        // slots are allocated from the beginning of the slab
+        for (int i = 0; i < slotCount; i++) {
+            slab.m_free[i] = (slotCount - 1 - i) * slotSize;
+        }
+        slab.m_freeCount = slotCount;
+
+        //
+        Integer id = m_freeIds.poll();
+        if (id == null) {
+            slab.m_id = m_slabs.size();
+            m_slabs.add(slab);
+        } else {
+            slab.m_id = id;
+            m_slabs.set(id, slab);
+        }
+
+        m_allocatedBytes += slab.m_buffer.capacity();
+        return slab;
+    }
+
+    /**
+     * Zeroes and drops an empty slab
+     */
+    private void release(Slab slab) {
+        zero(slab.m_buffer, 0, slab.m_buffer.capacity());
+
+        m_available.get(slab.m_sizeClass).remove(slab);
+        m_slabs.set(slab.m_id, null);
+        m_freeIds.add(slab.m_id);
+        m_allocatedBytes -= slab.m_buffer.capacity();
+    }
+
+    /**
+     * Returns size class of slots which can hold specified number of bytes
+     */
+    private static int sizeClass(int size) {
+        int slotSize = Math.max(MIN_SLOT_SIZE, size);
+        return 32 - Integer.numberOfLeadingZeros(slotSize - 1);
+    }
+
+    /**
+     * Zeroes a range of buffer
+     */
+    private static void zero(ByteBuffer buffer, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+
+        for (; i + 8 <= end; i += 8) { buffer.putLong(i, 0); }
+        for (; i < end; i++) { buffer.put(i, (byte)0); }
+    }
+
+    /**
+     * Direct buffer which holds slots of one size class
+     */
+    private static final class Slab {
+
+        Slab(int sizeClass, int slotSize, int slotCount, ByteBuffer buffer) {
+            m_sizeClass = sizeClass;
+            m_slotSize = slotSize;
+            m_slotCount = slotCount;
+            m_buffer = buffer;
+            m_free = new int[slotCount];
+        }
+
+        final int m_sizeClass;
+        final int m_slotSize;
+        final int m_slotCount;
+        final ByteBuffer m_buffer;
+
+        /**
+         * Offsets of free slots; the first m_freeCount elements are valid
+         */
+        final int[] m_free;
+
+        int m_freeCount;
+        int m_liveCount;
+        int m_id;
+        boolean m_draining;
+
+    } // class Slab
+
+    /**
+     * Size of slot header, which holds length of secret
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * Size of the smallest slots
+     */
+    private static final int MIN_SLOT_SIZE = 16;
+
+    /**
+     * Length of the largest secret
+     */
+    private static final int MAX_SECRET_SIZE = (1 << 30) - HEADER_SIZE;
+
+    /**
+     * Slabs whose share of live slots is below this value are drained by compaction
+     */
+    private static final double COMPACTION_OCCUPANCY = 0.5;
+
+    /**
+     * Size of slabs in bytes
+     */
+    private final int m_slabSize;
+
+    /**
+     * Slabs indexed by ID; released slabs leave null
+     */
+    private final ArrayList<Slab> m_slabs = new ArrayList<Slab>();
+
+    /**
+     * IDs of released slabs, reused by new slabs
+     */
+    private final ArrayDeque<Integer> m_freeIds = new ArrayDeque<Integer>();
+
+    /**
+     * Slabs which have free slots, indexed by size class
+     */
+    private final ArrayList<ArrayList<Slab>> m_available = new ArrayList<ArrayList<Slab>>();
+
+    /**
+     * Number of bytes held by slabs
+     */
+    private long m_allocatedBytes;
+
+    /**
+     * Number of bytes of allocated slots
+     */
+    private long m_liveBytes;
+
+} // class SecretArena
@@ -6,12 +6,12 @@
 
 package net.east301.keyring.memory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import net.east301.keyring.KeyringBackend;
 import net.east301.keyring.PasswordRetrievalException;
 import net.east301.keyring.PasswordSaveException;
 import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.ServiceAccountKey;
 
 /**
  * On-memory key store
@@ -22,7 +22,7 @@ public class UncryptedMemoryBackend extends KeyringBackend {
      * Initializes an instance of UncryptedMemoryBackend
      */
     public UncryptedMemoryBackend() {
-        m_store = new HashMap<String[], String>();
+        m_store = new ConcurrentHashMap<ServiceAccountKey, String>();
     }
 
     /**
@@ -55,20 +55,13 @@ public class UncryptedMemoryBackend extends KeyringBackend {
     public String getPassword(String service, String account)
             throws LockException, PasswordRetrievalException {
 
-        synchronized (m_store) {
-            //
-            for (Map.Entry<String[], String> entries : m_store.entrySet()) {
-                String[] serviceAndAccount = entries.getKey();
-
-                if (serviceAndAccount[0].equals(service) && serviceAndAccount[1].equals(account)) {
-                    return entries.getValue();
-                }
-            }
-
-            //
+        String password = m_store.get(new ServiceAccountKey(service, account));
+        if (password == null) {
             throw new PasswordRetrievalException(
                     "Password related to the specified service and account is not found");
-        } // synchronized
+        }
+
+        return password;
     }
 
     /**
@@ -84,23 +77,11 @@ public class UncryptedMemoryBackend extends KeyringBackend {
     public void setPassword(String service, String account, String password)
             throws LockException, PasswordSaveException {
 
-        synchronized (m_store) {
-            //
-            String[] targetKey = null;
-
-            for (Map.Entry<String[], String> entries : m_store.entrySet()) {
-                String[] serviceAndAccount = entries.getKey();
-
-                if (serviceAndAccount[0].equals(service) && serviceAndAccount[1].equals(account)) {
-                    targetKey = serviceAndAccount;
-                    break;
-                }
-            }
+        if (password == null) {
+            throw new PasswordSaveException("Password must not be null");
+        }
 
-            //
-            if (targetKey == null) { targetKey = new String[] { service, account }; }
-            m_store.put(targetKey, password);
-        } // synchronized
+        m_store.put(new ServiceAccountKey(service, account), password);
     }
 
     /**
@@ -112,8 +93,9 @@ public class UncryptedMemoryBackend extends KeyringBackend {
     }
 
     /**
-     * Password container
+     * Password container.
+     * Reads are lock-free and writes only contend within a single hash bin.
      */
-    private HashMap<String[], String> m_store;  // { {ServiceName, AccountName} => Password }
+    private final ConcurrentHashMap<ServiceAccountKey, String> m_store;
 
 } // class UncryptedMemoryBackend
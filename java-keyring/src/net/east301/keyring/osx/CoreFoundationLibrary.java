@@ -6,22 +6,27 @@
 
 package net.east301.keyring.osx;
 
-import com.sun.jna.Library;
 import com.sun.jna.Pointer;
 
 /**
- * OS X CoreFoundation library
+ * OS X CoreFoundation library, bound by JNA direct mapping when NativeLibraryManager loads it
  */
-interface CoreFoundationLibrary extends Library {
+final class CoreFoundationLibrary {
 
-    public long CFStringGetLength(              // CFIndex
+    static native long CFStringGetLength(       // CFIndex
             Pointer theString);                 // CFStringRef
 
-    public char CFStringGetCharacterAtIndex(    // UniChar
+    static native char CFStringGetCharacterAtIndex(  // UniChar
             Pointer theString,                  // CFStringRef
             long idx);                          // CFIndex
 
-    public void CFRelease(                      // void
+    static native void CFRelease(               // void
             Pointer cf);                        // CFTypeRef
 
-} // interface CoreFoundationLibrary
+    /**
+     * Prevents instantiation
+     */
+    private CoreFoundationLibrary() {
+    }
+
+} // class CoreFoundationLibrary
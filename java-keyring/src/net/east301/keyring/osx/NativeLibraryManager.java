@@ -14,27 +14,37 @@ import net.east301.keyring.BackendNotSupportedException;
  */
 class NativeLibraryManager {
 
+    /**
+     * Loads native libraries. Libraries are loaded once per JVM; after a failure
+     * the same error is reported again without retrying.
+     */
     public static synchronized void loadNativeLibraries() throws BackendNotSupportedException {
-        if (CoreFoundation != null && Security != null) { return; }
+        if (registered) { return; }
+        if (loadError != null) {
+            // loading is not retried, it would fail the same way
+            throw new BackendNotSupportedException(loadError);
+        }
 
         try {
-            CoreFoundation = (CoreFoundationLibrary)Native.loadLibrary(
-                    "CoreFoundation", CoreFoundationLibrary.class);
-            Security = (SecurityLibrary)Native.loadLibrary(
-                    "Security", SecurityLibrary.class);
+            // direct mapping binds the native methods once, instead of dispatching
+            // each call through a proxy
+            Native.register(CoreFoundationLibrary.class, "CoreFoundation");
+            Native.register(SecurityLibrary.class, "Security");
+            registered = true;
         } catch (UnsatisfiedLinkError ex) {
-            throw new BackendNotSupportedException("Failed to load native library");
+            loadError = "Failed to load native library: " + ex.getMessage();
+            throw new BackendNotSupportedException(loadError);
         }
     }
 
     /**
-     * An instance of CoreFoundationLibrary
+     * Error message of the failed load, or null
      */
-    public static CoreFoundationLibrary CoreFoundation = null;
+    private static String loadError = null;
 
     /**
-     * An instance of SecurityLibrary
+     * True once the native methods of CoreFoundationLibrary and SecurityLibrary are registered
      */
-    public static SecurityLibrary Security = null;
+    private static boolean registered = false;
 
 } // class NativeLibraryManager
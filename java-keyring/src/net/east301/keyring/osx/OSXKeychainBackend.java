@@ -8,11 +8,20 @@ package net.east301.keyring.osx;
 
 import com.sun.jna.Platform;
 import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import net.east301.keyring.BackendNotSupportedException;
 import net.east301.keyring.KeyringBackend;
 import net.east301.keyring.PasswordRetrievalException;
 import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.NativeReferences;
+import net.east301.keyring.util.NativeResourceStatistics;
+import net.east301.keyring.util.NativeResourceTracker;
+import net.east301.keyring.util.SecretCodec;
 
 /**
  * Keyring backend which uses OS X Keychain
@@ -54,6 +63,166 @@ public class OSXKeychainBackend extends KeyringBackend {
     public String getPassword(String service, String account)
             throws PasswordRetrievalException {
 
+        char[] passwordChars = getPasswordChars(service, account);
+
+        String password = new String(passwordChars);
+        SecretCodec.wipe(passwordChars);
+
+        return password;
+    }
+
+    /**
+     * Gets password from key store as chars, decoding them directly from the keychain item
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public char[] getPasswordChars(String service, String account)
+            throws PasswordRetrievalException {
+
+        NativeResourceTracker.Scope scope = m_resources.open();
+        try {
+            return SecretCodec.decode(findPassword(service, account, scope));
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Gets password from key store, copying its UTF-8 bytes from the keychain item
+     * to a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param dst       Buffer the password is put to, from its position
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public int getPasswordBytes(String service, String account, ByteBuffer dst)
+            throws PasswordRetrievalException {
+
+        NativeResourceTracker.Scope scope = m_resources.open();
+        try {
+            ByteBuffer data = findPassword(service, account, scope);
+            if (data.remaining() > dst.remaining()) {
+                throw new BufferOverflowException();
+            }
+
+            int length = data.remaining();
+            dst.put(data);
+            return length;
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * Sets password to key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPassword(String service, String account, String password)
+            throws PasswordSaveException {
+
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
+        try {
+            savePassword(service, account, passwordBytes.array(), passwordBytes.limit());
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Sets password to key store from chars, without creating a String
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordChars(String service, String account, char[] password)
+            throws PasswordSaveException {
+
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
+        try {
+            savePassword(service, account, passwordBytes.array(), passwordBytes.limit());
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Sets password to key store from the remaining UTF-8 bytes of a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws PasswordSaveException {
+
+        // arrays which start with the password are passed as they are
+        if (password.hasArray() && password.arrayOffset() + password.position() == 0) {
+            savePassword(service, account, password.array(), password.remaining());
+            return;
+        }
+
+        //
+        ByteBuffer passwordBytes = SecretCodec.copy(password);
+        try {
+            savePassword(service, account, passwordBytes.array(), passwordBytes.limit());
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Gets backend ID
+     */
+    @Override
+    public String getID() {
+        return "OSXKeychain";
+    }
+
+    /**
+     * Returns counts of native resources obtained from Keychain Services by this backend
+     */
+    public NativeResourceStatistics getNativeResourceStatistics() {
+        return m_resources.getStatistics();
+    }
+
+    /**
+     * Finds password in key store. The password data is zeroed and freed when scope is closed.
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param scope     Scope of the caller
+     *
+     * @return  Buffer of the password data
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    private ByteBuffer findPassword(String service, String account, NativeResourceTracker.Scope scope)
+            throws PasswordRetrievalException {
+
         //
         byte[] serviceBytes, accountBytes;
 
@@ -65,94 +234,88 @@ public class OSXKeychainBackend extends KeyringBackend {
         }
 
         //
-        int[] dataLength = new int[1];
-        Pointer[] data = new Pointer[1];
+        IntByReference dataLengthRef = NativeReferences.integer();
+        PointerByReference dataRef = NativeReferences.pointer();
 
-        //
-        int status = NativeLibraryManager.Security.SecKeychainFindGenericPassword(
+        int status = SecurityLibrary.SecKeychainFindGenericPassword(
                 null, serviceBytes.length, serviceBytes,
                 accountBytes.length, accountBytes,
-                dataLength, data, null);
+                dataLengthRef, dataRef, null);
         if (status != 0) {
             throw new PasswordRetrievalException(convertErrorCodeToMessage(status));
         }
 
         //
-        byte[] passwordBytes = data[0].getByteArray(0, dataLength[0]);
-
-        //
-        NativeLibraryManager.Security.SecKeychainItemFreeContent(null, data[0]);
+        final int dataLength = dataLengthRef.getValue();
+        Pointer data = scope.track(dataRef.getValue(), new NativeResourceTracker.Releaser() {
+            @Override
+            public void release(Pointer resource) {
+                resource.clear(dataLength);
+                SecurityLibrary.SecKeychainItemFreeContent(null, resource);
+            }
+        });
 
-        //
-        try {
-            return new String(passwordBytes, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            throw new PasswordRetrievalException("Unsupported encoding 'UTF-8' specified");
-        }
+        return data == null ? ByteBuffer.allocate(0) : data.getByteBuffer(0, dataLength);
     }
 
     /**
-     * Sets password to key store
+     * Saves password to key store
      *
-     * @param service   Service name
-     * @param account   Account name
-     * @param password  Password
+     * @param service           Service name
+     * @param account           Account name
+     * @param passwordBytes     Array which starts with UTF-8 bytes of password
+     * @param passwordLength    Number of bytes of password
      *
      * @throws PasswordSaveException    Thrown when an error happened while saving the password
      */
-    @Override
-    public void setPassword(String service, String account, String password)
+    private void savePassword(String service, String account, byte[] passwordBytes, int passwordLength)
             throws PasswordSaveException {
 
         //
-        byte[] serviceBytes, accountBytes, passwordBytes;
+        byte[] serviceBytes, accountBytes;
 
         try {
             serviceBytes = service.getBytes("UTF-8");
             accountBytes = account.getBytes("UTF-8");
-            passwordBytes = password.getBytes("UTF-8");
         } catch (UnsupportedEncodingException ex) {
             throw new PasswordSaveException("Unsupported encoding 'UTF-8' specified");
         }
 
         //
-        Pointer[] itemRef = new Pointer[1];
+        NativeResourceTracker.Scope scope = m_resources.open();
+        try {
+            PointerByReference itemRefRef = NativeReferences.pointer();
 
-        //
-        int status = NativeLibraryManager.Security.SecKeychainFindGenericPassword(
-                    null, serviceBytes.length, serviceBytes,
-                    accountBytes.length, accountBytes,
-                    null, null, itemRef);
-
-        if (status != SecurityLibrary.ERR_SEC_SUCCESS
-                && status != SecurityLibrary.ERR_SEC_ITEM_NOT_FOUND) {
-            throw new PasswordSaveException(convertErrorCodeToMessage(status));
-        }
+            //
+            int status = SecurityLibrary.SecKeychainFindGenericPassword(
+                        null, serviceBytes.length, serviceBytes,
+                        accountBytes.length, accountBytes,
+                        null, null, itemRefRef);
 
-        //
-        if (itemRef[0] != null) {
-            status = NativeLibraryManager.Security.SecKeychainItemModifyContent(
-                    itemRef[0], null, passwordBytes.length, passwordBytes);
-
-            // TODO: add code to release itemRef[0]
-        } else {
-            status = NativeLibraryManager.Security.SecKeychainAddGenericPassword(
-                    Pointer.NULL, serviceBytes.length, serviceBytes,
-                    accountBytes.length, accountBytes,
-                    passwordBytes.length, passwordBytes, null);
-        }
+            Pointer itemRef = scope.track(itemRefRef.getValue(), CF_RELEASE);
 
-        if (status != 0) {
-            throw new PasswordSaveException(convertErrorCodeToMessage(status));
-        }
-    }
+            if (status != SecurityLibrary.ERR_SEC_SUCCESS
+                    && status != SecurityLibrary.ERR_SEC_ITEM_NOT_FOUND) {
+                throw new PasswordSaveException(convertErrorCodeToMessage(status));
+            }
 
-    /**
-     * Gets backend ID
-     */
-    @Override
-    public String getID() {
-        return "OSXKeychain";
+            //
+            if (itemRef != null) {
+                status = SecurityLibrary.SecKeychainItemModifyContent(
+                        itemRef, null, passwordLength, passwordBytes);
+            } else {
+                status = SecurityLibrary.SecKeychainAddGenericPassword(
+                        Pointer.NULL, serviceBytes.length, serviceBytes,
+                        accountBytes.length, accountBytes,
+                        passwordLength, passwordBytes, null);
+            }
+
+            if (status != 0) {
+                throw new PasswordSaveException(convertErrorCodeToMessage(status));
+            }
+        } finally {
+            scope.close();
+        }
     }
 
     /**
@@ -161,23 +324,40 @@ public class OSXKeychainBackend extends KeyringBackend {
      * @param errorCode OSStat to be converted
      */
     private String convertErrorCodeToMessage(int errorCode) {
-        //
-        Pointer msgPtr = NativeLibraryManager.Security.SecCopyErrorMessageString(errorCode, null);
-        if (msgPtr == null) { return null; }
+        NativeResourceTracker.Scope scope = m_resources.open();
+        try {
+            //
+            Pointer msgPtr = scope.track(SecurityLibrary.SecCopyErrorMessageString(errorCode, null), CF_RELEASE);
+            if (msgPtr == null) { return null; }
 
-        //
-        int bufSize = (int)NativeLibraryManager.CoreFoundation.CFStringGetLength(msgPtr);
-        char[] buf = new char[bufSize];
+            //
+            int bufSize = (int)CoreFoundationLibrary.CFStringGetLength(msgPtr);
+            char[] buf = new char[bufSize];
+
+            for (int i = 0; i < buf.length; i++) {
+                buf[i] = CoreFoundationLibrary.CFStringGetCharacterAtIndex(msgPtr, i);
+            }
 
-        for (int i = 0; i < buf.length; i++) {
-            buf[i] = NativeLibraryManager.CoreFoundation.CFStringGetCharacterAtIndex(msgPtr, i);
+            //
+            return new String(buf);
+        } finally {
+            scope.close();
         }
+    }
 
-        //
-        NativeLibraryManager.CoreFoundation.CFRelease(msgPtr);
+    /**
+     * Releases a Core Foundation object
+     */
+    private static final NativeResourceTracker.Releaser CF_RELEASE = new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            CoreFoundationLibrary.CFRelease(resource);
+        }
+    };
 
-        //
-        return new String(buf);
-    }
+    /**
+     * Tracker of native resources obtained from Keychain Services
+     */
+    private final NativeResourceTracker m_resources = new NativeResourceTracker();
 
 } // class OSXKeychainBackend
@@ -0,0 +1,46 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.osx;
+
+import com.sun.jna.Platform;
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers OSXKeychainBackend
+ */
+public class OSXKeychainBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "OSXKeychain";
+    }
+
+    @Override
+    public int getPriority() {
+        return 300;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return Platform.isMac();
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.PERSISTENT, BackendCapability.ENCRYPTED);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new OSXKeychainBackend();
+    }
+
+} // class OSXKeychainBackendProvider
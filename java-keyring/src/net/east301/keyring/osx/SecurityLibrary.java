@@ -6,28 +6,29 @@
 
 package net.east301.keyring.osx;
 
-import com.sun.jna.Library;
 import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
 
 /**
- * OS X Security library
+ * OS X Security library, bound by JNA direct mapping when NativeLibraryManager loads it
  */
-interface SecurityLibrary extends Library {
+final class SecurityLibrary {
 
     public static final int ERR_SEC_SUCCESS = 0;
     public static final int ERR_SEC_ITEM_NOT_FOUND = -25300;
 
-    public int SecKeychainFindGenericPassword(  // OSStatus
+    static native int SecKeychainFindGenericPassword(  // OSStatus
             Pointer keychainOrArray,            // CFTypeRef
             int serviceNameLength,              // UInt32
             byte[] serviceName,                 // const char*
             int accountNameLength,              // UInt32
             byte[] accountName,                 // const char*
-            int[] passwordLength,               // UInt32*
-            Pointer[] passwordData,             // void**
-            Pointer[] itemRef);                 // SecKeychaingItemRef*
+            IntByReference passwordLength,      // UInt32*
+            PointerByReference passwordData,    // void**
+            PointerByReference itemRef);        // SecKeychaingItemRef*
 
-    public int SecKeychainAddGenericPassword(   // OSStatus
+    static native int SecKeychainAddGenericPassword(  // OSStatus
             Pointer keychain,                   // SecKeychainRef
             int serviceNameLength,              // UInt32
             byte[] serviceName,                 // const char*
@@ -37,21 +38,27 @@ interface SecurityLibrary extends Library {
             byte[] passwordData,                // const void*
             Pointer itemRef);                   // SecKeychainItemRef
 
-    public int SecKeychainItemModifyContent(    // OSStatus
+    static native int SecKeychainItemModifyContent(  // OSStatus
             Pointer itemRef,                    // SecKeychainItemRef
             Pointer attrList,                   // const SecKeychainAttributeList*
             int length,                         // UInt32
             byte[] data);                       // const void*
 
-    public int SecKeychainItemDelete(           // OSStatus
+    static native int SecKeychainItemDelete(    // OSStatus
             Pointer itemRef);                   // SecKeychainItemRef
 
-    public Pointer SecCopyErrorMessageString(   // CFStringRef
+    static native Pointer SecCopyErrorMessageString(  // CFStringRef
             int status,                         // OSStatus
             Pointer reserved);                  // void*
 
-    public int SecKeychainItemFreeContent(      // OSStatus
-            Pointer[] attrList,                 // SecKeychainAttributeList*
+    static native int SecKeychainItemFreeContent(  // OSStatus
+            Pointer attrList,                   // SecKeychainAttributeList*
             Pointer data);                      // void*
 
-} // interface SecurityLibrary
+    /**
+     * Prevents instantiation
+     */
+    private SecurityLibrary() {
+    }
+
+} // class SecurityLibrary
@@ -0,0 +1,283 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import net.east301.keyring.util.NativeReferences;
+
+/**
+ * Private connection to a message bus.
+ *
+ * callAll sends all of its messages before it waits for the first reply, so a batch
+ * of calls costs one round trip to the bus instead of one per call.
+ * Instances are safe to use from multiple threads once NativeLibraryManager has
+ * initialized libdbus for threads.
+ */
+final class DBusConnection {
+
+    /**
+     * Initializes an instance of DBusConnection
+     *
+     * @param connection    Pointer to a registered private DBusConnection
+     */
+    private DBusConnection(Pointer connection) {
+        m_connection = connection;
+    }
+
+    /**
+     * Connects to a message bus
+     *
+     * @param address   Address of the bus, or null for the session bus
+     */
+    static DBusConnection open(String address) throws DBusException {
+        Memory error = newError();
+        Pointer connection;
+
+        if (address == null) {
+            connection = DBusLib.dbus_bus_get_private(DBusLib.DBUS_BUS_SESSION, error);
+            check(error);
+        } else {
+            connection = DBusLib.dbus_connection_open_private(address, error);
+            check(error);
+
+            if (!DBusLib.dbus_bus_register(connection, error)) {
+                DBusLib.dbus_connection_close(connection);
+                DBusLib.dbus_connection_unref(connection);
+                check(error);
+            }
+        }
+
+        // libdbus would otherwise call exit() when the bus goes away
+        DBusLib.dbus_connection_set_exit_on_disconnect(connection, false);
+
+        return new DBusConnection(connection);
+    }
+
+    /**
+     * Returns true while the connection is open
+     */
+    synchronized boolean isConnected() {
+        return m_connection != null && DBusLib.dbus_connection_get_is_connected(m_connection);
+    }
+
+    /**
+     * Calls a method and waits for its reply. The message is released.
+     *
+     * @param message   Method call
+     *
+     * @return  Reply, which the caller closes
+     *
+     * @throws DBusException    Thrown when the call failed or the callee replied an error
+     */
+    DBusMessage call(DBusMessage message) throws DBusException {
+        try {
+            Memory error = newError();
+            Pointer reply = DBusLib.dbus_connection_send_with_reply_and_block(
+                    connection(), message.getPointer(), DBusLib.DBUS_TIMEOUT_USE_DEFAULT, error);
+            check(error);
+
+            return new DBusMessage(reply);
+        } finally {
+            message.close();
+        }
+    }
+
+    /**
+     * Sends all method calls, then waits for their replies. The messages are released.
+     *
+     * @param messages  Method calls
+     *
+     * @return  Replies in the order of messages, which the caller closes
+     *
+     * @throws DBusException    Thrown when any of the calls failed; no replies are returned then
+     */
+    List<DBusMessage> callAll(List<DBusMessage> messages) throws DBusException {
+        List<Pointer> pendings = new ArrayList<Pointer>(messages.size());
+        List<DBusMessage> replies = new ArrayList<DBusMessage>(messages.size());
+        DBusException failure = null;
+
+        try {
+            Pointer connection = connection();
+            for (DBusMessage message : messages) {
+                PointerByReference pending = NativeReferences.pointer();
+                if (!DBusLib.dbus_connection_send_with_reply(connection, message.getPointer(), pending,
+                        DBusLib.DBUS_TIMEOUT_USE_DEFAULT) || pending.getValue() == null) {
+                    throw new DBusException(DISCONNECTED, "Failed to send method call");
+                }
+
+                pendings.add(pending.getValue());
+            }
+
+            //
+            for (Pointer pending : pendings) {
+                DBusLib.dbus_pending_call_block(pending);
+                DBusMessage reply = new DBusMessage(DBusLib.dbus_pending_call_steal_reply(pending));
+
+                try {
+                    checkReply(reply);
+                    replies.add(reply);
+                } catch (DBusException ex) {
+                    reply.close();
+                    if (failure == null) { failure = ex; }
+                }
+            }
+        } finally {
+            for (Pointer pending : pendings) {
+                DBusLib.dbus_pending_call_unref(pending);
+            }
+
+            for (DBusMessage message : messages) {
+                message.close();
+            }
+        }
+
+        //
+        if (failure != null) {
+            for (DBusMessage reply : replies) {
+                reply.close();
+            }
+
+            throw failure;
+        }
+
+        return replies;
+    }
+
+    /**
+     * Asks the bus for a well-known name, without queueing behind its current owner
+     *
+     * @return  True when the connection became the owner of name
+     */
+    boolean requestName(String name) throws DBusException {
+        Memory error = newError();
+        int result = DBusLib.dbus_bus_request_name(connection(), name, DBusLib.DBUS_NAME_FLAG_DO_NOT_QUEUE, error);
+        check(error);
+
+        return result == DBusLib.DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER;
+    }
+
+    /**
+     * Waits for an incoming message
+     *
+     * @param timeoutMillis Maximum time to wait
+     *
+     * @return  Message, which the caller closes, or null when none arrived
+     *
+     * @throws DBusException    Thrown when the connection is closed
+     */
+    DBusMessage receive(int timeoutMillis) throws DBusException {
+        Pointer connection = connection();
+
+        Pointer message = DBusLib.dbus_connection_pop_message(connection);
+        if (message == null) {
+            if (!DBusLib.dbus_connection_read_write(connection, timeoutMillis)) {
+                throw new DBusException(DISCONNECTED, "Connection is closed");
+            }
+
+            message = DBusLib.dbus_connection_pop_message(connection);
+        }
+
+        return message == null ? null : new DBusMessage(message);
+    }
+
+    /**
+     * Sends a message without waiting for a reply. The message is released.
+     */
+    void send(DBusMessage message) throws DBusException {
+        try {
+            if (!DBusLib.dbus_connection_send(connection(), message.getPointer(), null)) {
+                throw new OutOfMemoryError("Failed to send D-Bus message");
+            }
+
+            DBusLib.dbus_connection_flush(connection());
+        } finally {
+            message.close();
+        }
+    }
+
+    /**
+     * Closes the connection
+     */
+    synchronized void close() {
+        if (m_connection != null) {
+            DBusLib.dbus_connection_close(m_connection);
+            DBusLib.dbus_connection_unref(m_connection);
+            m_connection = null;
+        }
+    }
+
+    /**
+     * Returns pointer to the connection
+     *
+     * @throws DBusException    Thrown when the connection is closed
+     */
+    private synchronized Pointer connection() throws DBusException {
+        if (m_connection == null) {
+            throw new DBusException(DISCONNECTED, "Connection is closed");
+        }
+
+        return m_connection;
+    }
+
+    /**
+     * Throws DBusException when reply is an error
+     */
+    private static void checkReply(DBusMessage reply) throws DBusException {
+        if (reply.getType() != DBusLib.DBUS_MESSAGE_TYPE_ERROR) { return; }
+
+        Memory error = newError();
+        DBusLib.dbus_set_error_from_message(error, reply.getPointer());
+        check(error);
+    }
+
+    /**
+     * Allocates and initializes a DBusError
+     */
+    private static Memory newError() {
+        Memory error = new Memory(ERROR_SIZE);
+        DBusLib.dbus_error_init(error);
+
+        return error;
+    }
+
+    /**
+     * Throws DBusException when error is set, and frees it
+     */
+    private static void check(Memory error) throws DBusException {
+        if (!DBusLib.dbus_error_is_set(error)) { return; }
+
+        String name = error.getPointer(0).getString(0, "UTF-8");
+        Pointer message = error.getPointer(Native.POINTER_SIZE);
+        DBusException exception = new DBusException(name, message == null ? "" : message.getString(0, "UTF-8"));
+
+        DBusLib.dbus_error_free(error);
+        throw exception;
+    }
+
+    /**
+     * Error name of a lost connection
+     */
+    static final String DISCONNECTED = "org.freedesktop.DBus.Error.Disconnected";
+
+    /**
+     * Size reserved for a DBusError, which takes 32 bytes on 64 bit platforms
+     */
+    private static final int ERROR_SIZE = 64;
+
+    /**
+     * Pointer to DBusConnection, or null once closed
+     */
+    private Pointer m_connection;
+
+} // class DBusConnection
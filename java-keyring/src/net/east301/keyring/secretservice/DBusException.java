@@ -0,0 +1,39 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.io.IOException;
+
+/**
+ * Represents a D-Bus error, either reported by libdbus or replied by a remote object
+ */
+class DBusException extends IOException {
+
+    /**
+     * Initializes an instance of DBusException
+     *
+     * @param name      D-Bus error name, e.g. org.freedesktop.DBus.Error.ServiceUnknown
+     * @param message   Error message
+     */
+    DBusException(String name, String message) {
+        super(name + ": " + message);
+        m_name = name;
+    }
+
+    /**
+     * Returns D-Bus error name
+     */
+    String getName() {
+        return m_name;
+    }
+
+    /**
+     * D-Bus error name
+     */
+    private final String m_name;
+
+} // class DBusException
@@ -0,0 +1,144 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * libdbus-1, bound by JNA direct mapping when NativeLibraryManager loads it
+ */
+final class DBusLib {
+
+	static native boolean dbus_threads_init_default();
+
+	static native void dbus_error_init(Pointer error);
+
+	static native void dbus_error_free(Pointer error);
+
+	static native boolean dbus_error_is_set(Pointer error);
+
+	static native Pointer dbus_bus_get_private(int type, Pointer error);
+
+	static native boolean dbus_bus_register(Pointer connection, Pointer error);
+
+	static native int dbus_bus_request_name(Pointer connection, String name, int flags, Pointer error);
+
+	static native Pointer dbus_connection_open_private(String address, Pointer error);
+
+	static native void dbus_connection_set_exit_on_disconnect(Pointer connection, boolean exit_on_disconnect);
+
+	static native boolean dbus_connection_get_is_connected(Pointer connection);
+
+	static native void dbus_connection_close(Pointer connection);
+
+	static native void dbus_connection_unref(Pointer connection);
+
+	static native Pointer dbus_connection_send_with_reply_and_block(Pointer connection, Pointer message, int timeout_milliseconds,
+			Pointer error);
+
+	static native boolean dbus_connection_send_with_reply(Pointer connection, Pointer message, PointerByReference pending_return,
+			int timeout_milliseconds);
+
+	static native boolean dbus_connection_send(Pointer connection, Pointer message, IntByReference serial);
+
+	static native void dbus_connection_flush(Pointer connection);
+
+	static native boolean dbus_connection_read_write(Pointer connection, int timeout_milliseconds);
+
+	static native Pointer dbus_connection_pop_message(Pointer connection);
+
+	static native void dbus_pending_call_block(Pointer pending);
+
+	static native Pointer dbus_pending_call_steal_reply(Pointer pending);
+
+	static native void dbus_pending_call_unref(Pointer pending);
+
+	static native Pointer dbus_message_new_method_call(String destination, String path, String iface, String method);
+
+	static native Pointer dbus_message_new_method_return(Pointer method_call);
+
+	static native Pointer dbus_message_new_error(Pointer reply_to, String error_name, String error_message);
+
+	static native void dbus_message_unref(Pointer message);
+
+	static native int dbus_message_get_type(Pointer message);
+
+	static native String dbus_message_get_path(Pointer message);
+
+	static native String dbus_message_get_member(Pointer message);
+
+	static native String dbus_message_get_error_name(Pointer message);
+
+	static native boolean dbus_set_error_from_message(Pointer error, Pointer message);
+
+	static native boolean dbus_message_iter_init(Pointer message, Pointer iter);
+
+	static native void dbus_message_iter_init_append(Pointer message, Pointer iter);
+
+	static native boolean dbus_message_iter_append_basic(Pointer iter, int type, Pointer value);
+
+	static native boolean dbus_message_iter_append_fixed_array(Pointer iter, int element_type, Pointer value, int n_elements);
+
+	static native boolean dbus_message_iter_open_container(Pointer iter, int type, String contained_signature, Pointer sub);
+
+	static native boolean dbus_message_iter_close_container(Pointer iter, Pointer sub);
+
+	static native int dbus_message_iter_get_arg_type(Pointer iter);
+
+	static native void dbus_message_iter_get_basic(Pointer iter, Pointer value);
+
+	static native void dbus_message_iter_get_fixed_array(Pointer iter, PointerByReference value, IntByReference n_elements);
+
+	static native void dbus_message_iter_recurse(Pointer iter, Pointer sub);
+
+	static native boolean dbus_message_iter_next(Pointer iter);
+
+	/**
+	 * DBusBusType of the session bus
+	 */
+	static final int DBUS_BUS_SESSION = 0;
+
+	/**
+	 * DBusMessage types
+	 */
+	static final int DBUS_MESSAGE_TYPE_METHOD_CALL = 1;
+	static final int DBUS_MESSAGE_TYPE_METHOD_RETURN = 2;
+	static final int DBUS_MESSAGE_TYPE_ERROR = 3;
+
+	/**
+	 * Type codes of message arguments
+	 */
+	static final int DBUS_TYPE_INVALID = 0;
+	static final int DBUS_TYPE_BYTE = 'y';
+	static final int DBUS_TYPE_BOOLEAN = 'b';
+	static final int DBUS_TYPE_STRING = 's';
+	static final int DBUS_TYPE_OBJECT_PATH = 'o';
+	static final int DBUS_TYPE_ARRAY = 'a';
+	static final int DBUS_TYPE_VARIANT = 'v';
+	static final int DBUS_TYPE_STRUCT = 'r';
+	static final int DBUS_TYPE_DICT_ENTRY = 'e';
+
+	/**
+	 * Flag of dbus_bus_request_name, and its result when the name was obtained
+	 */
+	static final int DBUS_NAME_FLAG_DO_NOT_QUEUE = 4;
+	static final int DBUS_REQUEST_NAME_REPLY_PRIMARY_OWNER = 1;
+
+	/**
+	 * Timeout which lets libdbus choose its default
+	 */
+	static final int DBUS_TIMEOUT_USE_DEFAULT = -1;
+
+	/**
+	 * Prevents instantiation
+	 */
+	private DBusLib() {
+	}
+
+} // class DBusLib
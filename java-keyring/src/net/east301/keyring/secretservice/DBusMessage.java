@@ -0,0 +1,369 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.util.ArrayDeque;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+import net.east301.keyring.util.NativeReferences;
+
+/**
+ * D-Bus message owned by Java code, with a writer and a reader of its arguments.
+ * Instances are not thread safe.
+ */
+final class DBusMessage {
+
+    /**
+     * Initializes an instance of DBusMessage, taking over a reference to message
+     *
+     * @param message   Pointer to DBusMessage
+     */
+    DBusMessage(Pointer message) {
+        if (message == null) {
+            throw new OutOfMemoryError("Failed to allocate D-Bus message");
+        }
+
+        m_message = message;
+    }
+
+    /**
+     * Creates a method call message
+     *
+     * @param destination   Bus name of the callee
+     * @param path          Object path
+     * @param iface         Interface name
+     * @param method        Method name
+     */
+    static DBusMessage methodCall(String destination, String path, String iface, String method) {
+        return new DBusMessage(DBusLib.dbus_message_new_method_call(destination, path, iface, method));
+    }
+
+    /**
+     * Creates a reply to this method call
+     */
+    DBusMessage methodReturn() {
+        return new DBusMessage(DBusLib.dbus_message_new_method_return(m_message));
+    }
+
+    /**
+     * Creates an error reply to this method call
+     *
+     * @param name      D-Bus error name
+     * @param message   Error message
+     */
+    DBusMessage error(String name, String message) {
+        return new DBusMessage(DBusLib.dbus_message_new_error(m_message, name, message));
+    }
+
+    /**
+     * Returns pointer to DBusMessage
+     */
+    Pointer getPointer() {
+        return m_message;
+    }
+
+    /**
+     * Returns message type, one of DBusLib.DBUS_MESSAGE_TYPE_*
+     */
+    int getType() {
+        return DBusLib.dbus_message_get_type(m_message);
+    }
+
+    /**
+     * Returns object path of a method call
+     */
+    String getPath() {
+        return DBusLib.dbus_message_get_path(m_message);
+    }
+
+    /**
+     * Returns method name of a method call
+     */
+    String getMember() {
+        return DBusLib.dbus_message_get_member(m_message);
+    }
+
+    /**
+     * Returns a writer which appends arguments
+     */
+    Writer writer() {
+        Memory iter = newIter();
+        DBusLib.dbus_message_iter_init_append(m_message, iter);
+
+        return new Writer(iter);
+    }
+
+    /**
+     * Returns a reader of arguments from the first one
+     */
+    Reader reader() {
+        Memory iter = newIter();
+        return new Reader(DBusLib.dbus_message_iter_init(m_message, iter) ? iter : null);
+    }
+
+    /**
+     * Releases the message
+     */
+    void close() {
+        if (m_message != null) {
+            DBusLib.dbus_message_unref(m_message);
+            m_message = null;
+        }
+    }
+
+    /**
+     * Allocates memory for a DBusMessageIter
+     */
+    private static Memory newIter() {
+        return new Memory(ITER_SIZE);
+    }
+
+    /**
+     * Appends arguments to a message. Containers are opened by array, struct,
+     * dictEntry and variant, and closed by end.
+     */
+    static final class Writer {
+
+        Writer(Memory iter) {
+            m_iters.push(iter);
+        }
+
+        Writer string(String value) {
+            return basic(DBusLib.DBUS_TYPE_STRING, value);
+        }
+
+        Writer objectPath(String value) {
+            return basic(DBusLib.DBUS_TYPE_OBJECT_PATH, value);
+        }
+
+        Writer bool(boolean value) {
+            Memory holder = new Memory(4);
+            holder.setInt(0, value ? 1 : 0);
+            check(DBusLib.dbus_message_iter_append_basic(m_iters.peek(), DBusLib.DBUS_TYPE_BOOLEAN, holder));
+
+            return this;
+        }
+
+        /**
+         * Appends an array of bytes. The native copy made for libdbus is zeroed afterwards.
+         */
+        Writer bytes(byte[] value, int offset, int length) {
+            array("y");
+
+            if (length > 0) {
+                Memory data = new Memory(length);
+                data.write(0, value, offset, length);
+
+                Memory holder = new Memory(Native.POINTER_SIZE);
+                holder.setPointer(0, data);
+
+                try {
+                    check(DBusLib.dbus_message_iter_append_fixed_array(
+                            m_iters.peek(), DBusLib.DBUS_TYPE_BYTE, holder, length));
+                } finally {
+                    data.clear();
+                }
+            }
+
+            return end();
+        }
+
+        Writer bytes(byte[] value) {
+            return bytes(value, 0, value.length);
+        }
+
+        Writer array(String elementSignature) {
+            return open(DBusLib.DBUS_TYPE_ARRAY, elementSignature);
+        }
+
+        Writer struct() {
+            return open(DBusLib.DBUS_TYPE_STRUCT, null);
+        }
+
+        Writer dictEntry() {
+            return open(DBusLib.DBUS_TYPE_DICT_ENTRY, null);
+        }
+
+        Writer variant(String signature) {
+            return open(DBusLib.DBUS_TYPE_VARIANT, signature);
+        }
+
+        /**
+         * Closes the innermost open container
+         */
+        Writer end() {
+            Memory sub = m_iters.pop();
+            check(DBusLib.dbus_message_iter_close_container(m_iters.peek(), sub));
+
+            return this;
+        }
+
+        private Writer basic(int type, String value) {
+            byte[] bytes = Native.toByteArray(value, "UTF-8");
+            Memory string = new Memory(bytes.length);
+            string.write(0, bytes, 0, bytes.length);
+
+            Memory holder = new Memory(Native.POINTER_SIZE);
+            holder.setPointer(0, string);
+            check(DBusLib.dbus_message_iter_append_basic(m_iters.peek(), type, holder));
+
+            return this;
+        }
+
+        private Writer open(int type, String signature) {
+            Memory sub = newIter();
+            check(DBusLib.dbus_message_iter_open_container(m_iters.peek(), type, signature, sub));
+            m_iters.push(sub);
+
+            return this;
+        }
+
+        private static void check(boolean result) {
+            if (!result) {
+                throw new OutOfMemoryError("Failed to append D-Bus message argument");
+            }
+        }
+
+        /**
+         * Iterators of open containers, innermost first
+         */
+        private final ArrayDeque<Memory> m_iters = new ArrayDeque<Memory>();
+
+    } // class Writer
+
+    /**
+     * Reads arguments of a message. Each read moves to the next argument;
+     * recurse returns a reader of the contents of a container.
+     * Reading an argument of another type than expected throws DBusException.
+     */
+    static final class Reader {
+
+        Reader(Memory iter) {
+            m_iter = iter;
+        }
+
+        /**
+         * Returns type of current argument, or DBusLib.DBUS_TYPE_INVALID at the end
+         */
+        int type() {
+            return m_iter == null ? DBusLib.DBUS_TYPE_INVALID : DBusLib.dbus_message_iter_get_arg_type(m_iter);
+        }
+
+        boolean hasNext() {
+            return type() != DBusLib.DBUS_TYPE_INVALID;
+        }
+
+        String string() throws DBusException {
+            expect(DBusLib.DBUS_TYPE_STRING, DBusLib.DBUS_TYPE_OBJECT_PATH);
+
+            Memory holder = new Memory(Native.POINTER_SIZE);
+            DBusLib.dbus_message_iter_get_basic(m_iter, holder);
+            String value = holder.getPointer(0).getString(0, "UTF-8");
+
+            DBusLib.dbus_message_iter_next(m_iter);
+            return value;
+        }
+
+        boolean bool() throws DBusException {
+            expect(DBusLib.DBUS_TYPE_BOOLEAN, DBusLib.DBUS_TYPE_BOOLEAN);
+
+            Memory holder = new Memory(4);
+            DBusLib.dbus_message_iter_get_basic(m_iter, holder);
+
+            DBusLib.dbus_message_iter_next(m_iter);
+            return holder.getInt(0) != 0;
+        }
+
+        /**
+         * Reads an array of bytes
+         */
+        byte[] bytes() throws DBusException {
+            expect(DBusLib.DBUS_TYPE_ARRAY, DBusLib.DBUS_TYPE_ARRAY);
+
+            Memory sub = newIter();
+            DBusLib.dbus_message_iter_recurse(m_iter, sub);
+
+            byte[] value;
+            int type = DBusLib.dbus_message_iter_get_arg_type(sub);
+            if (type == DBusLib.DBUS_TYPE_INVALID) {
+                value = new byte[0];
+            } else if (type == DBusLib.DBUS_TYPE_BYTE) {
+                PointerByReference data = NativeReferences.pointer();
+                IntByReference length = NativeReferences.integer();
+                DBusLib.dbus_message_iter_get_fixed_array(sub, data, length);
+                value = data.getValue().getByteArray(0, length.getValue());
+            } else {
+                throw new DBusException(INVALID_ARGS, "Expected byte array but got " + (char)type);
+            }
+
+            DBusLib.dbus_message_iter_next(m_iter);
+            return value;
+        }
+
+        /**
+         * Returns a reader of the contents of current container argument
+         */
+        Reader recurse() throws DBusException {
+            int type = type();
+            if (type != DBusLib.DBUS_TYPE_ARRAY && type != DBusLib.DBUS_TYPE_STRUCT
+                    && type != DBusLib.DBUS_TYPE_DICT_ENTRY && type != DBusLib.DBUS_TYPE_VARIANT) {
+                throw new DBusException(INVALID_ARGS, "Expected container but got " + describe(type));
+            }
+
+            Memory sub = newIter();
+            DBusLib.dbus_message_iter_recurse(m_iter, sub);
+
+            DBusLib.dbus_message_iter_next(m_iter);
+            return new Reader(sub);
+        }
+
+        /**
+         * Skips current argument
+         */
+        void skip() {
+            if (hasNext()) { DBusLib.dbus_message_iter_next(m_iter); }
+        }
+
+        private void expect(int type, int alternative) throws DBusException {
+            int actual = type();
+            if (actual != type && actual != alternative) {
+                throw new DBusException(INVALID_ARGS, "Expected " + (char)type + " but got " + describe(actual));
+            }
+        }
+
+        private static String describe(int type) {
+            return type == DBusLib.DBUS_TYPE_INVALID ? "end of arguments" : String.valueOf((char)type);
+        }
+
+        /**
+         * Iterator, or null when the message has no arguments
+         */
+        private final Memory m_iter;
+
+    } // class Reader
+
+    /**
+     * Error name of malformed arguments
+     */
+    static final String INVALID_ARGS = "org.freedesktop.DBus.Error.InvalidArgs";
+
+    /**
+     * Size reserved for a DBusMessageIter, which takes 72 bytes on 64 bit platforms
+     */
+    private static final int ITER_SIZE = 128;
+
+    /**
+     * Pointer to DBusMessage, or null once closed
+     */
+    private Pointer m_message;
+
+} // class DBusMessage
@@ -0,0 +1,54 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import com.sun.jna.Native;
+import net.east301.keyring.BackendNotSupportedException;
+
+/**
+ * Global native library manager
+ */
+class NativeLibraryManager {
+
+    /**
+     * Loads native libraries, and makes libdbus safe to use from multiple threads.
+     * Libraries are loaded once per JVM; after a failure the same error is reported
+     * again without retrying.
+     */
+    public static synchronized void loadNativeLibraries() throws BackendNotSupportedException {
+        if (registered) { return; }
+        if (loadError != null) {
+            // loading is not retried, it would fail the same way
+            throw new BackendNotSupportedException(loadError);
+        }
+
+        try {
+            // direct mapping binds the native methods once, instead of dispatching
+            // each call through a proxy
+            Native.register(DBusLib.class, "dbus-1");
+            if (!DBusLib.dbus_threads_init_default()) {
+                throw new UnsatisfiedLinkError("dbus_threads_init_default failed");
+            }
+
+            registered = true;
+        } catch (UnsatisfiedLinkError ex) {
+            loadError = "Failed to load native library: " + ex.getMessage();
+            throw new BackendNotSupportedException(loadError);
+        }
+    }
+
+    /**
+     * Error message of the failed load, or null
+     */
+    private static String loadError = null;
+
+    /**
+     * True once the native methods of DBusLib are registered and libdbus is initialized for threads
+     */
+    private static boolean registered = false;
+
+} // class NativeLibraryManager
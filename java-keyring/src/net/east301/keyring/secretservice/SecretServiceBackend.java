@@ -0,0 +1,626 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.jna.Platform;
+
+import net.east301.keyring.BackendNotSupportedException;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.SecretCodec;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Keyring backend which uses the freedesktop Secret Service API over D-Bus,
+ * as provided by GNOME Keyring, KWallet and KeePassXC.
+ *
+ * Items are found by their service and account attributes, so no map file is needed.
+ * The backend keeps one connection and one session open, and remembers the object paths
+ * of the items it has found, so fetching passwords which were fetched before takes one
+ * GetSecrets call for any number of them. Searches and writes of a batch are pipelined,
+ * which also costs one round trip. Secrets are transferred with the "plain" algorithm,
+ * i.e. unencrypted over the bus connection, as the bus is local to the user's session.
+ * Collections which need a prompt to be unlocked are not supported.
+ */
+public class SecretServiceBackend extends KeyringBackend {
+
+    /**
+     * Initializes an instance of SecretServiceBackend which uses the session bus
+     */
+    public SecretServiceBackend() {
+        this(null);
+    }
+
+    /**
+     * Initializes an instance of SecretServiceBackend
+     *
+     * @param busAddress    Address of the message bus, or null for the session bus
+     */
+    public SecretServiceBackend(String busAddress) {
+        m_busAddress = busAddress;
+    }
+
+    /**
+     * Loads libdbus and opens a session with the Secret Service
+     */
+    @Override
+    public void setup() throws BackendNotSupportedException {
+        NativeLibraryManager.loadNativeLibraries();
+
+        try {
+            synchronized (this) {
+                session();
+            }
+        } catch (DBusException ex) {
+            throw new BackendNotSupportedException("Secret Service is not available: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns true when the backend is supported
+     */
+    @Override
+    public boolean isSupported() {
+        return Platform.isLinux() || Platform.isFreeBSD();
+    }
+
+    /**
+     * Returns true if the backend directory uses some file to store passwords
+     */
+    @Override
+    public boolean isKeyStorePathRequired() {
+        return false;
+    }
+
+    /**
+     * Gets password from key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public String getPassword(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        byte[] secret = getPasswordBytes(service, account);
+        try {
+            return new String(secret, StandardCharsets.UTF_8);
+        } finally {
+            SecretCodec.wipe(secret);
+        }
+    }
+
+    @Override
+    public char[] getPasswordChars(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        byte[] secret = getPasswordBytes(service, account);
+        try {
+            return SecretCodec.decode(ByteBuffer.wrap(secret));
+        } finally {
+            SecretCodec.wipe(secret);
+        }
+    }
+
+    @Override
+    public byte[] getPasswordBytes(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+
+        byte[] secret = fetch(Collections.singletonList(key)).get(key);
+        if (secret == null) {
+            throw new PasswordRetrievalException("No password stored for this service and account.");
+        }
+
+        return secret;
+    }
+
+    /**
+     * Gets passwords from key store, fetching their secrets by one GetSecrets call
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    @Override
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
+
+        Map<ServiceAccountKey, byte[]> secrets = fetch(keys);
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+
+        try {
+            for (ServiceAccountKey key : keys) {
+                byte[] secret = secrets.get(key);
+                if (secret == null) {
+                    throw new PasswordRetrievalException("No password stored for " + key + ".");
+                }
+
+                passwords.put(key, new String(secret, StandardCharsets.UTF_8));
+            }
+        } finally {
+            for (byte[] secret : secrets.values()) {
+                SecretCodec.wipe(secret);
+            }
+        }
+
+        return passwords;
+    }
+
+    /**
+     * Sets password to key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPassword(String service, String account, String password)
+            throws LockException, PasswordSaveException {
+
+        store(Collections.singletonMap(new ServiceAccountKey(service, account),
+                password.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        byte[] secret = SecretCodec.toBytes(password);
+        try {
+            store(Collections.singletonMap(new ServiceAccountKey(service, account), secret));
+        } finally {
+            SecretCodec.wipe(secret);
+        }
+    }
+
+    @Override
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws LockException, PasswordSaveException {
+
+        byte[] secret = new byte[password.remaining()];
+        password.duplicate().get(secret);
+
+        try {
+            store(Collections.singletonMap(new ServiceAccountKey(service, account), secret));
+        } finally {
+            SecretCodec.wipe(secret);
+        }
+    }
+
+    /**
+     * Sets passwords to key store, sending all CreateItem calls before waiting for replies
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    @Override
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
+
+        Map<ServiceAccountKey, byte[]> secrets = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+            secrets.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            store(secrets);
+        } finally {
+            for (byte[] secret : secrets.values()) {
+                SecretCodec.wipe(secret);
+            }
+        }
+    }
+
+    /**
+     * Closes the connection to the message bus. It is reopened when needed.
+     */
+    @Override
+    public synchronized void close() {
+        if (m_connection != null) {
+            m_connection.close();
+            m_connection = null;
+        }
+
+        m_session = null;
+        m_itemPaths.clear();
+    }
+
+    /**
+     * Gets backend ID
+     */
+    @Override
+    public String getID() {
+        return "SecretService";
+    }
+
+    /**
+     * Returns number of times the backend has waited for replies from the bus
+     */
+    synchronized long getRoundTripCount() {
+        return m_roundTrips;
+    }
+
+    /**
+     * Fetches secrets of items related to specified keys
+     *
+     * @return  { Service and account => secret }; keys without an item are left out
+     */
+    private synchronized Map<ServiceAccountKey, byte[]> fetch(Collection<ServiceAccountKey> keys)
+            throws PasswordRetrievalException {
+
+        try {
+            String session = session();
+
+            //
+            Map<ServiceAccountKey, String> paths = new LinkedHashMap<ServiceAccountKey, String>();
+            List<ServiceAccountKey> unknown = new ArrayList<ServiceAccountKey>();
+            for (ServiceAccountKey key : keys) {
+                String path = m_itemPaths.get(key);
+                if (path != null) {
+                    paths.put(key, path);
+                } else {
+                    unknown.add(key);
+                }
+            }
+
+            paths.putAll(search(unknown));
+            Map<ServiceAccountKey, byte[]> secrets = getSecrets(paths, session);
+
+            // remembered items may have been deleted or locked since
+            Set<ServiceAccountKey> searched = new HashSet<ServiceAccountKey>(unknown);
+            List<ServiceAccountKey> stale = new ArrayList<ServiceAccountKey>();
+            for (ServiceAccountKey key : paths.keySet()) {
+                if (!secrets.containsKey(key) && !searched.contains(key)) {
+                    m_itemPaths.remove(key);
+                    stale.add(key);
+                }
+            }
+
+            if (!stale.isEmpty()) {
+                secrets.putAll(getSecrets(search(stale), session));
+            }
+
+            return secrets;
+        } catch (DBusException ex) {
+            Logger.getLogger(SecretServiceBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordRetrievalException("Failed to get password from Secret Service");
+        }
+    }
+
+    /**
+     * Creates or replaces items of specified keys in the default collection
+     */
+    private synchronized void store(Map<ServiceAccountKey, byte[]> secrets) throws PasswordSaveException {
+        if (secrets.isEmpty()) { return; }
+
+        try {
+            String session = session();
+
+            //
+            List<DBusMessage> calls = new ArrayList<DBusMessage>();
+            for (Map.Entry<ServiceAccountKey, byte[]> entry : secrets.entrySet()) {
+                ServiceAccountKey key = entry.getKey();
+
+                DBusMessage call = DBusMessage.methodCall(
+                        SERVICE_NAME, DEFAULT_COLLECTION, COLLECTION_INTERFACE, "CreateItem");
+                calls.add(call);
+
+                DBusMessage.Writer writer = call.writer();
+                writer.array("{sv}");
+                writer.dictEntry().string(LABEL_PROPERTY).variant("s").string(label(key)).end().end();
+                writer.dictEntry().string(ATTRIBUTES_PROPERTY).variant("a{ss}");
+                writeAttributes(writer, key);
+                writer.end().end();
+                writer.end();
+
+                writer.struct().objectPath(session).bytes(new byte[0]).bytes(entry.getValue())
+                        .string(CONTENT_TYPE).end();
+                writer.bool(true);
+            }
+
+            //
+            List<ServiceAccountKey> keys = new ArrayList<ServiceAccountKey>(secrets.keySet());
+            List<DBusMessage> replies = callAll(calls);
+
+            String locked = null;
+            for (int i = 0; i < replies.size(); i++) {
+                DBusMessage reply = replies.get(i);
+                try {
+                    String item = reply.reader().string();
+                    if (NO_OBJECT.equals(item)) {
+                        locked = keys.get(i).toString();
+                    } else {
+                        m_itemPaths.put(keys.get(i), item);
+                    }
+                } finally {
+                    reply.close();
+                }
+            }
+
+            if (locked != null) {
+                throw new PasswordSaveException("The default collection is locked; failed to save " + locked);
+            }
+        } catch (DBusException ex) {
+            Logger.getLogger(SecretServiceBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to save password to Secret Service");
+        }
+    }
+
+    /**
+     * Searches items related to specified keys, sending all SearchItems calls before
+     * waiting for replies, and unlocks locked items when no prompt is needed
+     *
+     * @return  { Service and account => item path }; keys without an item are left out
+     */
+    private Map<ServiceAccountKey, String> search(List<ServiceAccountKey> keys) throws DBusException {
+        Map<ServiceAccountKey, String> paths = new LinkedHashMap<ServiceAccountKey, String>();
+        if (keys.isEmpty()) { return paths; }
+
+        //
+        List<DBusMessage> calls = new ArrayList<DBusMessage>();
+        for (ServiceAccountKey key : keys) {
+            DBusMessage call = DBusMessage.methodCall(SERVICE_NAME, SERVICE_PATH, SERVICE_INTERFACE, "SearchItems");
+            calls.add(call);
+            writeAttributes(call.writer(), key);
+        }
+
+        //
+        Map<String, ServiceAccountKey> locked = new LinkedHashMap<String, ServiceAccountKey>();
+        List<DBusMessage> replies = callAll(calls);
+
+        for (int i = 0; i < replies.size(); i++) {
+            DBusMessage reply = replies.get(i);
+            try {
+                DBusMessage.Reader reader = reply.reader();
+                DBusMessage.Reader unlockedItems = reader.recurse();
+                DBusMessage.Reader lockedItems = reader.recurse();
+
+                if (unlockedItems.hasNext()) {
+                    paths.put(keys.get(i), unlockedItems.string());
+                } else if (lockedItems.hasNext()) {
+                    locked.put(lockedItems.string(), keys.get(i));
+                }
+            } finally {
+                reply.close();
+            }
+        }
+
+        //
+        if (!locked.isEmpty()) {
+            DBusMessage call = DBusMessage.methodCall(SERVICE_NAME, SERVICE_PATH, SERVICE_INTERFACE, "Unlock");
+            DBusMessage.Writer writer = call.writer().array("o");
+            for (String path : locked.keySet()) {
+                writer.objectPath(path);
+            }
+            writer.end();
+
+            // items which need a prompt stay locked, and are reported as not found
+            DBusMessage reply = call(call);
+            try {
+                DBusMessage.Reader unlocked = reply.reader().recurse();
+                while (unlocked.hasNext()) {
+                    String path = unlocked.string();
+                    if (locked.containsKey(path)) { paths.put(locked.get(path), path); }
+                }
+            } finally {
+                reply.close();
+            }
+        }
+
+        m_itemPaths.putAll(paths);
+        return paths;
+    }
+
+    /**
+     * Gets secrets of items by one GetSecrets call
+     *
+     * @param paths     { Service and account => item path }
+     * @param session   Session path
+     *
+     * @return  { Service and account => secret }; locked and deleted items are left out
+     */
+    private Map<ServiceAccountKey, byte[]> getSecrets(Map<ServiceAccountKey, String> paths, String session)
+            throws DBusException {
+
+        Map<ServiceAccountKey, byte[]> secrets = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        if (paths.isEmpty()) { return secrets; }
+
+        //
+        Map<String, ServiceAccountKey> keys = new HashMap<String, ServiceAccountKey>();
+        DBusMessage call = DBusMessage.methodCall(SERVICE_NAME, SERVICE_PATH, SERVICE_INTERFACE, "GetSecrets");
+
+        DBusMessage.Writer writer = call.writer().array("o");
+        for (Map.Entry<ServiceAccountKey, String> entry : paths.entrySet()) {
+            writer.objectPath(entry.getValue());
+            keys.put(entry.getValue(), entry.getKey());
+        }
+        writer.end().objectPath(session);
+
+        //
+        DBusMessage reply = call(call);
+        try {
+            DBusMessage.Reader entries = reply.reader().recurse();
+            while (entries.hasNext()) {
+                DBusMessage.Reader entry = entries.recurse();
+                ServiceAccountKey key = keys.get(entry.string());
+
+                DBusMessage.Reader secret = entry.recurse();
+                secret.skip();
+                secret.skip();
+                byte[] value = secret.bytes();
+
+                if (key != null) {
+                    secrets.put(key, value);
+                } else {
+                    SecretCodec.wipe(value);
+                }
+            }
+        } finally {
+            reply.close();
+        }
+
+        return secrets;
+    }
+
+    /**
+     * Returns path of the session with the Secret Service, connecting to the bus and
+     * opening a session when the connection has not been opened yet or has been lost.
+     * Item paths are forgotten on reconnection.
+     */
+    private String session() throws DBusException {
+        if (m_connection != null && m_connection.isConnected() && m_session != null) {
+            return m_session;
+        }
+
+        close();
+        m_connection = DBusConnection.open(m_busAddress);
+
+        //
+        DBusMessage call = DBusMessage.methodCall(SERVICE_NAME, SERVICE_PATH, SERVICE_INTERFACE, "OpenSession");
+        call.writer().string(ALGORITHM).variant("s").string("").end();
+
+        DBusMessage reply = call(call);
+        try {
+            DBusMessage.Reader reader = reply.reader();
+            reader.skip();
+            m_session = reader.string();
+        } finally {
+            reply.close();
+        }
+
+        return m_session;
+    }
+
+    /**
+     * Calls a method, counting the round trip
+     */
+    private DBusMessage call(DBusMessage message) throws DBusException {
+        m_roundTrips++;
+        return m_connection.call(message);
+    }
+
+    /**
+     * Calls methods by one round trip
+     */
+    private List<DBusMessage> callAll(List<DBusMessage> messages) throws DBusException {
+        m_roundTrips++;
+        return m_connection.callAll(messages);
+    }
+
+    /**
+     * Writes lookup attributes of an item as a{ss}
+     */
+    private static void writeAttributes(DBusMessage.Writer writer, ServiceAccountKey key) {
+        writer.array("{ss}");
+        writer.dictEntry().string(SCHEMA_ATTRIBUTE).string(SCHEMA).end();
+        writer.dictEntry().string(SERVICE_ATTRIBUTE).string(key.getService()).end();
+        writer.dictEntry().string(ACCOUNT_ATTRIBUTE).string(key.getAccount()).end();
+        writer.end();
+    }
+
+    /**
+     * Returns label of the item of key, which is shown by keyring managers
+     */
+    private static String label(ServiceAccountKey key) {
+        return "Password for '" + key.getAccount() + "' on '" + key.getService() + "'";
+    }
+
+    /**
+     * Bus name, object path and interfaces of the Secret Service
+     */
+    static final String SERVICE_NAME = "org.freedesktop.secrets";
+    static final String SERVICE_PATH = "/org/freedesktop/secrets";
+    static final String SERVICE_INTERFACE = "org.freedesktop.Secret.Service";
+    static final String COLLECTION_INTERFACE = "org.freedesktop.Secret.Collection";
+
+    /**
+     * Path of the default collection
+     */
+    static final String DEFAULT_COLLECTION = "/org/freedesktop/secrets/aliases/default";
+
+    /**
+     * Item properties
+     */
+    static final String LABEL_PROPERTY = "org.freedesktop.Secret.Item.Label";
+    static final String ATTRIBUTES_PROPERTY = "org.freedesktop.Secret.Item.Attributes";
+
+    /**
+     * Lookup attributes of items, and the schema name set by this backend
+     */
+    static final String SCHEMA_ATTRIBUTE = "xdg:schema";
+    static final String SERVICE_ATTRIBUTE = "service";
+    static final String ACCOUNT_ATTRIBUTE = "account";
+    static final String SCHEMA = "net.east301.keyring.Password";
+
+    /**
+     * Session algorithm; secrets are not encrypted
+     */
+    private static final String ALGORITHM = "plain";
+
+    /**
+     * Content type of secrets
+     */
+    private static final String CONTENT_TYPE = "text/plain; charset=utf8";
+
+    /**
+     * Object path which stands for no object
+     */
+    private static final String NO_OBJECT = "/";
+
+    /**
+     * Address of the message bus, or null for the session bus
+     */
+    private final String m_busAddress;
+
+    /**
+     * { Service and account => item path } of items found or created, guarded by this
+     */
+    private final Map<ServiceAccountKey, String> m_itemPaths = new HashMap<ServiceAccountKey, String>();
+
+    /**
+     * Connection to the message bus, guarded by this
+     */
+    private DBusConnection m_connection;
+
+    /**
+     * Path of the session with the Secret Service, guarded by this
+     */
+    private String m_session;
+
+    /**
+     * Number of times the backend has waited for replies, guarded by this
+     */
+    private long m_roundTrips;
+
+} // class SecretServiceBackend
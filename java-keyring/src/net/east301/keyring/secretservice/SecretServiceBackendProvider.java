@@ -0,0 +1,47 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import com.sun.jna.Platform;
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers SecretServiceBackend
+ */
+public class SecretServiceBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "SecretService";
+    }
+
+    @Override
+    public int getPriority() {
+        // preferred to GNOMEKeyring, whose library is deprecated
+        return 250;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return Platform.isLinux() || Platform.isFreeBSD();
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.PERSISTENT, BackendCapability.ENCRYPTED, BackendCapability.BATCH);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new SecretServiceBackend();
+    }
+
+} // class SecretServiceBackendProvider
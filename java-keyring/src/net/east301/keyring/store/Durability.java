@@ -0,0 +1,33 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+/**
+ * How far a RecordStore write is flushed before it returns
+ */
+public enum Durability {
+
+    /**
+     * Writes are left to the OS page cache. A crash of the process loses nothing,
+     * but a crash of the machine may lose recent writes. Records are checksummed,
+     * so lost writes never corrupt the rest of the file.
+     */
+    NONE,
+
+    /**
+     * The key store file is flushed to the device before a write returns.
+     * Concurrent writes are flushed together.
+     */
+    FSYNC,
+
+    /**
+     * Like FSYNC, and the directory is also flushed after the key store file is
+     * created or replaced, so that the new file survives a crash of the machine.
+     */
+    FSYNC_DIRECTORY
+
+} // enum Durability
@@ -0,0 +1,762 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.east301.keyring.util.FileBasedLock;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.LockTimeoutException;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Base of RecordStore implementations which keep one file.
+ *
+ * Each operation locks the file, lets the subclass bring its view of the file up
+ * to date, and unlocks the file again. The key store file and the lock file stay
+ * open between operations until close is called; the key store file is reopened
+ * when another process has replaced or deleted it. On platforms without file keys,
+ * where a replaced file cannot be told apart, it is reopened for each operation. Reads hold the lock
+ * in shared mode, so readers in other processes and other stores of the same file
+ * do not wait for each other; writes hold it exclusively. Rewrites
+ * (compaction and migration of legacy files) go through a temporary file which
+ * is flushed and then replaces the key store file by an atomic rename.
+ *
+ * Writes append checksummed records, so a crash in the middle of a write loses at
+ * most that write. How far writes are flushed is set by setDurability; concurrent
+ * writes are committed as a group with a single flush.
+ */
+abstract class FileRecordStore implements RecordStore {
+
+    /**
+     * Initializes an instance of FileRecordStore
+     *
+     * @param path      Path to key store file
+     * @param lockPath  Path to a file to be used to lock the key store
+     */
+    FileRecordStore(String path, String lockPath) {
+        m_path = path;
+        m_lockPath = lockPath;
+        m_lock = new FileBasedLock(lockPath);
+    }
+
+    @Override
+    public String getPath() {
+        return m_path;
+    }
+
+    @Override
+    public synchronized void setLegacyReader(LegacyStoreReader reader) {
+        m_legacyReader = reader;
+    }
+
+    @Override
+    public synchronized void close() {
+        closeChannel();
+
+        try {
+            m_lock.close();
+        } catch (LockException ex) {
+            Logger.getLogger(FileRecordStore.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    @Override
+    public synchronized void setLockTimeout(long timeout, TimeUnit unit) {
+        m_lockTimeoutNanos = timeout < 0 ? -1 : unit.toNanos(timeout);
+    }
+
+    @Override
+    public synchronized byte[] get(ServiceAccountKey key) throws LockException, IOException {
+        begin(false, false);
+        try {
+            if (m_channel == null) { return null; }
+            return lookup(key);
+        } finally {
+            end();
+        }
+    }
+
+    @Override
+    public synchronized void setDurability(Durability durability) {
+        m_durability = durability;
+    }
+
+    @Override
+    public void put(ServiceAccountKey key, byte[] value) throws LockException, IOException {
+        commit(Collections.singletonMap(key, value));
+    }
+
+    @Override
+    public synchronized byte[] putIfAbsent(ServiceAccountKey key, byte[] value)
+            throws LockException, IOException {
+
+        boolean created = !new File(m_path).exists();
+
+        begin(true, true);
+        try {
+            byte[] existing = lookup(key);
+            if (existing != null) { return existing; }
+
+            append(key, value);
+
+            if (m_durability != Durability.NONE) {
+                m_channel.force(false);
+            }
+
+            if (created && m_durability == Durability.FSYNC_DIRECTORY) {
+                forceDirectory();
+            }
+
+            return null;
+        } finally {
+            end();
+        }
+    }
+
+    @Override
+    public synchronized Map<ServiceAccountKey, byte[]> getAll(Collection<ServiceAccountKey> keys)
+            throws LockException, IOException {
+
+        Map<ServiceAccountKey, byte[]> values = new LinkedHashMap<ServiceAccountKey, byte[]>();
+
+        begin(false, false);
+        try {
+            if (m_channel == null) { return values; }
+
+            for (ServiceAccountKey key : keys) {
+                byte[] value = lookup(key);
+                if (value != null) { values.put(key, value); }
+            }
+        } finally {
+            end();
+        }
+
+        return values;
+    }
+
+    @Override
+    public void putAll(Map<ServiceAccountKey, byte[]> entries) throws LockException, IOException {
+        if (entries.isEmpty()) { return; }
+
+        commit(new LinkedHashMap<ServiceAccountKey, byte[]>(entries));
+    }
+
+    @Override
+    public synchronized int size() throws LockException, IOException {
+        begin(false, false);
+        try {
+            return m_channel == null ? 0 : count();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Reads all latest values under one shared lock
+     *
+     * @return  Stored entries; empty when the file does not exist
+     */
+    synchronized Map<ServiceAccountKey, byte[]> snapshot() throws LockException, IOException {
+        begin(false, false);
+        try {
+            return m_channel == null ? new LinkedHashMap<ServiceAccountKey, byte[]>() : readAll();
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Counts changes of getChangeStamp which this instance did not make itself.
+     * Writes read the stamp once the file is locked exclusively, so the changes
+     * other processes made before are counted, and remember the stamp they left.
+     */
+    @Override
+    public long getForeignChangeStamp() throws IOException {
+        synchronized (m_knownStampLock) {
+            // a write in progress counts changes made before it once it ends
+            if (!m_writing && (!m_knownStampValid || getChangeStamp() != m_knownStamp)) {
+                m_knownStamp = getChangeStamp();
+                m_knownStampValid = true;
+                m_foreignChanges++;
+            }
+
+            return m_foreignChanges;
+        }
+    }
+
+    @Override
+    public synchronized void compact() throws LockException, IOException {
+        begin(false, true);
+        try {
+            if (m_channel == null || getGarbageBytes() == 0) { return; }
+            rewrite(readAll());
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Writes entries, together with those of other threads waiting to write (group commit).
+     *
+     * The write is queued, and the thread which next enters the store writes all queued
+     * writes under one lock and flushes them once. Threads whose writes were taken by
+     * another thread just wait for it; they get its exception when the group failed.
+     *
+     * @param entries   Entries to be written
+     */
+    private void commit(Map<ServiceAccountKey, byte[]> entries) throws LockException, IOException {
+        PendingWrite write = new PendingWrite(entries);
+        synchronized (m_pendingWrites) {
+            m_pendingWrites.add(write);
+        }
+
+        //
+        synchronized (this) {
+            if (!write.done) {
+                List<PendingWrite> group;
+                synchronized (m_pendingWrites) {
+                    group = new ArrayList<PendingWrite>(m_pendingWrites);
+                    m_pendingWrites.clear();
+                }
+
+                Exception error = null;
+                try {
+                    writeGroup(group);
+                } catch (LockException ex) {
+                    error = ex;
+                } catch (IOException ex) {
+                    error = ex;
+                } catch (RuntimeException ex) {
+                    error = ex;
+                }
+
+                for (PendingWrite pending : group) {
+                    pending.error = error;
+                    pending.done = true;
+                }
+
+                scheduleCompactionIfNeeded();
+            }
+        }
+
+        //
+        if (write.error instanceof LockException) { throw (LockException)write.error; }
+        if (write.error instanceof IOException) { throw (IOException)write.error; }
+        if (write.error instanceof RuntimeException) { throw (RuntimeException)write.error; }
+    }
+
+    /**
+     * Writes a group of queued writes under one lock, and flushes them according to m_durability
+     */
+    private void writeGroup(List<PendingWrite> group) throws LockException, IOException {
+        boolean created = !new File(m_path).exists();
+
+        begin(true, true);
+        try {
+            for (PendingWrite write : group) {
+                for (Map.Entry<ServiceAccountKey, byte[]> entry : write.entries.entrySet()) {
+                    append(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (m_durability != Durability.NONE) {
+                m_channel.force(false);
+            }
+
+            if (created && m_durability == Durability.FSYNC_DIRECTORY) {
+                forceDirectory();
+            }
+        } finally {
+            end();
+        }
+
+        m_groupCount++;
+    }
+
+    /**
+     * Returns number of groups written, i.e. number of flushes put and putAll have caused
+     */
+    synchronized long getGroupCount() {
+        return m_groupCount;
+    }
+
+    /**
+     * Flushes the directory entry of the key store file. Platforms which cannot open
+     * directories, like Windows, make renames durable by themselves, so failures are ignored.
+     */
+    private void forceDirectory() {
+        forceDirectory(m_path);
+    }
+
+    /**
+     * Flushes the directory entry of specified file, see forceDirectory()
+     *
+     * @param path  Path to a file in the directory
+     */
+    static void forceDirectory(String path) {
+        File directory = new File(path).getAbsoluteFile().getParentFile();
+        if (directory == null) { return; }
+
+        try {
+            FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(FileRecordStore.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+
+    /**
+     * Brings the view of the file up to date. Called with m_channel opened and locked.
+     * Implementations call migrateLegacyFile when the file is not in their format.
+     */
+    protected abstract void synchronize() throws IOException;
+
+    /**
+     * Gets value related to specified key from m_channel
+     */
+    protected abstract byte[] lookup(ServiceAccountKey key) throws IOException;
+
+    /**
+     * Adds value related to specified key to m_channel
+     */
+    protected abstract void append(ServiceAccountKey key, byte[] value) throws IOException;
+
+    /**
+     * Returns number of entries in m_channel
+     */
+    protected abstract int count() throws IOException;
+
+    /**
+     * Reads all latest values from m_channel
+     */
+    protected abstract Map<ServiceAccountKey, byte[]> readAll() throws IOException;
+
+    /**
+     * Writes a new file which contains specified entries
+     *
+     * @param channel   Channel of an empty file
+     * @param entries   Entries to be written
+     */
+    protected abstract void writeFile(FileChannel channel, Map<ServiceAccountKey, byte[]> entries)
+            throws IOException;
+
+    /**
+     * Returns size of superseded data in m_channel, in bytes
+     */
+    protected abstract long getGarbageBytes();
+
+    /**
+     * Returns size of data in m_channel, in bytes
+     */
+    protected abstract long getDataBytes();
+
+    /**
+     * Converts a file written in a legacy format to the current format
+     */
+    protected void migrateLegacyFile() throws IOException {
+        if (m_legacyReader == null) {
+            throw new IOException("Unknown key store format: " + m_path);
+        }
+
+        if (m_lock.isShared()) {
+            // begin retries with the lock held exclusively
+            throw new ExclusiveLockRequiredException();
+        }
+
+        rewrite(new LinkedHashMap<ServiceAccountKey, byte[]>(m_legacyReader.read(m_path)));
+    }
+
+    /**
+     * Called by rewrite just before the key store file is replaced, with m_channel
+     * still referring to the current file
+     */
+    protected void beforeReplace() throws IOException {
+        // to be overrode
+    }
+
+    /**
+     * Replaces the key store file with a new file which contains specified entries,
+     * and reopens m_channel
+     *
+     * @param entries   Entries to be written
+     */
+    protected void rewrite(Map<ServiceAccountKey, byte[]> entries) throws IOException {
+        //
+        File temporary = new File(m_path + ".compact");
+
+        RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+            writeFile(channel, entries);
+            channel.force(true);
+        } finally {
+            output.close();
+        }
+
+        //
+        beforeReplace();
+
+        m_channel.close();
+        m_channel = null;
+
+        try {
+            Files.move(temporary.toPath(), new File(m_path).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary.toPath(), new File(m_path).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            m_channel = new RandomAccessFile(m_path, "rw").getChannel();
+            m_channelKey = fileKey(m_path);
+        }
+
+        if (m_durability == Durability.FSYNC_DIRECTORY) {
+            forceDirectory();
+        }
+
+        //
+        synchronize();
+    }
+
+    /**
+     * Locks the key store and brings the view of the file up to date.
+     * m_channel is left null when the file does not exist and create is false.
+     *
+     * @param create    Creates the file when it does not exist
+     * @param exclusive Locks exclusively; otherwise the lock is shared, and is
+     *                  retaken exclusively when the file has to be migrated
+     */
+    private void begin(boolean create, boolean exclusive) throws LockException, IOException {
+        if (m_lockTimeoutNanos < 0) {
+            if (exclusive) {
+                m_lock.lock();
+            } else {
+                m_lock.lockShared();
+            }
+        } else {
+            boolean locked = exclusive
+                    ? m_lock.tryLock(m_lockTimeoutNanos, TimeUnit.NANOSECONDS)
+                    : m_lock.tryLockShared(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            if (!locked) {
+                throw new LockTimeoutException("Timed out waiting for lock: " + m_lockPath);
+            }
+        }
+
+        try {
+            if (exclusive) { beginWrite(); }
+
+            openChannel(create);
+            if (m_channel == null) { return; }
+
+            synchronize();
+        } catch (ExclusiveLockRequiredException ex) {
+            end();
+            begin(create, true);
+        } catch (IOException ex) {
+            closeChannel();
+            end();
+            throw ex;
+        } catch (RuntimeException ex) {
+            closeChannel();
+            end();
+            throw ex;
+        }
+    }
+
+    /**
+     * Counts changes made by others since the stamp was last read, called with
+     * the lock held exclusively
+     */
+    private void beginWrite() throws IOException {
+        synchronized (m_knownStampLock) {
+            if (!m_knownStampValid || getChangeStamp() != m_knownStamp) {
+                m_foreignChanges++;
+            }
+            m_writing = true;
+        }
+    }
+
+    /**
+     * Remembers the stamp left by a write, called before the lock is released
+     */
+    private void endWrite() {
+        synchronized (m_knownStampLock) {
+            if (!m_writing) { return; }
+
+            m_writing = false;
+            try {
+                m_knownStamp = getChangeStamp();
+                m_knownStampValid = true;
+            } catch (IOException ex) {
+                m_knownStampValid = false;
+            }
+        }
+    }
+
+    /**
+     * Releases the lock
+     */
+    private void end() {
+        endWrite();
+
+        try {
+            m_lock.release();
+        } catch (LockException ex) {
+            Logger.getLogger(FileRecordStore.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Keeps m_channel open on the file at m_path, or sets it to null when the
+     * file does not exist and create is false
+     *
+     * @param create    Creates the file when it does not exist
+     */
+    private void openChannel(boolean create) throws IOException {
+        Object key = fileKey(m_path);
+        if (m_channel != null && m_channel.isOpen() && m_channelKey != null && m_channelKey.equals(key)) {
+            return;
+        }
+
+        //
+        closeChannel();
+
+        File file = new File(m_path);
+        if (!create && !file.exists()) { return; }
+
+        m_channel = new RandomAccessFile(file, "rw").getChannel();
+        m_channelKey = key != null ? key : fileKey(m_path);
+    }
+
+    /**
+     * Closes m_channel
+     */
+    private void closeChannel() {
+        try {
+            if (m_channel != null) { m_channel.close(); }
+        } catch (IOException ex) {
+            Logger.getLogger(FileRecordStore.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        m_channel = null;
+        m_channelKey = null;
+    }
+
+    /**
+     * Returns the key identifying the file at specified path, or null when the file
+     * does not exist or the platform has no such keys
+     */
+    private static Object fileKey(String path) {
+        try {
+            return Files.readAttributes(Paths.get(path), BasicFileAttributes.class).fileKey();
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Submits a compaction to the background thread when superseded data
+     * takes up more than half of the file
+     */
+    private void scheduleCompactionIfNeeded() {
+        final long garbage = getGarbageBytes();
+        if (m_compactionScheduled
+                || garbage < m_compactionThreshold
+                || garbage * 2 < getDataBytes()) {
+            return;
+        }
+
+        m_compactionScheduled = true;
+        COMPACTION_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                    m_compactionThreshold = COMPACTION_MIN_GARBAGE_BYTES;
+                } catch (Exception ex) {
+                    // back off, e.g. the file cannot be replaced while another process maps it
+                    m_compactionThreshold = garbage * 2;
+                    Logger.getLogger(FileRecordStore.class.getName()).log(Level.WARNING, null, ex);
+                } finally {
+                    synchronized (FileRecordStore.this) {
+                        m_compactionScheduled = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Thrown by migrateLegacyFile when the lock is held in shared mode
+     */
+    private static final class ExclusiveLockRequiredException extends IOException {
+    } // class ExclusiveLockRequiredException
+
+    /**
+     * A write waiting to be committed
+     */
+    private static final class PendingWrite {
+
+        PendingWrite(Map<ServiceAccountKey, byte[]> entries) {
+            this.entries = entries;
+        }
+
+        final Map<ServiceAccountKey, byte[]> entries;
+
+        /**
+         * Set by the committing thread, and read after entering the store's monitor
+         */
+        boolean done;
+        Exception error;
+
+    } // class PendingWrite
+
+    /**
+     * Compaction is never scheduled before superseded data reaches this size
+     */
+    private static final long COMPACTION_MIN_GARBAGE_BYTES = 64 * 1024;
+
+    /**
+     * Source of initial values of m_foreignChanges
+     */
+    private static final AtomicLong FOREIGN_CHANGE_BASES = new AtomicLong();
+
+    /**
+     * Thread which runs compactions of all stores
+     */
+    private static final ExecutorService COMPACTION_EXECUTOR = new ThreadPoolExecutor(
+            0, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "java-keyring-compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Path to key store file
+     */
+    protected final String m_path;
+
+    /**
+     * Path to a file to be used to lock the key store
+     */
+    protected final String m_lockPath;
+
+    /**
+     * Codec of records, guarded by this
+     */
+    protected final RecordCodec m_codec = new RecordCodec();
+
+    /**
+     * Channel of key store file, kept open between operations; null during an
+     * operation when the file does not exist
+     */
+    protected FileChannel m_channel;
+
+    /**
+     * Reader of legacy key store files
+     */
+    private LegacyStoreReader m_legacyReader;
+
+    /**
+     * Maximum time to wait for the lock, in nanoseconds, or -1 to wait as long as it takes
+     */
+    private long m_lockTimeoutNanos = -1;
+
+    /**
+     * Writes waiting to be committed, guarded by itself
+     */
+    private final List<PendingWrite> m_pendingWrites = new ArrayList<PendingWrite>();
+
+    /**
+     * How far writes are flushed
+     */
+    private Durability m_durability = Durability.FSYNC;
+
+    /**
+     * Number of groups written
+     */
+    private long m_groupCount;
+
+    /**
+     * File key of the file m_channel was opened on, or null
+     */
+    private Object m_channelKey;
+
+    /**
+     * Lock of the key store, held during an operation
+     */
+    private final FileBasedLock m_lock;
+
+    /**
+     * True while a compaction is waiting or running on the background thread
+     */
+    private boolean m_compactionScheduled;
+
+    /**
+     * Compaction is not scheduled before superseded data reaches this size
+     */
+    private volatile long m_compactionThreshold = COMPACTION_MIN_GARBAGE_BYTES;
+
+    /**
+     * Guards m_knownStamp, m_knownStampValid, m_writing and m_foreignChanges
+     */
+    private final Object m_knownStampLock = new Object();
+
+    /**
+     * Change stamp left by the last write of this instance, or last read by getForeignChangeStamp
+     */
+    private long m_knownStamp;
+
+    /**
+     * False until m_knownStamp is read, or when it could not be read
+     */
+    private boolean m_knownStampValid;
+
+    /**
+     * True while this instance writes with the lock held exclusively
+     */
+    private boolean m_writing;
+
+    /**
+     * Value of getForeignChangeStamp, starting from a distinct value for each instance
+     * so that a store opened again does not reuse stamps of the previous one
+     */
+    private long m_foreignChanges = FOREIGN_CHANGE_BASES.addAndGet(1L << 32);
+
+} // class FileRecordStore
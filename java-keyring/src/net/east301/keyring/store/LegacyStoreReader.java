@@ -0,0 +1,30 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.IOException;
+import java.util.Map;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Reads a key store file written in a format older than the current one,
+ * so that it can be migrated in place
+ */
+public interface LegacyStoreReader {
+
+    /**
+     * Reads all entries from a legacy key store file
+     *
+     * @param path  Path to key store file
+     *
+     * @return  Entries stored in the file
+     *
+     * @throws IOException  Thrown when the file cannot be read
+     */
+    Map<ServiceAccountKey, byte[]> read(String path) throws IOException;
+
+} // interface LegacyStoreReader
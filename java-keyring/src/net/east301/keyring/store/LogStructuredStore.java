@@ -0,0 +1,313 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Append-only key store file.
+ *
+ * Every write appends one record to the end of the file, and an in-memory index maps
+ * service/account pairs to the offset of their latest value. Other processes' appends
+ * are picked up by scanning only the part of the file added since the last operation.
+ * Superseded records are dropped by a compaction which runs on a background thread
+ * once they take up more than half of the file. Since the file only grows between
+ * rewrites, its attributes serve as the change stamp.
+ *
+ * File layout:
+ * <pre>
+ *   file    := header record*
+ *   header  := magic(4) version(2) reserved(2) fileId(8) reserved(16)
+ * </pre>
+ * See Records for the record layout. fileId is regenerated whenever the file is
+ * rewritten, which tells other processes that their index is stale.
+ */
+public class LogStructuredStore extends FileRecordStore {
+
+    /**
+     * Initializes an instance of LogStructuredStore
+     *
+     * @param path      Path to key store file
+     * @param lockPath  Path to a file to be used to lock the key store
+     */
+    public LogStructuredStore(String path, String lockPath) {
+        super(path, lockPath);
+    }
+
+    /**
+     * Reads records appended since the last operation, or rebuilds the whole index
+     * when the file was rewritten by someone else
+     */
+    @Override
+    protected void synchronize() throws IOException {
+        long size = m_channel.size();
+        if (size < HEADER_SIZE) {
+            // empty, or the header write of a new file was interrupted
+            resetIndex(0);
+            return;
+        }
+
+        //
+        ByteBuffer header = m_codec.scratchBuffer(HEADER_SIZE);
+        if (!Records.readFully(m_channel, header, 0) || header.getInt(0) != MAGIC) {
+            migrateLegacyFile();
+            return;
+        }
+
+        if (header.getShort(4) != VERSION) {
+            throw new IOException("Unsupported key store version " + header.getShort(4));
+        }
+
+        //
+        long fileId = header.getLong(8);
+        if (fileId != m_fileId || size < m_end) {
+            resetIndex(fileId);
+        }
+
+        if (size > m_end) {
+            scan(size);
+        }
+    }
+
+    @Override
+    protected byte[] lookup(ServiceAccountKey key) throws IOException {
+        RecordLocation location = m_index.get(key);
+        if (location == null) { return null; }
+
+        return readValue(location);
+    }
+
+    @Override
+    protected void append(ServiceAccountKey key, byte[] value) throws IOException {
+        //
+        if (m_end == 0) {
+            long fileId = Records.newFileId();
+            Records.writeFully(m_channel, encodeHeader(fileId), 0);
+            resetIndex(fileId);
+        }
+
+        if (m_channel.size() > m_end) {
+            // drop an incomplete record left by a crashed writer
+            m_channel.truncate(m_end);
+        }
+
+        //
+        ByteBuffer record = m_codec.encode(key, value);
+        int recordLength = record.remaining();
+        Records.writeFully(m_channel, record, m_end);
+
+        long valueOffset = m_end + recordLength - 4 - value.length;
+        index(key, new RecordLocation(valueOffset, value.length, recordLength));
+        m_end += recordLength;
+    }
+
+    @Override
+    protected int count() {
+        return m_index.size();
+    }
+
+    @Override
+    protected Map<ServiceAccountKey, byte[]> readAll() throws IOException {
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (Map.Entry<ServiceAccountKey, RecordLocation> entry : m_index.entrySet()) {
+            entries.put(entry.getKey(), readValue(entry.getValue()));
+        }
+
+        return entries;
+    }
+
+    @Override
+    protected void writeFile(FileChannel channel, Map<ServiceAccountKey, byte[]> entries)
+            throws IOException {
+
+        long end = HEADER_SIZE;
+        Records.writeFully(channel, encodeHeader(Records.newFileId()), 0);
+
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : entries.entrySet()) {
+            ByteBuffer record = m_codec.encode(entry.getKey(), entry.getValue());
+            int recordLength = record.remaining();
+            Records.writeFully(channel, record, end);
+            end += recordLength;
+        }
+    }
+
+    @Override
+    protected long getGarbageBytes() {
+        return m_garbageBytes;
+    }
+
+    @Override
+    protected long getDataBytes() {
+        return m_end;
+    }
+
+    /**
+     * Returns a stamp made of size, modification time and identity of the file.
+     * Records are only ever appended and rewrites replace the file, so every
+     * write changes at least one of them.
+     */
+    @Override
+    public long getChangeStamp() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(m_path), BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            return 0;
+        }
+
+        //
+        Object fileKey = attributes.fileKey();
+        long stamp = attributes.size();
+        stamp = stamp * 31 + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        stamp = stamp * 31 + (fileKey == null ? attributes.creationTime().hashCode() : fileKey.hashCode());
+
+        return stamp == 0 ? 1 : stamp;
+    }
+
+    /**
+     * Scans records between m_end and limit, and adds them to the index.
+     * Scanning stops at the first incomplete or corrupted record.
+     *
+     * @param limit Size of the file
+     */
+    private void scan(long limit) throws IOException {
+        while (m_end + Records.OVERHEAD <= limit) {
+            //
+            ByteBuffer lengthBuffer = m_codec.scratchBuffer(4);
+            if (!Records.readFully(m_channel, lengthBuffer, m_end)) { break; }
+
+            int bodyLength = lengthBuffer.getInt(0);
+            if (bodyLength < Records.MIN_BODY_SIZE
+                    || m_end + Records.OVERHEAD + bodyLength > limit) {
+                break;
+            }
+
+            //
+            ByteBuffer buffer = m_codec.scratchBuffer(Records.OVERHEAD + bodyLength);
+            if (!Records.readFully(m_channel, buffer, m_end)) { break; }
+
+            Records.Record record = Records.decode(buffer, 0, buffer.limit());
+            if (record == null) { break; }
+
+            //
+            index(record.key,
+                    new RecordLocation(m_end + record.valueOffset, record.valueLength, record.length));
+            m_end += record.length;
+        }
+    }
+
+    /**
+     * Adds a record to the index
+     */
+    private void index(ServiceAccountKey key, RecordLocation location) {
+        RecordLocation previous = m_index.put(key, location);
+        if (previous != null) { m_garbageBytes += previous.recordLength; }
+    }
+
+    /**
+     * Clears the index
+     *
+     * @param fileId    ID of the file the index is going to be built from
+     */
+    private void resetIndex(long fileId) {
+        m_index = new HashMap<ServiceAccountKey, RecordLocation>();
+        m_fileId = fileId;
+        m_end = fileId == 0 ? 0 : HEADER_SIZE;
+        m_garbageBytes = 0;
+    }
+
+    /**
+     * Reads a value from the file
+     */
+    private byte[] readValue(RecordLocation location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.valueLength);
+        if (!Records.readFully(m_channel, buffer, location.valueOffset)) {
+            throw new IOException("Unexpected end of key store file");
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Encodes file header
+     */
+    private static ByteBuffer encodeHeader(long fileId) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short)0);
+        header.putLong(fileId);
+        header.rewind();
+
+        return header;
+    }
+
+    /**
+     * Location of a value in the file
+     */
+    private static final class RecordLocation {
+
+        RecordLocation(long valueOffset, int valueLength, int recordLength) {
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.recordLength = recordLength;
+        }
+
+        final long valueOffset;
+        final int valueLength;
+        final int recordLength;
+
+    } // class RecordLocation
+
+    /**
+     * File magic ("JKLS")
+     */
+    static final int MAGIC = 0x4A4B4C53;
+
+    /**
+     * File format version
+     */
+    static final short VERSION = 1;
+
+    /**
+     * Size of file header
+     */
+    static final int HEADER_SIZE = 32;
+
+    /**
+     * { Service and account => location of latest value }
+     */
+    private HashMap<ServiceAccountKey, RecordLocation> m_index =
+            new HashMap<ServiceAccountKey, RecordLocation>();
+
+    /**
+     * ID of the file m_index was built from, or 0 when the file is empty
+     */
+    private long m_fileId;
+
+    /**
+     * Offset just past the last valid record
+     */
+    private long m_end;
+
+    /**
+     * Size of superseded records
+     */
+    private long m_garbageBytes;
+
+} // class LogStructuredStore
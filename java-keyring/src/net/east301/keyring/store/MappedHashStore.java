@@ -0,0 +1,523 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Key store file with an on-disk hash index, read through a memory mapping.
+ *
+ * A lookup reads the file header, probes the hash table and compares the key of
+ * at most a few records, so its cost does not depend on the number of entries and
+ * nothing has to be loaded when a process starts. Writes append the record, then
+ * update the hash table slot and the header. When the table becomes half full a
+ * table twice as large is appended and the old one becomes garbage, which is
+ * dropped by compaction together with superseded records.
+ *
+ * File layout:
+ * <pre>
+ *   file    := header (table | record)*
+ *   header  := magic(4) version(2) reserved(2) fileId(8) tableOffset(8) bucketCount(4)
+ *              entryCount(4) dataEnd(8) garbageBytes(8) generation(8) reserved(8)
+ *   table   := slot{bucketCount}
+ *   slot    := recordOffset(8) hash(4) reserved(4)
+ * </pre>
+ * See Records for the record layout. The file is grown ahead of dataEnd so that
+ * the mapping only has to be renewed when the file has grown geometrically.
+ * Files are limited to 2GB.
+ *
+ * generation is incremented by every write, and set to REPLACED_GENERATION in a file
+ * which is about to be replaced by a rewrite. getChangeStamp watches it through a
+ * mapping of the header, so other processes' writes are detected by reading one word.
+ *
+ * On Windows a file cannot be replaced while it is mapped, so compaction is
+ * skipped there as long as some process keeps the file mapped.
+ */
+public class MappedHashStore extends FileRecordStore {
+
+    /**
+     * Initializes an instance of MappedHashStore
+     *
+     * @param path      Path to key store file
+     * @param lockPath  Path to a file to be used to lock the key store
+     */
+    public MappedHashStore(String path, String lockPath) {
+        super(path, lockPath);
+    }
+
+    /**
+     * Reads the header, and renews the mapping when the file was replaced or grown
+     */
+    @Override
+    protected void synchronize() throws IOException {
+        long size = m_channel.size();
+        if (size < HEADER_SIZE) {
+            // empty, or the header write of a new file was interrupted
+            m_fileId = 0;
+            return;
+        }
+
+        //
+        ByteBuffer header = m_codec.scratchBuffer(HEADER_SIZE);
+        if (!Records.readFully(m_channel, header, 0) || header.getInt(0) != MAGIC) {
+            m_fileId = 0;
+            migrateLegacyFile();
+            return;
+        }
+
+        if (header.getShort(4) != VERSION) {
+            throw new IOException("Unsupported key store version " + header.getShort(4));
+        }
+
+        //
+        m_fileId = header.getLong(8);
+        m_tableOffset = header.getLong(16);
+        m_bucketCount = header.getInt(24);
+        m_entryCount = header.getInt(28);
+        m_dataEnd = header.getLong(32);
+        m_garbageBytes = header.getLong(40);
+        m_generation = header.getLong(48);
+
+        if (m_dataEnd > size || m_tableOffset + (long)m_bucketCount * SLOT_SIZE > m_dataEnd
+                || Integer.bitCount(m_bucketCount) != 1) {
+            throw new IOException("Corrupted key store header: " + m_path);
+        }
+
+        //
+        if (m_map == null || m_mapFileId != m_fileId || m_map.capacity() != size) {
+            map(size);
+        }
+    }
+
+    @Override
+    protected byte[] lookup(ServiceAccountKey key) throws IOException {
+        if (m_fileId == 0) { return null; }
+
+        long slot = findSlot(hash(key), m_codec.encodeKey(key));
+        if (slot < 0) { return null; }
+
+        //
+        int offset = (int)m_map.getLong((int)slot);
+        int valueOffset = Records.valueOffset(m_map, offset);
+        byte[] value = new byte[m_map.getInt(valueOffset - 4)];
+
+        ByteBuffer view = m_map.duplicate();
+        view.position(valueOffset);
+        view.get(value);
+
+        return value;
+    }
+
+    @Override
+    protected void append(ServiceAccountKey key, byte[] value) throws IOException {
+        //
+        if (m_fileId == 0) {
+            initialize();
+        }
+
+        if ((m_entryCount + 1) * 2 > m_bucketCount) {
+            growTable();
+        }
+
+        //
+        int hash = hash(key);
+        long slot = findSlot(hash, m_codec.encodeKey(key));
+
+        ByteBuffer record = m_codec.encode(key, value);
+        long offset = m_dataEnd;
+        ensureCapacity(offset + record.remaining());
+        Records.writeFully(m_channel, record, offset);
+        m_dataEnd = offset + record.limit();
+
+        //
+        if (slot >= 0) {
+            int previous = (int)m_map.getLong((int)slot);
+            m_garbageBytes += Records.OVERHEAD + m_map.getInt(previous);
+        } else {
+            slot = -slot - 1;
+            m_entryCount++;
+        }
+
+        ByteBuffer slotBuffer = m_codec.scratchBuffer(SLOT_SIZE);
+        slotBuffer.putLong(offset).putInt(hash).putInt(0).flip();
+        Records.writeFully(m_channel, slotBuffer, slot);
+
+        writeHeader();
+    }
+
+    @Override
+    protected int count() {
+        return m_fileId == 0 ? 0 : m_entryCount;
+    }
+
+    @Override
+    protected Map<ServiceAccountKey, byte[]> readAll() throws IOException {
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        if (m_fileId == 0) { return entries; }
+
+        for (int i = 0; i < m_bucketCount; i++) {
+            int offset = (int)m_map.getLong((int)(m_tableOffset + (long)i * SLOT_SIZE));
+            if (offset == 0) { continue; }
+
+            Records.Record record = Records.decode(m_map, offset, (int)m_dataEnd);
+            if (record == null) {
+                throw new IOException("Corrupted record at " + offset + " in " + m_path);
+            }
+
+            byte[] value = new byte[record.valueLength];
+            ByteBuffer view = m_map.duplicate();
+            view.position(offset + record.valueOffset);
+            view.get(value);
+
+            entries.put(record.key, value);
+        }
+
+        return entries;
+    }
+
+    @Override
+    protected void writeFile(FileChannel channel, Map<ServiceAccountKey, byte[]> entries)
+            throws IOException {
+
+        //
+        int bucketCount = INITIAL_BUCKET_COUNT;
+        while (bucketCount < entries.size() * 2 + 2) { bucketCount *= 2; }
+
+        ByteBuffer table = ByteBuffer.allocate(bucketCount * SLOT_SIZE);
+        long end = HEADER_SIZE + table.capacity();
+
+        //
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : entries.entrySet()) {
+            ByteBuffer record = m_codec.encode(entry.getKey(), entry.getValue());
+            int recordLength = record.remaining();
+            Records.writeFully(channel, record, end);
+
+            int hash = hash(entry.getKey());
+            int index = hash & (bucketCount - 1);
+            while (table.getLong(index * SLOT_SIZE) != 0) { index = (index + 1) & (bucketCount - 1); }
+            table.putLong(index * SLOT_SIZE, end);
+            table.putInt(index * SLOT_SIZE + 8, hash);
+
+            end += recordLength;
+        }
+
+        //
+        Records.writeFully(channel, table, HEADER_SIZE);
+        Records.writeFully(channel, encodeHeader(m_codec.scratchBuffer(HEADER_SIZE),
+                Records.newFileId(), HEADER_SIZE, bucketCount, entries.size(), end, 0, 0), 0);
+    }
+
+    @Override
+    protected long getGarbageBytes() {
+        return m_garbageBytes;
+    }
+
+    @Override
+    protected long getDataBytes() {
+        return m_dataEnd;
+    }
+
+    /**
+     * Marks the current file as replaced, so that mapped headers notice the rewrite
+     */
+    @Override
+    protected void beforeReplace() throws IOException {
+        if (m_fileId == 0) { return; }
+
+        ByteBuffer generation = m_codec.scratchBuffer(8);
+        generation.putLong(0, REPLACED_GENERATION);
+        Records.writeFully(m_channel, generation, 48);
+    }
+
+    /**
+     * Returns fileId and generation read from a mapping of the header
+     */
+    @Override
+    public long getChangeStamp() throws IOException {
+        synchronized (m_stampLock) {
+            if (m_stampMap == null || m_stampMap.getLong(48) == REPLACED_GENERATION) {
+                m_stampMap = mapHeader();
+                if (m_stampMap == null) { return 0; }
+            }
+
+            return m_stampMap.getLong(8) * 31 + m_stampMap.getLong(48);
+        }
+    }
+
+    /**
+     * Probes the hash table for specified key
+     *
+     * @param hash  Hash of the key
+     * @param key   Key encoded by RecordCodec.encodeKey
+     *
+     * @return  Position of the slot which refers to the key, or (-(position of an empty slot) - 1)
+     *          when the key is not stored
+     */
+    private long findSlot(int hash, ByteBuffer key) throws IOException {
+        int mask = m_bucketCount - 1;
+        int index = hash & mask;
+
+        for (int probes = 0; probes < m_bucketCount; probes++) {
+            long slot = m_tableOffset + (long)index * SLOT_SIZE;
+            long offset = m_map.getLong((int)slot);
+            if (offset == 0) { return -slot - 1; }
+
+            //
+            if (m_map.getInt((int)slot + 8) == hash
+                    && Records.validate(m_map, (int)offset, (int)m_dataEnd) > 0
+                    && Records.matches(m_map, (int)offset, key)) {
+                return slot;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        throw new IOException("Hash table of key store is full: " + m_path);
+    }
+
+    /**
+     * Writes header and an empty hash table to an empty file
+     */
+    private void initialize() throws IOException {
+        m_fileId = Records.newFileId();
+        m_tableOffset = HEADER_SIZE;
+        m_bucketCount = INITIAL_BUCKET_COUNT;
+        m_entryCount = 0;
+        m_dataEnd = HEADER_SIZE + (long)INITIAL_BUCKET_COUNT * SLOT_SIZE;
+        m_garbageBytes = 0;
+        m_generation = 0;
+
+        m_channel.truncate(0);
+        ensureCapacity(m_dataEnd);
+        writeHeader();
+    }
+
+    /**
+     * Appends a hash table twice as large as the current one, and switches to it
+     */
+    private void growTable() throws IOException {
+        int bucketCount = m_bucketCount * 2;
+        ByteBuffer table = ByteBuffer.allocate(bucketCount * SLOT_SIZE);
+
+        //
+        for (int i = 0; i < m_bucketCount; i++) {
+            int oldSlot = (int)(m_tableOffset + (long)i * SLOT_SIZE);
+            long offset = m_map.getLong(oldSlot);
+            if (offset == 0) { continue; }
+
+            int hash = m_map.getInt(oldSlot + 8);
+            int index = hash & (bucketCount - 1);
+            while (table.getLong(index * SLOT_SIZE) != 0) { index = (index + 1) & (bucketCount - 1); }
+            table.putLong(index * SLOT_SIZE, offset);
+            table.putInt(index * SLOT_SIZE + 8, hash);
+        }
+
+        //
+        long tableOffset = m_dataEnd;
+        ensureCapacity(tableOffset + table.capacity());
+        Records.writeFully(m_channel, table, tableOffset);
+
+        m_garbageBytes += (long)m_bucketCount * SLOT_SIZE;
+        m_tableOffset = tableOffset;
+        m_bucketCount = bucketCount;
+        m_dataEnd = tableOffset + table.capacity();
+
+        writeHeader();
+    }
+
+    /**
+     * Grows the file so that it is at least required bytes long, and renews the mapping
+     */
+    private void ensureCapacity(long required) throws IOException {
+        long size = m_channel.size();
+        if (size >= required && m_map != null && m_map.capacity() == size) { return; }
+
+        //
+        if (size < required) {
+            long capacity = Math.max(required, Math.max(size + size / 2, MIN_FILE_SIZE));
+            if (capacity > Integer.MAX_VALUE) {
+                throw new IOException("Key store file is too large: " + m_path);
+            }
+
+            ByteBuffer zero = ByteBuffer.allocate(1);
+            Records.writeFully(m_channel, zero, capacity - 1);
+            size = capacity;
+        }
+
+        map(size);
+    }
+
+    /**
+     * Maps the whole file
+     */
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Key store file is too large: " + m_path);
+        }
+
+        m_map = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        m_mapFileId = m_fileId;
+    }
+
+    /**
+     * Maps the header of the current file
+     *
+     * @return  Mapping, or null when the file does not exist or is not in this format
+     */
+    private MappedByteBuffer mapHeader() throws IOException {
+        File file = new File(m_path);
+        if (file.length() < HEADER_SIZE) { return null; }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer header = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            return header.getInt(0) == MAGIC ? header : null;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Increments generation and writes the current header
+     */
+    private void writeHeader() throws IOException {
+        m_generation++;
+        Records.writeFully(m_channel, encodeHeader(m_codec.scratchBuffer(HEADER_SIZE),
+                m_fileId, m_tableOffset, m_bucketCount, m_entryCount, m_dataEnd, m_garbageBytes,
+                m_generation), 0);
+    }
+
+    /**
+     * Encodes file header into a cleared buffer of HEADER_SIZE bytes
+     */
+    private static ByteBuffer encodeHeader(ByteBuffer header, long fileId, long tableOffset,
+            int bucketCount, int entryCount, long dataEnd, long garbageBytes, long generation) {
+
+        header.putInt(MAGIC);
+        header.putShort(VERSION);
+        header.putShort((short)0);
+        header.putLong(fileId);
+        header.putLong(tableOffset);
+        header.putInt(bucketCount);
+        header.putInt(entryCount);
+        header.putLong(dataEnd);
+        header.putLong(garbageBytes);
+        header.putLong(generation);
+        while (header.hasRemaining()) { header.put((byte)0); }
+        header.rewind();
+
+        return header;
+    }
+
+    /**
+     * Returns hash of key which is stored in the file.
+     * String.hashCode is specified by the language, so this is stable across processes.
+     */
+    private static int hash(ServiceAccountKey key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * File magic ("JKMH")
+     */
+    static final int MAGIC = 0x4A4B4D48;
+
+    /**
+     * File format version
+     */
+    static final short VERSION = 1;
+
+    /**
+     * Size of file header
+     */
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * Generation of a file which has been replaced by a rewrite
+     */
+    static final long REPLACED_GENERATION = -1;
+
+    /**
+     * Size of a hash table slot
+     */
+    private static final int SLOT_SIZE = 16;
+
+    /**
+     * Number of hash table slots of a new file
+     */
+    private static final int INITIAL_BUCKET_COUNT = 256;
+
+    /**
+     * The file is never grown to less than this size
+     */
+    private static final long MIN_FILE_SIZE = 64 * 1024;
+
+    /**
+     * Mapping of the whole file
+     */
+    private MappedByteBuffer m_map;
+
+    /**
+     * ID of the file m_map belongs to
+     */
+    private long m_mapFileId;
+
+    /**
+     * ID of the file, or 0 when the file is empty
+     */
+    private long m_fileId;
+
+    /**
+     * Offset of the current hash table
+     */
+    private long m_tableOffset;
+
+    /**
+     * Number of slots of the current hash table
+     */
+    private int m_bucketCount;
+
+    /**
+     * Number of stored entries
+     */
+    private int m_entryCount;
+
+    /**
+     * Offset just past the last record or table
+     */
+    private long m_dataEnd;
+
+    /**
+     * Size of superseded records and tables
+     */
+    private long m_garbageBytes;
+
+    /**
+     * Number of writes to the file
+     */
+    private long m_generation;
+
+    /**
+     * Guards m_stampMap, which is used without locking the store
+     */
+    private final Object m_stampLock = new Object();
+
+    /**
+     * Mapping of the header used by getChangeStamp
+     */
+    private MappedByteBuffer m_stampMap;
+
+} // class MappedHashStore
@@ -0,0 +1,187 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.CRC32;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Encodes records (see Records for the layout) into buffers which are reused
+ * across calls. Service and account names are encoded into UTF-8 straight into
+ * the output buffer, so encoding a record of a known size allocates nothing.
+ *
+ * Instances are not thread-safe. Each buffer returned by a method stays valid
+ * until the next call of the same method.
+ */
+final class RecordCodec {
+
+    /**
+     * Encodes a record
+     *
+     * @param key   Service and account
+     * @param value Value
+     *
+     * @return  Buffer which contains the record between its position and limit
+     */
+    ByteBuffer encode(ServiceAccountKey key, byte[] value) {
+        while (true) {
+            ByteBuffer record = m_recordBuffer;
+            record.clear();
+            record.position(4);
+            record.put(Records.TYPE_PUT);
+
+            if (encodeKey(record, key) && record.remaining() >= 4 + value.length + 4) {
+                record.putInt(value.length).put(value);
+
+                int bodyLength = record.position() - 4;
+                record.putInt(0, bodyLength);
+                record.putInt(Records.checksum(m_crc, record, 4, bodyLength));
+                record.flip();
+
+                return record;
+            }
+
+            m_recordBuffer = grow(record, value.length);
+        }
+    }
+
+    /**
+     * Encodes service and account the way they appear in a record, i.e.
+     * serviceLength(4) service accountLength(4) account
+     *
+     * @param key   Service and account
+     *
+     * @return  Buffer which contains the encoded key between its position and limit
+     */
+    ByteBuffer encodeKey(ServiceAccountKey key) {
+        while (true) {
+            ByteBuffer buffer = m_keyBuffer;
+            buffer.clear();
+
+            if (encodeKey(buffer, key)) {
+                buffer.flip();
+                return buffer;
+            }
+
+            m_keyBuffer = grow(buffer, 0);
+        }
+    }
+
+    /**
+     * Returns a scratch buffer for reading records and writing headers,
+     * cleared and with its limit set to capacity
+     *
+     * @param capacity  Required capacity
+     */
+    ByteBuffer scratchBuffer(int capacity) {
+        if (m_scratchBuffer.capacity() < capacity) {
+            m_scratchBuffer = ByteBuffer.allocate(Math.max(capacity, m_scratchBuffer.capacity() * 2));
+        }
+
+        m_scratchBuffer.clear();
+        m_scratchBuffer.limit(capacity);
+
+        return m_scratchBuffer;
+    }
+
+    /**
+     * Writes length-prefixed service and account to buffer
+     *
+     * @return  false when buffer is too small
+     */
+    private boolean encodeKey(ByteBuffer buffer, ServiceAccountKey key) {
+        return encodeString(buffer, key.getService()) && encodeString(buffer, key.getAccount());
+    }
+
+    /**
+     * Writes length-prefixed UTF-8 string to buffer
+     *
+     * @return  false when buffer is too small
+     */
+    private boolean encodeString(ByteBuffer buffer, String value) {
+        if (buffer.remaining() < 4 + value.length()) { return false; }
+
+        int lengthOffset = buffer.position();
+        buffer.position(lengthOffset + 4);
+
+        // ASCII is copied as is, anything else goes through the encoder
+        int length = value.length();
+        int i = 0;
+        while (i < length && value.charAt(i) < 0x80) {
+            buffer.put((byte)value.charAt(i++));
+        }
+
+        if (i == length) {
+            buffer.putInt(lengthOffset, length);
+            return true;
+        }
+
+        buffer.position(lengthOffset + 4);
+        m_encoder.reset();
+        CharBuffer input = CharBuffer.wrap(value);
+        CoderResult result = m_encoder.encode(input, buffer, true);
+        if (!result.isOverflow()) {
+            result = m_encoder.flush(buffer);
+        }
+
+        if (result.isOverflow()) { return false; }
+
+        //
+        buffer.putInt(lengthOffset, buffer.position() - lengthOffset - 4);
+        return true;
+    }
+
+    /**
+     * Allocates a larger buffer which fits a record of the current size plus extra bytes
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+        long capacity = Math.max((long)buffer.capacity() * 2, (long)buffer.capacity() + extra + 64);
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Record is too large");
+        }
+
+        return ByteBuffer.allocate((int)capacity);
+    }
+
+    /**
+     * Initial size of each buffer
+     */
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    /**
+     * UTF-8 encoder, which replaces unpaired surrogates like String.getBytes does
+     */
+    private final CharsetEncoder m_encoder = Records.UTF8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Checksum calculator
+     */
+    private final CRC32 m_crc = new CRC32();
+
+    /**
+     * Buffer returned by encode
+     */
+    private ByteBuffer m_recordBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Buffer returned by encodeKey
+     */
+    private ByteBuffer m_keyBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /**
+     * Buffer returned by scratchBuffer
+     */
+    private ByteBuffer m_scratchBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+} // class RecordCodec
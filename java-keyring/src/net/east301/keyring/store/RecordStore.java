@@ -0,0 +1,132 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Key store file which maps service/account pairs to opaque values.
+ * Implementations lock the file for every operation, so one file can be shared
+ * by multiple threads and processes.
+ */
+public interface RecordStore {
+
+    /**
+     * Returns path to key store file
+     */
+    String getPath();
+
+    /**
+     * Sets a reader which is used to migrate a key store file written in an older format
+     *
+     * @param reader    Legacy format reader, or null to reject unknown files
+     */
+    void setLegacyReader(LegacyStoreReader reader);
+
+    /**
+     * Sets maximum time an operation waits for the key store lock. An operation which
+     * cannot obtain the lock in time fails with LockTimeoutException.
+     *
+     * @param timeout   Maximum time to wait, or a negative value to wait as long as it takes
+     * @param unit      Unit of timeout
+     */
+    void setLockTimeout(long timeout, TimeUnit unit);
+
+    /**
+     * Sets how far writes are flushed before put and putAll return
+     *
+     * @param durability    Durability level
+     */
+    void setDurability(Durability durability);
+
+    /**
+     * Gets value related to specified key
+     *
+     * @param key   Service and account
+     *
+     * @return  Stored value, or null when not found
+     */
+    byte[] get(ServiceAccountKey key) throws LockException, IOException;
+
+    /**
+     * Stores value related to specified key
+     *
+     * @param key   Service and account
+     * @param value Value to be stored
+     */
+    void put(ServiceAccountKey key, byte[] value) throws LockException, IOException;
+
+    /**
+     * Stores value related to specified key unless a value is already stored,
+     * checking and writing under one lock
+     *
+     * @param key   Service and account
+     * @param value Value to be stored
+     *
+     * @return  Value already stored, or null when value was stored
+     */
+    byte[] putIfAbsent(ServiceAccountKey key, byte[] value) throws LockException, IOException;
+
+    /**
+     * Gets values related to specified keys, locking and reading the file once
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  Stored values; keys which are not found are left out
+     */
+    Map<ServiceAccountKey, byte[]> getAll(Collection<ServiceAccountKey> keys)
+            throws LockException, IOException;
+
+    /**
+     * Stores values related to specified keys, locking the file once
+     *
+     * @param entries   Values to be stored
+     */
+    void putAll(Map<ServiceAccountKey, byte[]> entries) throws LockException, IOException;
+
+    /**
+     * Returns number of stored entries
+     */
+    int size() throws LockException, IOException;
+
+    /**
+     * Returns a value which changes whenever the file is modified, by this or another
+     * process. It is read without locking the file, so it is cheap enough to be checked
+     * before every read of data cached in memory.
+     *
+     * @return  Change stamp, or 0 when the file does not exist yet
+     */
+    long getChangeStamp() throws IOException;
+
+    /**
+     * Returns a value which changes like getChangeStamp, except that writes through
+     * this instance leave it unchanged. Data a caller cached in memory while writing
+     * through this instance therefore stays valid until someone else modifies the file.
+     *
+     * @return  Change stamp
+     */
+    long getForeignChangeStamp() throws IOException;
+
+    /**
+     * Rewrites the file so that it only contains latest values.
+     * Normally this is done automatically on a background thread.
+     */
+    void compact() throws LockException, IOException;
+
+    /**
+     * Closes the key store file and the lock file, which are otherwise kept open
+     * between operations. The store can still be used afterwards; it reopens the
+     * files when needed.
+     */
+    void close();
+
+} // interface RecordStore
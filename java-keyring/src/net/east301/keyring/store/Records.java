@@ -0,0 +1,268 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Record decoding and file I/O helpers shared by RecordStore implementations.
+ * Records are encoded by RecordCodec.
+ *
+ * Record layout:
+ * <pre>
+ *   record  := bodyLength(4) body crc32(4)
+ *   body    := type(1) serviceLength(4) service accountLength(4) account valueLength(4) value
+ * </pre>
+ */
+final class Records {
+
+    /**
+     * Decodes a record
+     *
+     * @param buffer    Buffer which contains the record
+     * @param offset    Offset of the record in buffer
+     * @param limit     Offset just past the last byte which may belong to the record
+     *
+     * @return  Decoded record, or null when the record is incomplete or corrupted
+     */
+    static Record decode(ByteBuffer buffer, int offset, int limit) {
+        if (offset < 0 || limit - offset < OVERHEAD + MIN_BODY_SIZE) { return null; }
+
+        //
+        int bodyLength = buffer.getInt(offset);
+        if (bodyLength < MIN_BODY_SIZE || bodyLength > limit - offset - OVERHEAD) { return null; }
+
+        int bodyOffset = offset + 4;
+        if (checksum(buffer, bodyOffset, bodyLength) != buffer.getInt(bodyOffset + bodyLength)) {
+            return null;
+        }
+
+        //
+        int position = bodyOffset;
+        int bodyEnd = bodyOffset + bodyLength;
+        if (buffer.get(position++) != TYPE_PUT) { return null; }
+
+        int serviceLength = buffer.getInt(position);
+        position += 4;
+        if (serviceLength < 0 || serviceLength > bodyEnd - position) { return null; }
+        String service = decodeString(buffer, position, serviceLength);
+        position += serviceLength;
+
+        if (bodyEnd - position < 4) { return null; }
+        int accountLength = buffer.getInt(position);
+        position += 4;
+        if (accountLength < 0 || accountLength > bodyEnd - position) { return null; }
+        String account = decodeString(buffer, position, accountLength);
+        position += accountLength;
+
+        if (bodyEnd - position < 4) { return null; }
+        int valueLength = buffer.getInt(position);
+        position += 4;
+        if (valueLength != bodyEnd - position) { return null; }
+
+        //
+        return new Record(new ServiceAccountKey(service, account),
+                position - offset, valueLength, OVERHEAD + bodyLength);
+    }
+
+    /**
+     * Validates a record without decoding it
+     *
+     * @param buffer    Buffer which contains the record
+     * @param offset    Offset of the record in buffer
+     * @param limit     Offset just past the last byte which may belong to the record
+     *
+     * @return  Length of the record, or -1 when the record is incomplete or corrupted
+     */
+    static int validate(ByteBuffer buffer, int offset, int limit) {
+        if (offset < 0 || limit - offset < OVERHEAD + MIN_BODY_SIZE) { return -1; }
+
+        int bodyLength = buffer.getInt(offset);
+        if (bodyLength < MIN_BODY_SIZE || bodyLength > limit - offset - OVERHEAD) { return -1; }
+
+        if (buffer.get(offset + 4) != TYPE_PUT
+                || checksum(buffer, offset + 4, bodyLength) != buffer.getInt(offset + 4 + bodyLength)) {
+            return -1;
+        }
+
+        return OVERHEAD + bodyLength;
+    }
+
+    /**
+     * Returns offset of the value of a validated record
+     *
+     * @param buffer    Buffer which contains the record
+     * @param offset    Offset of the record in buffer
+     */
+    static int valueOffset(ByteBuffer buffer, int offset) {
+        int position = offset + 5;
+        position += 4 + buffer.getInt(position);
+        position += 4 + buffer.getInt(position);
+        return position + 4;
+    }
+
+    /**
+     * Returns true when the record at offset belongs to specified key.
+     * The record must have been validated before.
+     *
+     * @param buffer    Buffer which contains the record
+     * @param offset    Offset of the record in buffer
+     * @param key       Key encoded by RecordCodec.encodeKey
+     */
+    static boolean matches(ByteBuffer buffer, int offset, ByteBuffer key) {
+        int position = offset + 5;
+        int length = key.remaining();
+        if (buffer.limit() - position < length) { return false; }
+
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(position + i) != key.get(key.position() + i)) { return false; }
+        }
+
+        return true;
+    }
+
+    /**
+     * Computes CRC32 of a part of buffer
+     */
+    static int checksum(ByteBuffer buffer, int offset, int length) {
+        return checksum(new CRC32(), buffer, offset, length);
+    }
+
+    /**
+     * Computes CRC32 of a part of buffer, reusing crc
+     */
+    static int checksum(CRC32 crc, ByteBuffer buffer, int offset, int length) {
+        crc.reset();
+
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            ByteBuffer slice = buffer.duplicate();
+            slice.limit(offset + length).position(offset);
+            crc.update(slice);
+        }
+
+        return (int)crc.getValue();
+    }
+
+    /**
+     * Fills buffer with the contents of channel starting at position, and flips it
+     *
+     * @return  false when the end of the file is reached first
+     */
+    static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) { return false; }
+            position += read;
+        }
+
+        buffer.flip();
+        return true;
+    }
+
+    /**
+     * Writes the whole buffer to channel starting at position
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Generates non-zero file ID
+     */
+    static long newFileId() {
+        long fileId;
+        do {
+            fileId = ThreadLocalRandom.current().nextLong();
+        } while (fileId == 0);
+
+        return fileId;
+    }
+
+    /**
+     * Decodes UTF-8 string from a part of buffer
+     */
+    private static String decodeString(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, UTF8);
+        }
+
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Decoded record
+     */
+    static final class Record {
+
+        Record(ServiceAccountKey key, int valueOffset, int valueLength, int length) {
+            this.key = key;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            this.length = length;
+        }
+
+        /**
+         * Service and account
+         */
+        final ServiceAccountKey key;
+
+        /**
+         * Offset of the value from the beginning of the record
+         */
+        final int valueOffset;
+
+        /**
+         * Length of the value
+         */
+        final int valueLength;
+
+        /**
+         * Length of the whole record
+         */
+        final int length;
+
+    } // class Record
+
+    /**
+     * Size of record length and checksum
+     */
+    static final int OVERHEAD = 8;
+
+    /**
+     * Size of a record body with empty service, account and value
+     */
+    static final int MIN_BODY_SIZE = 13;
+
+    /**
+     * Record type of a put operation
+     */
+    static final byte TYPE_PUT = 1;
+
+    /**
+     * UTF-8 charset
+     */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private Records() {
+    }
+
+} // class Records
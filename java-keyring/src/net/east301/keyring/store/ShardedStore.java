@@ -0,0 +1,786 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.east301.keyring.util.FileBasedLock;
+import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.LockTimeoutException;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * RecordStore which hash-partitions entries by service and account across shard files.
+ *
+ * The file at the key store path is a small manifest which holds the number of shards,
+ * their generation and their format. Each shard is a store of its own, with its own lock
+ * file, so writers to different shards proceed in parallel, and compacting a shard only
+ * rewrites its part of the entries. Operations hold the manifest lock in shared mode
+ * while they use the shards, so they do not wait for each other on it.
+ *
+ * reshard redistributes the entries across a new generation of shard files while
+ * holding the manifest lock exclusively. Operations of other threads and processes wait
+ * for it and then continue on the new shards. The manifest is replaced by an atomic
+ * rename only after the new shards are flushed, so a crash leaves either generation intact.
+ */
+public class ShardedStore implements RecordStore {
+
+    /**
+     * Initializes an instance of ShardedStore whose new key store files have
+     * DEFAULT_SHARD_COUNT shards in StoreFormat.LOG_STRUCTURED
+     *
+     * @param path      Path to manifest file
+     * @param lockPath  Path to a file to be used to lock the manifest
+     */
+    public ShardedStore(String path, String lockPath) {
+        this(path, lockPath, DEFAULT_SHARD_COUNT, StoreFormat.LOG_STRUCTURED);
+    }
+
+    /**
+     * Initializes an instance of ShardedStore
+     *
+     * @param path          Path to manifest file
+     * @param lockPath      Path to a file to be used to lock the manifest
+     * @param shardCount    Number of shards of a newly created key store
+     * @param shardFormat   Format of newly created shard files
+     */
+    public ShardedStore(String path, String lockPath, int shardCount, StoreFormat shardFormat) {
+        if (shardFormat == StoreFormat.SHARDED) {
+            throw new IllegalArgumentException("Shards cannot be sharded");
+        }
+
+        m_path = path;
+        m_lockPath = lockPath;
+        m_shardFormat = shardFormat;
+        setInitialShardCount(shardCount);
+    }
+
+    @Override
+    public String getPath() {
+        return m_path;
+    }
+
+    @Override
+    public synchronized void setLegacyReader(LegacyStoreReader reader) {
+        m_legacyReader = reader;
+    }
+
+    @Override
+    public synchronized void setLockTimeout(long timeout, TimeUnit unit) {
+        m_lockTimeoutNanos = timeout < 0 ? -1 : unit.toNanos(timeout);
+
+        if (m_view != null) {
+            for (FileRecordStore shard : m_view.m_shards) {
+                shard.setLockTimeout(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setDurability(Durability durability) {
+        m_durability = durability;
+
+        if (m_view != null) {
+            for (FileRecordStore shard : m_view.m_shards) {
+                shard.setDurability(durability);
+            }
+        }
+    }
+
+    /**
+     * Sets number of shards of a newly created key store.
+     * Use reshard to change the number of shards of an existing key store.
+     *
+     * @param shardCount    Number of shards
+     */
+    public synchronized void setInitialShardCount(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+
+        m_initialShardCount = shardCount;
+    }
+
+    /**
+     * Returns number of shards of the key store, or the number a newly created key store
+     * gets when the manifest does not exist yet
+     */
+    public synchronized int getShardCount() throws IOException {
+        View view = refresh();
+        return view == null ? m_initialShardCount : view.m_shards.length;
+    }
+
+    @Override
+    public byte[] get(ServiceAccountKey key) throws LockException, IOException {
+        FileBasedLock lock = borrowLock();
+        try {
+            View view = begin(lock, false);
+            return view == null ? null : view.shard(key).get(key);
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public void put(ServiceAccountKey key, byte[] value) throws LockException, IOException {
+        FileBasedLock lock = borrowLock();
+        try {
+            begin(lock, true).shard(key).put(key, value);
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public byte[] putIfAbsent(ServiceAccountKey key, byte[] value) throws LockException, IOException {
+        FileBasedLock lock = borrowLock();
+        try {
+            return begin(lock, true).shard(key).putIfAbsent(key, value);
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public Map<ServiceAccountKey, byte[]> getAll(Collection<ServiceAccountKey> keys)
+            throws LockException, IOException {
+
+        Map<ServiceAccountKey, byte[]> values = new LinkedHashMap<ServiceAccountKey, byte[]>();
+
+        FileBasedLock lock = borrowLock();
+        try {
+            View view = begin(lock, false);
+            if (view == null) { return values; }
+
+            //
+            List<List<ServiceAccountKey>> groups = new ArrayList<List<ServiceAccountKey>>();
+            for (int i = 0; i < view.m_shards.length; i++) {
+                groups.add(new ArrayList<ServiceAccountKey>());
+            }
+
+            for (ServiceAccountKey key : keys) {
+                groups.get(shardOf(key, view.m_shards.length)).add(key);
+            }
+
+            //
+            Map<ServiceAccountKey, byte[]> found = new HashMap<ServiceAccountKey, byte[]>();
+            for (int i = 0; i < view.m_shards.length; i++) {
+                if (!groups.get(i).isEmpty()) { found.putAll(view.m_shards[i].getAll(groups.get(i))); }
+            }
+
+            for (ServiceAccountKey key : keys) {
+                byte[] value = found.get(key);
+                if (value != null) { values.put(key, value); }
+            }
+        } finally {
+            end(lock);
+        }
+
+        return values;
+    }
+
+    /**
+     * Stores values related to specified keys, locking each shard once.
+     * Each shard is written separately, so a failure may leave the entries of
+     * some shards written.
+     *
+     * @param entries   Values to be stored
+     */
+    @Override
+    public void putAll(Map<ServiceAccountKey, byte[]> entries) throws LockException, IOException {
+        if (entries.isEmpty()) { return; }
+
+        FileBasedLock lock = borrowLock();
+        try {
+            distribute(begin(lock, true).m_shards, entries);
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public int size() throws LockException, IOException {
+        FileBasedLock lock = borrowLock();
+        try {
+            View view = begin(lock, false);
+            if (view == null) { return 0; }
+
+            int size = 0;
+            for (FileRecordStore shard : view.m_shards) {
+                size += shard.size();
+            }
+
+            return size;
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public long getChangeStamp() throws IOException {
+        View view;
+        try {
+            view = refresh();
+        } catch (UnknownFormatException ex) {
+            // changes once the file is migrated
+            return 1;
+        }
+
+        if (view == null) { return 0; }
+
+        //
+        long stamp = view.m_generation;
+        for (FileRecordStore shard : view.m_shards) {
+            stamp = stamp * 31 + shard.getChangeStamp();
+        }
+
+        return stamp == 0 ? 1 : stamp;
+    }
+
+    @Override
+    public long getForeignChangeStamp() throws IOException {
+        View view;
+        try {
+            view = refresh();
+        } catch (UnknownFormatException ex) {
+            return 1;
+        }
+
+        if (view == null) { return 0; }
+
+        // shards replaced by a reshard start from other values
+        long stamp = view.m_generation;
+        for (FileRecordStore shard : view.m_shards) {
+            stamp = stamp * 31 + shard.getForeignChangeStamp();
+        }
+
+        return stamp;
+    }
+
+    /**
+     * Rewrites each shard so that it only contains latest values.
+     * Normally shards are compacted automatically on a background thread.
+     */
+    @Override
+    public void compact() throws LockException, IOException {
+        FileBasedLock lock = borrowLock();
+        try {
+            View view = begin(lock, false);
+            if (view == null) { return; }
+
+            for (FileRecordStore shard : view.m_shards) {
+                shard.compact();
+            }
+        } finally {
+            end(lock);
+        }
+    }
+
+    /**
+     * Redistributes entries across specified number of shards, creating the key store
+     * when it does not exist. Other threads and processes wait until it is done.
+     *
+     * @param shardCount    Number of shards
+     */
+    public void reshard(int shardCount) throws LockException, IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+
+        FileBasedLock lock = borrowLock();
+        try {
+            acquire(lock, true);
+
+            synchronized (this) {
+                View current = initialize(true, shardCount);
+                if (current.m_shards.length == shardCount) { return; }
+
+                //
+                long generation = current.m_generation + 1;
+                FileRecordStore[] shards = createShards(generation, shardCount);
+
+                for (FileRecordStore shard : current.m_shards) {
+                    distribute(shards, shard.snapshot());
+                }
+
+                install(generation, shards);
+                deleteShards(current);
+            }
+        } finally {
+            end(lock);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (m_view != null) {
+            closeShards(m_view);
+            m_view = null;
+        }
+
+        for (FileBasedLock lock = m_idleLocks.poll(); lock != null; lock = m_idleLocks.poll()) {
+            try {
+                lock.close();
+            } catch (LockException ex) {
+                Logger.getLogger(ShardedStore.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Locks the manifest in shared mode and returns current shards.
+     * The lock is retaken exclusively when the manifest has to be created or migrated.
+     *
+     * @param lock      Handle of the manifest lock, released by end
+     * @param create    Creates the key store when it does not exist
+     *
+     * @return  Current shards, or null when the key store does not exist and create is false
+     */
+    private View begin(FileBasedLock lock, boolean create) throws LockException, IOException {
+        acquire(lock, false);
+
+        try {
+            View view = refresh();
+            if (view != null || !create) { return view; }
+        } catch (UnknownFormatException ex) {
+            // migrated below
+        }
+
+        //
+        lock.release();
+        acquire(lock, true);
+
+        synchronized (this) {
+            return initialize(create, m_initialShardCount);
+        }
+    }
+
+    /**
+     * Returns current shards, creating the key store when it does not exist and
+     * migrating a legacy file. Called with the manifest locked exclusively.
+     *
+     * @param create        Creates the key store when it does not exist
+     * @param shardCount    Number of shards of a created key store
+     */
+    private View initialize(boolean create, int shardCount) throws LockException, IOException {
+        Map<ServiceAccountKey, byte[]> entries;
+
+        try {
+            View view = refresh();
+            if (view != null || !create) { return view; }
+
+            entries = new HashMap<ServiceAccountKey, byte[]>();
+        } catch (UnknownFormatException ex) {
+            if (m_legacyReader == null) {
+                throw new IOException("Unknown key store format: " + m_path);
+            }
+
+            entries = m_legacyReader.read(m_path);
+        }
+
+        //
+        FileRecordStore[] shards = createShards(1, shardCount);
+        distribute(shards, entries);
+
+        return install(1, shards);
+    }
+
+    /**
+     * Brings m_view up to date with the manifest. The manifest is only replaced by
+     * renames, so it can be read without locking.
+     *
+     * @return  Current shards, or null when the manifest does not exist or is empty
+     *
+     * @throws UnknownFormatException   Thrown when the file is not a manifest
+     */
+    private synchronized View refresh() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(Paths.get(m_path), BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            attributes = null;
+        }
+
+        if (attributes == null || attributes.size() == 0) {
+            if (m_view != null) {
+                closeShards(m_view);
+                m_view = null;
+            }
+
+            return null;
+        }
+
+        // without file keys, a replaced manifest cannot be told apart, so it is read every time
+        Object key = attributes.fileKey() == null ? null
+                : Arrays.asList(attributes.fileKey(), attributes.lastModifiedTime(), attributes.size());
+        if (m_view != null && key != null && key.equals(m_view.m_key)) {
+            return m_view;
+        }
+
+        //
+        ByteBuffer manifest = ByteBuffer.allocate(MANIFEST_SIZE);
+
+        RandomAccessFile input = new RandomAccessFile(m_path, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            while (manifest.hasRemaining() && channel.read(manifest) >= 0) { }
+        } finally {
+            input.close();
+        }
+
+        if (manifest.position() < 4 || manifest.getInt(0) != MAGIC) {
+            StoreFormat format = manifest.position() < 4 ? null : StoreFormat.of(manifest.getInt(0));
+            if (format != null) {
+                throw new IOException("Key store is not sharded but " + format + ": " + m_path);
+            }
+
+            throw new UnknownFormatException();
+        }
+
+        if (manifest.hasRemaining() || manifest.getInt(4) != VERSION) {
+            throw new IOException("Unsupported key store manifest: " + m_path);
+        }
+
+        int shardCount = manifest.getInt(8);
+        long generation = manifest.getLong(12);
+        StoreFormat shardFormat = StoreFormat.of(manifest.getInt(20));
+
+        if (shardCount < 1 || shardFormat == null || shardFormat == StoreFormat.SHARDED) {
+            throw new IOException("Corrupted key store manifest: " + m_path);
+        }
+
+        //
+        if (m_view != null && m_view.m_generation == generation) {
+            m_view = new View(key, generation, m_view.m_shards);
+            return m_view;
+        }
+
+        if (m_view != null) { closeShards(m_view); }
+        m_view = new View(key, generation, openShards(generation, shardCount, shardFormat));
+
+        return m_view;
+    }
+
+    /**
+     * Writes the manifest of shards and makes them current.
+     * Called with the manifest locked exclusively, after the shards are flushed.
+     *
+     * @param generation    Generation of shards
+     * @param shards        Shards
+     */
+    private View install(long generation, FileRecordStore[] shards) throws IOException {
+        //
+        ByteBuffer manifest = ByteBuffer.allocate(MANIFEST_SIZE);
+        manifest.putInt(MAGIC);
+        manifest.putInt(VERSION);
+        manifest.putInt(shards.length);
+        manifest.putLong(generation);
+        manifest.putInt(m_shardFormat.getMagic());
+        manifest.flip();
+
+        File temporary = new File(m_path + ".manifest");
+
+        RandomAccessFile output = new RandomAccessFile(temporary, "rw");
+        try {
+            FileChannel channel = output.getChannel();
+            channel.truncate(0);
+            while (manifest.hasRemaining()) { channel.write(manifest); }
+            channel.force(true);
+        } finally {
+            output.close();
+        }
+
+        //
+        try {
+            Files.move(temporary.toPath(), new File(m_path).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporary.toPath(), new File(m_path).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        FileRecordStore.forceDirectory(m_path);
+
+        //
+        for (FileRecordStore shard : shards) {
+            shard.setDurability(m_durability);
+        }
+
+        m_view = new View(null, generation, shards);
+
+        return m_view;
+    }
+
+    /**
+     * Opens shards of a new generation, deleting files left by an interrupted reshard.
+     * Writes to the returned shards are flushed until install is called.
+     */
+    private FileRecordStore[] createShards(long generation, int shardCount) {
+        for (int i = 0; i < shardCount; i++) {
+            new File(shardPath(generation, i)).delete();
+        }
+
+        FileRecordStore[] shards = openShards(generation, shardCount, m_shardFormat);
+        for (FileRecordStore shard : shards) {
+            shard.setDurability(Durability.FSYNC);
+        }
+
+        return shards;
+    }
+
+    /**
+     * Opens shards of specified generation
+     */
+    private FileRecordStore[] openShards(long generation, int shardCount, StoreFormat format) {
+        FileRecordStore[] shards = new FileRecordStore[shardCount];
+
+        for (int i = 0; i < shardCount; i++) {
+            String path = shardPath(generation, i);
+
+            shards[i] = (FileRecordStore)format.open(path, path + ".lock");
+            shards[i].setLockTimeout(m_lockTimeoutNanos, TimeUnit.NANOSECONDS);
+            shards[i].setDurability(m_durability);
+        }
+
+        return shards;
+    }
+
+    /**
+     * Closes shards of view
+     */
+    private static void closeShards(View view) {
+        for (FileRecordStore shard : view.m_shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Closes and deletes shard files of a replaced generation. Each file is deleted
+     * under its lock, so that a compaction in progress does not recreate it.
+     */
+    private void deleteShards(View view) {
+        closeShards(view);
+
+        for (FileRecordStore shard : view.m_shards) {
+            FileBasedLock lock = new FileBasedLock(shard.m_lockPath);
+            try {
+                lock.lock();
+                try {
+                    Files.deleteIfExists(Paths.get(shard.getPath()));
+                } finally {
+                    lock.close();
+                }
+
+                Files.deleteIfExists(Paths.get(shard.m_lockPath));
+            } catch (Exception ex) {
+                // left behind, e.g. while another process still has the file open on Windows
+                Logger.getLogger(ShardedStore.class.getName()).log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes entries to the shards they belong to
+     */
+    private static void distribute(FileRecordStore[] shards, Map<ServiceAccountKey, byte[]> entries)
+            throws LockException, IOException {
+
+        List<Map<ServiceAccountKey, byte[]>> partitions = new ArrayList<Map<ServiceAccountKey, byte[]>>();
+        for (int i = 0; i < shards.length; i++) {
+            partitions.add(new LinkedHashMap<ServiceAccountKey, byte[]>());
+        }
+
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : entries.entrySet()) {
+            partitions.get(shardOf(entry.getKey(), shards.length)).put(entry.getKey(), entry.getValue());
+        }
+
+        for (int i = 0; i < shards.length; i++) {
+            shards[i].putAll(partitions.get(i));
+        }
+    }
+
+    /**
+     * Returns index of the shard which holds specified key.
+     * ServiceAccountKey hashes by String.hashCode, which is specified, so all processes
+     * agree on it; the hash is scrambled by Fibonacci hashing and its high bits are used.
+     */
+    static int shardOf(ServiceAccountKey key, int shardCount) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (int)(((hash & 0xFFFFFFFFL) * shardCount) >>> 32);
+    }
+
+    /**
+     * Returns path to a shard file
+     */
+    String shardPath(long generation, int index) {
+        return m_path + ".shard-" + generation + "-" + index;
+    }
+
+    /**
+     * Returns an idle handle of the manifest lock. A handle can only be held by one
+     * thread at a time, so each operation takes its own.
+     */
+    private FileBasedLock borrowLock() {
+        FileBasedLock lock = m_idleLocks.poll();
+        return lock != null ? lock : new FileBasedLock(m_lockPath);
+    }
+
+    /**
+     * Locks the manifest, waiting at most m_lockTimeoutNanos
+     */
+    private void acquire(FileBasedLock lock, boolean exclusive) throws LockException {
+        long timeout = m_lockTimeoutNanos;
+
+        if (timeout < 0) {
+            if (exclusive) {
+                lock.lock();
+            } else {
+                lock.lockShared();
+            }
+        } else {
+            boolean locked = exclusive
+                    ? lock.tryLock(timeout, TimeUnit.NANOSECONDS)
+                    : lock.tryLockShared(timeout, TimeUnit.NANOSECONDS);
+            if (!locked) {
+                throw new LockTimeoutException("Timed out waiting for lock: " + m_lockPath);
+            }
+        }
+    }
+
+    /**
+     * Releases the manifest lock and returns its handle to the idle handles
+     */
+    private void end(FileBasedLock lock) {
+        try {
+            lock.release();
+        } catch (LockException ex) {
+            Logger.getLogger(ShardedStore.class.getName()).log(Level.SEVERE, null, ex);
+        }
+
+        m_idleLocks.offer(lock);
+    }
+
+    /**
+     * Thrown by refresh when the file at the key store path is not a manifest
+     */
+    private static final class UnknownFormatException extends IOException {
+    } // class UnknownFormatException
+
+    /**
+     * Shards of one generation of the manifest
+     */
+    private static final class View {
+
+        View(Object key, long generation, FileRecordStore[] shards) {
+            m_key = key;
+            m_generation = generation;
+            m_shards = shards;
+        }
+
+        /**
+         * Returns the shard which holds specified key
+         */
+        FileRecordStore shard(ServiceAccountKey key) {
+            return m_shards[shardOf(key, m_shards.length)];
+        }
+
+        /**
+         * Identity of the manifest file the view was read from, or null when unknown
+         */
+        final Object m_key;
+
+        final long m_generation;
+        final FileRecordStore[] m_shards;
+
+    } // class View
+
+    /**
+     * Number of shards of a newly created key store by default
+     */
+    public static final int DEFAULT_SHARD_COUNT = 16;
+
+    /**
+     * First 4 bytes of manifest files, "JKSH"
+     */
+    static final int MAGIC = 0x4A4B5348;
+
+    /**
+     * Version of manifest format
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of manifest: magic, version, shard count, generation and shard format
+     */
+    private static final int MANIFEST_SIZE = 24;
+
+    /**
+     * Path to manifest file
+     */
+    private final String m_path;
+
+    /**
+     * Path to a file to be used to lock the manifest
+     */
+    private final String m_lockPath;
+
+    /**
+     * Format of newly created shard files
+     */
+    private final StoreFormat m_shardFormat;
+
+    /**
+     * Idle handles of the manifest lock
+     */
+    private final ConcurrentLinkedQueue<FileBasedLock> m_idleLocks = new ConcurrentLinkedQueue<FileBasedLock>();
+
+    /**
+     * Current shards, guarded by this; null until the manifest is read
+     */
+    private View m_view;
+
+    /**
+     * Number of shards of a newly created key store, guarded by this
+     */
+    private int m_initialShardCount;
+
+    /**
+     * Reader of legacy key store files, guarded by this
+     */
+    private LegacyStoreReader m_legacyReader;
+
+    /**
+     * Maximum time to wait for locks, in nanoseconds, or -1 to wait as long as it takes
+     */
+    private volatile long m_lockTimeoutNanos = -1;
+
+    /**
+     * How far writes are flushed, guarded by this
+     */
+    private Durability m_durability = Durability.FSYNC;
+
+} // class ShardedStore
@@ -0,0 +1,116 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * File formats of RecordStore
+ */
+public enum StoreFormat {
+
+    /**
+     * Append-only log with an in-memory index (LogStructuredStore).
+     * Needs one scan of the file per process, then reads and writes are O(1).
+     */
+    LOG_STRUCTURED(LogStructuredStore.MAGIC) {
+        @Override
+        public RecordStore open(String path, String lockPath) {
+            return new LogStructuredStore(path, lockPath);
+        }
+    },
+
+    /**
+     * Memory-mapped file with an on-disk hash index (MappedHashStore).
+     * Reads are O(1) without scanning the file, which suits short-lived processes.
+     */
+    MAPPED_HASH(MappedHashStore.MAGIC) {
+        @Override
+        public RecordStore open(String path, String lockPath) {
+            return new MappedHashStore(path, lockPath);
+        }
+    },
+
+    /**
+     * Manifest of entries hash-partitioned across shard files (ShardedStore).
+     * Each shard has its own lock, so writers to different shards do not wait for
+     * each other, and rewriting a shard only costs a fraction of the whole store.
+     */
+    SHARDED(ShardedStore.MAGIC) {
+        @Override
+        public RecordStore open(String path, String lockPath) {
+            return new ShardedStore(path, lockPath);
+        }
+    };
+
+    /**
+     * Initializes StoreFormat
+     *
+     * @param magic First 4 bytes of files of this format
+     */
+    private StoreFormat(int magic) {
+        m_magic = magic;
+    }
+
+    /**
+     * Creates a store of this format
+     *
+     * @param path      Path to key store file
+     * @param lockPath  Path to a file to be used to lock the key store
+     */
+    public abstract RecordStore open(String path, String lockPath);
+
+    /**
+     * Returns format of an existing key store file
+     *
+     * @param path  Path to key store file
+     *
+     * @return  Format of the file, or null when the file is missing, empty or in a legacy format
+     */
+    public static StoreFormat detect(String path) throws IOException {
+        File file = new File(path);
+        if (file.length() < 4) { return null; }
+
+        int magic;
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            magic = input.readInt();
+        } finally {
+            input.close();
+        }
+
+        return of(magic);
+    }
+
+    /**
+     * Returns format whose files start with specified magic
+     *
+     * @return  Format, or null when no format matches
+     */
+    static StoreFormat of(int magic) {
+        for (StoreFormat format : values()) {
+            if (format.m_magic == magic) { return format; }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns first 4 bytes of files of this format
+     */
+    int getMagic() {
+        return m_magic;
+    }
+
+    /**
+     * First 4 bytes of files of this format
+     */
+    private final int m_magic;
+
+} // enum StoreFormat
@@ -0,0 +1,202 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size-bounded cache of decrypted passwords, keyed by the SHA-256 digest of their
+ * ciphertext, used by backends to skip decryption when the stored ciphertext has not
+ * changed.
+ *
+ * Plaintexts are held in char arrays rather than Strings, and are overwritten with
+ * zeros when they expire, are evicted or the cache is cleared. Entries expire a fixed
+ * time after they were stored, and the least recently used entry is evicted when the
+ * cache is full. Instances are thread-safe.
+ */
+public class DecryptCache {
+
+    /**
+     * Initializes an instance of DecryptCache
+     *
+     * @param maxEntries    Maximum number of entries
+     * @param ttl           Time an entry stays valid after it was stored
+     * @param unit          Unit of ttl
+     */
+    public DecryptCache(int maxEntries, long ttl, TimeUnit unit) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+
+        m_maxEntries = maxEntries;
+        m_ttlNanos = unit.toNanos(ttl);
+        m_entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                if (size() <= m_maxEntries) { return false; }
+
+                Arrays.fill(eldest.getValue().plaintext, '\0');
+                m_evictionCount++;
+                return true;
+            }
+        };
+
+        try {
+            m_digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    /**
+     * Returns a copy of the plaintext of specified ciphertext, or null when it is not
+     * cached or has expired. The caller should zero the copy once it is used.
+     *
+     * @param ciphertext    Ciphertext
+     */
+    public synchronized char[] get(byte[] ciphertext) {
+        ByteBuffer key = digest(ciphertext);
+        Entry entry = m_entries.get(key);
+
+        if (entry != null && now() - entry.expiresAt >= 0) {
+            Arrays.fill(m_entries.remove(key).plaintext, '\0');
+            entry = null;
+        }
+
+        if (entry == null) {
+            m_missCount++;
+            return null;
+        }
+
+        m_hitCount++;
+        return entry.plaintext.clone();
+    }
+
+    /**
+     * Stores a copy of the plaintext of specified ciphertext
+     *
+     * @param ciphertext    Ciphertext
+     * @param plaintext     Plaintext, which the caller may zero afterwards
+     */
+    public synchronized void put(byte[] ciphertext, char[] plaintext) {
+        Entry previous = m_entries.put(digest(ciphertext), new Entry(plaintext.clone(), now() + m_ttlNanos));
+        if (previous != null) { Arrays.fill(previous.plaintext, '\0'); }
+    }
+
+    /**
+     * Zeroes and removes all entries
+     */
+    public synchronized void clear() {
+        for (Iterator<Entry> it = m_entries.values().iterator(); it.hasNext(); ) {
+            Arrays.fill(it.next().plaintext, '\0');
+            it.remove();
+        }
+    }
+
+    /**
+     * Returns number of cached entries, including expired ones not yet removed
+     */
+    public synchronized int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Returns number of get calls which returned a plaintext
+     */
+    public synchronized long getHitCount() {
+        return m_hitCount;
+    }
+
+    /**
+     * Returns number of get calls which returned null
+     */
+    public synchronized long getMissCount() {
+        return m_missCount;
+    }
+
+    /**
+     * Returns number of entries evicted because the cache was full
+     */
+    public synchronized long getEvictionCount() {
+        return m_evictionCount;
+    }
+
+    /**
+     * Returns current time in nanoseconds. Tests override this to control expiration.
+     */
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns SHA-256 digest of ciphertext
+     */
+    private ByteBuffer digest(byte[] ciphertext) {
+        return ByteBuffer.wrap(m_digest.digest(ciphertext));
+    }
+
+    /**
+     * Cached plaintext
+     */
+    private static final class Entry {
+
+        Entry(char[] plaintext, long expiresAt) {
+            this.plaintext = plaintext;
+            this.expiresAt = expiresAt;
+        }
+
+        final char[] plaintext;
+        final long expiresAt;
+
+    } // class Entry
+
+    /**
+     * Maximum number of entries
+     */
+    private final int m_maxEntries;
+
+    /**
+     * Time an entry stays valid, in nanoseconds
+     */
+    private final long m_ttlNanos;
+
+    /**
+     * { Digest of ciphertext => cached plaintext }, in access order
+     */
+    private final LinkedHashMap<ByteBuffer, Entry> m_entries;
+
+    /**
+     * SHA-256 digest, guarded by this
+     */
+    private final MessageDigest m_digest;
+
+    /**
+     * Number of get calls which returned a plaintext
+     */
+    private long m_hitCount;
+
+    /**
+     * Number of get calls which returned null
+     */
+    private long m_missCount;
+
+    /**
+     * Number of entries evicted because the cache was full
+     */
+    private long m_evictionCount;
+
+} // class DecryptCache
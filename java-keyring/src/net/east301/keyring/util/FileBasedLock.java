@@ -11,11 +11,37 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * File based lock
+ *
+ * The lock is either exclusive (lock) or shared with other shared holders (lockShared).
+ * Across processes it is an OS file lock on the file at path. Within the JVM, holders
+ * of the same path coordinate through one ReentrantReadWriteLock, and share one OS lock:
+ * the first shared holder takes it and the last one releases it, so threads of this
+ * process never ask the OS for overlapping locks.
+ *
+ * An instance is a reusable handle: it can be locked and released any number of times,
+ * and while any handle of a path is open the lock file stays open, so that obtaining the
+ * lock again only locks the region instead of creating, opening and closing the file.
+ * Handles should be closed when they are no longer used.
+ *
+ * The tryLock methods give up after a timeout. While the OS lock is held by another
+ * process they poll it with exponential backoff, because FileChannel.lock cannot be
+ * given a timeout. Acquisitions, contention and wait time are recorded per lock file,
+ * see getStatistics.
+ *
+ * A lock must be released by the thread which obtained it.
  */
 public class FileBasedLock {
 
@@ -29,45 +55,89 @@ public class FileBasedLock {
     }
 
     /**
-     * Lock
+     * Lock exclusively, waiting as long as it takes
      */
-    public synchronized void lock() throws LockException {
-        if (m_file != null || m_channel != null || m_lock != null) {
-            throw new LockException("Already locked", null);
-        }
+    public void lock() throws LockException {
+        acquire(false, -1);
+    }
 
-        try {
-            m_file = new File(m_path);
-            m_file.createNewFile();
+    /**
+     * Lock, allowing other shared holders at the same time, waiting as long as it takes
+     */
+    public void lockShared() throws LockException {
+        acquire(true, -1);
+    }
 
-            m_channel = new RandomAccessFile(m_file, "rw").getChannel();
-            m_lock = m_channel.lock();
-        } catch (IOException ex) {
-            throw new LockException("Failed to obtain lock", ex);
-        }
+    /**
+     * Lock exclusively if the lock is available now
+     *
+     * @return  True when the lock was obtained
+     */
+    public boolean tryLock() throws LockException {
+        return acquire(false, 0);
+    }
+
+    /**
+     * Lock exclusively, waiting at most specified time
+     *
+     * @param timeout   Maximum time to wait
+     * @param unit      Unit of timeout
+     *
+     * @return  True when the lock was obtained
+     */
+    public boolean tryLock(long timeout, TimeUnit unit) throws LockException {
+        return acquire(false, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Lock in shared mode if the lock is available now
+     *
+     * @return  True when the lock was obtained
+     */
+    public boolean tryLockShared() throws LockException {
+        return acquire(true, 0);
+    }
+
+    /**
+     * Lock in shared mode, waiting at most specified time
+     *
+     * @param timeout   Maximum time to wait
+     * @param unit      Unit of timeout
+     *
+     * @return  True when the lock was obtained
+     */
+    public boolean tryLockShared(long timeout, TimeUnit unit) throws LockException {
+        return acquire(true, Math.max(0, unit.toNanos(timeout)));
     }
 
     /**
      * Release lock
      */
     public synchronized void release() throws LockException {
+        if (m_file == null) { return; }
+
         //
         try {
-            if (m_lock != null && m_lock.isValid()) { m_lock.release(); }
-        } catch (Exception ex) {
-            Logger.getLogger(FileBasedLock.class.getName()).log(Level.SEVERE, null, ex);
+            m_file.release();
+        } finally {
+            getLock(m_file, m_shared).unlock();
+            m_file = null;
         }
+    }
 
+    /**
+     * Releases the lock if it is held, and closes the handle.
+     * The lock file is closed once no handle of it is open.
+     */
+    public synchronized void close() throws LockException {
         try {
-            if (m_channel != null && m_channel.isOpen()) { m_channel.close(); }
-        } catch (Exception ex) {
-            Logger.getLogger(FileBasedLock.class.getName()).log(Level.SEVERE, null, ex);
+            release();
+        } finally {
+            if (m_opened != null) {
+                m_opened.closeHandle();
+                m_opened = null;
+            }
         }
-
-        //
-        m_file = null;
-        m_channel = null;
-        m_lock = null;
     }
 
     /**
@@ -77,24 +147,448 @@ public class FileBasedLock {
         return m_path;
     }
 
+    /**
+     * Returns true while the lock is held
+     */
+    public synchronized boolean isLocked() {
+        return m_file != null;
+    }
+
+    /**
+     * Returns true while the lock is held in shared mode
+     */
+    public synchronized boolean isShared() {
+        return m_file != null && m_shared;
+    }
+
+    /**
+     * Returns statistics of the locks of specified lock file obtained by this JVM
+     *
+     * @param path  Path to a file to be used to lock
+     */
+    public static LockStatistics getStatistics(String path) {
+        return LockFile.of(path).getStatistics();
+    }
+
+    /**
+     * Obtains the lock
+     *
+     * @param shared        True to allow other shared holders
+     * @param timeoutNanos  Maximum time to wait, or a negative value to wait as long as it takes
+     *
+     * @return  True when the lock was obtained
+     */
+    private synchronized boolean acquire(boolean shared, long timeoutNanos) throws LockException {
+        if (m_file != null) {
+            throw new LockException("Already locked", null);
+        }
+
+        //
+        if (m_opened == null) {
+            m_opened = LockFile.of(m_path);
+            m_opened.openHandle();
+        }
+
+        LockFile file = m_opened;
+        Lock lock = getLock(file, shared);
+
+        long start = System.nanoTime();
+        boolean contended = false;
+
+        if (!lock.tryLock()) {
+            contended = true;
+
+            if (timeoutNanos < 0) {
+                lock.lock();
+            } else if (!tryLock(lock, timeoutNanos)) {
+                file.record(false, true, System.nanoTime() - start);
+                return false;
+            }
+        }
+
+        //
+        int result;
+        try {
+            result = file.acquire(shared, timeoutNanos, start);
+        } catch (IOException ex) {
+            lock.unlock();
+            throw new LockException("Failed to obtain lock", ex);
+        } catch (InterruptedException ex) {
+            lock.unlock();
+            Thread.currentThread().interrupt();
+            throw new LockException("Interrupted while waiting for lock", ex);
+        } catch (RuntimeException ex) {
+            lock.unlock();
+            throw ex;
+        }
+
+        contended |= result != LockFile.ACQUIRED;
+        file.record(result != LockFile.TIMED_OUT, contended, contended ? System.nanoTime() - start : 0);
+
+        if (result == LockFile.TIMED_OUT) {
+            lock.unlock();
+            return false;
+        }
+
+        m_file = file;
+        m_shared = shared;
+        return true;
+    }
+
+    /**
+     * Obtains the in-JVM lock, waiting at most specified time
+     */
+    private static boolean tryLock(Lock lock, long timeoutNanos) throws LockException {
+        if (timeoutNanos == 0) { return false; }
+
+        try {
+            return lock.tryLock(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new LockException("Interrupted while waiting for lock", ex);
+        }
+    }
+
+    /**
+     * Returns the in-JVM lock of specified mode
+     */
+    private static Lock getLock(LockFile file, boolean shared) {
+        return shared ? file.m_lock.readLock() : file.m_lock.writeLock();
+    }
+
+    /**
+     * OS lock of one lock file, shared by all FileBasedLock instances of the JVM
+     * which refer to the file
+     */
+    private static final class LockFile {
+
+        /**
+         * Results of acquire
+         */
+        static final int ACQUIRED = 0;
+        static final int CONTENDED = 1;
+        static final int TIMED_OUT = 2;
+
+        /**
+         * Returns the instance of specified path.
+         * Instances are kept for the lifetime of the JVM; there are few lock paths.
+         */
+        static LockFile of(String path) {
+            String key;
+            try {
+                key = new File(path).getCanonicalPath();
+            } catch (IOException ex) {
+                key = new File(path).getAbsolutePath();
+            }
+
+            LockFile file = LOCK_FILES.get(key);
+            if (file == null) {
+                LockFile created = new LockFile(key);
+                file = LOCK_FILES.putIfAbsent(key, created);
+                if (file == null) { file = created; }
+            }
+
+            return file;
+        }
+
+        LockFile(String path) {
+            m_path = path;
+        }
+
+        /**
+         * Takes the OS lock unless a holder of this JVM already has it.
+         * Called with m_lock held; a holder which already has the OS lock is either
+         * another shared holder, or the same thread re-entering m_lock.
+         *
+         * @param shared        True to take a shared OS lock
+         * @param timeoutNanos  Maximum time to wait since start, or a negative value
+         *                      to wait as long as it takes
+         * @param start         System.nanoTime() when the caller started waiting
+         *
+         * @return  ACQUIRED, CONTENDED when it had to wait, or TIMED_OUT
+         */
+        int acquire(boolean shared, long timeoutNanos, long start)
+                throws IOException, InterruptedException {
+
+            boolean contended = false;
+
+            // another shared holder may be taking the OS lock now
+            synchronized (this) {
+                while (m_acquiring) {
+                    contended = true;
+
+                    if (timeoutNanos < 0) {
+                        wait();
+                    } else {
+                        long remaining = timeoutNanos - (System.nanoTime() - start);
+                        if (remaining <= 0) { return TIMED_OUT; }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                }
+
+                if (m_holdCount > 0) {
+                    m_holdCount++;
+                    return contended ? CONTENDED : ACQUIRED;
+                }
+
+                m_acquiring = true;
+            }
+
+            //
+            FileChannel channel = null;
+            FileLock fileLock = null;
+
+            try {
+                channel = openChannel();
+                fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+
+                if (fileLock == null) {
+                    contended = true;
+
+                    if (timeoutNanos < 0) {
+                        fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+                    } else {
+                        long backoff = MIN_BACKOFF_NANOS;
+                        while (fileLock == null) {
+                            long remaining = timeoutNanos - (System.nanoTime() - start);
+                            if (remaining <= 0) { break; }
+
+                            TimeUnit.NANOSECONDS.sleep(Math.min(backoff, remaining));
+                            backoff = Math.min(backoff * 2, MAX_BACKOFF_NANOS);
+
+                            fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                        }
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    if (fileLock != null) {
+                        m_fileLock = fileLock;
+                        m_holdCount = 1;
+                    } else if (m_handleCount == 0) {
+                        closeChannel();
+                    }
+
+                    m_acquiring = false;
+                    notifyAll();
+                }
+            }
+
+            if (fileLock == null) { return TIMED_OUT; }
+            return contended ? CONTENDED : ACQUIRED;
+        }
+
+        /**
+         * Releases the OS lock when the last holder of this JVM leaves
+         */
+        synchronized void release() {
+            if (--m_holdCount > 0) { return; }
+
+            //
+            try {
+                if (m_fileLock != null && m_fileLock.isValid()) { m_fileLock.release(); }
+            } catch (Exception ex) {
+                Logger.getLogger(FileBasedLock.class.getName()).log(Level.SEVERE, null, ex);
+            }
+
+            m_fileLock = null;
+
+            if (m_handleCount == 0) { closeChannel(); }
+        }
+
+        /**
+         * Registers an open handle
+         */
+        synchronized void openHandle() {
+            m_handleCount++;
+        }
+
+        /**
+         * Unregisters a handle, and closes the lock file when it was the last one
+         */
+        synchronized void closeHandle() {
+            if (--m_handleCount == 0 && m_holdCount == 0) { closeChannel(); }
+        }
+
+        /**
+         * Returns the channel of the lock file, reopening it unless it still refers
+         * to the file at m_path. The file may have been deleted or replaced since it
+         * was opened, and a lock on the old file would not exclude other processes.
+         */
+        private FileChannel openChannel() throws IOException {
+            FileChannel channel;
+            Object channelKey;
+            synchronized (this) {
+                channel = m_channel;
+                channelKey = m_channelKey;
+            }
+
+            if (channel != null && channel.isOpen()
+                    && (channelKey == null || channelKey.equals(fileKey(m_path)))) {
+                return channel;
+            }
+
+            //
+            closeChannel();
+
+            File file = new File(m_path);
+            file.createNewFile();
+
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            synchronized (this) {
+                m_channel = channel;
+                m_channelKey = fileKey(m_path);
+            }
+
+            return channel;
+        }
+
+        /**
+         * Closes the channel of the lock file
+         */
+        private synchronized void closeChannel() {
+            try {
+                if (m_channel != null && m_channel.isOpen()) { m_channel.close(); }
+            } catch (Exception ex) {
+                Logger.getLogger(FileBasedLock.class.getName()).log(Level.SEVERE, null, ex);
+            }
+
+            m_channel = null;
+            m_channelKey = null;
+        }
+
+        /**
+         * Returns the key identifying the file at specified path, or null when the file
+         * does not exist or the platform has no such keys
+         */
+        private static Object fileKey(String path) {
+            try {
+                return Files.readAttributes(Paths.get(path), BasicFileAttributes.class).fileKey();
+            } catch (IOException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * Records an attempt to obtain the lock
+         *
+         * @param acquired  True when the lock was obtained
+         * @param contended True when the attempt had to wait
+         * @param waitNanos Time spent waiting
+         */
+        void record(boolean acquired, boolean contended, long waitNanos) {
+            if (acquired) {
+                m_acquireCount.incrementAndGet();
+            } else {
+                m_timeoutCount.incrementAndGet();
+            }
+
+            if (contended) {
+                m_contentionCount.incrementAndGet();
+                m_waitNanos.addAndGet(waitNanos);
+            }
+        }
+
+        /**
+         * Returns a snapshot of recorded attempts
+         */
+        LockStatistics getStatistics() {
+            return new LockStatistics(m_acquireCount.get(), m_contentionCount.get(),
+                    m_timeoutCount.get(), m_waitNanos.get());
+        }
+
+        /**
+         * Canonical path to the lock file
+         */
+        private final String m_path;
+
+        /**
+         * Coordinates holders of this JVM
+         */
+        final ReentrantReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+        /**
+         * Number of holders of this JVM
+         */
+        private int m_holdCount;
+
+        /**
+         * Number of open FileBasedLock handles of this file
+         */
+        private int m_handleCount;
+
+        /**
+         * True while a holder is taking the OS lock
+         */
+        private boolean m_acquiring;
+
+        /**
+         * Channel of the lock file, open while m_holdCount or m_handleCount is positive
+         */
+        private FileChannel m_channel;
+
+        /**
+         * File key of the lock file when m_channel was opened, or null when unsupported
+         */
+        private Object m_channelKey;
+
+        /**
+         * OS lock obtained from m_channel
+         */
+        private FileLock m_fileLock;
+
+        /**
+         * Number of locks obtained
+         */
+        private final AtomicLong m_acquireCount = new AtomicLong();
+
+        /**
+         * Number of attempts which had to wait
+         */
+        private final AtomicLong m_contentionCount = new AtomicLong();
+
+        /**
+         * Number of attempts which timed out
+         */
+        private final AtomicLong m_timeoutCount = new AtomicLong();
+
+        /**
+         * Total wait time of contended attempts, in nanoseconds
+         */
+        private final AtomicLong m_waitNanos = new AtomicLong();
+
+    } // class LockFile
+
+    /**
+     * First and longest pause between polls of an OS lock held by another process
+     */
+    private static final long MIN_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * { Canonical path => its LockFile }
+     */
+    private static final ConcurrentHashMap<String, LockFile> LOCK_FILES =
+            new ConcurrentHashMap<String, LockFile>();
+
     /**
      * Path to a file to be used to lock
      */
     private final String m_path;
 
     /**
-     * A File instance to be used to lock
+     * Lock file this handle has been opened for, or null
      */
-    private File m_file;
+    private LockFile m_opened;
 
     /**
-     * A FileChannel instance obtained from m_file
+     * Lock file held by this instance, or null
      */
-    private FileChannel m_channel;
+    private LockFile m_file;
 
     /**
-     * A FileLock instance obtained from m_channel
+     * True when m_file is held in shared mode
      */
-    private FileLock m_lock;
+    private boolean m_shared;
 
 } // class FileBasedLock
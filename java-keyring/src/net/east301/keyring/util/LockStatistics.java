@@ -0,0 +1,82 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of lock acquisitions of one lock file by this JVM, see FileBasedLock.getStatistics
+ */
+public final class LockStatistics {
+
+    /**
+     * Initializes an instance of LockStatistics
+     */
+    LockStatistics(long acquireCount, long contentionCount, long timeoutCount, long waitNanos) {
+        m_acquireCount = acquireCount;
+        m_contentionCount = contentionCount;
+        m_timeoutCount = timeoutCount;
+        m_waitNanos = waitNanos;
+    }
+
+    /**
+     * Returns number of locks obtained
+     */
+    public long getAcquireCount() {
+        return m_acquireCount;
+    }
+
+    /**
+     * Returns number of attempts which could not obtain the lock immediately
+     */
+    public long getContentionCount() {
+        return m_contentionCount;
+    }
+
+    /**
+     * Returns number of attempts which gave up because their timeout elapsed
+     */
+    public long getTimeoutCount() {
+        return m_timeoutCount;
+    }
+
+    /**
+     * Returns total time spent waiting for the lock by contended attempts
+     *
+     * @param unit  Unit of the returned value
+     */
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(m_waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquired %d, contended %d, timed out %d, waited %.3f ms",
+                m_acquireCount, m_contentionCount, m_timeoutCount, m_waitNanos / 1e6);
+    }
+
+    /**
+     * Number of locks obtained
+     */
+    private final long m_acquireCount;
+
+    /**
+     * Number of attempts which could not obtain the lock immediately
+     */
+    private final long m_contentionCount;
+
+    /**
+     * Number of attempts which timed out
+     */
+    private final long m_timeoutCount;
+
+    /**
+     * Total wait time of contended attempts, in nanoseconds
+     */
+    private final long m_waitNanos;
+
+} // class LockStatistics
@@ -0,0 +1,23 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+/**
+ * Represents a lock which could not be obtained within the lock timeout
+ */
+public class LockTimeoutException extends LockException {
+
+    /**
+     * Initializes an instance of LockTimeoutException
+     *
+     * @param message   Error message
+     */
+    public LockTimeoutException(String message) {
+        super(message, null);
+    }
+
+} // class LockTimeoutException
@@ -0,0 +1,67 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+
+/**
+ * Reference holders passed to native calls as out parameters.
+ *
+ * Each thread reuses one holder of each type, so that a native call allocates
+ * no native memory for its out parameters. A holder is cleared and handed out
+ * again by the next call on the same thread; callers read its value before that.
+ */
+public final class NativeReferences {
+
+    /**
+     * Returns the thread's PointerByReference, set to null
+     */
+    public static PointerByReference pointer() {
+        PointerByReference reference = POINTER.get();
+        reference.setValue(null);
+
+        return reference;
+    }
+
+    /**
+     * Returns the thread's IntByReference, set to 0
+     */
+    public static IntByReference integer() {
+        IntByReference reference = INTEGER.get();
+        reference.setValue(0);
+
+        return reference;
+    }
+
+    /**
+     * PointerByReference of each thread
+     */
+    private static final ThreadLocal<PointerByReference> POINTER = new ThreadLocal<PointerByReference>() {
+        @Override
+        protected PointerByReference initialValue() {
+            return new PointerByReference();
+        }
+    };
+
+    /**
+     * IntByReference of each thread
+     */
+    private static final ThreadLocal<IntByReference> INTEGER = new ThreadLocal<IntByReference>() {
+        @Override
+        protected IntByReference initialValue() {
+            return new IntByReference();
+        }
+    };
+
+    /**
+     * Prevents instantiation
+     */
+    private NativeReferences() {
+    }
+
+} // class NativeReferences
@@ -0,0 +1,60 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+/**
+ * Snapshot of native resources tracked by a NativeResourceTracker
+ */
+public final class NativeResourceStatistics {
+
+    /**
+     * Initializes an instance of NativeResourceStatistics
+     */
+    NativeResourceStatistics(long allocatedCount, long freedCount) {
+        m_allocatedCount = allocatedCount;
+        m_freedCount = freedCount;
+    }
+
+    /**
+     * Returns number of native resources obtained
+     */
+    public long getAllocatedCount() {
+        return m_allocatedCount;
+    }
+
+    /**
+     * Returns number of native resources freed
+     */
+    public long getFreedCount() {
+        return m_freedCount;
+    }
+
+    /**
+     * Returns number of native resources which are not freed, either because
+     * their calls are running or because freeing them failed
+     */
+    public long getOutstandingCount() {
+        return m_allocatedCount - m_freedCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("allocated %d, freed %d, outstanding %d",
+                m_allocatedCount, m_freedCount, getOutstandingCount());
+    }
+
+    /**
+     * Number of native resources obtained
+     */
+    private final long m_allocatedCount;
+
+    /**
+     * Number of native resources freed
+     */
+    private final long m_freedCount;
+
+} // class NativeResourceStatistics
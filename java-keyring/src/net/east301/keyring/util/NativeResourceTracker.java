@@ -0,0 +1,120 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.jna.Pointer;
+
+/**
+ * Frees native resources obtained by a backend and counts the outstanding ones.
+ *
+ * A call opens a Scope, registers each resource to it as soon as the resource is
+ * obtained, and closes the scope in a finally block, which frees the resources in
+ * reverse order. A resource whose release threw stays outstanding, so a growing
+ * outstanding count of getStatistics points at a leak.
+ */
+public final class NativeResourceTracker {
+
+    /**
+     * Opens a scope of a call
+     */
+    public Scope open() {
+        return new Scope();
+    }
+
+    /**
+     * Returns counts of resources tracked so far
+     */
+    public NativeResourceStatistics getStatistics() {
+        // read freed first, so that outstanding is never negative
+        long freed = m_freedCount.get();
+        return new NativeResourceStatistics(m_allocatedCount.get(), freed);
+    }
+
+    /**
+     * Frees one kind of native resource
+     */
+    public interface Releaser {
+
+        /**
+         * Frees resource
+         */
+        void release(Pointer resource);
+
+    } // interface Releaser
+
+    /**
+     * Resources obtained by one call. Instances are not thread safe.
+     */
+    public final class Scope {
+
+        /**
+         * Registers a resource to be freed when the scope is closed
+         *
+         * @param resource  Resource, or null which is ignored
+         * @param releaser  Releaser which frees resource
+         *
+         * @return  resource
+         */
+        public Pointer track(Pointer resource, Releaser releaser) {
+            if (resource == null) { return null; }
+
+            m_resources.add(resource);
+            m_releasers.add(releaser);
+            m_allocatedCount.incrementAndGet();
+
+            return resource;
+        }
+
+        /**
+         * Frees the registered resources in reverse order. All of them are released
+         * even when one of the releasers throws; the first exception is rethrown.
+         */
+        public void close() {
+            RuntimeException failure = null;
+
+            for (int i = m_resources.size() - 1; i >= 0; i--) {
+                try {
+                    m_releasers.get(i).release(m_resources.get(i));
+                    m_freedCount.incrementAndGet();
+                } catch (RuntimeException ex) {
+                    if (failure == null) { failure = ex; }
+                }
+            }
+
+            m_resources.clear();
+            m_releasers.clear();
+
+            if (failure != null) { throw failure; }
+        }
+
+        /**
+         * Registered resources
+         */
+        private final List<Pointer> m_resources = new ArrayList<Pointer>(4);
+
+        /**
+         * Releasers of m_resources
+         */
+        private final List<Releaser> m_releasers = new ArrayList<Releaser>(4);
+
+    } // class Scope
+
+    /**
+     * Number of tracked resources
+     */
+    private final AtomicLong m_allocatedCount = new AtomicLong();
+
+    /**
+     * Number of tracked resources which were freed
+     */
+    private final AtomicLong m_freedCount = new AtomicLong();
+
+} // class NativeResourceTracker
@@ -0,0 +1,58 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ObjectInputStream which refuses to deserialize classes other than the specified ones.
+ * Used to read key store files written by earlier versions, so that a tampered file
+ * cannot make us instantiate arbitrary serializable classes.
+ */
+public class RestrictedObjectInputStream extends ObjectInputStream {
+
+    /**
+     * Initializes an instance of RestrictedObjectInputStream
+     *
+     * @param in        Stream to read from
+     * @param allowed   Classes allowed to appear in the stream, including their
+     *                  serializable superclasses and array types
+     */
+    public RestrictedObjectInputStream(InputStream in, Class<?>... allowed) throws IOException {
+        super(in);
+
+        for (Class<?> clazz : allowed) {
+            m_allowed.add(clazz.getName());
+        }
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (!m_allowed.contains(desc.getName())) {
+            throw new InvalidClassException(desc.getName(), "Unexpected class in key store file");
+        }
+
+        return super.resolveClass(desc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+        throw new InvalidClassException("Unexpected proxy class in key store file");
+    }
+
+    /**
+     * Names of classes allowed to be deserialized
+     */
+    private final Set<String> m_allowed = new HashSet<String>();
+
+} // class RestrictedObjectInputStream
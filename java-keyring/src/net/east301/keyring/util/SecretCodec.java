@@ -0,0 +1,282 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Converts passwords between UTF-8 bytes and chars without creating Strings.
+ *
+ * Each thread reuses its own encoder, decoder and scratch buffers, so that converting
+ * a password allocates nothing once the buffers have grown to the size of the largest
+ * password. Malformed input is replaced as String.getBytes and new String do.
+ * Buffers returned by this class are overwritten by the next call on the same thread;
+ * callers wipe them once they are done.
+ */
+public final class SecretCodec {
+
+    /**
+     * Encodes the remaining chars into the thread's scratch buffer.
+     * The position of chars is not changed.
+     *
+     * @param chars Password
+     *
+     * @return  Scratch buffer, flipped so that it holds the UTF-8 bytes of chars
+     */
+    public static ByteBuffer encode(CharBuffer chars) {
+        Scratch scratch = SCRATCH.get();
+
+        ByteBuffer bytes = scratch.bytes((int)Math.ceil(chars.remaining() * scratch.m_encoder.maxBytesPerChar()));
+        encode(scratch.m_encoder, chars, bytes);
+        bytes.flip();
+
+        return bytes;
+    }
+
+    /**
+     * Encodes the remaining chars into dst.
+     * The position of chars is not changed.
+     *
+     * @param chars Password
+     * @param dst   Buffer the UTF-8 bytes are put to
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws BufferOverflowException  Thrown when dst is too small; dst is left unchanged
+     */
+    public static int encode(CharBuffer chars, ByteBuffer dst) {
+        int start = dst.position();
+
+        try {
+            encode(SCRATCH.get().m_encoder, chars, dst);
+        } catch (BufferOverflowException ex) {
+            for (int i = start; i < dst.position(); i++) { dst.put(i, (byte)0); }
+            dst.position(start);
+            throw ex;
+        }
+
+        return dst.position() - start;
+    }
+
+    /**
+     * Encodes chars to a new array of UTF-8 bytes
+     *
+     * @param chars Password
+     */
+    public static byte[] toBytes(char[] chars) {
+        ByteBuffer bytes = encode(CharBuffer.wrap(chars));
+
+        byte[] result = new byte[bytes.remaining()];
+        bytes.get(result);
+        wipe(bytes);
+
+        return result;
+    }
+
+    /**
+     * Decodes the remaining UTF-8 bytes to a new array of chars.
+     * The position of bytes is not changed.
+     *
+     * @param bytes UTF-8 bytes
+     */
+    public static char[] decode(ByteBuffer bytes) {
+        Scratch scratch = SCRATCH.get();
+
+        CharBuffer chars = scratch.chars((int)Math.ceil(bytes.remaining() * scratch.m_decoder.maxCharsPerByte()));
+        decode(scratch.m_decoder, bytes, chars);
+        chars.flip();
+
+        char[] result = new char[chars.remaining()];
+        chars.get(result);
+        wipe(chars);
+
+        return result;
+    }
+
+    /**
+     * Decodes the remaining UTF-8 bytes into dst.
+     * The position of bytes is not changed.
+     *
+     * @param bytes UTF-8 bytes
+     * @param dst   Buffer the chars are put to
+     *
+     * @return  Number of chars put to dst
+     *
+     * @throws BufferOverflowException  Thrown when dst is too small; dst is left unchanged
+     */
+    public static int decode(ByteBuffer bytes, CharBuffer dst) {
+        int start = dst.position();
+
+        try {
+            decode(SCRATCH.get().m_decoder, bytes, dst);
+        } catch (BufferOverflowException ex) {
+            for (int i = start; i < dst.position(); i++) { dst.put(i, '\0'); }
+            dst.position(start);
+            throw ex;
+        }
+
+        return dst.position() - start;
+    }
+
+    /**
+     * Copies the remaining bytes into the thread's scratch buffer, whose array starts
+     * with them. The position of bytes is not changed.
+     *
+     * @param bytes Bytes to be copied
+     *
+     * @return  Scratch buffer, flipped so that it holds the copied bytes
+     */
+    public static ByteBuffer copy(ByteBuffer bytes) {
+        ByteBuffer copy = SCRATCH.get().bytes(bytes.remaining());
+
+        int position = bytes.position();
+        copy.put(bytes);
+        bytes.position(position);
+        copy.flip();
+
+        return copy;
+    }
+
+    /**
+     * Zeroes bytes from the beginning of buffer to its limit
+     *
+     * @param buffer    Buffer to be wiped
+     */
+    public static void wipe(ByteBuffer buffer) {
+        for (int i = 0; i < buffer.limit(); i++) { buffer.put(i, (byte)0); }
+    }
+
+    /**
+     * Zeroes chars from the beginning of buffer to its limit
+     *
+     * @param buffer    Buffer to be wiped
+     */
+    public static void wipe(CharBuffer buffer) {
+        for (int i = 0; i < buffer.limit(); i++) { buffer.put(i, '\0'); }
+    }
+
+    /**
+     * Zeroes bytes
+     *
+     * @param bytes Bytes to be wiped, or null
+     */
+    public static void wipe(byte[] bytes) {
+        if (bytes != null) { Arrays.fill(bytes, (byte)0); }
+    }
+
+    /**
+     * Zeroes chars
+     *
+     * @param chars Chars to be wiped, or null
+     */
+    public static void wipe(char[] chars) {
+        if (chars != null) { Arrays.fill(chars, '\0'); }
+    }
+
+    /**
+     * Encodes the remaining chars into dst, leaving the position of chars unchanged
+     */
+    private static void encode(CharsetEncoder encoder, CharBuffer chars, ByteBuffer dst) {
+        int position = chars.position();
+
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, dst, true);
+        if (result.isUnderflow()) { result = encoder.flush(dst); }
+
+        chars.position(position);
+        if (result.isOverflow()) { throw new BufferOverflowException(); }
+    }
+
+    /**
+     * Decodes the remaining bytes into dst, leaving the position of bytes unchanged
+     */
+    private static void decode(CharsetDecoder decoder, ByteBuffer bytes, CharBuffer dst) {
+        int position = bytes.position();
+
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, dst, true);
+        if (result.isUnderflow()) { result = decoder.flush(dst); }
+
+        bytes.position(position);
+        if (result.isOverflow()) { throw new BufferOverflowException(); }
+    }
+
+    /**
+     * Encoder, decoder and scratch buffers of a thread
+     */
+    private static final class Scratch {
+
+        /**
+         * Returns the cleared scratch byte buffer, grown to at least capacity
+         */
+        ByteBuffer bytes(int capacity) {
+            if (m_bytes.capacity() < capacity) {
+                wipe(m_bytes.array());
+                m_bytes = ByteBuffer.allocate(Math.max(capacity, m_bytes.capacity() * 2));
+            }
+
+            m_bytes.clear();
+            return m_bytes;
+        }
+
+        /**
+         * Returns the cleared scratch char buffer, grown to at least capacity
+         */
+        CharBuffer chars(int capacity) {
+            if (m_chars.capacity() < capacity) {
+                wipe(m_chars.array());
+                m_chars = CharBuffer.allocate(Math.max(capacity, m_chars.capacity() * 2));
+            }
+
+            m_chars.clear();
+            return m_chars;
+        }
+
+        final CharsetEncoder m_encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        final CharsetDecoder m_decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        ByteBuffer m_bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+        CharBuffer m_chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+    } // class Scratch
+
+    /**
+     * Initial capacity of scratch buffers
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Scratch state of each thread
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Prevents instantiation
+     */
+    private SecretCodec() {
+    }
+
+} // class SecretCodec
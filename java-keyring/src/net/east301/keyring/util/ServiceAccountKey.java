@@ -0,0 +1,80 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+/**
+ * Immutable pair of service name and account name which identifies a password entry
+ */
+public final class ServiceAccountKey {
+
+    /**
+     * Initializes an instance of ServiceAccountKey
+     *
+     * @param service   Service name
+     * @param account   Account name
+     */
+    public ServiceAccountKey(String service, String account) {
+        if (service == null || account == null) {
+            throw new NullPointerException("service and account must not be null");
+        }
+
+        m_service = service;
+        m_account = account;
+        m_hashCode = 31 * service.hashCode() + account.hashCode();
+    }
+
+    /**
+     * Returns service name
+     */
+    public String getService() {
+        return m_service;
+    }
+
+    /**
+     * Returns account name
+     */
+    public String getAccount() {
+        return m_account;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) { return true; }
+        if (!(obj instanceof ServiceAccountKey)) { return false; }
+
+        ServiceAccountKey other = (ServiceAccountKey)obj;
+        return m_hashCode == other.m_hashCode
+                && m_service.equals(other.m_service)
+                && m_account.equals(other.m_account);
+    }
+
+    @Override
+    public int hashCode() {
+        return m_hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return m_service + "/" + m_account;
+    }
+
+    /**
+     * Service name
+     */
+    private final String m_service;
+
+    /**
+     * Account name
+     */
+    private final String m_account;
+
+    /**
+     * Cached hash code
+     */
+    private final int m_hashCode;
+
+} // class ServiceAccountKey
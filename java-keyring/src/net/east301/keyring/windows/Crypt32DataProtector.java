@@ -0,0 +1,36 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.windows;
+
+import com.sun.jna.platform.win32.Crypt32Util;
+
+/**
+ * DataProtector which uses DPAPI of the current user
+ */
+public class Crypt32DataProtector implements DataProtector {
+
+    /**
+     * Encrypts data by DPAPI
+     *
+     * @param data  Data to be encrypted
+     */
+    @Override
+    public byte[] protect(byte[] data) {
+        return Crypt32Util.cryptProtectData(data);
+    }
+
+    /**
+     * Decrypts data by DPAPI
+     *
+     * @param data  Data to be decrypted
+     */
+    @Override
+    public byte[] unprotect(byte[] data) {
+        return Crypt32Util.cryptUnprotectData(data);
+    }
+
+} // class Crypt32DataProtector
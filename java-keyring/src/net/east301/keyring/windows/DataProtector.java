@@ -0,0 +1,29 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.windows;
+
+/**
+ * Encrypts and decrypts passwords of WindowsDPAPIBackend.
+ * The default implementation calls DPAPI; tests use one which needs no Windows.
+ */
+public interface DataProtector {
+
+    /**
+     * Encrypts data
+     *
+     * @param data  Data to be encrypted
+     */
+    byte[] protect(byte[] data);
+
+    /**
+     * Decrypts data
+     *
+     * @param data  Data to be decrypted
+     */
+    byte[] unprotect(byte[] data);
+
+} // interface DataProtector
@@ -7,26 +7,52 @@
 package net.east301.keyring.windows;
 
 import com.sun.jna.Platform;
-import com.sun.jna.platform.win32.Crypt32Util;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.FileBasedKeyringBackend;
 import net.east301.keyring.PasswordRetrievalException;
 import net.east301.keyring.PasswordSaveException;
-import net.east301.keyring.util.FileBasedLock;
+import net.east301.keyring.store.LegacyStoreReader;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.DecryptCache;
 import net.east301.keyring.util.LockException;
+import net.east301.keyring.util.RestrictedObjectInputStream;
+import net.east301.keyring.util.SecretCodec;
+import net.east301.keyring.util.ServiceAccountKey;
 
 /**
  * Keyring backend which uses Windows DPAPI
+ *
+ * Decryption is the most expensive step of reading a password. When a DecryptCache
+ * is set, passwords whose stored ciphertext has not changed are taken from it.
  */
-public class WindowsDPAPIBackend extends KeyringBackend {
+public class WindowsDPAPIBackend extends FileBasedKeyringBackend {
+
+    /**
+     * Initializes an instance of WindowsDPAPIBackend
+     */
+    public WindowsDPAPIBackend() {
+        this(new Crypt32DataProtector());
+    }
+
+    /**
+     * Initializes an instance of WindowsDPAPIBackend which encrypts passwords by specified protector
+     *
+     * @param protector Encrypts and decrypts passwords
+     */
+    public WindowsDPAPIBackend(DataProtector protector) {
+        super(StoreFormat.LOG_STRUCTURED);
+        m_protector = protector;
+    }
 
     /**
      * Returns true when the backend is supported
@@ -37,15 +63,24 @@ public class WindowsDPAPIBackend extends KeyringBackend {
     }
 
     /**
-     * Returns true if the backend directory uses some file to store passwords
+     * Gets password from key store
+     *
+     * @param service   Service name
+     * @param account   Account name
+     *
+     * @return  Password related to specified service and account
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
      */
     @Override
-    public boolean isKeyStorePathRequired() {
-        return true;
+    public String getPassword(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        return decrypt(load(service, account));
     }
 
     /**
-     * Gets password from key store
+     * Gets password from key store as chars, without creating a String
      *
      * @param service   Service name
      * @param account   Account name
@@ -55,53 +90,89 @@ public class WindowsDPAPIBackend extends KeyringBackend {
      * @throws PasswordRetrievalException   Thrown when an error happened while getting password
      */
     @Override
-    public String getPassword(String service, String account)
+    public char[] getPasswordChars(String service, String account)
             throws LockException, PasswordRetrievalException {
 
-        FileBasedLock fileLock = new FileBasedLock(getLockPath());
+        return decryptChars(load(service, account));
+    }
 
-        try {
-            //
-            fileLock.lock();
+    /**
+     * Gets password from key store, putting its UTF-8 bytes to a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param dst       Buffer the password is put to, from its position
+     *
+     * @return  Number of bytes put to dst
+     *
+     * @throws PasswordRetrievalException   Thrown when an error happened while getting password
+     */
+    @Override
+    public int getPasswordBytes(String service, String account, ByteBuffer dst)
+            throws LockException, PasswordRetrievalException {
 
-            //
-            PasswordEntry targetEntry = null;
+        byte[] encryptedBytes = load(service, account);
 
-            for (PasswordEntry entry : loadPasswordEntries()) {
-                if (entry.getService().equals(service) && entry.getAccount().equals(account)) {
-                    targetEntry = entry;
-                    break;
-                }
+        // cached passwords are encoded directly into dst
+        if (m_decryptCache != null) {
+            char[] decryptedChars = decryptChars(encryptedBytes);
+            try {
+                return SecretCodec.encode(CharBuffer.wrap(decryptedChars), dst);
+            } finally {
+                SecretCodec.wipe(decryptedChars);
             }
+        }
 
-            if (targetEntry == null) {
-                throw new PasswordRetrievalException(
-                        "Password related to the specified service and account is not found");
+        //
+        byte[] decryptedBytes = unprotect(encryptedBytes);
+        try {
+            if (decryptedBytes.length > dst.remaining()) {
+                throw new BufferOverflowException();
             }
 
-            //
-            byte[] decryptedBytes;
+            dst.put(decryptedBytes);
+            return decryptedBytes.length;
+        } finally {
+            SecretCodec.wipe(decryptedBytes);
+        }
+    }
 
-            try {
-                decryptedBytes = Crypt32Util.cryptUnprotectData(targetEntry.getPassword());
-            } catch (Exception ex) {
-                throw new PasswordRetrievalException("Failed to decrypt password");
-            }
+    /**
+     * Gets passwords from key store, reading the file once
+     *
+     * @param keys  Services and accounts
+     *
+     * @return  { Service and account => password }, in the order of keys
+     *
+     * @throws PasswordRetrievalException   Thrown when any of the passwords cannot be retrieved
+     */
+    @Override
+    public Map<ServiceAccountKey, String> getPasswords(Collection<ServiceAccountKey> keys)
+            throws LockException, PasswordRetrievalException {
 
-            //
-            try {
-                return new String(decryptedBytes, "UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                throw new PasswordRetrievalException("Unsupported encoding 'UTF-8' specified");
-            }
+        //
+        Map<ServiceAccountKey, byte[]> entries;
 
-        } finally {
-            try {
-                fileLock.release();
-            } catch (Exception ex) {
-                Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
+        try {
+            entries = getStore().getAll(keys);
+        } catch (IOException ex) {
+            Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordRetrievalException("Failed to load password entries from a file");
+        }
+
+        //
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (ServiceAccountKey key : keys) {
+            byte[] encryptedBytes = entries.get(key);
+            if (encryptedBytes == null) {
+                throw new PasswordRetrievalException(
+                        "Password related to the specified service and account is not found: " + key);
             }
+
+            passwords.put(key, decrypt(encryptedBytes));
         }
+
+        return passwords;
     }
 
     /**
@@ -117,49 +188,118 @@ public class WindowsDPAPIBackend extends KeyringBackend {
     public void setPassword(String service, String account, String password)
             throws LockException, PasswordSaveException {
 
-        FileBasedLock fileLock = new FileBasedLock(getLockPath());
+        byte[] encryptedBytes = encrypt(password);
+        save(service, account, encryptedBytes);
+        cache(encryptedBytes, password);
+    }
 
+    /**
+     * Sets password to key store from chars, without creating a String
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  Password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordChars(String service, String account, char[] password)
+            throws LockException, PasswordSaveException {
+
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
+
+        byte[] encryptedBytes;
         try {
-            //
-            fileLock.lock();
+            encryptedBytes = encrypt(passwordBytes);
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
 
-            //
-            byte[] encryptedBytes;
+        save(service, account, encryptedBytes);
+        cache(encryptedBytes, password);
+    }
 
-            try {
-                encryptedBytes = Crypt32Util.cryptProtectData(password.getBytes("UTF-8"));
-            } catch (UnsupportedEncodingException ex) {
-                throw new PasswordSaveException("Unsupported encoding 'UTF-8' specified");
-            } catch (Exception ex) {
-                throw new PasswordSaveException("Failed to encrypt password");
-            }
+    /**
+     * Sets password to key store from the remaining UTF-8 bytes of a buffer supplied by the caller
+     *
+     * @param service   Service name
+     * @param account   Account name
+     * @param password  UTF-8 bytes of password
+     *
+     * @throws PasswordSaveException    Thrown when an error happened while saving the password
+     */
+    @Override
+    public void setPasswordBytes(String service, String account, ByteBuffer password)
+            throws LockException, PasswordSaveException {
 
-            //
-            ArrayList<PasswordEntry> entries = loadPasswordEntries();
-            PasswordEntry targetEntry = null;
+        byte[] encryptedBytes = encrypt(password);
+        save(service, account, encryptedBytes);
 
-            for (PasswordEntry entry : entries) {
-                if (entry.getService().equals(service) && entry.getAccount().equals(account)) {
-                    targetEntry = entry;
-                    break;
-                }
-            }
+        if (m_decryptCache != null) {
+            char[] decryptedChars = SecretCodec.decode(password);
+            cache(encryptedBytes, decryptedChars);
+            SecretCodec.wipe(decryptedChars);
+        }
+    }
 
-            if (targetEntry != null) {
-                targetEntry.setPassword(encryptedBytes);
-            } else {
-                entries.add(new PasswordEntry(service, account, encryptedBytes));
-            }
+    /**
+     * Sets passwords to key store, writing the file once
+     *
+     * @param passwords { Service and account => password }
+     *
+     * @throws PasswordSaveException    Thrown when any of the passwords cannot be saved
+     */
+    @Override
+    public void setPasswords(Map<ServiceAccountKey, String> passwords)
+            throws LockException, PasswordSaveException {
 
-            //
-            savePasswordEnetires(entries);
-        } finally {
-            try {
-                fileLock.release();
-            } catch (Exception ex) {
-                Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
-            }
+        //
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (Map.Entry<ServiceAccountKey, String> entry : passwords.entrySet()) {
+            entries.put(entry.getKey(), encrypt(entry.getValue()));
         }
+
+        //
+        try {
+            getStore().putAll(entries);
+        } catch (IOException ex) {
+            Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to save password entries to a file");
+        }
+
+        for (Map.Entry<ServiceAccountKey, byte[]> entry : entries.entrySet()) {
+            cache(entry.getValue(), passwords.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Returns cache of decrypted passwords, or null when decrypted passwords are not cached
+     */
+    public DecryptCache getDecryptCache() {
+        return m_decryptCache;
+    }
+
+    /**
+     * Sets cache of decrypted passwords
+     *
+     * @param cache Cache of decrypted passwords, or null to decrypt on every read
+     */
+    public void setDecryptCache(DecryptCache cache) {
+        DecryptCache previous = m_decryptCache;
+        m_decryptCache = cache;
+
+        if (previous != null && previous != cache) { previous.clear(); }
+    }
+
+    /**
+     * Closes the key store, and zeroes decrypted passwords held by the decrypt cache
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        DecryptCache cache = m_decryptCache;
+        if (cache != null) { cache.clear(); }
     }
 
     /**
@@ -171,58 +311,203 @@ public class WindowsDPAPIBackend extends KeyringBackend {
     }
 
     /**
-     * Returns path to a file for lock
+     * Reads an encrypted password from key store
+     *
+     * @param service   Service name
+     * @param account   Account name
      */
-    public String getLockPath() {
-        return m_keyStorePath + ".lock";
+    private byte[] load(String service, String account)
+            throws LockException, PasswordRetrievalException {
+
+        byte[] encryptedBytes;
+
+        try {
+            encryptedBytes = getStore().get(new ServiceAccountKey(service, account));
+        } catch (IOException ex) {
+            Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordRetrievalException("Failed to load password entries from a file");
+        }
+
+        if (encryptedBytes == null) {
+            throw new PasswordRetrievalException(
+                    "Password related to the specified service and account is not found");
+        }
+
+        return encryptedBytes;
     }
 
     /**
-     * Loads password entries to a file.
-     * This method is not thread/process safe.
+     * Writes an encrypted password to key store
+     *
+     * @param service           Service name
+     * @param account           Account name
+     * @param encryptedBytes    Encrypted password
      */
-    private ArrayList<PasswordEntry> loadPasswordEntries() {
-        ArrayList<PasswordEntry> entries = new ArrayList<PasswordEntry>();
+    private void save(String service, String account, byte[] encryptedBytes)
+            throws LockException, PasswordSaveException {
 
         try {
-        	ObjectInputStream fin = new ObjectInputStream(new FileInputStream(m_keyStorePath));
-            try {
-            	entries.addAll(Arrays.asList((PasswordEntry[])fin.readObject()));
-            }
-            finally {
-            	fin.close();
-            }
-        } catch (Exception ex) {
+            getStore().put(new ServiceAccountKey(service, account), encryptedBytes);
+        } catch (IOException ex) {
             Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
+            throw new PasswordSaveException("Failed to save password entries to a file");
         }
+    }
 
-        return entries;
+    /**
+     * Decrypts a password read from key store
+     *
+     * @param encryptedBytes    Encrypted password
+     */
+    private String decrypt(byte[] encryptedBytes) throws PasswordRetrievalException {
+        char[] decryptedChars = decryptChars(encryptedBytes);
+
+        String password = new String(decryptedChars);
+        SecretCodec.wipe(decryptedChars);
+
+        return password;
+    }
+
+    /**
+     * Decrypts a password read from key store to chars, which the caller zeroes
+     *
+     * @param encryptedBytes    Encrypted password
+     */
+    private char[] decryptChars(byte[] encryptedBytes) throws PasswordRetrievalException {
+        //
+        DecryptCache cache = m_decryptCache;
+        char[] decryptedChars = cache == null ? null : cache.get(encryptedBytes);
+        if (decryptedChars != null) { return decryptedChars; }
+
+        //
+        byte[] decryptedBytes = unprotect(encryptedBytes);
+        decryptedChars = SecretCodec.decode(ByteBuffer.wrap(decryptedBytes));
+        SecretCodec.wipe(decryptedBytes);
+
+        if (cache != null) { cache.put(encryptedBytes, decryptedChars); }
+
+        return decryptedChars;
+    }
+
+    /**
+     * Decrypts a password read from key store to UTF-8 bytes
+     *
+     * @param encryptedBytes    Encrypted password
+     */
+    private byte[] unprotect(byte[] encryptedBytes) throws PasswordRetrievalException {
+        try {
+            return m_protector.unprotect(encryptedBytes);
+        } catch (Exception ex) {
+            throw new PasswordRetrievalException("Failed to decrypt password");
+        }
     }
 
     /**
-     * Saves password entries to a file
-     * This method is not thread/process safe.
+     * Stores a password which has just been encrypted to the decrypt cache
      *
-     * @param entries   Password entries to be saved
+     * @param encryptedBytes    Encrypted password
+     * @param password          Password
+     */
+    private void cache(byte[] encryptedBytes, String password) {
+        if (m_decryptCache == null) { return; }
+
+        char[] decryptedChars = password.toCharArray();
+        cache(encryptedBytes, decryptedChars);
+        SecretCodec.wipe(decryptedChars);
+    }
+
+    /**
+     * Stores a password which has just been encrypted to the decrypt cache
      *
-     * @throws PasswordSaveException    Thrown when an error happened while writing to a file
+     * @param encryptedBytes    Encrypted password
+     * @param password          Password
      */
-    private void savePasswordEnetires(ArrayList<PasswordEntry> entries)
-            throws PasswordSaveException {
+    private void cache(byte[] encryptedBytes, char[] password) {
+        DecryptCache cache = m_decryptCache;
+        if (cache != null) { cache.put(encryptedBytes, password); }
+    }
 
+    /**
+     * Encrypts a password to be written to key store
+     *
+     * @param password  Password
+     */
+    private byte[] encrypt(String password) throws PasswordSaveException {
+        ByteBuffer passwordBytes = SecretCodec.encode(CharBuffer.wrap(password));
         try {
-            ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(m_keyStorePath));
-            try {
-	            fout.writeObject(entries.toArray(new PasswordEntry[0]));
-	            fout.flush();
+            return encrypt(passwordBytes);
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Encrypts the remaining UTF-8 bytes of a password to be written to key store.
+     * The position of password is not changed.
+     *
+     * @param password  UTF-8 bytes of password
+     */
+    private byte[] encrypt(ByteBuffer password) throws PasswordSaveException {
+        byte[] passwordBytes = new byte[password.remaining()];
+        password.duplicate().get(passwordBytes);
+
+        try {
+            return m_protector.protect(passwordBytes);
+        } catch (Exception ex) {
+            throw new PasswordSaveException("Failed to encrypt password");
+        } finally {
+            SecretCodec.wipe(passwordBytes);
+        }
+    }
+
+    /**
+     * Returns a reader of key store files written by ObjectOutputStream
+     */
+    @Override
+    protected LegacyStoreReader getLegacyReader() {
+        return new LegacyStoreReader() {
+            @Override
+            public Map<ServiceAccountKey, byte[]> read(String path) throws IOException {
+                return loadPasswordEntries(path);
             }
-            finally {
-            	fout.close();
+        };
+    }
+
+    /**
+     * Loads password entries from a file written by ObjectOutputStream,
+     * the format used by earlier versions of this backend.
+     *
+     * @param path  Path to key store file
+     */
+    static Map<ServiceAccountKey, byte[]> loadPasswordEntries(String path) throws IOException {
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+
+        ObjectInputStream fin = new RestrictedObjectInputStream(new FileInputStream(path),
+                PasswordEntry[].class, PasswordEntry.class, byte[].class);
+        try {
+            for (PasswordEntry entry : (PasswordEntry[])fin.readObject()) {
+                entries.put(new ServiceAccountKey(entry.getService(), entry.getAccount()),
+                        entry.getPassword());
             }
-        } catch (Exception ex) {
-            Logger.getLogger(WindowsDPAPIBackend.class.getName()).log(Level.SEVERE, null, ex);
-            throw new PasswordSaveException("Failed to save password entries to a file");
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Failed to read legacy key store file", ex);
+        } catch (ClassCastException ex) {
+            throw new IOException("Failed to read legacy key store file", ex);
+        } finally {
+            fin.close();
         }
+
+        return entries;
     }
 
+    /**
+     * Encrypts and decrypts passwords
+     */
+    private final DataProtector m_protector;
+
+    /**
+     * Cache of decrypted passwords, or null
+     */
+    private volatile DecryptCache m_decryptCache;
+
 } // class WindowsDPAPIBackend
@@ -0,0 +1,46 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.windows;
+
+import com.sun.jna.Platform;
+import java.util.EnumSet;
+import java.util.Set;
+import net.east301.keyring.BackendCapability;
+import net.east301.keyring.KeyringBackend;
+import net.east301.keyring.KeyringBackendProvider;
+
+/**
+ * Registers WindowsDPAPIBackend
+ */
+public class WindowsDPAPIBackendProvider implements KeyringBackendProvider {
+
+    @Override
+    public String getName() {
+        return "WindowsDPAPI";
+    }
+
+    @Override
+    public int getPriority() {
+        return 300;
+    }
+
+    @Override
+    public boolean isPlatformSupported() {
+        return Platform.isWindows();
+    }
+
+    @Override
+    public Set<BackendCapability> getCapabilities() {
+        return EnumSet.of(BackendCapability.PERSISTENT, BackendCapability.ENCRYPTED, BackendCapability.BATCH);
+    }
+
+    @Override
+    public KeyringBackend create() {
+        return new WindowsDPAPIBackend();
+    }
+
+} // class WindowsDPAPIBackendProvider
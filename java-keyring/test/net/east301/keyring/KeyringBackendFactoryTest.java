@@ -8,10 +8,14 @@ package net.east301.keyring;
 
 import com.sun.jna.Platform;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import net.east301.keyring.gnome.GNOMEKeyringBackend;
 import net.east301.keyring.memory.UncryptedMemoryBackend;
 import net.east301.keyring.osx.OSXKeychainBackend;
+import net.east301.keyring.secretservice.SecretServiceBackend;
 import net.east301.keyring.windows.WindowsDPAPIBackend;
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
@@ -37,7 +41,8 @@ public class KeyringBackendFactoryTest {
         } else if (Platform.isWindows()) {
             assertTrue(backend instanceof WindowsDPAPIBackend);
         } else if (Platform.isLinux()) {
-            assertTrue(backend instanceof GNOMEKeyringBackend);
+            assertTrue(backend instanceof SecretServiceBackend
+                    || backend instanceof GNOMEKeyringBackend);
         } else {
             fail("Unsupported platform");
         }
@@ -97,6 +102,96 @@ public class KeyringBackendFactoryTest {
         KeyringBackendFactory.create("MyInvalidBackendName");
     }
 
+    /**
+     * Test of create method, of class KeyringBackendFactory
+     * by creating the same backend twice.
+     */
+    @Test
+    public void testCreate_String_Twice() throws Exception {
+        //
+        KeyringBackend first = KeyringBackendFactory.create("UncryptedMemory");
+        KeyringBackend second = KeyringBackendFactory.create("UncryptedMemory");
+
+        // the probe is shared, the instances are not
+        assertNotSame(first, second);
+
+        BackendProbe probe = null;
+        for (BackendProbe entry : KeyringBackendFactory.getProbes()) {
+            if (entry.getName().equals("UncryptedMemory")) { probe = entry; }
+        }
+
+        assertNotNull(probe);
+        assertTrue(probe.isSupported());
+        assertNull(probe.getReason());
+        assertTrue(probe.getDuration(TimeUnit.NANOSECONDS) >= 0);
+    }
+
+    /**
+     * Test of getProbes method, of class KeyringBackendFactory.
+     */
+    @Test
+    public void testGetProbes() throws Exception {
+        //
+        KeyringBackendFactory.create();
+
+        // create() probes every backend of this platform, in order of priority
+        List<BackendProbe> probes = KeyringBackendFactory.getProbes();
+        assertFalse(probes.isEmpty());
+
+        int priority = Integer.MAX_VALUE;
+        for (BackendProbe probe : probes) {
+            KeyringBackendProvider provider = KeyringBackendFactory.getProvider(probe.getName());
+            assertTrue(provider.isPlatformSupported());
+            assertTrue(provider.getPriority() <= priority);
+            priority = provider.getPriority();
+        }
+    }
+
+    /**
+     * Test of create method with required capabilities, of class KeyringBackendFactory.
+     */
+    @Test
+    public void testCreate_Capabilities() throws Exception {
+        //
+        KeyringBackend backend = KeyringBackendFactory.create(EnumSet.noneOf(BackendCapability.class));
+        assertNotNull(backend);
+
+        //
+        try {
+            backend = KeyringBackendFactory.create(EnumSet.of(BackendCapability.ENCRYPTED));
+            String name = null;
+            for (KeyringBackendProvider provider : KeyringBackendFactory.getProviders()) {
+                if (provider.create().getClass() == backend.getClass()) { name = provider.getName(); }
+            }
+            assertTrue(KeyringBackendFactory.getProvider(name).getCapabilities()
+                    .contains(BackendCapability.ENCRYPTED));
+        } catch (BackendNotSupportedException ex) {
+            // no encrypting backend on this machine
+        }
+    }
+
+    /**
+     * Test of getProviders method, of class KeyringBackendFactory.
+     */
+    @Test
+    public void testGetProviders() {
+        //
+        List<KeyringBackendProvider> providers = KeyringBackendFactory.getProviders();
+
+        //
+        for (int i = 1; i < providers.size(); i++) {
+            assertTrue(providers.get(i - 1).getPriority() >= providers.get(i).getPriority());
+        }
+
+        KeyringBackendProvider memory = KeyringBackendFactory.getProvider("UncryptedMemory");
+        assertNotNull(memory);
+        assertTrue(memory.isPlatformSupported());
+        assertTrue(memory.getCapabilities().isEmpty());
+        assertTrue(memory.create() instanceof UncryptedMemoryBackend);
+
+        assertNull(KeyringBackendFactory.getProvider("NoSuchBackend"));
+    }
+
     /**
      * Test of getAllBackendNames method, of class KeyringBackendFactory.
      */
@@ -106,11 +201,14 @@ public class KeyringBackendFactoryTest {
         String[] backends = KeyringBackendFactory.getAllBackendNames();
 
         //
-        assertTrue(backends.length == 4);
+        assertTrue(backends.length == 7);
         assertTrue(Arrays.asList(backends).contains("OSXKeychain"));
         assertTrue(Arrays.asList(backends).contains("WindowsDPAPI"));
         assertTrue(Arrays.asList(backends).contains("GNOMEKeyring"));
+        assertTrue(Arrays.asList(backends).contains("SecretService"));
         assertTrue(Arrays.asList(backends).contains("UncryptedMemory"));
+        assertTrue(Arrays.asList(backends).contains("OffHeapMemory"));
+        assertTrue(Arrays.asList(backends).contains("EncryptedFile"));
     }
 
 } // class KeyringBackendFactoryTest
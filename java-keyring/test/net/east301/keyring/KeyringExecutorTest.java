@@ -0,0 +1,129 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test of KeyringExecutor class
+ */
+public class KeyringExecutorTest {
+
+    @After
+    public void tearDown() {
+        m_release.countDown();
+        m_executor.shutdown();
+    }
+
+    /**
+     * Test of submit method, of class KeyringExecutor.
+     */
+    @Test
+    public void testSubmit() throws Exception {
+        CompletableFuture<String> future = m_executor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        }, 0, TimeUnit.SECONDS);
+
+        assertTrue(future.get(10, TimeUnit.SECONDS).startsWith("java-keyring-async"));
+    }
+
+    /**
+     * Test of submit method, of class KeyringExecutor
+     * by submitting a call which throws an exception.
+     */
+    @Test
+    public void testSubmit_Exception() throws Exception {
+        CompletableFuture<String> future = m_executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new PasswordRetrievalException("not found");
+            }
+        }, 0, TimeUnit.SECONDS);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof PasswordRetrievalException);
+        }
+    }
+
+    /**
+     * Test of submit method, of class KeyringExecutor
+     * by submitting a call which does not return in time.
+     */
+    @Test
+    public void testSubmit_Timeout() throws Exception {
+        CompletableFuture<Object> future = m_executor.submit(blockingCall(), 50, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    /**
+     * Test of submit method, of class KeyringExecutor
+     * by submitting more calls than the executor can hold.
+     */
+    @Test
+    public void testSubmit_Saturated() throws Exception {
+        //
+        m_executor.submit(blockingCall(), 0, TimeUnit.SECONDS);
+        CompletableFuture<Object> queued = m_executor.submit(blockingCall(), 0, TimeUnit.SECONDS);
+        CompletableFuture<Object> rejected = m_executor.submit(blockingCall(), 0, TimeUnit.SECONDS);
+
+        assertTrue(rejected.isCompletedExceptionally());
+        try {
+            rejected.join();
+            fail();
+        } catch (Exception ex) {
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+        }
+
+        // cancelling a queued call frees its place in the queue
+        assertEquals(1, m_executor.getQueuedCount());
+        queued.cancel(false);
+        assertEquals(0, m_executor.getQueuedCount());
+        assertFalse(m_executor.submit(blockingCall(), 0, TimeUnit.SECONDS).isCompletedExceptionally());
+    }
+
+    private Callable<Object> blockingCall() {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                m_release.await();
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Executor with one thread and a queue of one call
+     */
+    private final KeyringExecutor m_executor = new KeyringExecutor(1, 1);
+
+    /**
+     * Releases calls created by blockingCall
+     */
+    private final CountDownLatch m_release = new CountDownLatch(1);
+
+} // class KeyringExecutorTest
@@ -8,10 +8,18 @@ package net.east301.keyring;
 
 import com.sun.jna.Platform;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import net.east301.keyring.gnome.GNOMEKeyringBackend;
 import net.east301.keyring.memory.UncryptedMemoryBackend;
 import net.east301.keyring.osx.OSXKeychainBackend;
+import net.east301.keyring.secretservice.SecretServiceBackend;
+import net.east301.keyring.util.ServiceAccountKey;
 import net.east301.keyring.windows.WindowsDPAPIBackend;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -80,7 +88,8 @@ public class KeyringTest {
         } else if (Platform.isWindows()) {
             assertTrue(keyring.getBackend() instanceof WindowsDPAPIBackend);
         } else if (Platform.isLinux()) {
-            assertTrue(keyring.getBackend() instanceof GNOMEKeyringBackend);
+            assertTrue(keyring.getBackend() instanceof SecretServiceBackend
+                    || keyring.getBackend() instanceof GNOMEKeyringBackend);
         } else {
             assertTrue(keyring.getBackend() instanceof UncryptedMemoryBackend);
         }
@@ -168,6 +177,307 @@ public class KeyringTest {
         assertEquals(PASSWORD, keyring.getPassword(SERVICE, ACCOUNT));
     }
 
+    /**
+     * Test of getPassword method, of class Keyring
+     * with a cache of passwords.
+     */
+    @Test
+    public void testGetPassword_Cache() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory", new PasswordCache(10, 1, TimeUnit.MINUTES));
+
+        //
+        keyring.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, keyring.getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, keyring.getCache().getHitCount());
+
+        // a password saved behind the cache's back is not seen until invalidation
+        keyring.getBackend().setPassword(SERVICE, ACCOUNT, "updated");
+        assertEquals(PASSWORD, keyring.getPassword(SERVICE, ACCOUNT));
+
+        keyring.getCache().invalidate(SERVICE, ACCOUNT);
+        assertEquals("updated", keyring.getPassword(SERVICE, ACCOUNT));
+        assertEquals(2, keyring.getCache().getHitCount());
+        assertEquals(1, keyring.getCache().getMissCount());
+    }
+
+    /**
+     * Test of getPassword and setPassword methods, of class Keyring
+     * with a cache of passwords, by saving a password while another thread
+     * is about to cache the one it loaded before.
+     */
+    @Test
+    public void testGetPassword_CacheConcurrentSet() throws Exception {
+        //
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final CountDownLatch saved = new CountDownLatch(1);
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES) {
+            @Override
+            public boolean putIfVersion(
+                    String service, String account, long version, String password) {
+
+                if ("old".equals(password)) {
+                    loaded.countDown();
+                    try {
+                        saved.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.putIfVersion(service, account, version, password);
+            }
+        };
+
+        final Keyring keyring = Keyring.create("UncryptedMemory", cache);
+        keyring.getBackend().setPassword(SERVICE, ACCOUNT, "old");
+
+        //
+        final String[] read = new String[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read[0] = keyring.getPassword(SERVICE, ACCOUNT);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        reader.start();
+        assertTrue(loaded.await(10, TimeUnit.SECONDS));
+
+        // the reader has loaded the old password but not cached it yet
+        keyring.setPassword(SERVICE, ACCOUNT, "new");
+        saved.countDown();
+        reader.join(10000);
+
+        //
+        assertEquals("old", read[0]);
+        assertEquals("new", keyring.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getPasswordChars and setPasswordBytes methods, of class Keyring
+     * with a cache of passwords.
+     */
+    @Test
+    public void testGetPasswordChars_Cache() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory", new PasswordCache(10, 1, TimeUnit.MINUTES));
+
+        //
+        keyring.setPasswordBytes(SERVICE, ACCOUNT, ByteBuffer.wrap(PASSWORD.getBytes("UTF-8")));
+        assertArrayEquals(PASSWORD.toCharArray(), keyring.getPasswordChars(SERVICE, ACCOUNT));
+        assertArrayEquals(PASSWORD.getBytes("UTF-8"), keyring.getPasswordBytes(SERVICE, ACCOUNT));
+        assertEquals(2, keyring.getCache().getHitCount());
+
+        // chars saved behind the cache's back are not seen until invalidation
+        keyring.getBackend().setPasswordChars(SERVICE, ACCOUNT, "updated".toCharArray());
+        keyring.getCache().invalidate(SERVICE, ACCOUNT);
+        assertArrayEquals("updated".toCharArray(), keyring.getPasswordChars(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getPasswords method, of class Keyring
+     * with a cache of passwords.
+     */
+    @Test
+    public void testGetPasswords_Cache() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory", new PasswordCache(10, 1, TimeUnit.MINUTES));
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        passwords.put(new ServiceAccountKey(SERVICE, ACCOUNT), PASSWORD);
+        passwords.put(new ServiceAccountKey(SERVICE, "other tester"), "other password");
+
+        //
+        keyring.setPasswords(passwords);
+        keyring.getCache().invalidate(SERVICE, "other tester");
+
+        assertEquals(passwords, keyring.getPasswords(passwords.keySet()));
+        assertEquals(1, keyring.getCache().getHitCount());
+        assertEquals(1, keyring.getCache().getMissCount());
+        assertEquals("other password", keyring.getCache().get(SERVICE, "other tester"));
+    }
+
+    /**
+     * Test of getPasswordAsync and setPasswordAsync methods, of class Keyring.
+     */
+    @Test
+    public void testGetPasswordAsync() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory");
+
+        //
+        keyring.setPasswordAsync(SERVICE, ACCOUNT, PASSWORD).get(10, TimeUnit.SECONDS);
+        assertEquals(PASSWORD, keyring.getPasswordAsync(SERVICE, ACCOUNT, 10, TimeUnit.SECONDS).get());
+
+        try {
+            keyring.getPasswordAsync(SERVICE, "unknown tester").get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof PasswordRetrievalException);
+        }
+    }
+
+    /**
+     * Test of getPasswordAsync method, of class Keyring
+     * with a cache of passwords, which is read on the executor as well.
+     */
+    @Test
+    public void testGetPasswordAsync_Cache() throws Exception {
+        //
+        final Thread[] reader = new Thread[1];
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES) {
+            @Override
+            public String get(String service, String account) {
+                reader[0] = Thread.currentThread();
+                return super.get(service, account);
+            }
+        };
+
+        Keyring keyring = Keyring.create("UncryptedMemory", cache);
+        keyring.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        assertEquals(PASSWORD, keyring.getPasswordAsync(SERVICE, ACCOUNT, 10, TimeUnit.SECONDS).get());
+        assertEquals(1, cache.getHitCount());
+        assertNotNull(reader[0]);
+        assertNotSame(Thread.currentThread(), reader[0]);
+    }
+
+    /**
+     * Test of setPassword method, of class Keyring
+     * in write-behind mode.
+     */
+    @Test
+    public void testSetPassword_WriteBehind() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory");
+        keyring.enableWriteBehind(100, 50, 1, TimeUnit.MINUTES);
+        assertTrue(keyring.isWriteBehindEnabled());
+
+        //
+        keyring.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, keyring.getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, keyring.getPendingWriteCount());
+
+        try {
+            keyring.getBackend().getPassword(SERVICE, ACCOUNT);
+            fail("The password should not be saved before flush");
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+
+        //
+        keyring.flush();
+        assertEquals(0, keyring.getPendingWriteCount());
+        assertEquals(PASSWORD, keyring.getBackend().getPassword(SERVICE, ACCOUNT));
+
+        keyring.close();
+        assertFalse(keyring.isWriteBehindEnabled());
+    }
+
+    /**
+     * Test of getPassword method, of class Keyring
+     * in write-behind mode with a cache of passwords, by buffering and flushing
+     * a password while another thread reads the one it replaces.
+     */
+    @Test
+    public void testGetPassword_WriteBehindCache() throws Exception {
+        //
+        final CountDownLatch missed = new CountDownLatch(1);
+        final CountDownLatch buffered = new CountDownLatch(1);
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES) {
+            @Override
+            public long getVersion(String service, String account) {
+                if (buffered.getCount() > 0) {
+                    missed.countDown();
+                    try {
+                        buffered.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getVersion(service, account);
+            }
+        };
+
+        final Keyring keyring = Keyring.create("UncryptedMemory", cache);
+        keyring.getBackend().setPassword(SERVICE, ACCOUNT, "old");
+        keyring.enableWriteBehind(100, 50, 1, TimeUnit.MINUTES);
+
+        //
+        final String[] read = new String[1];
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    read[0] = keyring.getPassword(SERVICE, ACCOUNT);
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        reader.start();
+        assertTrue(missed.await(10, TimeUnit.SECONDS));
+
+        // the reader has missed the buffer and the cache, and loads the old password
+        keyring.setPassword(SERVICE, ACCOUNT, "new");
+        buffered.countDown();
+        reader.join(10000);
+        assertEquals("old", read[0]);
+
+        keyring.flush();
+        assertEquals("new", keyring.getPassword(SERVICE, ACCOUNT));
+
+        keyring.close();
+    }
+
+    /**
+     * Test of setPassword method, of class Keyring
+     * in write-behind mode, waiting for the background thread.
+     */
+    @Test
+    public void testSetPassword_WriteBehindInterval() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory");
+        keyring.enableWriteBehind(10, 10, 20, TimeUnit.MILLISECONDS);
+        keyring.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (keyring.getPendingWriteCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(0, keyring.getPendingWriteCount());
+        assertEquals(PASSWORD, keyring.getBackend().getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of setPassword method, of class Keyring
+     * by provisioning many passwords in write-behind mode with a small buffer.
+     */
+    @Test
+    public void testSetPassword_WriteBehindBulk() throws Exception {
+        //
+        Keyring keyring = Keyring.create("UncryptedMemory");
+        keyring.enableWriteBehind(1000, 500, 10, TimeUnit.MILLISECONDS);
+
+        //
+        for (int i = 0; i < 50000; i++) {
+            keyring.setPassword(SERVICE, "account" + i, "password" + i);
+        }
+
+        keyring.close();
+
+        //
+        KeyringBackend backend = keyring.getBackend();
+        assertEquals("password0", backend.getPassword(SERVICE, "account0"));
+        assertEquals("password49999", backend.getPassword(SERVICE, "account49999"));
+    }
+
     /**
      *
      * @param backend
@@ -0,0 +1,161 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring;
+
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of PasswordCache class
+ */
+public class PasswordCacheTest {
+
+    /**
+     * Test of get method, of class PasswordCache.
+     */
+    @Test
+    public void testGet() {
+        //
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES);
+
+        //
+        assertNull(cache.get(SERVICE, ACCOUNT));
+
+        cache.put(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, cache.get(SERVICE, ACCOUNT));
+        assertNull(cache.get(SERVICE, "other account"));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Test of get method, of class PasswordCache
+     * by reading an expired entry.
+     */
+    @Test
+    public void testGet_Expired() {
+        //
+        final long[] now = new long[] { 0 };
+        PasswordCache cache = new PasswordCache(10, 5, TimeUnit.SECONDS) {
+            @Override
+            protected long now() {
+                return now[0];
+            }
+        };
+
+        //
+        cache.put(SERVICE, ACCOUNT, PASSWORD);
+
+        now[0] = TimeUnit.SECONDS.toNanos(4);
+        assertEquals(PASSWORD, cache.get(SERVICE, ACCOUNT));
+
+        now[0] = TimeUnit.SECONDS.toNanos(5);
+        assertNull(cache.get(SERVICE, ACCOUNT));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test of put method, of class PasswordCache
+     * by storing more entries than the cache can hold.
+     */
+    @Test
+    public void testPut_Eviction() {
+        //
+        PasswordCache cache = new PasswordCache(2, 1, TimeUnit.MINUTES);
+
+        //
+        cache.put(SERVICE, "account1", PASSWORD);
+        cache.put(SERVICE, "account2", PASSWORD);
+        cache.get(SERVICE, "account1");
+        cache.put(SERVICE, "account3", PASSWORD);
+
+        // account2 was the least recently used one
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(SERVICE, "account2"));
+        assertEquals(PASSWORD, cache.get(SERVICE, "account1"));
+        assertEquals(PASSWORD, cache.get(SERVICE, "account3"));
+    }
+
+    /**
+     * Test of invalidate method, of class PasswordCache.
+     */
+    @Test
+    public void testInvalidate() {
+        //
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES);
+        cache.put(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        cache.invalidate(SERVICE, ACCOUNT);
+        assertNull(cache.get(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of putIfVersion method, of class PasswordCache.
+     */
+    @Test
+    public void testPutIfVersion() {
+        //
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES);
+
+        //
+        long version = cache.getVersion(SERVICE, ACCOUNT);
+        assertTrue(cache.putIfVersion(SERVICE, ACCOUNT, version, PASSWORD));
+        assertEquals(PASSWORD, cache.get(SERVICE, ACCOUNT));
+
+        // a password stored after the version was read wins
+        version = cache.getVersion(SERVICE, ACCOUNT);
+        cache.put(SERVICE, ACCOUNT, "newer");
+        assertFalse(cache.putIfVersion(SERVICE, ACCOUNT, version, "older"));
+        assertEquals("newer", cache.get(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of putIfVersion method, of class PasswordCache
+     * by invalidating and clearing a key after the version was read.
+     */
+    @Test
+    public void testPutIfVersion_Invalidated() {
+        //
+        PasswordCache cache = new PasswordCache(10, 1, TimeUnit.MINUTES);
+
+        //
+        long version = cache.getVersion(SERVICE, ACCOUNT);
+        cache.invalidate(SERVICE, ACCOUNT);
+        assertFalse(cache.putIfVersion(SERVICE, ACCOUNT, version, PASSWORD));
+        assertNull(cache.get(SERVICE, ACCOUNT));
+        assertEquals(0, cache.size());
+
+        version = cache.getVersion(SERVICE, ACCOUNT);
+        cache.clear();
+        assertFalse(cache.putIfVersion(SERVICE, ACCOUNT, version, PASSWORD));
+
+        // other keys are not affected
+        version = cache.getVersion(SERVICE, ACCOUNT);
+        cache.invalidate(SERVICE, "other account");
+        assertTrue(cache.putIfVersion(SERVICE, ACCOUNT, version, PASSWORD));
+    }
+
+    /**
+     *
+     */
+    private static final String SERVICE = "net.east301.keyring unit test";
+
+    /**
+     *
+     */
+    private static final String ACCOUNT = "tester";
+
+    /**
+     *
+     */
+    private static final String PASSWORD = "HogeHoge2012";
+
+} // class PasswordCacheTest
@@ -0,0 +1,229 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.file;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.store.RecordStore;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of EncryptedFileBackend class
+ */
+public class EncryptedFileBackendTest {
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+        m_file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+        new File(m_file.getPath() + ".lock").delete();
+    }
+
+    /**
+     * Test of isSupported method, of class EncryptedFileBackend.
+     */
+    @Test
+    public void testIsSupported() {
+        assertTrue(newBackend(PASSPHRASE).isSupported());
+
+        // without a passphrase, the backend is only supported when one is configured
+        boolean configured = System.getProperty(EncryptedFileBackend.PASSPHRASE_PROPERTY) != null
+                || System.getenv(EncryptedFileBackend.PASSPHRASE_VARIABLE) != null;
+        assertEquals(configured, new EncryptedFileBackend().isSupported());
+    }
+
+    /**
+     * Test of setPassword method, of class EncryptedFileBackend.
+     */
+    @Test
+    public void testSetPassword() throws Exception {
+        //
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, "old password");
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+
+        // another instance with the same passphrase reads the password
+        EncryptedFileBackend other = newBackend(PASSPHRASE);
+        assertEquals(PASSWORD, other.getPassword(SERVICE, ACCOUNT));
+        assertArrayEquals(PASSWORD.toCharArray(), other.getPasswordChars(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getPassword method, of class EncryptedFileBackend
+     * with a wrong passphrase.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_WrongPassphrase() throws Exception {
+        newBackend(PASSPHRASE).setPassword(SERVICE, ACCOUNT, PASSWORD);
+        newBackend("wrong".toCharArray()).getPassword(SERVICE, ACCOUNT);
+    }
+
+    /**
+     * Test of getPassword method, of class EncryptedFileBackend
+     * by retrieving invalid entry.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_InvalidEntry() throws Exception {
+        newBackend(PASSPHRASE).getPassword(SERVICE, ACCOUNT);
+    }
+
+    /**
+     * Test of getPassword method, of class EncryptedFileBackend
+     * by reading a record copied to another account.
+     */
+    @Test
+    public void testGetPassword_MovedRecord() throws Exception {
+        //
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        // records are bound to their service and account
+        RecordStore store = StoreFormat.LOG_STRUCTURED.open(m_file.getPath(), m_file.getPath() + ".lock");
+        store.put(new ServiceAccountKey(SERVICE, "other"), store.get(new ServiceAccountKey(SERVICE, ACCOUNT)));
+        store.close();
+
+        try {
+            backend.getPassword(SERVICE, "other");
+            fail();
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of setPasswords and getPasswords methods, of class EncryptedFileBackend.
+     */
+    @Test
+    public void testSetPasswords() throws Exception {
+        //
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (int i = 0; i < 10; i++) {
+            passwords.put(new ServiceAccountKey(SERVICE, "account" + i), "password" + i);
+        }
+
+        //
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPasswords(passwords);
+        assertEquals(passwords, newBackend(PASSPHRASE).getPasswords(passwords.keySet()));
+    }
+
+    /**
+     * Test of getPassword method, of class EncryptedFileBackend
+     * by counting key derivations.
+     */
+    @Test
+    public void testGetPassword_KeyDerivedOnce() throws Exception {
+        //
+        long derivations = DerivedKeyCache.getDerivationCount();
+
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        // other instances in this process reuse the derived key
+        for (int i = 0; i < 5; i++) {
+            assertEquals(PASSWORD, newBackend(PASSPHRASE).getPassword(SERVICE, ACCOUNT));
+        }
+
+        assertEquals(derivations + 1, DerivedKeyCache.getDerivationCount());
+    }
+
+    /**
+     * Test of setPassword method, of class EncryptedFileBackend
+     * by saving a password under the service and account of the key parameters.
+     */
+    @Test(expected = PasswordSaveException.class)
+    public void testSetPassword_ReservedKey() throws Exception {
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        backend.setPassword("\u0000java-keyring", "kdf", PASSWORD);
+    }
+
+    /**
+     * Test of setPasswordChars method, of class EncryptedFileBackend
+     * by saving a password under the service and account of the key parameters.
+     */
+    @Test(expected = PasswordSaveException.class)
+    public void testSetPasswordChars_ReservedKey() throws Exception {
+        newBackend(PASSPHRASE).setPasswordChars("\u0000java-keyring", "kdf", PASSWORD.toCharArray());
+    }
+
+    /**
+     * Test of getPassword method, of class EncryptedFileBackend
+     * by retrieving the key parameters as a password.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_ReservedKey() throws Exception {
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        backend.getPassword("\u0000java-keyring", "kdf");
+    }
+
+    /**
+     * Test of getChangeStamp method, of class EncryptedFileBackend.
+     */
+    @Test
+    public void testGetChangeStamp() throws Exception {
+        //
+        EncryptedFileBackend backend = newBackend(PASSPHRASE);
+        backend.setPassword(SERVICE, ACCOUNT, "old password");
+        long stamp = backend.getChangeStamp();
+
+        // saving through the same instance leaves the stamp unchanged
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(stamp, backend.getChangeStamp());
+
+        newBackend(PASSPHRASE).setPassword(SERVICE, "other account", PASSWORD);
+        assertTrue(stamp != backend.getChangeStamp());
+    }
+
+    /**
+     * Test of getID method, of class EncryptedFileBackend.
+     */
+    @Test
+    public void testGetID() {
+        assertEquals("EncryptedFile", newBackend(PASSPHRASE).getID());
+    }
+
+    /**
+     * Creates a backend of the key store file with a low iteration count
+     */
+    private EncryptedFileBackend newBackend(char[] passphrase) {
+        EncryptedFileBackend backend = new EncryptedFileBackend(passphrase);
+        backend.setKeyStorePath(m_file.getPath());
+        backend.setKdfIterations(1000);
+
+        return backend;
+    }
+
+    /**
+     * Key store file
+     */
+    private File m_file;
+
+    private static final String SERVICE = "net.east301.keyring.file unit test";
+    private static final String ACCOUNT = "tester";
+    private static final String PASSWORD = "HogeHoge2012";
+    private static final char[] PASSPHRASE = "correct horse battery staple".toCharArray();
+
+    private static final String KEYSTORE_PREFIX = "keystore";
+    private static final String KEYSTORE_SUFFIX = ".keystore";
+
+} // class EncryptedFileBackendTest
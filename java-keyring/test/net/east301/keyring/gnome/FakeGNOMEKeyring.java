@@ -0,0 +1,124 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import java.util.HashMap;
+import java.util.Map;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.util.NativeResourceTracker;
+import net.east301.keyring.util.ServiceAccountKey;
+
+/**
+ * Stand-in GNOME Keyring which keeps items in memory, and counts attribute searches
+ * and frees of its allocations
+ */
+class FakeGNOMEKeyring implements GNOMEKeyring {
+
+    /**
+     * Allocates native memory for each item info and search result, as libgnome-keyring does
+     */
+    @Override
+    public synchronized String getSecret(int id, NativeResourceTracker.Scope scope)
+            throws PasswordRetrievalException {
+
+        scope.track(new Memory(ITEM_INFO_SIZE), m_free);
+        if (m_failing) {
+            throw new PasswordRetrievalException("Failed to get item info");
+        }
+
+        return m_secrets.get(id);
+    }
+
+    @Override
+    public synchronized Integer findNetworkPassword(String service, String account,
+            NativeResourceTracker.Scope scope) {
+
+        m_searchCount++;
+
+        Integer id = m_ids.get(new ServiceAccountKey(service, account));
+        if (id != null) { scope.track(new Memory(ITEM_INFO_SIZE), m_free); }
+
+        return id;
+    }
+
+    @Override
+    public synchronized int setNetworkPassword(String service, String account, String password) {
+        ServiceAccountKey key = new ServiceAccountKey(service, account);
+
+        Integer id = m_ids.get(key);
+        if (id == null) {
+            id = m_nextId++;
+            m_ids.put(key, id);
+        }
+        m_secrets.put(id, password);
+
+        return id;
+    }
+
+    /**
+     * Deletes the item of specified service and account, as another application would
+     */
+    synchronized void delete(String service, String account) {
+        m_secrets.remove(m_ids.remove(new ServiceAccountKey(service, account)));
+    }
+
+    /**
+     * Makes getSecret fail after it allocated the item info
+     */
+    synchronized void setFailing(boolean failing) {
+        m_failing = failing;
+    }
+
+    /**
+     * Returns number of freed allocations
+     */
+    synchronized int getFreeCount() {
+        return m_freeCount;
+    }
+
+    /**
+     * Returns number of findNetworkPassword calls
+     */
+    synchronized int getSearchCount() {
+        return m_searchCount;
+    }
+
+    /**
+     * { Item ID => secret }
+     */
+    private final Map<Integer, String> m_secrets = new HashMap<Integer, String>();
+
+    /**
+     * { Service and account => item ID }
+     */
+    private final Map<ServiceAccountKey, Integer> m_ids = new HashMap<ServiceAccountKey, Integer>();
+
+    /**
+     * Frees an allocation of this keyring
+     */
+    private final NativeResourceTracker.Releaser m_free = new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            synchronized (FakeGNOMEKeyring.this) {
+                m_freeCount++;
+            }
+        }
+    };
+
+    private static final int ITEM_INFO_SIZE = 64;
+
+    private int m_nextId = 1;
+
+    private int m_searchCount;
+
+    private int m_freeCount;
+
+    private boolean m_failing;
+
+} // class FakeGNOMEKeyring
@@ -0,0 +1,435 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.gnome;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.PasswordSaveException;
+import net.east301.keyring.store.StoreFormat;
+import net.east301.keyring.util.NativeResourceStatistics;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of GNOMEKeyringBackend class
+ */
+public class GNOMEKeyringBackendTest {
+
+    /**
+     * Test of isKeyStorePathRequired method, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testIsKeyStorePathRequired() {
+        assertTrue(new GNOMEKeyringBackend().isKeyStorePathRequired());
+    }
+
+    /**
+     * Test of getID method, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testGetID() {
+        assertEquals("GNOMEKeyring", new GNOMEKeyringBackend().getID());
+    }
+
+    /**
+     * Test of saveItemId method, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testSaveItemId() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        assertNull(backend.loadItemId(SERVICE, ACCOUNT));
+
+        backend.saveItemId(SERVICE, ACCOUNT, 42);
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE, ACCOUNT));
+        assertEquals(StoreFormat.MAPPED_HASH, StoreFormat.detect(keystore.getPath()));
+    }
+
+    /**
+     * Test of loadItemId method, of class GNOMEKeyringBackend
+     * by reading a map file written by ObjectOutputStream.
+     */
+    @Test
+    public void testLoadItemId_LegacyMap() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put("http://example.com/" + "/" + ACCOUNT, 7);
+        map.put(SERVICE + "/" + ACCOUNT, 42);
+
+        ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(keystore));
+        try {
+            fout.writeObject(map);
+        } finally {
+            fout.close();
+        }
+
+        //
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE, ACCOUNT));
+        assertEquals(Integer.valueOf(7), backend.loadItemId("http://example.com/", ACCOUNT));
+
+        backend.saveItemId(SERVICE, ACCOUNT, 43);
+        assertEquals(Integer.valueOf(43), backend.loadItemId(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of loadItemId method, of class GNOMEKeyringBackend
+     * by reading an ID of a service whose name contains a slash.
+     */
+    @Test
+    public void testLoadItemId_SlashInService() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        backend.saveItemId(SERVICE + "/" + ACCOUNT, "", 42);
+
+        assertNull(backend.loadItemId(SERVICE, ACCOUNT));
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE + "/" + ACCOUNT, ""));
+    }
+
+    /**
+     * Test of setPassword method, of class GNOMEKeyringBackend
+     * by saving a password of a service which starts with the prefix reserved for legacy entries.
+     */
+    @Test(expected = PasswordSaveException.class)
+    public void testSetPassword_ReservedService() throws Exception {
+        newBackend(new FakeGNOMEKeyring()).setPassword("\u0000legacy-map:" + SERVICE, ACCOUNT, "first");
+    }
+
+    /**
+     * Test of getPassword method, of class GNOMEKeyringBackend
+     * by retrieving a password of a service which starts with the prefix reserved for legacy entries.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_ReservedService() throws Exception {
+        newBackend(new FakeGNOMEKeyring()).getPassword("\u0000legacy-map:" + SERVICE + "/" + ACCOUNT, "");
+    }
+
+    /**
+     * Test of saveItemIds and loadItemIds methods, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testSaveItemIds() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        Map<ServiceAccountKey, Integer> ids = new LinkedHashMap<ServiceAccountKey, Integer>();
+        ids.put(new ServiceAccountKey(SERVICE, ACCOUNT), 42);
+        ids.put(new ServiceAccountKey(SERVICE, "other tester"), 43);
+
+        //
+        backend.saveItemIds(ids);
+
+        List<ServiceAccountKey> keys = new ArrayList<ServiceAccountKey>(ids.keySet());
+        keys.add(new ServiceAccountKey(SERVICE, "unknown tester"));
+        assertEquals(ids, backend.loadItemIds(keys));
+    }
+
+    /**
+     * Test of loadItemIds method, of class GNOMEKeyringBackend
+     * by reading a map file written by ObjectOutputStream.
+     */
+    @Test
+    public void testLoadItemIds_LegacyMap() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put(SERVICE + "/" + ACCOUNT, 42);
+
+        ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(keystore));
+        try {
+            fout.writeObject(map);
+        } finally {
+            fout.close();
+        }
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+        backend.saveItemId(SERVICE, "other tester", 43);
+
+        //
+        Map<ServiceAccountKey, Integer> ids = backend.loadItemIds(Arrays.asList(
+                new ServiceAccountKey(SERVICE, ACCOUNT), new ServiceAccountKey(SERVICE, "other tester")));
+
+        assertEquals(Integer.valueOf(42), ids.get(new ServiceAccountKey(SERVICE, ACCOUNT)));
+        assertEquals(Integer.valueOf(43), ids.get(new ServiceAccountKey(SERVICE, "other tester")));
+    }
+
+    /**
+     * Test of loadItemId method, of class GNOMEKeyringBackend
+     * by reading a map file which contains an unexpected class.
+     */
+    @Test(expected = IOException.class)
+    public void testLoadItemId_UnexpectedClass() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put(SERVICE + "/" + ACCOUNT, new Date());
+
+        ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(keystore));
+        try {
+            fout.writeObject(map);
+        } finally {
+            fout.close();
+        }
+
+        //
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+        backend.loadItemId(SERVICE, ACCOUNT);
+    }
+
+    /**
+     * Test of loadItemId method, of class GNOMEKeyringBackend
+     * by reading an ID which another instance has updated.
+     */
+    @Test
+    public void testLoadItemId_ModifiedByOther() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+        backend.saveItemId(SERVICE, ACCOUNT, 42);
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE, ACCOUNT));
+
+        //
+        GNOMEKeyringBackend other = new GNOMEKeyringBackend();
+        other.setKeyStorePath(keystore.getPath());
+        other.saveItemId(SERVICE, ACCOUNT, 43);
+
+        assertEquals(Integer.valueOf(43), backend.loadItemId(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of loadItemId method, of class GNOMEKeyringBackend
+     * by saving other IDs through the same instance.
+     */
+    @Test
+    public void testLoadItemId_SavedByItself() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend();
+        backend.setKeyStorePath(keystore.getPath());
+        backend.saveItemId(SERVICE, ACCOUNT, 42);
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE, ACCOUNT));
+
+        // own writes keep the cached IDs
+        backend.saveItemId(SERVICE, "other tester", 43);
+        assertEquals(Integer.valueOf(42), backend.loadItemId(SERVICE, ACCOUNT));
+        assertEquals(2, backend.getCachedItemIdCount());
+    }
+
+    /**
+     * Test of setPassword and getPassword methods, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testSetPassword() throws Exception {
+        //
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        GNOMEKeyringBackend backend = newBackend(keyring);
+
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+        backend.setPassword(SERVICE, ACCOUNT, "second");
+
+        //
+        assertEquals("second", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals("second", newBackend(keyring, backend.getKeyStorePath()).getPassword(SERVICE, ACCOUNT));
+        assertEquals(0, keyring.getSearchCount());
+    }
+
+    /**
+     * Test of getPassword method, of class GNOMEKeyringBackend
+     * by retrieving a password which is missing from the map.
+     */
+    @Test
+    public void testGetPassword_NotInMap() throws Exception {
+        //
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        newBackend(keyring).setPassword(SERVICE, ACCOUNT, "first");
+
+        GNOMEKeyringBackend backend = newBackend(keyring);
+
+        //
+        assertEquals("first", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, keyring.getSearchCount());
+
+        // the map was updated with the found item
+        assertEquals("first", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, keyring.getSearchCount());
+    }
+
+    /**
+     * Test of getPassword method, of class GNOMEKeyringBackend
+     * by retrieving a password whose item was replaced by another application.
+     */
+    @Test
+    public void testGetPassword_StaleId() throws Exception {
+        //
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        GNOMEKeyringBackend backend = newBackend(keyring);
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+
+        keyring.delete(SERVICE, ACCOUNT);
+        keyring.setNetworkPassword(SERVICE, ACCOUNT, "second");
+
+        //
+        assertEquals("second", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(Integer.valueOf(keyring.setNetworkPassword(SERVICE, ACCOUNT, "second")),
+                backend.loadItemId(SERVICE, ACCOUNT));
+
+        //
+        keyring.delete(SERVICE, ACCOUNT);
+        try {
+            backend.getPassword(SERVICE, ACCOUNT);
+            fail("PasswordRetrievalException expected");
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of getPassword method, of class GNOMEKeyringBackend
+     * without a key store path.
+     */
+    @Test
+    public void testGetPassword_NoKeyStorePath() throws Exception {
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend(keyring);
+        backend.setup();
+
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+        assertEquals("first", backend.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getPasswords and setPasswords methods, of class GNOMEKeyringBackend.
+     */
+    @Test
+    public void testGetPasswords() throws Exception {
+        //
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        GNOMEKeyringBackend backend = newBackend(keyring);
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (int i = 0; i < 10; i++) {
+            passwords.put(new ServiceAccountKey(SERVICE, "account" + i), "password" + i);
+        }
+        backend.setPasswords(passwords);
+
+        // one item is missing from the map of another backend
+        keyring.setNetworkPassword(SERVICE, "account10", "password10");
+        passwords.put(new ServiceAccountKey(SERVICE, "account10"), "password10");
+
+        //
+        assertEquals(passwords, newBackend(keyring, backend.getKeyStorePath()).getPasswords(passwords.keySet()));
+        assertEquals(1, keyring.getSearchCount());
+    }
+
+    /**
+     * Test of getNativeResourceStatistics method, of class GNOMEKeyringBackend
+     * by counting frees of native resources obtained from the keyring.
+     */
+    @Test
+    public void testGetNativeResourceStatistics() throws Exception {
+        //
+        FakeGNOMEKeyring keyring = new FakeGNOMEKeyring();
+        GNOMEKeyringBackend backend = newBackend(keyring);
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (int i = 0; i < 10; i++) {
+            passwords.put(new ServiceAccountKey(SERVICE, "account" + i), "password" + i);
+        }
+        backend.setPasswords(passwords);
+
+        // item info of each fetch, and search result and item info of a missing map entry
+        backend.getPasswords(passwords.keySet());
+        newBackend(keyring).getPassword(SERVICE, "account0");
+
+        NativeResourceStatistics statistics = backend.getNativeResourceStatistics();
+        assertEquals(10, statistics.getAllocatedCount());
+        assertEquals(0, statistics.getOutstandingCount());
+        assertEquals(12, keyring.getFreeCount());
+
+        // resources are freed when the call fails
+        keyring.setFailing(true);
+        try {
+            backend.getPassword(SERVICE, "account0");
+            fail("PasswordRetrievalException expected");
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+
+        assertEquals(11, backend.getNativeResourceStatistics().getAllocatedCount());
+        assertEquals(0, backend.getNativeResourceStatistics().getOutstandingCount());
+        assertEquals(13, keyring.getFreeCount());
+    }
+
+    private static GNOMEKeyringBackend newBackend(GNOMEKeyring keyring) throws Exception {
+        return newBackend(keyring, File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX).getPath());
+    }
+
+    private static GNOMEKeyringBackend newBackend(GNOMEKeyring keyring, String keyStorePath) throws Exception {
+        GNOMEKeyringBackend backend = new GNOMEKeyringBackend(keyring);
+        backend.setKeyStorePath(keyStorePath);
+        backend.setup();
+
+        return backend;
+    }
+
+    /**
+     *
+     */
+    private static final String SERVICE = "net.east301.keyring.gnome unit test";
+
+    /**
+     *
+     */
+    private static final String ACCOUNT = "tester";
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_PREFIX = "keystore";
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_SUFFIX = ".keystore";
+
+} // class GNOMEKeyringBackendTest
@@ -0,0 +1,182 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import net.east301.keyring.PasswordRetrievalException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of OffHeapMemoryBackend class
+ */
+public class OffHeapMemoryBackendTest {
+
+    /**
+     * Test of isSupported method, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testIsSupported() {
+        assertTrue(new OffHeapMemoryBackend().isSupported());
+    }
+
+    /**
+     * Test of getPassword method, of class OffHeapMemoryBackend
+     * by retrieving invalid entry.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_InvalidEntry() throws Exception {
+        new OffHeapMemoryBackend().getPassword(SERVICE, ACCOUNT);
+    }
+
+    /**
+     * Test of setPassword method, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testSetPassword() throws Exception {
+        //
+        OffHeapMemoryBackend instance = new OffHeapMemoryBackend();
+
+        //
+        instance.setPassword(SERVICE, ACCOUNT, "old password");
+        long liveBytes = instance.getLiveBytes();
+
+        instance.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, instance.getPassword(SERVICE, ACCOUNT));
+        assertArrayEquals(PASSWORD.toCharArray(), instance.getPasswordChars(SERVICE, ACCOUNT));
+
+        // the replaced password does not occupy a slot any more
+        assertEquals(liveBytes, instance.getLiveBytes());
+
+        // accounts of the same service are distinct entries
+        instance.setPassword(SERVICE, "other", "other password");
+        assertEquals(PASSWORD, instance.getPassword(SERVICE, ACCOUNT));
+        assertEquals("other password", instance.getPassword(SERVICE, "other"));
+    }
+
+    /**
+     * Test of setPasswordBytes and getPasswordBytes methods, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testSetPasswordBytes() throws Exception {
+        //
+        OffHeapMemoryBackend instance = new OffHeapMemoryBackend();
+        byte[] password = "p\u00e4ssw\u00f6rd".getBytes("UTF-8");
+
+        //
+        ByteBuffer src = ByteBuffer.allocateDirect(password.length);
+        src.put(password);
+        src.flip();
+
+        instance.setPasswordBytes(SERVICE, ACCOUNT, src);
+        assertEquals(0, src.position());
+
+        //
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        assertEquals(password.length, instance.getPasswordBytes(SERVICE, ACCOUNT, dst));
+        assertArrayEquals(password, Arrays.copyOf(dst.array(), dst.position()));
+        assertEquals("p\u00e4ssw\u00f6rd", instance.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of setPassword method, of class OffHeapMemoryBackend
+     * by storing a password larger than a slab.
+     */
+    @Test
+    public void testSetPassword_Large() throws Exception {
+        //
+        OffHeapMemoryBackend instance = new OffHeapMemoryBackend(64);
+
+        char[] password = new char[1000];
+        Arrays.fill(password, 'x');
+
+        //
+        instance.setPasswordChars(SERVICE, ACCOUNT, password);
+        assertArrayEquals(password, instance.getPasswordChars(SERVICE, ACCOUNT));
+        // the record does not fit in a slab, so it gets a 2 KiB slab of its own
+        assertEquals(2048, instance.getAllocatedBytes());
+    }
+
+    /**
+     * Test of compact method, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        //
+        OffHeapMemoryBackend instance = new OffHeapMemoryBackend(1024);
+        for (int i = 0; i < 1000; i++) {
+            instance.setPassword(SERVICE, "account" + i, "password" + i);
+        }
+
+        // replacing most passwords by longer ones leaves the small slots mostly free
+        for (int i = 0; i < 1000; i++) {
+            if (i % 10 != 0) {
+                instance.setPassword(SERVICE, "account" + i, "a much longer password " + i);
+            }
+        }
+
+        //
+        long allocated = instance.getAllocatedBytes();
+        assertTrue(instance.compact() > 0);
+        assertTrue(instance.getAllocatedBytes() < allocated);
+
+        for (int i = 0; i < 1000; i++) {
+            String expected = i % 10 != 0 ? "a much longer password " + i : "password" + i;
+            assertEquals(expected, instance.getPassword(SERVICE, "account" + i));
+        }
+    }
+
+    /**
+     * Test of wipe method, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testWipe() throws Exception {
+        //
+        OffHeapMemoryBackend instance = new OffHeapMemoryBackend();
+        instance.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        instance.close();
+        assertEquals(0, instance.getAllocatedBytes());
+
+        try {
+            instance.getPassword(SERVICE, ACCOUNT);
+            fail();
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+
+        // the backend can be used again
+        instance.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, instance.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getID method, of class OffHeapMemoryBackend.
+     */
+    @Test
+    public void testGetID() {
+        assertEquals("OffHeapMemory", new OffHeapMemoryBackend().getID());
+    }
+
+    /**
+     * Service name
+     */
+    private static final String SERVICE = "net.east301.keyring.memory unit test";
+
+    /**
+     * Account name
+     */
+    private static final String ACCOUNT = "tester";
+
+    /**
+     * Password
+     */
+    private static final String PASSWORD = "HogeHoge2012";
+
+} // class OffHeapMemoryBackendTest
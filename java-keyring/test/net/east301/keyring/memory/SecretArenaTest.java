@@ -0,0 +1,76 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.memory;
+
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of SecretArena class
+ */
+public class SecretArenaTest {
+
+    /**
+     * Test of allocate method, of class SecretArena.
+     */
+    @Test
+    public void testAllocate() {
+        //
+        SecretArena arena = new SecretArena(1024);
+
+        long first = arena.allocate(12);
+        long second = arena.allocate(13);
+        assertNotEquals(first, second);
+
+        // 12 bytes and the length header fit in a 16 byte slot, 13 bytes do not
+        assertEquals(16 + 32, arena.getLiveBytes());
+        assertEquals(2, arena.getSlabCount());
+        assertEquals(12, arena.slot(first).remaining());
+    }
+
+    /**
+     * Test of free method, of class SecretArena.
+     */
+    @Test
+    public void testFree() {
+        //
+        SecretArena arena = new SecretArena(1024);
+
+        long handle = arena.allocate(4);
+        ByteBuffer slot = arena.slot(handle);
+        slot.putInt(slot.position(), 0x12345678);
+
+        //
+        arena.free(handle);
+        assertEquals(0, slot.getInt(slot.position()));
+        assertEquals(0, arena.getLiveBytes());
+
+        // freed slots are reused
+        assertEquals(handle, arena.allocate(4));
+    }
+
+    /**
+     * Test of wipe method, of class SecretArena.
+     */
+    @Test
+    public void testWipe() {
+        //
+        SecretArena arena = new SecretArena(1024);
+
+        long handle = arena.allocate(4);
+        ByteBuffer slot = arena.slot(handle);
+        slot.putInt(slot.position(), 0x12345678);
+
+        //
+        arena.wipe();
+        assertEquals(0, slot.getInt(slot.position()));
+        assertEquals(0, arena.getAllocatedBytes());
+        assertEquals(0, arena.getSlabCount());
+    }
+
+} // class SecretArenaTest
@@ -6,7 +6,12 @@
 
 package net.east301.keyring.memory;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.util.ServiceAccountKey;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -71,6 +76,92 @@ public class UncryptedMemoryBackendTest {
         assertEquals(PASSWORD, instance.getPassword(SERVICE, ACCOUNT));
     }
 
+    /**
+     * Test of setPasswordBytes and getPasswordChars methods, of class UncryptedMemoryBackend,
+     * which are inherited from KeyringBackend.
+     */
+    @Test
+    public void testSetPasswordBytes() throws Exception {
+        //
+        UncryptedMemoryBackend instance = new UncryptedMemoryBackend();
+        String password = "p\u00e4ssw\u00f6rd";
+
+        //
+        instance.setPasswordBytes(SERVICE, ACCOUNT, ByteBuffer.wrap(password.getBytes("UTF-8")));
+        assertEquals(password, instance.getPassword(SERVICE, ACCOUNT));
+        assertArrayEquals(password.toCharArray(), instance.getPasswordChars(SERVICE, ACCOUNT));
+
+        ByteBuffer dst = ByteBuffer.allocate(64);
+        assertEquals(password.getBytes("UTF-8").length, instance.getPasswordBytes(SERVICE, ACCOUNT, dst));
+        assertArrayEquals(password.getBytes("UTF-8"), Arrays.copyOf(dst.array(), dst.position()));
+    }
+
+    /**
+     * Test of setPassword method, of class UncryptedMemoryBackend
+     * by overwriting existing entry.
+     */
+    @Test
+    public void testSetPassword_Overwrite() throws Exception {
+        //
+        UncryptedMemoryBackend instance = new UncryptedMemoryBackend();
+
+        //
+        instance.setPassword(SERVICE, ACCOUNT, "old password");
+        instance.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, instance.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of getPassword method, of class UncryptedMemoryBackend
+     * by storing entries whose concatenated keys collide.
+     */
+    @Test
+    public void testGetPassword_DistinctKeys() throws Exception {
+        //
+        UncryptedMemoryBackend instance = new UncryptedMemoryBackend();
+
+        //
+        instance.setPassword("a/b", "c", "first");
+        instance.setPassword("a", "b/c", "second");
+
+        assertEquals("first", instance.getPassword("a/b", "c"));
+        assertEquals("second", instance.getPassword("a", "b/c"));
+    }
+
+    /**
+     * Test of setPasswords and getPasswords methods, of class UncryptedMemoryBackend.
+     */
+    @Test
+    public void testSetPasswords() throws Exception {
+        //
+        UncryptedMemoryBackend backend = new UncryptedMemoryBackend();
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        passwords.put(new ServiceAccountKey(SERVICE, ACCOUNT), PASSWORD);
+        passwords.put(new ServiceAccountKey(SERVICE, "other tester"), "other password");
+
+        //
+        backend.setPasswords(passwords);
+
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(passwords, backend.getPasswords(passwords.keySet()));
+    }
+
+    /**
+     * Test of getPasswords method, of class UncryptedMemoryBackend
+     * by requesting a password which is not stored.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPasswords_InvalidPassword() throws Exception {
+        //
+        UncryptedMemoryBackend backend = new UncryptedMemoryBackend();
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        backend.getPasswords(Arrays.asList(
+                new ServiceAccountKey(SERVICE, ACCOUNT), new ServiceAccountKey(SERVICE, "other tester")));
+    }
+
     /**
      * Test of getID method, of class UncryptedMemoryBackend.
      */
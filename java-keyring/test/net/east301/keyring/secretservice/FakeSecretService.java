@@ -0,0 +1,311 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stand-in Secret Service on a private session bus, which keeps items in memory
+ * and counts the calls of each method
+ */
+class FakeSecretService {
+
+    /**
+     * Starts a private bus and the service on it
+     *
+     * @return  Address of the bus
+     */
+    String start() throws Exception {
+        m_daemon = new ProcessBuilder("dbus-daemon", "--session", "--nofork", "--print-address")
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+
+        m_address = new BufferedReader(new InputStreamReader(m_daemon.getInputStream(), "UTF-8")).readLine();
+        if (m_address == null) {
+            throw new IOException("dbus-daemon did not print its address");
+        }
+
+        //
+        final DBusConnection connection = DBusConnection.open(m_address);
+        if (!connection.requestName(SecretServiceBackend.SERVICE_NAME)) {
+            throw new IOException("Failed to own " + SecretServiceBackend.SERVICE_NAME);
+        }
+
+        m_thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!m_stopped) {
+                        DBusMessage message = connection.receive(50);
+                        if (message == null) { continue; }
+
+                        try {
+                            if (message.getType() == DBusLib.DBUS_MESSAGE_TYPE_METHOD_CALL) {
+                                connection.send(handle(message));
+                            }
+                        } finally {
+                            message.close();
+                        }
+                    }
+                } catch (DBusException ex) {
+                    // connection closed
+                } finally {
+                    connection.close();
+                }
+            }
+        }, "fake-secret-service");
+        m_thread.setDaemon(true);
+        m_thread.start();
+
+        return m_address;
+    }
+
+    /**
+     * Stops the service and the bus
+     */
+    void stop() throws InterruptedException {
+        m_stopped = true;
+        if (m_thread != null) { m_thread.join(); }
+        if (m_daemon != null) { m_daemon.destroy(); }
+    }
+
+    /**
+     * Returns number of calls of specified method
+     */
+    int getCallCount(String method) {
+        AtomicInteger count = m_calls.get(method);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Deletes the item with specified attributes, as another application would
+     */
+    void delete(String service, String account) {
+        synchronized (m_items) {
+            m_items.remove(find(service, account));
+        }
+    }
+
+    /**
+     * Locks the item with specified attributes; Unlock unlocks it without a prompt
+     */
+    void lock(String service, String account) {
+        synchronized (m_items) {
+            m_items.get(find(service, account)).m_locked = true;
+        }
+    }
+
+    /**
+     * Handles a method call, and returns the reply
+     */
+    private DBusMessage handle(DBusMessage call) {
+        String method = call.getMember();
+
+        AtomicInteger count = m_calls.putIfAbsent(method, new AtomicInteger(1));
+        if (count != null) { count.incrementAndGet(); }
+
+        try {
+            synchronized (m_items) {
+                if ("OpenSession".equals(method)) { return openSession(call); }
+                if ("SearchItems".equals(method)) { return searchItems(call); }
+                if ("Unlock".equals(method)) { return unlock(call); }
+                if ("GetSecrets".equals(method)) { return getSecrets(call); }
+                if ("CreateItem".equals(method)) { return createItem(call); }
+            }
+
+            return call.error("org.freedesktop.DBus.Error.UnknownMethod", method);
+        } catch (DBusException ex) {
+            return call.error(ex.getName(), ex.getMessage());
+        }
+    }
+
+    private DBusMessage openSession(DBusMessage call) throws DBusException {
+        DBusMessage.Reader reader = call.reader();
+        if (!"plain".equals(reader.string())) {
+            throw new DBusException("org.freedesktop.DBus.Error.NotSupported", "Unknown algorithm");
+        }
+
+        DBusMessage reply = call.methodReturn();
+        reply.writer().variant("s").string("").end().objectPath(SESSION);
+
+        return reply;
+    }
+
+    private DBusMessage searchItems(DBusMessage call) throws DBusException {
+        Map<String, String> attributes = readAttributes(call.reader().recurse());
+
+        //
+        DBusMessage reply = call.methodReturn();
+        DBusMessage.Writer unlocked = reply.writer().array("o");
+        for (Map.Entry<String, Item> entry : m_items.entrySet()) {
+            if (!entry.getValue().m_locked && entry.getValue().m_attributes.equals(attributes)) {
+                unlocked.objectPath(entry.getKey());
+            }
+        }
+
+        DBusMessage.Writer locked = unlocked.end().array("o");
+        for (Map.Entry<String, Item> entry : m_items.entrySet()) {
+            if (entry.getValue().m_locked && entry.getValue().m_attributes.equals(attributes)) {
+                locked.objectPath(entry.getKey());
+            }
+        }
+        locked.end();
+
+        return reply;
+    }
+
+    private DBusMessage unlock(DBusMessage call) throws DBusException {
+        DBusMessage reply = call.methodReturn();
+        DBusMessage.Writer writer = reply.writer().array("o");
+
+        DBusMessage.Reader paths = call.reader().recurse();
+        while (paths.hasNext()) {
+            String path = paths.string();
+            Item item = m_items.get(path);
+            if (item != null) {
+                item.m_locked = false;
+                writer.objectPath(path);
+            }
+        }
+        writer.end().objectPath("/");
+
+        return reply;
+    }
+
+    private DBusMessage getSecrets(DBusMessage call) throws DBusException {
+        DBusMessage.Reader reader = call.reader();
+        DBusMessage.Reader paths = reader.recurse();
+        String session = reader.string();
+
+        //
+        DBusMessage reply = call.methodReturn();
+        DBusMessage.Writer writer = reply.writer().array("{o(oayays)}");
+        while (paths.hasNext()) {
+            String path = paths.string();
+            Item item = m_items.get(path);
+            if (item == null || item.m_locked) { continue; }
+
+            writer.dictEntry().objectPath(path)
+                    .struct().objectPath(session).bytes(new byte[0]).bytes(item.m_secret)
+                    .string("text/plain").end()
+                    .end();
+        }
+        writer.end();
+
+        return reply;
+    }
+
+    private DBusMessage createItem(DBusMessage call) throws DBusException {
+        DBusMessage.Reader reader = call.reader();
+
+        //
+        Map<String, String> attributes = null;
+        DBusMessage.Reader properties = reader.recurse();
+        while (properties.hasNext()) {
+            DBusMessage.Reader property = properties.recurse();
+            String name = property.string();
+            DBusMessage.Reader value = property.recurse();
+            if (SecretServiceBackend.ATTRIBUTES_PROPERTY.equals(name)) {
+                attributes = readAttributes(value.recurse());
+            }
+        }
+
+        DBusMessage.Reader secret = reader.recurse();
+        secret.skip();
+        secret.skip();
+        byte[] value = secret.bytes();
+        boolean replace = reader.bool();
+
+        //
+        String path = replace ? find(attributes) : null;
+        if (path == null) {
+            path = COLLECTION + "/" + m_nextId++;
+        }
+        m_items.put(path, new Item(attributes, value));
+
+        DBusMessage reply = call.methodReturn();
+        reply.writer().objectPath(path).objectPath("/");
+
+        return reply;
+    }
+
+    private String find(String service, String account) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put(SecretServiceBackend.SCHEMA_ATTRIBUTE, SecretServiceBackend.SCHEMA);
+        attributes.put(SecretServiceBackend.SERVICE_ATTRIBUTE, service);
+        attributes.put(SecretServiceBackend.ACCOUNT_ATTRIBUTE, account);
+
+        return find(attributes);
+    }
+
+    private String find(Map<String, String> attributes) {
+        for (Map.Entry<String, Item> entry : m_items.entrySet()) {
+            if (entry.getValue().m_attributes.equals(attributes)) { return entry.getKey(); }
+        }
+
+        return null;
+    }
+
+    private static Map<String, String> readAttributes(DBusMessage.Reader entries) throws DBusException {
+        Map<String, String> attributes = new HashMap<String, String>();
+        while (entries.hasNext()) {
+            DBusMessage.Reader entry = entries.recurse();
+            attributes.put(entry.string(), entry.string());
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Item in memory
+     */
+    private static final class Item {
+
+        Item(Map<String, String> attributes, byte[] secret) {
+            m_attributes = attributes;
+            m_secret = Arrays.copyOf(secret, secret.length);
+        }
+
+        final Map<String, String> m_attributes;
+        final byte[] m_secret;
+        boolean m_locked;
+
+    } // class Item
+
+    private static final String SESSION = "/org/freedesktop/secrets/session/1";
+
+    private static final String COLLECTION = "/org/freedesktop/secrets/collection/login";
+
+    /**
+     * { Item path => item }, guarded by itself
+     */
+    private final Map<String, Item> m_items = new LinkedHashMap<String, Item>();
+
+    /**
+     * { Method name => number of calls }
+     */
+    private final ConcurrentHashMap<String, AtomicInteger> m_calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    private Process m_daemon;
+
+    private String m_address;
+
+    private Thread m_thread;
+
+    private volatile boolean m_stopped;
+
+    private int m_nextId = 1;
+
+} // class FakeSecretService
@@ -0,0 +1,256 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.secretservice;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.sun.jna.Platform;
+import net.east301.keyring.BackendNotSupportedException;
+import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of SecretServiceBackend class, against FakeSecretService on a private bus
+ */
+public class SecretServiceBackendTest {
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Platform.isLinux());
+        assumeTrue(isExecutable("dbus-daemon"));
+
+        try {
+            NativeLibraryManager.loadNativeLibraries();
+        } catch (BackendNotSupportedException ex) {
+            assumeNoException(ex);
+        }
+
+        m_service = new FakeSecretService();
+        m_address = m_service.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (SecretServiceBackend backend : m_backends) {
+            backend.close();
+        }
+
+        if (m_service != null) { m_service.stop(); }
+    }
+
+    /**
+     * Test of isKeyStorePathRequired method, of class SecretServiceBackend.
+     */
+    @Test
+    public void testIsKeyStorePathRequired() {
+        assertFalse(new SecretServiceBackend().isKeyStorePathRequired());
+    }
+
+    /**
+     * Test of getID method, of class SecretServiceBackend.
+     */
+    @Test
+    public void testGetID() {
+        assertEquals("SecretService", new SecretServiceBackend().getID());
+    }
+
+    /**
+     * Test of setup method, of class SecretServiceBackend
+     * by connecting to a bus which does not exist.
+     */
+    @Test(expected = BackendNotSupportedException.class)
+    public void testSetup_NoBus() throws Exception {
+        SecretServiceBackend backend = new SecretServiceBackend("unix:path=/nonexistent/bus");
+        m_backends.add(backend);
+
+        backend.setup();
+    }
+
+    /**
+     * Test of setPassword and getPassword methods, of class SecretServiceBackend.
+     */
+    @Test
+    public void testSetPassword() throws Exception {
+        //
+        SecretServiceBackend backend = newBackend();
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+        backend.setPassword(SERVICE, ACCOUNT, "second");
+
+        //
+        assertEquals("second", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals("second", newBackend().getPassword(SERVICE, ACCOUNT));
+        // each backend keeps one session
+        assertEquals(2, m_service.getCallCount("OpenSession"));
+    }
+
+    /**
+     * Test of getPassword method, of class SecretServiceBackend
+     * by retrieving a password which is not stored.
+     */
+    @Test(expected = PasswordRetrievalException.class)
+    public void testGetPassword_NotFound() throws Exception {
+        newBackend().getPassword(SERVICE, ACCOUNT);
+    }
+
+    /**
+     * Test of getPasswords and setPasswords methods, of class SecretServiceBackend
+     * by counting round trips to the bus.
+     */
+    @Test
+    public void testGetPasswords_RoundTrips() throws Exception {
+        //
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (int i = 0; i < 50; i++) {
+            passwords.put(new ServiceAccountKey(SERVICE, "account" + i), "password" + i);
+        }
+
+        SecretServiceBackend writer = newBackend();
+        long roundTrips = writer.getRoundTripCount();
+        writer.setPasswords(passwords);
+
+        assertEquals(1, writer.getRoundTripCount() - roundTrips);
+        assertEquals(50, m_service.getCallCount("CreateItem"));
+
+        // searches are pipelined, then all secrets are fetched at once
+        SecretServiceBackend reader = newBackend();
+        roundTrips = reader.getRoundTripCount();
+
+        assertEquals(passwords, reader.getPasswords(passwords.keySet()));
+        assertEquals(2, reader.getRoundTripCount() - roundTrips);
+        assertEquals(50, m_service.getCallCount("SearchItems"));
+        assertEquals(1, m_service.getCallCount("GetSecrets"));
+
+        // items found before are fetched by one GetSecrets call
+        roundTrips = reader.getRoundTripCount();
+
+        assertEquals(passwords, reader.getPasswords(passwords.keySet()));
+        assertEquals("password7", reader.getPassword(SERVICE, "account7"));
+        assertEquals(2, reader.getRoundTripCount() - roundTrips);
+        assertEquals(50, m_service.getCallCount("SearchItems"));
+    }
+
+    /**
+     * Test of getPassword method, of class SecretServiceBackend
+     * by retrieving a password whose item was replaced by another application.
+     */
+    @Test
+    public void testGetPassword_ReplacedItem() throws Exception {
+        //
+        SecretServiceBackend backend = newBackend();
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+        assertEquals("first", backend.getPassword(SERVICE, ACCOUNT));
+
+        //
+        m_service.delete(SERVICE, ACCOUNT);
+        newBackend().setPassword(SERVICE, ACCOUNT, "second");
+
+        assertEquals("second", backend.getPassword(SERVICE, ACCOUNT));
+
+        //
+        m_service.delete(SERVICE, ACCOUNT);
+        try {
+            backend.getPassword(SERVICE, ACCOUNT);
+            fail("PasswordRetrievalException expected");
+        } catch (PasswordRetrievalException ex) {
+            // expected
+        }
+    }
+
+    /**
+     * Test of getPassword method, of class SecretServiceBackend
+     * by retrieving a password of a locked item.
+     */
+    @Test
+    public void testGetPassword_LockedItem() throws Exception {
+        newBackend().setPassword(SERVICE, ACCOUNT, "first");
+        m_service.lock(SERVICE, ACCOUNT);
+
+        assertEquals("first", newBackend().getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, m_service.getCallCount("Unlock"));
+    }
+
+    /**
+     * Test of setPasswordBytes and getPasswordChars methods, of class SecretServiceBackend.
+     */
+    @Test
+    public void testSetPasswordBytes() throws Exception {
+        //
+        String password = "p\u00e4ssw\u00f6rd \u263a";
+        ByteBuffer bytes = ByteBuffer.wrap(password.getBytes("UTF-8"));
+
+        SecretServiceBackend backend = newBackend();
+        backend.setPasswordBytes(SERVICE, ACCOUNT, bytes);
+
+        //
+        assertEquals(0, bytes.position());
+        assertArrayEquals(password.toCharArray(), newBackend().getPasswordChars(SERVICE, ACCOUNT));
+        assertArrayEquals(password.getBytes("UTF-8"), backend.getPasswordBytes(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of close method, of class SecretServiceBackend.
+     */
+    @Test
+    public void testClose() throws Exception {
+        SecretServiceBackend backend = newBackend();
+        backend.setPassword(SERVICE, ACCOUNT, "first");
+        backend.close();
+
+        assertEquals("first", backend.getPassword(SERVICE, ACCOUNT));
+    }
+
+    private SecretServiceBackend newBackend() throws Exception {
+        SecretServiceBackend backend = new SecretServiceBackend(m_address);
+        m_backends.add(backend);
+
+        backend.setup();
+        return backend;
+    }
+
+    private static boolean isExecutable(String command) {
+        for (String directory : System.getenv("PATH").split(File.pathSeparator)) {
+            if (new File(directory, command).canExecute()) { return true; }
+        }
+
+        return false;
+    }
+
+    /**
+     *
+     */
+    private static final String SERVICE = "net.east301.keyring.secretservice unit test";
+
+    /**
+     *
+     */
+    private static final String ACCOUNT = "tester";
+
+    /**
+     * Backends created by each test
+     */
+    private final List<SecretServiceBackend> m_backends = new ArrayList<SecretServiceBackend>();
+
+    /**
+     * Secret Service used by each test
+     */
+    private FakeSecretService m_service;
+
+    /**
+     * Address of the private bus
+     */
+    private String m_address;
+
+} // class SecretServiceBackendTest
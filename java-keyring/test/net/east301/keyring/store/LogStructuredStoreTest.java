@@ -0,0 +1,464 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.east301.keyring.util.FileBasedLock;
+import net.east301.keyring.util.LockTimeoutException;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of LogStructuredStore class
+ */
+public class LogStructuredStoreTest {
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+        new File(m_file.getPath() + ".lock").delete();
+    }
+
+    /**
+     * Test of get method, of class LogStructuredStore
+     * by retrieving entry from empty file.
+     */
+    @Test
+    public void testGet_EmptyFile() throws Exception {
+        assertNull(newStore().get(KEY));
+    }
+
+    /**
+     * Test of put method, of class LogStructuredStore.
+     */
+    @Test
+    public void testPut() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+
+        //
+        store.put(KEY, bytes("first"));
+        store.put(KEY, bytes("second"));
+        store.put(OTHER_KEY, bytes("other"));
+
+        assertEquals("second", string(store.get(KEY)));
+        assertEquals("other", string(store.get(OTHER_KEY)));
+        assertEquals(2, store.size());
+    }
+
+    /**
+     * Test of putIfAbsent method, of class LogStructuredStore.
+     */
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        LogStructuredStore other = newStore();
+
+        //
+        assertNull(store.putIfAbsent(KEY, bytes("first")));
+        assertEquals("first", string(other.putIfAbsent(KEY, bytes("second"))));
+        assertEquals("first", string(other.get(KEY)));
+        assertEquals(1, store.size());
+    }
+
+    /**
+     * Test of get method, of class LogStructuredStore
+     * by reading entries appended by another instance.
+     */
+    @Test
+    public void testGet_AppendedByOtherInstance() throws Exception {
+        //
+        LogStructuredStore writer = newStore();
+        LogStructuredStore reader = newStore();
+
+        //
+        writer.put(KEY, bytes("first"));
+        assertEquals("first", string(reader.get(KEY)));
+
+        writer.put(KEY, bytes("second"));
+        writer.put(OTHER_KEY, bytes("other"));
+        assertEquals("second", string(reader.get(KEY)));
+        assertEquals("other", string(reader.get(OTHER_KEY)));
+    }
+
+    /**
+     * Test of compact method, of class LogStructuredStore.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        LogStructuredStore other = newStore();
+
+        for (int i = 0; i < 100; i++) {
+            store.put(KEY, bytes("value" + i));
+        }
+        store.put(OTHER_KEY, bytes("other"));
+        assertEquals("value99", string(other.get(KEY)));
+
+        long sizeBeforeCompaction = m_file.length();
+
+        //
+        store.compact();
+
+        assertTrue(m_file.length() < sizeBeforeCompaction);
+        assertEquals(0, store.getGarbageBytes());
+        assertEquals("value99", string(store.get(KEY)));
+        assertEquals("other", string(store.get(OTHER_KEY)));
+
+        // the other instance notices that the file was rewritten
+        assertEquals("value99", string(other.get(KEY)));
+        assertEquals(2, other.size());
+    }
+
+    /**
+     * Test of get method, of class LogStructuredStore
+     * by reading a file whose last record is incomplete.
+     */
+    @Test
+    public void testGet_TruncatedRecord() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        store.put(KEY, bytes("first"));
+        store.put(OTHER_KEY, bytes("other"));
+
+        //
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        try {
+            file.setLength(file.length() - 3);
+        } finally {
+            file.close();
+        }
+
+        //
+        LogStructuredStore recovered = newStore();
+        assertEquals("first", string(recovered.get(KEY)));
+        assertNull(recovered.get(OTHER_KEY));
+
+        recovered.put(OTHER_KEY, bytes("again"));
+        assertEquals("again", string(newStore().get(OTHER_KEY)));
+    }
+
+    /**
+     * Test of setLegacyReader method, of class LogStructuredStore.
+     */
+    @Test
+    public void testSetLegacyReader() throws Exception {
+        //
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        try {
+            file.write(new byte[64]);
+        } finally {
+            file.close();
+        }
+
+        //
+        LogStructuredStore store = newStore();
+        store.setLegacyReader(new LegacyStoreReader() {
+            @Override
+            public Map<ServiceAccountKey, byte[]> read(String path) {
+                Map<ServiceAccountKey, byte[]> entries = new HashMap<ServiceAccountKey, byte[]>();
+                entries.put(KEY, bytes("legacy"));
+                return entries;
+            }
+        });
+
+        //
+        assertEquals("legacy", string(store.get(KEY)));
+        assertEquals("legacy", string(newStore().get(KEY)));
+    }
+
+    /**
+     * Test of get method, of class LogStructuredStore
+     * by reading a file of unknown format.
+     */
+    @Test(expected = IOException.class)
+    public void testGet_UnknownFormat() throws Exception {
+        //
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        try {
+            file.write(new byte[64]);
+        } finally {
+            file.close();
+        }
+
+        //
+        newStore().get(KEY);
+    }
+
+    /**
+     * Test of putAll and getAll methods, of class LogStructuredStore.
+     */
+    @Test
+    public void testPutAll() throws Exception {
+        //
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (int i = 0; i < 300; i++) {
+            entries.put(new ServiceAccountKey("service" + i, "tester"), bytes("value" + i));
+        }
+
+        //
+        newStore().putAll(entries);
+
+        List<ServiceAccountKey> keys = new ArrayList<ServiceAccountKey>(entries.keySet());
+        keys.add(new ServiceAccountKey("service300", "tester"));
+        Map<ServiceAccountKey, byte[]> values = newStore().getAll(keys);
+
+        assertEquals(300, values.size());
+        assertEquals("value299", string(values.get(new ServiceAccountKey("service299", "tester"))));
+    }
+
+    /**
+     * Test of getChangeStamp method, of class LogStructuredStore.
+     */
+    @Test
+    public void testGetChangeStamp() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        LogStructuredStore other = newStore();
+        m_file.delete();
+
+        assertEquals(0, store.getChangeStamp());
+
+        //
+        other.put(KEY, bytes("first"));
+        long first = store.getChangeStamp();
+        assertTrue(first != 0);
+        assertEquals(first, store.getChangeStamp());
+
+        other.put(KEY, bytes("second"));
+        long second = store.getChangeStamp();
+        assertTrue(second != first);
+
+        // rewritten by another instance, then modified again
+        other.compact();
+        long compacted = store.getChangeStamp();
+        assertTrue(compacted != second);
+
+        other.put(OTHER_KEY, bytes("other"));
+        assertTrue(store.getChangeStamp() != compacted);
+        assertEquals(other.getChangeStamp(), store.getChangeStamp());
+    }
+
+    /**
+     * Test of getForeignChangeStamp method, of class LogStructuredStore.
+     */
+    @Test
+    public void testGetForeignChangeStamp() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        LogStructuredStore other = newStore();
+        m_file.delete();
+
+        long stamp = store.getForeignChangeStamp();
+        assertEquals(stamp, store.getForeignChangeStamp());
+
+        // writes and rewrites through the same instance
+        store.put(KEY, bytes("first"));
+        store.put(KEY, bytes("second"));
+        store.compact();
+        assertEquals(stamp, store.getForeignChangeStamp());
+        assertEquals("second", string(store.get(KEY)));
+
+        // writes through another instance, seen before and by the next write
+        other.put(KEY, bytes("third"));
+        long changed = store.getForeignChangeStamp();
+        assertTrue(changed != stamp);
+
+        other.put(KEY, bytes("fourth"));
+        store.put(OTHER_KEY, bytes("other"));
+        assertTrue(store.getForeignChangeStamp() != changed);
+    }
+
+    /**
+     * Test of setDurability method, of class LogStructuredStore.
+     */
+    @Test
+    public void testSetDurability() throws Exception {
+        for (Durability durability : Durability.values()) {
+            m_file.delete();
+
+            LogStructuredStore store = newStore();
+            store.setDurability(durability);
+            store.put(KEY, bytes(durability.name()));
+
+            assertEquals(durability.name(), string(newStore().get(KEY)));
+            store.close();
+        }
+    }
+
+    /**
+     * Test of put method, of class LogStructuredStore
+     * by writing from threads which wait for the store at the same time.
+     */
+    @Test
+    public void testPut_GroupCommit() throws Exception {
+        //
+        final LogStructuredStore store = newStore();
+        List<Thread> writers = new ArrayList<Thread>();
+
+        synchronized (store) {
+            for (int i = 0; i < 8; i++) {
+                final ServiceAccountKey key = new ServiceAccountKey("service" + i, "tester");
+                Thread writer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            store.put(key, bytes(key.getService()));
+                        } catch (Exception ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                });
+                writer.start();
+                writers.add(writer);
+            }
+
+            // writers queue their entries before they wait for the store
+            for (Thread writer : writers) {
+                while (writer.getState() != Thread.State.BLOCKED) { Thread.sleep(1); }
+            }
+        }
+
+        //
+        for (Thread writer : writers) { writer.join(); }
+
+        assertEquals(1, store.getGroupCount());
+        for (int i = 0; i < 8; i++) {
+            assertEquals("service" + i, string(newStore().get(new ServiceAccountKey("service" + i, "tester"))));
+        }
+    }
+
+    /**
+     * Test of close method, of class LogStructuredStore.
+     */
+    @Test
+    public void testClose() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        store.put(KEY, bytes("first"));
+        store.close();
+
+        assertEquals("first", string(store.get(KEY)));
+
+        // the file is reopened when it was replaced while the store kept it open
+        LogStructuredStore other = newStore();
+        assertTrue(m_file.delete());
+        other.put(KEY, bytes("second"));
+
+        assertEquals("second", string(store.get(KEY)));
+        store.close();
+        other.close();
+    }
+
+    /**
+     * Test of setLockTimeout method, of class LogStructuredStore.
+     */
+    @Test
+    public void testSetLockTimeout() throws Exception {
+        //
+        LogStructuredStore store = newStore();
+        store.put(KEY, bytes("first"));
+        store.setLockTimeout(50, TimeUnit.MILLISECONDS);
+
+        //
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FileBasedLock lock = new FileBasedLock(m_file.getPath() + ".lock");
+                try {
+                    lock.lock();
+                    locked.countDown();
+                    release.await();
+                    lock.release();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        holder.setDaemon(true);
+        holder.start();
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        //
+        try {
+            store.get(KEY);
+            fail("LockTimeoutException expected");
+        } catch (LockTimeoutException ex) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+
+        holder.join();
+        assertEquals("first", string(store.get(KEY)));
+    }
+
+    private LogStructuredStore newStore() {
+        return new LogStructuredStore(m_file.getPath(), m_file.getPath() + ".lock");
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String string(byte[] value) throws IOException {
+        return value == null ? null : new String(value, "UTF-8");
+    }
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "tester");
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey OTHER_KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "other tester");
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_PREFIX = "keystore";
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_SUFFIX = ".keystore";
+
+    /**
+     * Key store file used by each test
+     */
+    private File m_file;
+
+} // class LogStructuredStoreTest
@@ -0,0 +1,263 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of MappedHashStore class
+ */
+public class MappedHashStoreTest {
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+        new File(m_file.getPath() + ".lock").delete();
+    }
+
+    /**
+     * Test of get method, of class MappedHashStore
+     * by retrieving entry from empty file.
+     */
+    @Test
+    public void testGet_EmptyFile() throws Exception {
+        assertNull(newStore().get(KEY));
+        assertEquals(0, newStore().size());
+    }
+
+    /**
+     * Test of put method, of class MappedHashStore.
+     */
+    @Test
+    public void testPut() throws Exception {
+        //
+        MappedHashStore store = newStore();
+
+        //
+        store.put(KEY, bytes("first"));
+        store.put(KEY, bytes("second"));
+        store.put(OTHER_KEY, bytes("other"));
+
+        assertEquals("second", string(store.get(KEY)));
+        assertEquals("other", string(store.get(OTHER_KEY)));
+        assertEquals(2, store.size());
+        assertEquals(StoreFormat.MAPPED_HASH, StoreFormat.detect(m_file.getPath()));
+    }
+
+    /**
+     * Test of put method, of class MappedHashStore
+     * by storing enough entries to grow the hash table several times.
+     */
+    @Test
+    public void testPut_ManyEntries() throws Exception {
+        //
+        MappedHashStore store = newStore();
+        for (int i = 0; i < 2000; i++) {
+            store.put(new ServiceAccountKey("service" + i, "tester"), bytes("value" + i));
+        }
+
+        //
+        MappedHashStore reader = newStore();
+        assertEquals(2000, reader.size());
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("value" + i, string(reader.get(new ServiceAccountKey("service" + i, "tester"))));
+        }
+        assertNull(reader.get(new ServiceAccountKey("service2000", "tester")));
+    }
+
+    /**
+     * Test of get method, of class MappedHashStore
+     * by reading entries written by another instance.
+     */
+    @Test
+    public void testGet_WrittenByOtherInstance() throws Exception {
+        //
+        MappedHashStore writer = newStore();
+        MappedHashStore reader = newStore();
+
+        //
+        writer.put(KEY, bytes("first"));
+        assertEquals("first", string(reader.get(KEY)));
+
+        writer.put(KEY, bytes("second"));
+        writer.put(OTHER_KEY, bytes("other"));
+        assertEquals("second", string(reader.get(KEY)));
+        assertEquals("other", string(reader.get(OTHER_KEY)));
+    }
+
+    /**
+     * Test of compact method, of class MappedHashStore.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        //
+        MappedHashStore store = newStore();
+        MappedHashStore other = newStore();
+
+        for (int i = 0; i < 100; i++) {
+            store.put(KEY, bytes("value" + i));
+        }
+        store.put(OTHER_KEY, bytes("other"));
+        assertEquals("value99", string(other.get(KEY)));
+        assertTrue(store.getGarbageBytes() > 0);
+
+        //
+        store.compact();
+
+        assertEquals(0, store.getGarbageBytes());
+        assertEquals("value99", string(store.get(KEY)));
+        assertEquals("other", string(store.get(OTHER_KEY)));
+
+        // the other instance notices that the file was replaced
+        assertEquals("value99", string(other.get(KEY)));
+        assertEquals(2, other.size());
+    }
+
+    /**
+     * Test of setLegacyReader method, of class MappedHashStore.
+     */
+    @Test
+    public void testSetLegacyReader() throws Exception {
+        //
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        try {
+            file.write(new byte[128]);
+        } finally {
+            file.close();
+        }
+
+        //
+        MappedHashStore store = newStore();
+        store.setLegacyReader(new LegacyStoreReader() {
+            @Override
+            public Map<ServiceAccountKey, byte[]> read(String path) {
+                Map<ServiceAccountKey, byte[]> entries = new HashMap<ServiceAccountKey, byte[]>();
+                entries.put(KEY, bytes("legacy"));
+                return entries;
+            }
+        });
+
+        //
+        assertEquals("legacy", string(store.get(KEY)));
+        assertEquals("legacy", string(newStore().get(KEY)));
+    }
+
+    /**
+     * Test of putAll and getAll methods, of class MappedHashStore.
+     */
+    @Test
+    public void testPutAll() throws Exception {
+        //
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (int i = 0; i < 300; i++) {
+            entries.put(new ServiceAccountKey("service" + i, "tester"), bytes("value" + i));
+        }
+
+        //
+        newStore().putAll(entries);
+
+        List<ServiceAccountKey> keys = new ArrayList<ServiceAccountKey>(entries.keySet());
+        keys.add(new ServiceAccountKey("service300", "tester"));
+        Map<ServiceAccountKey, byte[]> values = newStore().getAll(keys);
+
+        assertEquals(300, values.size());
+        assertEquals("value299", string(values.get(new ServiceAccountKey("service299", "tester"))));
+    }
+
+    /**
+     * Test of getChangeStamp method, of class MappedHashStore.
+     */
+    @Test
+    public void testGetChangeStamp() throws Exception {
+        //
+        MappedHashStore store = newStore();
+        MappedHashStore other = newStore();
+        m_file.delete();
+
+        assertEquals(0, store.getChangeStamp());
+
+        //
+        other.put(KEY, bytes("first"));
+        long first = store.getChangeStamp();
+        assertTrue(first != 0);
+        assertEquals(first, store.getChangeStamp());
+
+        other.put(KEY, bytes("second"));
+        long second = store.getChangeStamp();
+        assertTrue(second != first);
+
+        // rewritten by another instance, then modified again
+        other.compact();
+        long compacted = store.getChangeStamp();
+        assertTrue(compacted != second);
+
+        other.put(OTHER_KEY, bytes("other"));
+        assertTrue(store.getChangeStamp() != compacted);
+        assertEquals(other.getChangeStamp(), store.getChangeStamp());
+    }
+
+    private MappedHashStore newStore() {
+        return new MappedHashStore(m_file.getPath(), m_file.getPath() + ".lock");
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String string(byte[] value) throws IOException {
+        return value == null ? null : new String(value, "UTF-8");
+    }
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "tester");
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey OTHER_KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "other tester");
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_PREFIX = "keystore";
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_SUFFIX = ".keystore";
+
+    /**
+     * Key store file used by each test
+     */
+    private File m_file;
+
+} // class MappedHashStoreTest
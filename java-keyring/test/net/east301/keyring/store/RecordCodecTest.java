@@ -0,0 +1,89 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of RecordCodec class
+ */
+public class RecordCodecTest {
+
+    /**
+     * Test of encode method, of class RecordCodec.
+     */
+    @Test
+    public void testEncode() {
+        //
+        RecordCodec codec = new RecordCodec();
+        ServiceAccountKey key = new ServiceAccountKey("s\u00e9rvice \u6771", "acc\ud83d\udd11ount");
+        byte[] value = new byte[] { 1, 2, 3 };
+
+        //
+        ByteBuffer record = codec.encode(key, value);
+        Records.Record decoded = Records.decode(record, 0, record.limit());
+
+        assertNotNull(decoded);
+        assertEquals(key, decoded.key);
+        assertEquals(record.limit(), decoded.length);
+        assertEquals(3, decoded.valueLength);
+        assertEquals(record.limit(), Records.validate(record, 0, record.limit()));
+        assertEquals(decoded.valueOffset, Records.valueOffset(record, 0));
+        assertTrue(Records.matches(record, 0, codec.encodeKey(key)));
+        assertFalse(Records.matches(record, 0, codec.encodeKey(new ServiceAccountKey("service", "account"))));
+    }
+
+    /**
+     * Test of encode method, of class RecordCodec
+     * by encoding records larger than the initial buffer.
+     */
+    @Test
+    public void testEncode_LargeRecord() {
+        //
+        RecordCodec codec = new RecordCodec();
+        char[] name = new char[1000];
+        Arrays.fill(name, '\u00e9');
+        ServiceAccountKey key = new ServiceAccountKey(new String(name), "account");
+        byte[] value = new byte[5000];
+        Arrays.fill(value, (byte)7);
+
+        //
+        ByteBuffer record = codec.encode(key, value);
+        Records.Record decoded = Records.decode(record, 0, record.limit());
+
+        assertNotNull(decoded);
+        assertEquals(key, decoded.key);
+        assertEquals(5000, decoded.valueLength);
+        assertEquals(7, record.get(decoded.valueOffset + 4999));
+
+        // the buffer is reused for smaller records
+        ByteBuffer small = codec.encode(new ServiceAccountKey("service", "account"), new byte[0]);
+        assertNotNull(Records.decode(small, 0, small.limit()));
+    }
+
+    /**
+     * Test of decode method, of class Records
+     * by decoding a record with a flipped bit.
+     */
+    @Test
+    public void testDecode_Corrupted() {
+        //
+        ByteBuffer record = new RecordCodec().encode(
+                new ServiceAccountKey("service", "account"), new byte[] { 1, 2, 3 });
+        record.put(10, (byte)(record.get(10) ^ 1));
+
+        //
+        assertNull(Records.decode(record, 0, record.limit()));
+        assertEquals(-1, Records.validate(record, 0, record.limit()));
+        assertNull(Records.decode(record, 0, record.limit() - 1));
+    }
+
+} // class RecordCodecTest
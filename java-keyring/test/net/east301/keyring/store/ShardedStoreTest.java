@@ -0,0 +1,326 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.east301.keyring.util.ServiceAccountKey;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of ShardedStore class
+ */
+public class ShardedStoreTest {
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = m_file.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) { return; }
+
+        for (File file : files) {
+            if (file.getName().startsWith(m_file.getName())) { file.delete(); }
+        }
+    }
+
+    /**
+     * Test of get method, of class ShardedStore
+     * by retrieving entry from empty file.
+     */
+    @Test
+    public void testGet_EmptyFile() throws Exception {
+        assertNull(newStore(4).get(KEY));
+        assertEquals(0, newStore(4).size());
+        assertEquals(0, newStore(4).getChangeStamp());
+    }
+
+    /**
+     * Test of put method, of class ShardedStore.
+     */
+    @Test
+    public void testPut() throws Exception {
+        //
+        ShardedStore store = newStore(4);
+        for (int i = 0; i < 100; i++) {
+            store.put(key(i), bytes("value" + i));
+        }
+        store.put(key(7), bytes("updated"));
+
+        //
+        ShardedStore other = newStore(1);
+        assertEquals(StoreFormat.SHARDED, StoreFormat.detect(m_file.getPath()));
+        assertEquals(4, other.getShardCount());
+        assertEquals(100, other.size());
+        assertEquals("value99", string(other.get(key(99))));
+        assertEquals("updated", string(other.get(key(7))));
+
+        // entries are spread over all shards
+        for (int i = 0; i < 4; i++) {
+            assertTrue(new File(store.shardPath(1, i)).length() > 0);
+        }
+    }
+
+    /**
+     * Test of putIfAbsent method, of class ShardedStore.
+     */
+    @Test
+    public void testPutIfAbsent() throws Exception {
+        ShardedStore store = newStore(4);
+
+        assertNull(store.putIfAbsent(KEY, bytes("first")));
+        assertEquals("first", string(newStore(4).putIfAbsent(KEY, bytes("second"))));
+        assertEquals("first", string(store.get(KEY)));
+    }
+
+    /**
+     * Test of putAll and getAll methods, of class ShardedStore.
+     */
+    @Test
+    public void testPutAll() throws Exception {
+        //
+        Map<ServiceAccountKey, byte[]> entries = new LinkedHashMap<ServiceAccountKey, byte[]>();
+        for (int i = 0; i < 300; i++) {
+            entries.put(key(i), bytes("value" + i));
+        }
+
+        newStore(8).putAll(entries);
+
+        //
+        List<ServiceAccountKey> keys = new ArrayList<ServiceAccountKey>();
+        for (int i = 300; i >= 0; i--) {
+            keys.add(key(i));
+        }
+
+        Map<ServiceAccountKey, byte[]> values = newStore(8).getAll(keys);
+
+        assertEquals(300, values.size());
+        assertEquals(key(299), values.keySet().iterator().next());
+        assertEquals("value0", string(values.get(key(0))));
+    }
+
+    /**
+     * Test of reshard method, of class ShardedStore.
+     */
+    @Test
+    public void testReshard() throws Exception {
+        //
+        ShardedStore store = newStore(4);
+        ShardedStore other = newStore(4);
+
+        for (int i = 0; i < 200; i++) {
+            store.put(key(i), bytes("value" + i));
+        }
+        assertEquals("value1", string(other.get(key(1))));
+
+        //
+        store.reshard(7);
+
+        assertEquals(7, store.getShardCount());
+        assertEquals(200, store.size());
+        assertFalse(new File(store.shardPath(1, 0)).exists());
+        assertTrue(new File(store.shardPath(2, 6)).exists());
+
+        // the other store switches to the new shards
+        assertEquals(7, other.getShardCount());
+        assertEquals("value150", string(other.get(key(150))));
+
+        other.put(key(150), bytes("updated"));
+        assertEquals("updated", string(store.get(key(150))));
+
+        //
+        other.reshard(1);
+        assertEquals(200, store.size());
+        assertEquals("updated", string(store.get(key(150))));
+        assertEquals("value0", string(newStore(4).get(key(0))));
+    }
+
+    /**
+     * Test of put method, of class ShardedStore
+     * by writing from threads at the same time.
+     */
+    @Test
+    public void testPut_Threads() throws Exception {
+        //
+        final ShardedStore store = newStore(4);
+        List<Thread> writers = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; t++) {
+            final int first = t * 25;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = first; i < first + 25; i++) {
+                            store.put(key(i), bytes("value" + i));
+                        }
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+
+        // reshards while the threads write
+        store.reshard(3);
+
+        for (Thread writer : writers) { writer.join(); }
+
+        //
+        assertEquals(200, newStore(4).size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("value" + i, string(store.get(key(i))));
+        }
+    }
+
+    /**
+     * Test of getChangeStamp method, of class ShardedStore.
+     */
+    @Test
+    public void testGetChangeStamp() throws Exception {
+        //
+        ShardedStore store = newStore(4);
+        store.put(KEY, bytes("first"));
+
+        long stamp = newStore(4).getChangeStamp();
+        assertTrue(stamp != 0);
+        assertEquals(stamp, store.getChangeStamp());
+
+        //
+        store.put(OTHER_KEY, bytes("other"));
+        assertTrue(stamp != store.getChangeStamp());
+
+        stamp = store.getChangeStamp();
+        store.reshard(2);
+        assertTrue(stamp != store.getChangeStamp());
+    }
+
+    /**
+     * Test of compact method, of class ShardedStore.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        //
+        ShardedStore store = newStore(2);
+        for (int i = 0; i < 50; i++) {
+            store.put(KEY, bytes("value" + i));
+        }
+
+        File shard = new File(store.shardPath(1, ShardedStore.shardOf(KEY, 2)));
+        long length = shard.length();
+
+        //
+        store.compact();
+
+        assertTrue(shard.length() < length);
+        assertEquals("value49", string(newStore(2).get(KEY)));
+    }
+
+    /**
+     * Test of setLegacyReader method, of class ShardedStore.
+     */
+    @Test
+    public void testSetLegacyReader() throws Exception {
+        //
+        RandomAccessFile file = new RandomAccessFile(m_file, "rw");
+        try {
+            file.write(new byte[64]);
+        } finally {
+            file.close();
+        }
+
+        //
+        ShardedStore store = newStore(4);
+        store.setLegacyReader(new LegacyStoreReader() {
+            @Override
+            public Map<ServiceAccountKey, byte[]> read(String path) {
+                Map<ServiceAccountKey, byte[]> entries = new HashMap<ServiceAccountKey, byte[]>();
+                entries.put(KEY, bytes("legacy"));
+                return entries;
+            }
+        });
+
+        //
+        assertEquals("legacy", string(store.get(KEY)));
+        assertEquals(StoreFormat.SHARDED, StoreFormat.detect(m_file.getPath()));
+        assertEquals("legacy", string(newStore(4).get(KEY)));
+    }
+
+    /**
+     * Test of get method, of class ShardedStore
+     * by reading a file of another store format.
+     */
+    @Test(expected = IOException.class)
+    public void testGet_NotSharded() throws Exception {
+        new LogStructuredStore(m_file.getPath(), m_file.getPath() + ".lock").put(KEY, bytes("first"));
+
+        newStore(4).get(KEY);
+    }
+
+    private ShardedStore newStore(int shardCount) {
+        return new ShardedStore(m_file.getPath(), m_file.getPath() + ".lock",
+                shardCount, StoreFormat.LOG_STRUCTURED);
+    }
+
+    private static ServiceAccountKey key(int index) {
+        return new ServiceAccountKey("service" + index, "tester");
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static String string(byte[] value) throws IOException {
+        return value == null ? null : new String(value, "UTF-8");
+    }
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "tester");
+
+    /**
+     *
+     */
+    private static final ServiceAccountKey OTHER_KEY =
+            new ServiceAccountKey("net.east301.keyring.store unit test", "other tester");
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_PREFIX = "keystore";
+
+    /**
+     *
+     */
+    private static final String KEYSTORE_SUFFIX = ".keystore";
+
+    /**
+     * Key store file used by each test
+     */
+    private File m_file;
+
+} // class ShardedStoreTest
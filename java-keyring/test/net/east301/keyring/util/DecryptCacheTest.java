@@ -0,0 +1,118 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of DecryptCache class
+ */
+public class DecryptCacheTest {
+
+    /**
+     * Test of get method, of class DecryptCache.
+     */
+    @Test
+    public void testGet() {
+        //
+        DecryptCache cache = new DecryptCache(10, 1, TimeUnit.MINUTES);
+        assertNull(cache.get(CIPHERTEXT));
+
+        //
+        char[] plaintext = "password".toCharArray();
+        cache.put(CIPHERTEXT, plaintext);
+        Arrays.fill(plaintext, '\0');
+
+        char[] cached = cache.get(CIPHERTEXT);
+        assertArrayEquals("password".toCharArray(), cached);
+
+        // callers get copies which they may zero
+        Arrays.fill(cached, '\0');
+        assertArrayEquals("password".toCharArray(), cache.get(CIPHERTEXT));
+        assertNull(cache.get(new byte[] { 1, 2, 3, 5 }));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    /**
+     * Test of get method, of class DecryptCache
+     * by retrieving an expired entry.
+     */
+    @Test
+    public void testGet_Expired() {
+        //
+        ManualClockCache cache = new ManualClockCache(10, 100);
+        cache.put(CIPHERTEXT, "password".toCharArray());
+
+        //
+        cache.m_now = 99;
+        assertNotNull(cache.get(CIPHERTEXT));
+
+        cache.m_now = 100;
+        assertNull(cache.get(CIPHERTEXT));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Test of put method, of class DecryptCache
+     * by storing more entries than maxEntries.
+     */
+    @Test
+    public void testPut_Eviction() {
+        //
+        DecryptCache cache = new DecryptCache(2, 1, TimeUnit.MINUTES);
+        cache.put(new byte[] { 1 }, "first".toCharArray());
+        cache.put(new byte[] { 2 }, "second".toCharArray());
+
+        assertNotNull(cache.get(new byte[] { 1 }));
+        cache.put(new byte[] { 3 }, "third".toCharArray());
+
+        //
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull(cache.get(new byte[] { 2 }));
+        assertArrayEquals("first".toCharArray(), cache.get(new byte[] { 1 }));
+    }
+
+    /**
+     * Test of clear method, of class DecryptCache.
+     */
+    @Test
+    public void testClear() {
+        DecryptCache cache = new DecryptCache(10, 1, TimeUnit.MINUTES);
+        cache.put(CIPHERTEXT, "password".toCharArray());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(CIPHERTEXT));
+    }
+
+    /**
+     * DecryptCache whose clock is set by tests
+     */
+    private static class ManualClockCache extends DecryptCache {
+
+        ManualClockCache(int maxEntries, long ttlNanos) {
+            super(maxEntries, ttlNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        protected long now() {
+            return m_now;
+        }
+
+        long m_now;
+
+    } // class ManualClockCache
+
+    private static final byte[] CIPHERTEXT = new byte[] { 1, 2, 3, 4 };
+
+} // class DecryptCacheTest
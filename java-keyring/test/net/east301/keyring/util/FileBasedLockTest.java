@@ -0,0 +1,281 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of FileBasedLock class
+ */
+public class FileBasedLockTest {
+
+    @Before
+    public void setUp() throws Exception {
+        m_file = File.createTempFile(LOCK_PREFIX, LOCK_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    /**
+     * Test of lock method, of class FileBasedLock.
+     */
+    @Test
+    public void testLock() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        assertFalse(lock.isLocked());
+
+        //
+        lock.lock();
+        assertTrue(lock.isLocked());
+        assertFalse(lock.isShared());
+
+        lock.release();
+        assertFalse(lock.isLocked());
+
+        // released locks can be obtained again
+        lock.lockShared();
+        assertTrue(lock.isShared());
+        lock.release();
+    }
+
+    /**
+     * Test of lock method, of class FileBasedLock
+     * by locking an instance twice.
+     */
+    @Test(expected = LockException.class)
+    public void testLock_AlreadyLocked() throws Exception {
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        lock.lock();
+        try {
+            lock.lockShared();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Test of lockShared method, of class FileBasedLock
+     * by locking from two threads at the same time.
+     */
+    @Test
+    public void testLockShared_Concurrent() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        lock.lockShared();
+
+        //
+        try {
+            CountDownLatch locked = lockInOtherThread(true);
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Test of lock method, of class FileBasedLock
+     * by locking in shared mode while another thread holds the lock exclusively.
+     */
+    @Test
+    public void testLock_ExcludesShared() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        lock.lock();
+
+        CountDownLatch locked;
+        try {
+            locked = lockInOtherThread(true);
+            assertFalse(locked.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.release();
+        }
+
+        //
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test of lockShared method, of class FileBasedLock
+     * by locking exclusively while another thread holds the lock in shared mode.
+     */
+    @Test
+    public void testLockShared_ExcludesExclusive() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        lock.lockShared();
+
+        CountDownLatch locked;
+        try {
+            locked = lockInOtherThread(false);
+            assertFalse(locked.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.release();
+        }
+
+        //
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Test of close method, of class FileBasedLock.
+     */
+    @Test
+    public void testClose() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        lock.lock();
+        lock.close();
+        assertFalse(lock.isLocked());
+
+        // closed handles are reopened when locked again
+        lock.lockShared();
+        lock.release();
+
+        // the lock file is recreated when it was deleted while the handle was open
+        assertTrue(m_file.delete());
+        lock.lock();
+        assertTrue(m_file.exists());
+        lock.close();
+    }
+
+    /**
+     * Test of tryLock method, of class FileBasedLock.
+     */
+    @Test
+    public void testTryLock() throws Exception {
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        assertTrue(lock.tryLock());
+        lock.release();
+
+        assertTrue(lock.tryLockShared(10, TimeUnit.MILLISECONDS));
+        lock.release();
+
+        //
+        LockStatistics statistics = FileBasedLock.getStatistics(m_file.getPath());
+        assertEquals(2, statistics.getAcquireCount());
+        assertEquals(0, statistics.getContentionCount());
+        assertEquals(0, statistics.getTimeoutCount());
+    }
+
+    /**
+     * Test of tryLock method, of class FileBasedLock
+     * while another thread holds the lock.
+     */
+    @Test
+    public void testTryLock_Held() throws Exception {
+        //
+        final CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch locked = holdInOtherThread(release);
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        //
+        FileBasedLock lock = new FileBasedLock(m_file.getPath());
+        try {
+            assertFalse(lock.tryLock());
+            assertFalse(lock.tryLockShared());
+
+            long start = System.nanoTime();
+            assertFalse(lock.tryLock(50, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+            assertFalse(lock.isLocked());
+        } finally {
+            release.countDown();
+        }
+
+        //
+        assertTrue(lock.tryLock(5, TimeUnit.SECONDS));
+        lock.release();
+
+        LockStatistics statistics = FileBasedLock.getStatistics(m_file.getPath());
+        assertEquals(3, statistics.getTimeoutCount());
+        assertEquals(2, statistics.getAcquireCount());
+        assertTrue(statistics.getContentionCount() >= 3);
+        assertTrue(statistics.getWaitTime(TimeUnit.MILLISECONDS) >= 50);
+    }
+
+    /**
+     * Obtains the lock exclusively on another thread, and holds it until release is counted down
+     *
+     * @return  Latch which is counted down once the lock is obtained
+     */
+    private CountDownLatch holdInOtherThread(final CountDownLatch release) {
+        final CountDownLatch locked = new CountDownLatch(1);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FileBasedLock lock = new FileBasedLock(m_file.getPath());
+                try {
+                    lock.lock();
+                    locked.countDown();
+                    release.await();
+                    lock.release();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        return locked;
+    }
+
+    /**
+     * Obtains and releases a lock of the same file on another thread
+     *
+     * @param shared    True to lock in shared mode
+     *
+     * @return  Latch which is counted down once the lock is obtained
+     */
+    private CountDownLatch lockInOtherThread(final boolean shared) {
+        final CountDownLatch locked = new CountDownLatch(1);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FileBasedLock lock = new FileBasedLock(m_file.getPath());
+                try {
+                    if (shared) {
+                        lock.lockShared();
+                    } else {
+                        lock.lock();
+                    }
+
+                    locked.countDown();
+                    lock.release();
+                } catch (LockException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        return locked;
+    }
+
+    /**
+     * Lock file
+     */
+    private File m_file;
+
+    private static final String LOCK_PREFIX = "java-keyring-test";
+    private static final String LOCK_SUFFIX = ".lock";
+
+} // class FileBasedLockTest
@@ -0,0 +1,67 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+import com.sun.jna.Memory;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.PointerByReference;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of NativeReferences class
+ */
+public class NativeReferencesTest {
+
+    /**
+     * Test of pointer method, of class NativeReferences.
+     */
+    @Test
+    public void testPointer() throws Exception {
+        //
+        PointerByReference reference = NativeReferences.pointer();
+        assertNull(reference.getValue());
+
+        reference.setValue(new Memory(8));
+
+        //
+        assertSame(reference, NativeReferences.pointer());
+        assertNull(reference.getValue());
+        assertNotSame(reference, pointerOfOtherThread());
+    }
+
+    /**
+     * Test of integer method, of class NativeReferences.
+     */
+    @Test
+    public void testInteger() {
+        IntByReference reference = NativeReferences.integer();
+        assertEquals(0, reference.getValue());
+
+        reference.setValue(42);
+
+        assertSame(reference, NativeReferences.integer());
+        assertEquals(0, reference.getValue());
+    }
+
+    private static PointerByReference pointerOfOtherThread() throws InterruptedException {
+        final AtomicReference<PointerByReference> result = new AtomicReference<PointerByReference>();
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(NativeReferences.pointer());
+            }
+        });
+        thread.start();
+        thread.join();
+
+        return result.get();
+    }
+
+} // class NativeReferencesTest
@@ -0,0 +1,101 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of NativeResourceTracker class
+ */
+public class NativeResourceTrackerTest {
+
+    /**
+     * Test of track and close methods, of class NativeResourceTracker.Scope.
+     */
+    @Test
+    public void testClose() {
+        //
+        NativeResourceTracker tracker = new NativeResourceTracker();
+        NativeResourceTracker.Scope scope = tracker.open();
+
+        Pointer first = new Memory(8);
+        Pointer second = new Memory(8);
+        assertSame(first, scope.track(first, m_releaser));
+        assertSame(second, scope.track(second, m_releaser));
+        assertNull(scope.track(null, m_releaser));
+
+        assertEquals(2, tracker.getStatistics().getOutstandingCount());
+
+        //
+        scope.close();
+
+        assertEquals(2, m_released.size());
+        assertSame(second, m_released.get(0));
+        assertSame(first, m_released.get(1));
+        assertEquals(2, tracker.getStatistics().getAllocatedCount());
+        assertEquals(0, tracker.getStatistics().getOutstandingCount());
+
+        // resources are freed once
+        scope.close();
+        assertEquals(2, m_released.size());
+    }
+
+    /**
+     * Test of close method, of class NativeResourceTracker.Scope
+     * by releasing a resource whose releaser throws.
+     */
+    @Test
+    public void testClose_ReleaserThrows() {
+        //
+        NativeResourceTracker tracker = new NativeResourceTracker();
+        NativeResourceTracker.Scope scope = tracker.open();
+
+        scope.track(new Memory(8), m_releaser);
+        scope.track(new Memory(8), new NativeResourceTracker.Releaser() {
+            @Override
+            public void release(Pointer resource) {
+                throw new IllegalStateException("release failed");
+            }
+        });
+
+        //
+        try {
+            scope.close();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        assertEquals(1, m_released.size());
+
+        NativeResourceStatistics statistics = tracker.getStatistics();
+        assertEquals(2, statistics.getAllocatedCount());
+        assertEquals(1, statistics.getFreedCount());
+        assertEquals(1, statistics.getOutstandingCount());
+    }
+
+    /**
+     * Resources released by m_releaser, in order
+     */
+    private final List<Pointer> m_released = new ArrayList<Pointer>();
+
+    /**
+     * Releaser which records resources
+     */
+    private final NativeResourceTracker.Releaser m_releaser = new NativeResourceTracker.Releaser() {
+        @Override
+        public void release(Pointer resource) {
+            m_released.add(resource);
+        }
+    };
+
+} // class NativeResourceTrackerTest
@@ -0,0 +1,114 @@
+/**
+ * @author  $Author$
+ * @date    $Date$
+ * @version $Revision$
+ */
+
+package net.east301.keyring.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Test of SecretCodec class
+ */
+public class SecretCodecTest {
+
+    /**
+     * Test of encode method, of class SecretCodec.
+     */
+    @Test
+    public void testEncode() throws Exception {
+        //
+        ByteBuffer bytes = SecretCodec.encode(CharBuffer.wrap(PASSWORD));
+        assertEquals(0, bytes.arrayOffset() + bytes.position());
+
+        byte[] expected = PASSWORD.getBytes("UTF-8");
+        byte[] actual = new byte[bytes.remaining()];
+        bytes.get(actual);
+        assertArrayEquals(expected, actual);
+
+        //
+        SecretCodec.wipe(bytes);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(0, bytes.array()[i]);
+        }
+
+        // the scratch buffer is reused by the next call
+        assertSame(bytes, SecretCodec.encode(CharBuffer.wrap("x")));
+    }
+
+    /**
+     * Test of encode method, of class SecretCodec
+     * by encoding into a buffer supplied by the caller.
+     */
+    @Test
+    public void testEncode_Buffer() throws Exception {
+        //
+        CharBuffer chars = CharBuffer.wrap(PASSWORD.toCharArray());
+        ByteBuffer dst = ByteBuffer.allocateDirect(64);
+
+        int length = SecretCodec.encode(chars, dst);
+        assertEquals(PASSWORD.getBytes("UTF-8").length, length);
+        assertEquals(length, dst.position());
+        assertEquals(0, chars.position());
+
+        // too small buffers are left unchanged
+        ByteBuffer small = ByteBuffer.allocate(length - 1);
+        try {
+            SecretCodec.encode(chars, small);
+            fail();
+        } catch (BufferOverflowException ex) {
+            assertEquals(0, small.position());
+            assertArrayEquals(new byte[length - 1], small.array());
+        }
+    }
+
+    /**
+     * Test of decode method, of class SecretCodec.
+     */
+    @Test
+    public void testDecode() throws Exception {
+        //
+        ByteBuffer bytes = ByteBuffer.wrap(PASSWORD.getBytes("UTF-8"));
+        assertArrayEquals(PASSWORD.toCharArray(), SecretCodec.decode(bytes));
+        assertEquals(0, bytes.position());
+
+        //
+        CharBuffer dst = CharBuffer.allocate(64);
+        assertEquals(PASSWORD.length(), SecretCodec.decode(bytes, dst));
+        dst.flip();
+        assertEquals(PASSWORD, dst.toString());
+
+        // longer passwords grow the scratch buffers
+        char[] longPassword = new char[10000];
+        Arrays.fill(longPassword, '\u00e9');
+        assertArrayEquals(longPassword, SecretCodec.decode(ByteBuffer.wrap(SecretCodec.toBytes(longPassword))));
+    }
+
+    /**
+     * Test of copy method, of class SecretCodec.
+     */
+    @Test
+    public void testCopy() {
+        //
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[] { 9, 1, 2, 3 });
+        bytes.position(1);
+
+        ByteBuffer copy = SecretCodec.copy(bytes);
+        assertEquals(1, bytes.position());
+        assertEquals(3, copy.remaining());
+        assertEquals(1, copy.array()[0]);
+        assertEquals(3, copy.array()[2]);
+    }
+
+    /**
+     * Password with non-ASCII and supplementary characters
+     */
+    private static final String PASSWORD = "p\u00e4ssw\u00f6rd\ud83d\udd11";
+
+} // class SecretCodecTest
@@ -6,7 +6,16 @@ package net.east301.keyring.windows;
 
 import com.sun.jna.Platform;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import net.east301.keyring.PasswordRetrievalException;
+import net.east301.keyring.util.DecryptCache;
+import net.east301.keyring.util.ServiceAccountKey;
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
 import org.junit.Test;
@@ -132,6 +141,205 @@ public class WindowsDPAPIBackendTest {
         assertEquals("/path/to/keystore.lock", backend.getLockPath());
     }
 
+    /**
+     * Test of setPassword method, of class WindowsDPAPIBackend
+     * with DPAPI replaced by an identity transform.
+     */
+    @Test
+    public void testSetPassword_StubbedDPAPI() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        //
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        backend.setPassword(SERVICE, ACCOUNT, "old password");
+        backend.setPassword(SERVICE, ACCOUNT, PASSWORD);
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+
+        //
+        WindowsDPAPIBackend other = new StubbedDPAPIBackend();
+        other.setKeyStorePath(keystore.getPath());
+        assertEquals(PASSWORD, other.getPassword(SERVICE, ACCOUNT));
+    }
+
+    /**
+     * Test of setPasswordChars and getPasswordBytes methods, of class WindowsDPAPIBackend
+     * with DPAPI stubbed out.
+     */
+    @Test
+    public void testSetPasswordChars_StubbedDPAPI() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        backend.setPasswordChars(SERVICE, ACCOUNT, PASSWORD.toCharArray());
+        assertArrayEquals(PASSWORD.toCharArray(), backend.getPasswordChars(SERVICE, ACCOUNT));
+        assertArrayEquals(PASSWORD.getBytes("UTF-8"), backend.getPasswordBytes(SERVICE, ACCOUNT));
+
+        ByteBuffer dst = ByteBuffer.allocateDirect(64);
+        assertEquals(PASSWORD.length(), backend.getPasswordBytes(SERVICE, ACCOUNT, dst));
+        dst.flip();
+
+        // the bytes can be saved again from a direct buffer
+        backend.setPasswordBytes(SERVICE, "other", dst);
+        assertEquals(0, dst.position());
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, "other"));
+
+        // too small buffers are left unchanged
+        ByteBuffer small = ByteBuffer.allocate(4);
+        try {
+            backend.getPasswordBytes(SERVICE, ACCOUNT, small);
+            fail();
+        } catch (BufferOverflowException ex) {
+            assertEquals(0, small.position());
+        }
+    }
+
+    /**
+     * Test of setPasswords and getPasswords methods, of class WindowsDPAPIBackend
+     * with DPAPI stubbed out.
+     */
+    @Test
+    public void testSetPasswords_StubbedDPAPI() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        Map<ServiceAccountKey, String> passwords = new LinkedHashMap<ServiceAccountKey, String>();
+        for (int i = 0; i < 10; i++) {
+            passwords.put(new ServiceAccountKey(SERVICE, ACCOUNT + i), PASSWORD + i);
+        }
+
+        //
+        backend.setPasswords(passwords);
+
+        assertEquals(PASSWORD + 3, backend.getPassword(SERVICE, ACCOUNT + 3));
+        assertEquals(passwords, backend.getPasswords(passwords.keySet()));
+    }
+
+    /**
+     * Test of getPassword method, of class WindowsDPAPIBackend
+     * by reading a key store file written by ObjectOutputStream.
+     */
+    @Test
+    public void testGetPassword_LegacyKeyStore() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        ObjectOutputStream fout = new ObjectOutputStream(new FileOutputStream(keystore));
+        try {
+            fout.writeObject(new PasswordEntry[] {
+                new PasswordEntry(SERVICE, ACCOUNT, new FakeDataProtector().protect(PASSWORD.getBytes("UTF-8")))
+            });
+        } finally {
+            fout.close();
+        }
+
+        //
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend();
+        backend.setKeyStorePath(keystore.getPath());
+
+        //
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+
+        backend.setPassword(SERVICE, "other account", "other password");
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals("other password", backend.getPassword(SERVICE, "other account"));
+    }
+
+    /**
+     * Test of getPassword method, of class WindowsDPAPIBackend
+     * with a cache of decrypted passwords.
+     */
+    @Test
+    public void testGetPassword_DecryptCache() throws Exception {
+        //
+        File keystore = File.createTempFile(KEYSTORE_PREFIX, KEYSTORE_SUFFIX);
+
+        FakeDataProtector protector = new FakeDataProtector();
+        WindowsDPAPIBackend backend = new StubbedDPAPIBackend(protector);
+        backend.setKeyStorePath(keystore.getPath());
+
+        WindowsDPAPIBackend writer = new StubbedDPAPIBackend();
+        writer.setKeyStorePath(keystore.getPath());
+        writer.setPassword(SERVICE, ACCOUNT, PASSWORD);
+
+        //
+        DecryptCache cache = new DecryptCache(10, 1, TimeUnit.MINUTES);
+        backend.setDecryptCache(cache);
+
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(PASSWORD, backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(1, protector.m_unprotectCount);
+        assertEquals(1, cache.getHitCount());
+
+        // a new ciphertext is decrypted again
+        writer.setPassword(SERVICE, ACCOUNT, "updated");
+        assertEquals("updated", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(2, protector.m_unprotectCount);
+
+        // passwords saved by the backend itself are cached when they are encrypted
+        backend.setPassword(SERVICE, ACCOUNT, "own");
+        assertEquals("own", backend.getPassword(SERVICE, ACCOUNT));
+        assertEquals(2, protector.m_unprotectCount);
+
+        //
+        backend.close();
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * WindowsDPAPIBackend without DPAPI
+     */
+    static class StubbedDPAPIBackend extends WindowsDPAPIBackend {
+
+        StubbedDPAPIBackend() {
+            this(new FakeDataProtector());
+        }
+
+        StubbedDPAPIBackend(FakeDataProtector protector) {
+            super(protector);
+        }
+
+    } // class StubbedDPAPIBackend
+
+    /**
+     * DataProtector which inverts bits, and counts decryptions
+     */
+    static class FakeDataProtector implements DataProtector {
+
+        @Override
+        public byte[] protect(byte[] data) {
+            return invert(data);
+        }
+
+        @Override
+        public byte[] unprotect(byte[] data) {
+            m_unprotectCount++;
+            return invert(data);
+        }
+
+        private static byte[] invert(byte[] data) {
+            byte[] result = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                result[i] = (byte)~data[i];
+            }
+
+            return result;
+        }
+
+        int m_unprotectCount;
+
+    } // class FakeDataProtector
+
     /**
      *
      */